@@ -6,11 +6,13 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.retry.annotation.EnableRetry;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 @Configuration
 @EnableRetry
 @EnableAsync
+@EnableScheduling
 public class AsyncConfig {
 
     @Bean(name = "threadPoolTaskExecutor")
@@ -20,4 +22,32 @@ public class AsyncConfig {
         threadPoolTaskExecutor.setMaxPoolSize(100);
         return threadPoolTaskExecutor;
     }
+
+    /**
+     * Pdf layout is cpu bound: threads match the renderer pool and the queue is bounded,
+     * once it is full new renders are rejected instead of piling up.
+     */
+    @Bean(name = "pdfRenderExecutor")
+    public ThreadPoolTaskExecutor pdfRenderExecutor(ConfigProperties configProperties) {
+        var threadPoolTaskExecutor = new ThreadPoolTaskExecutor();
+        threadPoolTaskExecutor.setCorePoolSize(configProperties.getPdfRendererPoolSize());
+        threadPoolTaskExecutor.setMaxPoolSize(configProperties.getPdfRendererPoolSize());
+        threadPoolTaskExecutor.setQueueCapacity(configProperties.getPdfRenderQueueCapacity());
+        threadPoolTaskExecutor.setThreadNamePrefix("pdf-render-");
+        return threadPoolTaskExecutor;
+    }
+
+    /**
+     * Image variants are created in the background after an upload; decoding large images is memory
+     * heavy, so only a few run at the same time.
+     */
+    @Bean(name = "imageVariantExecutor")
+    public ThreadPoolTaskExecutor imageVariantExecutor(ConfigProperties configProperties) {
+        var threadPoolTaskExecutor = new ThreadPoolTaskExecutor();
+        threadPoolTaskExecutor.setCorePoolSize(configProperties.getImageVariantsPoolSize());
+        threadPoolTaskExecutor.setMaxPoolSize(configProperties.getImageVariantsPoolSize());
+        threadPoolTaskExecutor.setQueueCapacity(configProperties.getImageVariantsQueueCapacity());
+        threadPoolTaskExecutor.setThreadNamePrefix("image-variant-");
+        return threadPoolTaskExecutor;
+    }
 }
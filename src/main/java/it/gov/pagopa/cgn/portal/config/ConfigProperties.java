@@ -40,6 +40,30 @@ public class ConfigProperties {
     @Value("${cgn.storage.document.sas.expiry.time.hours}")
     private Integer sasExpiryTimeHours;
 
+    @Value("${cgn.storage.document.sas.cache.refresh-margin-minutes}")
+    private long sasCacheRefreshMarginMinutes;
+
+    @Value("${cgn.storage.document.sas.cache.max-entries}")
+    private int sasCacheMaxEntries;
+
+    @Value("${cgn.storage.document.unreferenced-retention-hours}")
+    private long documentBlobRetentionHours;
+
+    @Value("${cgn.storage.local.root-dir}")
+    private String localStorageRootDir;
+
+    @Value("${cgn.storage.local.base-url}")
+    private String localStorageBaseUrl;
+
+    @Value("${cgn.storage.local.signing-key:}")
+    private String localStorageSigningKey;
+
+    @Value("${cgn.storage.upload.block-size-bytes}")
+    private long uploadBlockSizeBytes;
+
+    @Value("${cgn.storage.upload.max-concurrency}")
+    private int uploadMaxConcurrency;
+
     public String getAzureConnectionString() {
         return "DefaultEndpointsProtocol=" + defaultEndpointsProtocol + ";AccountName=" + accountName + ";AccountKey="
                 + accountKey + ";BlobEndpoint=" + blobEndpoint + ";";
@@ -52,6 +76,15 @@ public class ConfigProperties {
     @Value("${cgn.image.minHeight}")
     private Integer minHeight;
 
+    @Value("${cgn.image.variants.pool-size}")
+    private int imageVariantsPoolSize;
+
+    @Value("${cgn.image.variants.queue-capacity}")
+    private int imageVariantsQueueCapacity;
+
+    @Value("${cgn.image.variants.jpeg-quality}")
+    private float imageVariantsJpegQuality;
+
     @Value("${cgn.pe.discount.bucket.minCsvRows}")
     private Integer bucketMinCsvRows;
 
@@ -64,6 +97,78 @@ public class ConfigProperties {
     @Value("${cgn.email.portal-base-url}")
     private String cgnPortalBaseUrl;
 
+    @Value("${cgn.email.dispatcher.workers}")
+    private int emailDispatcherWorkers;
+
+    @Value("${cgn.email.dispatcher.queue-capacity}")
+    private int emailDispatcherQueueCapacity;
+
+    @Value("${cgn.email.dispatcher.batch-size}")
+    private int emailDispatcherBatchSize;
+
+    @Value("${cgn.email.dispatcher.batch-linger-millis}")
+    private long emailDispatcherBatchLingerMillis;
+
+    @Value("${cgn.email.rate-limit.messages-per-second}")
+    private double emailRateLimitMessagesPerSecond;
+
+    @Value("${cgn.email.rate-limit.burst}")
+    private int emailRateLimitBurst;
+
+    @Value("${cgn.email.rate-limit.backoff-base-millis}")
+    private long emailRateLimitBackoffBaseMillis;
+
+    @Value("${cgn.email.rate-limit.backoff-max-millis}")
+    private long emailRateLimitBackoffMaxMillis;
+
+    @Value("${cgn.email.rate-limit.max-deferrals}")
+    private int emailRateLimitMaxDeferrals;
+
+    @Value("${cgn.email.outbox.batch-size}")
+    private int emailOutboxBatchSize;
+
+    @Value("${cgn.email.outbox.max-attempts}")
+    private int emailOutboxMaxAttempts;
+
+    @Value("${cgn.email.outbox.retry-base-delay-seconds}")
+    private long emailOutboxRetryBaseDelaySeconds;
+
+    @Value("${cgn.email.outbox.retry-max-delay-seconds}")
+    private long emailOutboxRetryMaxDelaySeconds;
+
+    @Value("${cgn.email.outbox.send-timeout-millis}")
+    private long emailOutboxSendTimeoutMillis;
+
+    @Value("${cgn.email.outbox.lease-millis}")
+    private long emailOutboxLeaseMillis;
+
+    @Value("${cgn.email.outbox.polling-enabled}")
+    private boolean emailOutboxPollingEnabled;
+
+    @Value("${cgn.email.digest.enabled}")
+    private boolean emailDigestEnabled;
+
+    @Value("${cgn.email.digest.window-seconds}")
+    private long emailDigestWindowSeconds;
+
+    @Value("${cgn.email.notification.cache.max-entries}")
+    private int emailNotificationCacheMaxEntries;
+
+    @Value("${cgn.email.notification.cache.bloom-filter.enabled}")
+    private boolean emailNotificationBloomFilterEnabled;
+
+    @Value("${cgn.email.notification.cache.bloom-filter.expected-keys}")
+    private int emailNotificationBloomFilterExpectedKeys;
+
+    @Value("${cgn.email.notification.write.batch-size}")
+    private int emailNotificationWriteBatchSize;
+
+    @Value("${cgn.email.notification.retention-days}")
+    private int emailNotificationRetentionDays;
+
+    @Value("${cgn.email.notification.purge.batch-size}")
+    private int emailNotificationPurgeBatchSize;
+
     @Value("classpath:images/cgn-logo.png")
     private Resource cgnLogo;
 
@@ -85,6 +190,9 @@ public class ConfigProperties {
     @Value("${cgn.recaptcha.google-host}")
     private String recaptchaGoogleHost;
 
+    @Value("${cgn.recaptcha.timeout-millis}")
+    private long recaptchaTimeoutMillis;
+
     @Value("${check.expiring.discounts.job.cron}")
     private String expiringDiscountsJobCronExpression;
 
@@ -94,18 +202,63 @@ public class ConfigProperties {
     @Value("${suspend.discounts.without.available.bucket.codes.job.cron}")
     private String suspendDiscountsWithoutAvailableBucketCodesJobCronExpression;
 
+    @Value("${cgn.storage.document.purge.job.cron}")
+    private String purgeUnreferencedDocumentsJobCronExpression;
+
     @Value("${suspend.discounts.without.available.bucket.codes.after.days}")
     private int suspendDiscountsWithoutAvailableBucketCodesAfterDays;
 
     @Value("${check.expiring.discounts.job.days}")
     private int expiringDiscountsJobDays;
 
+    @Value("${cgn.jobs.partitions}")
+    private int jobPartitions;
+
+    @Value("${cgn.jobs.partition.max-attempts}")
+    private int jobPartitionMaxAttempts;
+
+    @Value("${cgn.jobs.partition.timeout-seconds}")
+    private long jobPartitionTimeoutSeconds;
+
+    @Value("${cgn.jobs.partition.lease-seconds}")
+    private long jobPartitionLeaseSeconds;
+
+    @Value("${cgn.jobs.batch-size}")
+    private int jobBatchSize;
+
     @Value("${cgn.geolocation.secret-token}")
     private String geolocationToken;
 
     @Value("${cgn.attribute-authority.base-url}")
     private String attributeAuthorityBaseUrl;
 
+    @Value("${cgn.pdf.renderer.pool-size}")
+    private int pdfRendererPoolSize;
+
+    @Value("${cgn.pdf.renderer.borrow-timeout-millis}")
+    private long pdfRendererBorrowTimeoutMillis;
+
+    @Value("${cgn.pdf.render.queue-capacity}")
+    private int pdfRenderQueueCapacity;
+
+    @Value("${cgn.pdf.render.timeout-millis}")
+    private long pdfRenderTimeoutMillis;
+
+    @Value("${cgn.pdf.render.retry-after-seconds}")
+    private long pdfRenderRetryAfterSeconds;
+
+    @Value("${cgn.pdf.bundle.max-agreements}")
+    private int pdfBundleMaxAgreements;
+
+    @Value("${cgn.pdf.cache.max-entries}")
+    private int pdfCacheMaxEntries;
+
+    @Value("${cgn.backoffice.list-cache.ttl-seconds}")
+    private long backofficeListCacheTtlSeconds;
+
+    @Value("${cgn.backoffice.list-cache.max-entries}")
+    private int backofficeListCacheMaxEntries;
+
     public boolean isActiveProfileDev() {
         return "dev".equals(getActiveProfile());
     }
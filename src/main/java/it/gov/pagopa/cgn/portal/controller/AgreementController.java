@@ -147,7 +147,7 @@ public class AgreementController implements AgreementsApi {
                                     helpRequest.getCategory(),
                                     Optional.ofNullable(helpRequest.getTopic()),
                                     helpRequest.getMessage());
-        return ResponseEntity.noContent().build();
+        return ResponseEntity.accepted().build();
     }
 
     @Override
@@ -1,5 +1,6 @@
 package it.gov.pagopa.cgn.portal.controller;
 
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
 import it.gov.pagopa.cgn.portal.facade.BackofficeAgreementFacade;
 import it.gov.pagopa.cgn.portal.filter.BackofficeFilter;
 import it.gov.pagopa.cgn.portal.util.CGNUtils;
@@ -9,6 +10,7 @@ import it.gov.pagopa.cgnonboardingportal.backoffice.model.Document;
 import it.gov.pagopa.cgnonboardingportal.backoffice.model.RefuseAgreement;
 import it.gov.pagopa.cgnonboardingportal.backoffice.model.SuspendDiscount;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.RestController;
@@ -23,16 +25,29 @@ public class BackofficeAgreementController implements AgreementRequestsApi {
 
     private final BackofficeAgreementFacade agreementFacade;
 
+    private final ConfigProperties configProperties;
+
     @Override
     public ResponseEntity<Agreements> getAgreements(
             String states, String assignee, String profileFullName, LocalDate requestDateFrom, LocalDate requestDateTo,
-            Integer pageSize, Integer page, String sortColumn, String sortDirection) {
+            Integer pageSize, Integer page, String sortColumn, String sortDirection, String continuationToken,
+            Boolean skipCount) {
 
         var filter = BackofficeFilter.getRequestFilter(states, profileFullName, assignee, requestDateFrom,
-                requestDateTo, pageSize, page, sortColumn, sortDirection);
+                requestDateTo, pageSize, page, sortColumn, sortDirection, continuationToken, skipCount);
         return agreementFacade.getAgreements(filter);
     }
 
+    @Override
+    public ResponseEntity<Resource> getDocumentBundle(
+            List<String> agreementIds, String states, String assignee, String profileFullName,
+            LocalDate requestDateFrom, LocalDate requestDateTo) {
+
+        var filter = BackofficeFilter.getDocumentBundleFilter(states, profileFullName, assignee, requestDateFrom,
+                requestDateTo, configProperties.getPdfBundleMaxAgreements());
+        return agreementFacade.getDocumentBundle(agreementIds, filter);
+    }
+
     @Override
     public ResponseEntity<Void> assignAgreement(String agreementId) {
         return agreementFacade.assignAgreement(agreementId);
@@ -75,8 +90,10 @@ public class BackofficeAgreementController implements AgreementRequestsApi {
     }
 
     @Autowired
-    public BackofficeAgreementController(BackofficeAgreementFacade agreementFacade) {
+    public BackofficeAgreementController(BackofficeAgreementFacade agreementFacade,
+                                         ConfigProperties configProperties) {
         this.agreementFacade = agreementFacade;
+        this.configProperties = configProperties;
     }
 
 }
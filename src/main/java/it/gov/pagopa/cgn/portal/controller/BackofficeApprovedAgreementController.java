@@ -26,10 +26,10 @@ public class BackofficeApprovedAgreementController implements ApprovedAgreements
     @Override
     public ResponseEntity<ApprovedAgreements> getApprovedAgreements(
             String profileFullName, LocalDate requestDateFrom, LocalDate requestDateTo,Integer pageSize, Integer page,
-            String sortColumn, String sortDirection) {
+            String sortColumn, String sortDirection, String continuationToken, Boolean skipCount) {
 
-        BackofficeFilter filter = BackofficeFilter.getApprovedFilter(
-                profileFullName, requestDateFrom, requestDateTo, pageSize, page, sortColumn, sortDirection);
+        BackofficeFilter filter = BackofficeFilter.getApprovedFilter(profileFullName, requestDateFrom,
+                requestDateTo, pageSize, page, sortColumn, sortDirection, continuationToken, skipCount);
         return backofficeAgreementFacade.getApprovedAgreements(filter);
     }
 
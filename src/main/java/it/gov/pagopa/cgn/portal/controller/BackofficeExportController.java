@@ -1,6 +1,7 @@
 package it.gov.pagopa.cgn.portal.controller;
 
 import it.gov.pagopa.cgn.portal.facade.BackofficeExportFacade;
+import it.gov.pagopa.cgn.portal.filter.ExportFilter;
 import it.gov.pagopa.cgnonboardingportal.backoffice.api.ExportApi;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
@@ -8,6 +9,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.time.LocalDate;
+
 
 @RestController
 @PreAuthorize("hasRole('ROLE_ADMIN')")
@@ -21,7 +24,22 @@ public class BackofficeExportController implements ExportApi {
     }
 
     @Override
-    public ResponseEntity<Resource> exportAgreements() {
-        return backofficeExportFacade.exportAgreements();
+    public ResponseEntity<Resource> exportAgreements(String agreementState,
+                                                     String discountState,
+                                                     String salesChannel,
+                                                     LocalDate discountDateFrom,
+                                                     LocalDate discountDateTo,
+                                                     Boolean visibleOnEyca,
+                                                     String compression,
+                                                     Boolean snapshot) {
+        ExportFilter filter = ExportFilter.getExportFilter(agreementState,
+                                                           discountState,
+                                                           salesChannel,
+                                                           discountDateFrom,
+                                                           discountDateTo,
+                                                           visibleOnEyca,
+                                                           compression,
+                                                           snapshot);
+        return backofficeExportFacade.exportAgreements(filter);
     }
 }
@@ -0,0 +1,52 @@
+package it.gov.pagopa.cgn.portal.controller;
+
+import it.gov.pagopa.cgn.portal.filestorage.LocalFileStorage;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+/**
+ * Serves the signed document urls of the local storage backend
+ */
+@RestController
+@ConditionalOnProperty(name = "cgn.storage.type", havingValue = "local")
+public class LocalFileStorageController {
+
+    public static final String DOCUMENTS_PATH = "/storage/documents";
+
+    private final LocalFileStorage localFileStorage;
+
+    public LocalFileStorageController(LocalFileStorage localFileStorage) {
+        this.localFileStorage = localFileStorage;
+    }
+
+    @GetMapping(DOCUMENTS_PATH + "/**")
+    public void getDocument(@RequestParam("se") long expiry,
+                            @RequestParam("sig") String signature,
+                            HttpServletRequest request,
+                            HttpServletResponse response) throws IOException {
+        String path = (String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
+        String blobName = new AntPathMatcher().extractPathWithinPattern(DOCUMENTS_PATH + "/**", path);
+        if (!localFileStorage.isValidSignature(blobName, expiry, signature)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        if (!localFileStorage.existsDocument(blobName)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setContentType(blobName.endsWith(".pdf") ? MediaType.APPLICATION_PDF_VALUE
+                                                          : MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(localFileStorage.getDocumentSize(blobName));
+        localFileStorage.transferDocument(blobName, Channels.newChannel(response.getOutputStream()));
+    }
+}
@@ -12,6 +12,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 
 @RestController
@@ -30,14 +31,22 @@ public class PublicApiController implements HelpApi {
         this.googleRecaptchaApi = googleRecaptchaApi;
     }
 
+    /**
+     * The request thread is released while the recaptcha token is verified; the email is queued and sent later.
+     */
     @Override
-    public ResponseEntity<Void> sendHelpRequest(HelpRequest helpRequest) {
-
-        if (!googleRecaptchaApi.isTokenValid(helpRequest.getRecaptchaToken())) {
-            throw new InvalidRequestException("Recaptcha Challenge Failed");
-        }
+    public CompletableFuture<ResponseEntity<Void>> sendHelpRequest(HelpRequest helpRequest) {
+        return googleRecaptchaApi.isTokenValid(helpRequest.getRecaptchaToken()).thenApply(tokenValid -> {
+            if (!Boolean.TRUE.equals(tokenValid)) {
+                throw new InvalidRequestException("Recaptcha Challenge Failed");
+            }
+            emailNotificationFacade.notifyDepartmentNewHelpRequest(createHelpRequestParams(helpRequest));
+            return ResponseEntity.accepted().build();
+        });
+    }
 
-        HelpRequestParams helpParams = HelpRequestParams.builder()
+    private HelpRequestParams createHelpRequestParams(HelpRequest helpRequest) {
+        return HelpRequestParams.builder()
                 .helpCategory(helpCategoryConverter.helpCategoryFromEnum(helpRequest.getCategory()))
                 .topic(Optional.ofNullable(helpRequest.getTopic()))
                 .message(helpRequest.getMessage())
@@ -46,14 +55,6 @@ public class PublicApiController implements HelpApi {
                 .referentLastName(helpRequest.getReferentLastName())
                 .merchantLegalName(helpRequest.getLegalName())
                 .build();
-
-        try {
-            emailNotificationFacade.notifyDepartmentNewHelpRequest(helpParams);
-        } catch (Exception exc) {
-            throw new RuntimeException(exc);
-        }
-
-        return ResponseEntity.noContent().build();
     }
 
 }
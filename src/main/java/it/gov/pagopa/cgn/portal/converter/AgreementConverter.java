@@ -74,6 +74,9 @@ public class AgreementConverter extends AbstractConverter<AgreementEntity, Agree
                 dto.setId(entity.getId());
                 dto.setState(toDtoEnum.apply(entity.getState()));
                 dto.setImageUrl(entity.getImageUrl());
+                dto.setImageThumbnailUrl(entity.getImageThumbnailUrl());
+                dto.setImageCardUrl(entity.getImageCardUrl());
+                dto.setImageDetailUrl(entity.getImageDetailUrl());
                 return dto;
             };
 
@@ -4,10 +4,10 @@ import it.gov.pagopa.cgn.portal.converter.AbstractConverter;
 import it.gov.pagopa.cgn.portal.enums.AgreementStateEnum;
 import it.gov.pagopa.cgn.portal.exception.CGNException;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
+import it.gov.pagopa.cgn.portal.repository.BackofficePage;
 import it.gov.pagopa.cgnonboardingportal.backoffice.model.*;
 import org.codehaus.plexus.util.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
@@ -49,11 +49,14 @@ public class BackofficeAgreementConverter extends AbstractConverter<AgreementEnt
         throw new UnsupportedOperationException("Not implemented yet");
     }
 
-    public Agreements getAgreementFromPage(Page<AgreementEntity> agreementEntityPage) {
+    public Agreements getAgreementFromPage(BackofficePage<AgreementEntity> agreementEntityPage) {
         Collection<Agreement> dtoCollection = toDtoCollection(agreementEntityPage.getContent());
         Agreements agreements = new Agreements();
         agreements.setItems(new ArrayList<>(dtoCollection));
-        agreements.setTotal((int) agreementEntityPage.getTotalElements());
+        if (agreementEntityPage.isTotalCounted()) {
+            agreements.setTotal((int) agreementEntityPage.getTotalElements());
+        }
+        agreements.setContinuationToken(agreementEntityPage.getContinuationToken());
         return agreements;
     }
 
@@ -2,9 +2,9 @@ package it.gov.pagopa.cgn.portal.converter.backoffice.approved;
 
 import it.gov.pagopa.cgn.portal.converter.AbstractConverter;
 import it.gov.pagopa.cgn.portal.model.ApprovedAgreementEntity;
+import it.gov.pagopa.cgn.portal.repository.BackofficePage;
 import it.gov.pagopa.cgnonboardingportal.backoffice.model.ApprovedAgreement;
 import it.gov.pagopa.cgnonboardingportal.backoffice.model.ApprovedAgreements;
-import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
@@ -35,11 +35,14 @@ public class BackofficeApprovedAgreementConverter extends AbstractConverter<Appr
                 return dto;
             };
 
-    public ApprovedAgreements getApprovedAgreementsFromPage(Page<ApprovedAgreementEntity> agreementEntityPage) {
+    public ApprovedAgreements getApprovedAgreementsFromPage(BackofficePage<ApprovedAgreementEntity> agreementEntityPage) {
         Collection<ApprovedAgreement> dtoCollection = toDtoCollection(agreementEntityPage.getContent());
         ApprovedAgreements approvedAgreements = new ApprovedAgreements();
         approvedAgreements.setItems(new ArrayList<>(dtoCollection));
-        approvedAgreements.setTotal((int) agreementEntityPage.getTotalElements());
+        if (agreementEntityPage.isTotalCounted()) {
+            approvedAgreements.setTotal((int) agreementEntityPage.getTotalElements());
+        }
+        approvedAgreements.setContinuationToken(agreementEntityPage.getContinuationToken());
         return approvedAgreements;
     }
 }
@@ -0,0 +1,56 @@
+package it.gov.pagopa.cgn.portal.email;
+
+import java.util.BitSet;
+
+/**
+ * Minimal bloom filter of strings: {@link #mightContain(String)} never answers false for a string that has been put,
+ * and answers true for a string never put with about the given false positive rate.
+ */
+class BloomFilter {
+
+    private final BitSet bits;
+    private final int size;
+    private final int hashes;
+
+    BloomFilter(int expectedInsertions, double falsePositiveRate) {
+        int insertions = Math.max(1, expectedInsertions);
+        long optimalSize = (long) Math.ceil(-insertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.size = (int) Math.min(Integer.MAX_VALUE - 1L, Math.max(64L, optimalSize));
+        this.hashes = Math.max(1, (int) Math.round((double) size / insertions * Math.log(2)));
+        this.bits = new BitSet(size);
+    }
+
+    synchronized void put(String value) {
+        int hash1 = value.hashCode();
+        int hash2 = secondHash(value);
+        for (int i = 0; i < hashes; i++) {
+            bits.set(index(hash1, hash2, i));
+        }
+    }
+
+    synchronized boolean mightContain(String value) {
+        int hash1 = value.hashCode();
+        int hash2 = secondHash(value);
+        for (int i = 0; i < hashes; i++) {
+            if (!bits.get(index(hash1, hash2, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int index(int hash1, int hash2, int i) {
+        return Math.floorMod(hash1 + i * hash2, size);
+    }
+
+    // FNV-1a, made odd so that the combined hashes never collapse on the first one
+    private static int secondHash(String value) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+
+}
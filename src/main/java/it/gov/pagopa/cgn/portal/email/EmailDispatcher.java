@@ -0,0 +1,345 @@
+package it.gov.pagopa.cgn.portal.email;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends emails from a bounded queue on a few dedicated worker threads.
+ * Each worker drains the queue in batches and sends a batch over a single smtp connection,
+ * so a burst of notifications pays the connection, STARTTLS and AUTH round trips once per batch.
+ * The batches are sent at most at the rate accepted by the smtp relay: an email deferred by the relay
+ * with a transient error is queued again and the rate backs off, see {@link EmailRateLimiter}.
+ */
+@Slf4j
+@Component
+public class EmailDispatcher {
+
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+    private final JavaMailSender javaMailSender;
+    private final BlockingDeque<PendingEmail> queue;
+    private final EmailRateLimiter rateLimiter;
+    private final int maxDeferrals;
+    private final int workers;
+    private final int batchSize;
+    private final long batchLingerNanos;
+    private final List<Thread> workerThreads = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private final Timer sendTimer;
+    private final DistributionSummary batchSizeSummary;
+    private final Counter failureCounter;
+    private final Counter rejectedCounter;
+    private final Counter deferralCounter;
+
+    /**
+     * Queues the given message. The returned future completes once the message has been handed to the smtp server,
+     * or exceptionally if it could not be sent or the queue is full. Cancelling the future drops the message
+     * if it has not been taken by a worker yet.
+     */
+    public CompletableFuture<Void> submit(MimeMessage mimeMessage) {
+        PendingEmail pending = new PendingEmail(mimeMessage);
+        if (!running || !queue.offer(pending)) {
+            rejectedCounter.increment();
+            pending.future.completeExceptionally(new MailSendException("Too many emails waiting to be sent"));
+        }
+        return pending.future;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::drain, "email-dispatcher-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workerThreads.add(worker);
+        }
+    }
+
+    /**
+     * Stops accepting new emails and gives the workers some time to send the queued ones.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MILLIS;
+        for (Thread worker : workerThreads) {
+            worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            worker.interrupt();
+        }
+        workerThreads.clear();
+        if (!queue.isEmpty()) {
+            log.warn(queue.size() + " emails not sent at shutdown");
+        }
+    }
+
+    private void drain() {
+        List<PendingEmail> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingEmail first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch);
+                // emails cancelled by the caller while queued are not sent
+                batch.removeIf(pending -> pending.future.isCancelled());
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                rateLimiter.acquire(batch.size());
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.forEach(pending -> pending.future.completeExceptionally(e));
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Adds to the batch what is already queued, waiting at most the linger time for the batch to fill up.
+     */
+    private void fillBatch(List<PendingEmail> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + batchLingerNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            PendingEmail next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void send(List<PendingEmail> batch) {
+        MimeMessage[] messages = batch.stream().map(pending -> pending.mimeMessage).toArray(MimeMessage[]::new);
+        batchSizeSummary.record(messages.length);
+        Map<Object, Exception> failedMessages = Map.of();
+        RuntimeException batchError = null;
+        long start = System.nanoTime();
+        try {
+            if (messages.length == 1) {
+                javaMailSender.send(messages[0]);
+            } else {
+                javaMailSender.send(messages);
+            }
+        } catch (MailSendException e) {
+            // the sender reports which messages failed, the others of the batch have been sent
+            failedMessages = e.getFailedMessages();
+            if (failedMessages.isEmpty()) {
+                batchError = e;
+            }
+        } catch (RuntimeException e) {
+            batchError = e;
+        } finally {
+            sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        boolean deferred = false;
+        for (PendingEmail pending : batch) {
+            Exception error = batchError != null ? batchError : failedMessages.get(pending.mimeMessage);
+            if (error == null) {
+                pending.future.complete(null);
+            } else if (isTransient(error) && requeue(pending, error)) {
+                deferred = true;
+            } else {
+                failureCounter.increment();
+                pending.future.completeExceptionally(error);
+            }
+        }
+        if (deferred) {
+            rateLimiter.deferred();
+        } else {
+            rateLimiter.accepted();
+        }
+    }
+
+    /**
+     * Puts a deferred email back at the head of the queue, unless it has already been deferred too many times.
+     * When the relay deferred only some recipients, the email is queued again for those recipients only.
+     */
+    private boolean requeue(PendingEmail pending, Exception error) {
+        if (pending.deferrals >= maxDeferrals) {
+            return false;
+        }
+        Address[] recipients = getDeferredRecipients(error);
+        if (recipients != null) {
+            if (recipients.length == 0) {
+                return false;
+            }
+            try {
+                pending.mimeMessage = withRecipients(pending.mimeMessage, recipients);
+            } catch (MessagingException e) {
+                log.warn("Cannot restrict the deferred email to its deferred recipients: " + e.getMessage());
+                return false;
+            }
+        }
+        pending.deferrals++;
+        deferralCounter.increment();
+        return queue.offerFirst(pending);
+    }
+
+    /**
+     * Returns the recipients refused with a 4xx reply and the valid ones not sent because of them,
+     * or null if the relay refused no single recipient, i.e. it deferred the whole email.
+     * The recipients already accepted and those refused with a 5xx reply are not returned.
+     */
+    static Address[] getDeferredRecipients(Throwable error) {
+        Throwable cause = error;
+        for (int depth = 0; cause != null && depth < 10; depth++) {
+            if (cause instanceof SendFailedException) {
+                return getDeferredRecipients((SendFailedException) cause);
+            }
+            cause = cause.getCause();
+        }
+        return null;
+    }
+
+    private static Address[] getDeferredRecipients(SendFailedException sendFailed) {
+        Set<Address> deferred = new LinkedHashSet<>();
+        boolean refusedRecipients = false;
+        // each refused recipient is reported by its own exception, chained to the one thrown
+        Exception next = sendFailed;
+        for (int count = 0; next != null && count < 1000; count++) {
+            if (next instanceof SMTPAddressFailedException) {
+                SMTPAddressFailedException addressFailed = (SMTPAddressFailedException) next;
+                refusedRecipients = true;
+                if (addressFailed.getReturnCode() >= 400 && addressFailed.getReturnCode() < 500) {
+                    deferred.add(addressFailed.getAddress());
+                }
+            }
+            next = next instanceof MessagingException ? ((MessagingException) next).getNextException() : null;
+        }
+        if (!refusedRecipients) {
+            return null;
+        }
+        if (sendFailed.getValidUnsentAddresses() != null) {
+            deferred.addAll(Arrays.asList(sendFailed.getValidUnsentAddresses()));
+        }
+        return deferred.toArray(new Address[0]);
+    }
+
+    /**
+     * Copies the email keeping only the given recipients.
+     */
+    private static MimeMessage withRecipients(MimeMessage mimeMessage, Address[] recipients)
+            throws MessagingException {
+        Set<Address> kept = new HashSet<>(Arrays.asList(recipients));
+        MimeMessage copy = new MimeMessage(mimeMessage);
+        for (Message.RecipientType type : new Message.RecipientType[]{Message.RecipientType.TO,
+                                                                       Message.RecipientType.CC,
+                                                                       Message.RecipientType.BCC}) {
+            Address[] addresses = copy.getRecipients(type);
+            if (addresses != null) {
+                copy.setRecipients(type, Arrays.stream(addresses).filter(kept::contains).toArray(Address[]::new));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * A 4xx smtp reply or a network error means the relay is throttling or temporarily unavailable.
+     */
+    static boolean isTransient(Throwable error) {
+        Throwable cause = error;
+        for (int depth = 0; cause != null && depth < 10; depth++) {
+            int replyCode = replyCode(cause);
+            if ((replyCode >= 400 && replyCode < 500) || cause instanceof IOException) {
+                return true;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    private static int replyCode(Throwable error) {
+        if (error instanceof SMTPSendFailedException) {
+            return ((SMTPSendFailedException) error).getReturnCode();
+        }
+        if (error instanceof SMTPAddressFailedException) {
+            return ((SMTPAddressFailedException) error).getReturnCode();
+        }
+        if (error instanceof SMTPSenderFailedException) {
+            return ((SMTPSenderFailedException) error).getReturnCode();
+        }
+        return -1;
+    }
+
+    public EmailDispatcher(JavaMailSender javaMailSender,
+                           ConfigProperties configProperties,
+                           MeterRegistry meterRegistry) {
+        this.javaMailSender = javaMailSender;
+        this.queue = new LinkedBlockingDeque<>(configProperties.getEmailDispatcherQueueCapacity());
+        this.workers = configProperties.getEmailDispatcherWorkers();
+        this.batchSize = Math.max(1, configProperties.getEmailDispatcherBatchSize());
+        this.batchLingerNanos = TimeUnit.MILLISECONDS.toNanos(configProperties.getEmailDispatcherBatchLingerMillis());
+        this.rateLimiter = new EmailRateLimiter(configProperties.getEmailRateLimitMessagesPerSecond(),
+                                                configProperties.getEmailRateLimitBurst(),
+                                                configProperties.getEmailRateLimitBackoffBaseMillis(),
+                                                configProperties.getEmailRateLimitBackoffMaxMillis());
+        this.maxDeferrals = configProperties.getEmailRateLimitMaxDeferrals();
+        this.sendTimer = Timer.builder("cgn.email.send").register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("cgn.email.send.batch.size").register(meterRegistry);
+        this.failureCounter = Counter.builder("cgn.email.send.failures").register(meterRegistry);
+        this.rejectedCounter = Counter.builder("cgn.email.send.rejected").register(meterRegistry);
+        this.deferralCounter = Counter.builder("cgn.email.send.deferrals").register(meterRegistry);
+        Gauge.builder("cgn.email.queue.size", queue, BlockingQueue::size).register(meterRegistry);
+        Gauge.builder("cgn.email.send.rate", rateLimiter, EmailRateLimiter::getRate).register(meterRegistry);
+    }
+
+    private static class PendingEmail {
+        // restricted to the deferred recipients when queued again
+        private MimeMessage mimeMessage;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private int deferrals;
+
+        PendingEmail(MimeMessage mimeMessage) {
+            this.mimeMessage = mimeMessage;
+        }
+    }
+
+}
@@ -6,28 +6,49 @@ import it.gov.pagopa.cgn.portal.enums.DiscountCodeTypeEnum;
 import it.gov.pagopa.cgn.portal.enums.SalesChannelEnum;
 import it.gov.pagopa.cgn.portal.exception.CGNException;
 import it.gov.pagopa.cgn.portal.model.DiscountEntity;
+import it.gov.pagopa.cgn.portal.model.NotificationOutboxEntity;
+import it.gov.pagopa.cgn.portal.repository.NotificationOutboxRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.Context;
 
-import javax.mail.MessagingException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @Component
 @Slf4j
 public class EmailNotificationFacade {
 
-    private final TemplateEngine htmlTemplateEngine;
+    private final EmailTemplateRenderer emailTemplateRenderer;
 
     private final EmailNotificationService emailNotificationService;
 
     private final ConfigProperties configProperties;
 
+    private final NotificationOutboxRepository notificationOutboxRepository;
+
+    private final ObjectMapper objectMapper;
+
     private static final String CONTEXT_DISCOUNT_NAME = "discount_name";  // Compliant
 
+    // merchant notifications that can be sent together in a digest
+    private static final Set<TemplateEmail> DIGEST_TEMPLATES = EnumSet.of(TemplateEmail.EXPIRED_DISCOUNT,
+                                                                          TemplateEmail.SUSPENDED_DISCOUNT,
+                                                                          TemplateEmail.EXPIRING_BUCKET_CODES,
+                                                                          TemplateEmail.EXPIRED_BUCKET_CODES);
+
 
     public void notifyDepartmentNewAgreementRequest(String merchantFullName) {
         var subject = "[Carta Giovani Nazionale] Nuova richiesta di convenzione da " + merchantFullName;
@@ -36,9 +57,7 @@ public class EmailNotificationFacade {
         final String errorMessage = "Failed to send New Agreement Request notification from " +
                                     merchantFullName +
                                     " to department";
-        String body = getTemplateHtml(TemplateEmail.NEW_AGREEMENT, context);
-        var emailParams = createEmailParams(configProperties.getCgnDepartmentEmail(), subject, body, errorMessage);
-        emailNotificationService.sendAsyncMessage(emailParams);
+        enqueue(configProperties.getCgnDepartmentEmail(), subject, TemplateEmail.NEW_AGREEMENT, context, errorMessage);
     }
 
     public void notifyDepartementToTestDiscount(String merchantFullName, String discountName) {
@@ -49,9 +68,11 @@ public class EmailNotificationFacade {
         final String errorMessage = "Failed to send test request notification from " +
                                     merchantFullName +
                                     " to department";
-        String body = getTemplateHtml(TemplateEmail.DISCOUNT_TEST_REQUEST, context);
-        var emailParams = createEmailParams(configProperties.getCgnDepartmentEmail(), subject, body, errorMessage);
-        emailNotificationService.sendAsyncMessage(emailParams);
+        enqueue(configProperties.getCgnDepartmentEmail(),
+                subject,
+                TemplateEmail.DISCOUNT_TEST_REQUEST,
+                context,
+                errorMessage);
     }
 
     public void notifyMerchantAgreementRequestApproved(String referentEmail,
@@ -59,14 +80,14 @@ public class EmailNotificationFacade {
                                                        Optional<DiscountCodeTypeEnum> discountCodeTypeOpt) {
         var subject = "[Carta Giovani Nazionale] Richiesta di convenzione approvata";
         final String errorMessage = "Failed to send Agreement Request Approved notification to: " + referentEmail;
+        TemplateEmail template;
         try {
-            TemplateEmail template = getApprovedAgreementTemplateBySalesChannel(salesChannel, discountCodeTypeOpt);
-            String body = getTemplateHtml(template);
-            var emailParams = createEmailParams(referentEmail, subject, body, errorMessage);
-            emailNotificationService.sendAsyncMessage(emailParams);
-        } catch (Exception e) {
+            template = getApprovedAgreementTemplateBySalesChannel(salesChannel, discountCodeTypeOpt);
+        } catch (InvalidValueException e) {
             log.error(errorMessage, e);
+            return;
         }
+        enqueue(referentEmail, subject, template, new Context(), errorMessage);
     }
 
     private TemplateEmail getApprovedAgreementTemplateBySalesChannel(SalesChannelEnum salesChannel,
@@ -100,12 +121,10 @@ public class EmailNotificationFacade {
         var context = new Context();
         context.setVariable("rejection_message", rejectionMessage);
         final String errorMessage = "Failed to send Agreement Request Rejected notification to: " + referentEmail;
-        var body = getTemplateHtml(TemplateEmail.REJECTED_AGREEMENT, context);
-        var emailParams = createEmailParams(referentEmail, subject, body, errorMessage);
-        emailNotificationService.sendAsyncMessage(emailParams);
+        enqueue(referentEmail, subject, TemplateEmail.REJECTED_AGREEMENT, context, errorMessage);
     }
 
-    public void notifyDepartmentNewHelpRequest(HelpRequestParams helpRequestParams) throws MessagingException {
+    public void notifyDepartmentNewHelpRequest(HelpRequestParams helpRequestParams) {
         var subject = "[Carta Giovani Nazionale] Nuova richiesta di supporto da " +
                       helpRequestParams.getMerchantLegalName();
         var context = new Context();
@@ -121,13 +140,16 @@ public class EmailNotificationFacade {
         context.setVariable("referent_first_name", helpRequestParams.getReferentFirstName());
         context.setVariable("referent_last_name", helpRequestParams.getReferentLastName());
 
-        var body = getTemplateHtml(TemplateEmail.HELP_REQUEST, context);
-        var emailParams = createEmailParams(configProperties.getCgnDepartmentEmail(),
-                                            Optional.of(helpRequestParams.getReplyToEmailAddress()),
-                                            subject,
-                                            body,
-                                            null);
-        emailNotificationService.sendSyncMessage(emailParams);
+        final String errorMessage = "Failed to send Help Request notification from " +
+                                    helpRequestParams.getMerchantLegalName() +
+                                    " to department";
+        enqueue(configProperties.getCgnDepartmentEmail(),
+                helpRequestParams.getReplyToEmailAddress(),
+                subject,
+                TemplateEmail.HELP_REQUEST,
+                context,
+                errorMessage,
+                null);
     }
 
     public void notifyMerchantDiscountSuspended(String referentEmail, String discountName, String suspensionMessage) {
@@ -136,10 +158,7 @@ public class EmailNotificationFacade {
         context.setVariable(CONTEXT_DISCOUNT_NAME, discountName);
         context.setVariable("suspension_message", suspensionMessage);
         final String errorMessage = "Failed to send Discount Suspended notification to: " + referentEmail;
-
-        var body = getTemplateHtml(TemplateEmail.SUSPENDED_DISCOUNT, context);
-        var emailParams = createEmailParams(referentEmail, subject, body, errorMessage);
-        emailNotificationService.sendAsyncMessage(emailParams);
+        enqueue(referentEmail, subject, TemplateEmail.SUSPENDED_DISCOUNT, context, errorMessage);
     }
 
     public void notifyMerchantDiscountExpiring(String referentEmail, String discountName) {
@@ -147,6 +166,11 @@ public class EmailNotificationFacade {
         var context = new Context();
         context.setVariable(CONTEXT_DISCOUNT_NAME, discountName);
 
+        if (configProperties.isEmailDigestEnabled()) {
+            final String errorMessage = "Failed to send Discount Expiring notification to: " + referentEmail;
+            enqueue(referentEmail, subject, TemplateEmail.EXPIRED_DISCOUNT, context, errorMessage);
+            return;
+        }
         try {
             var body = getTemplateHtml(TemplateEmail.EXPIRED_DISCOUNT, context);
             var emailParams = createEmailParams(referentEmail, subject, body, null);
@@ -159,45 +183,163 @@ public class EmailNotificationFacade {
 
     public static String createTrackingKeyForExpirationNotification(DiscountEntity discount,
                                                                     BucketCodeExpiringThresholdEnum threshold) {
-        return threshold.name() + "::" + discount.getId() + "::" + discount.getLastBucketCodeLoad().getUid();
+        return createTrackingKeyForExpirationNotification(discount.getId(),
+                                                          discount.getLastBucketCodeLoad().getUid(),
+                                                          threshold);
+    }
+
+    public static String createTrackingKeyForExpirationNotification(Long discountId,
+                                                                    String lastBucketCodeLoadUid,
+                                                                    BucketCodeExpiringThresholdEnum threshold) {
+        return threshold.name() + "::" + discountId + "::" + lastBucketCodeLoadUid;
     }
 
     public void notifyMerchantDiscountBucketCodesExpiring(String referentEmail,
-                                                          DiscountEntity discount,
-                                                          BucketCodeExpiringThresholdEnum threshold,
+                                                          String discountName,
+                                                          String trackingKey,
                                                           Long remainingCodes) {
         var subject = "[Carta Giovani Nazionale] La lista di codici sconto per la tua agevolazione sta per esaurirsi";
         var context = new Context();
-        context.setVariable(CONTEXT_DISCOUNT_NAME, discount.getName());
+        context.setVariable(CONTEXT_DISCOUNT_NAME, discountName);
         context.setVariable("missing_codes", remainingCodes);
         final String errorMessage = "Failed to send Discount Bucket Codes Expiring notification to: " + referentEmail;
-        final String trackingKey = createTrackingKeyForExpirationNotification(discount, threshold);
-
-        var body = getTemplateHtml(TemplateEmail.EXPIRING_BUCKET_CODES, context);
-        var emailParams = createEmailParams(referentEmail, subject, body, errorMessage);
-        emailNotificationService.sendAsyncMessage(emailParams, trackingKey);
+        enqueue(referentEmail, subject, TemplateEmail.EXPIRING_BUCKET_CODES, context, errorMessage, trackingKey);
     }
 
-    public void notifyMerchantDiscountBucketCodesExpired(String referentEmail, DiscountEntity discount) {
+    public void notifyMerchantDiscountBucketCodesExpired(String referentEmail, String discountName, String trackingKey) {
         var subject = "[Carta Giovani Nazionale] La lista di codici sconto per la tua agevolazione è esaurita";
         var context = new Context();
-        context.setVariable(CONTEXT_DISCOUNT_NAME, discount.getName());
+        context.setVariable(CONTEXT_DISCOUNT_NAME, discountName);
         final String errorMessage = "Failed to send Discount Bucket Codes Expired notification to: " + referentEmail;
-        final String trackingKey = createTrackingKeyForExpirationNotification(discount,
-                                                                              BucketCodeExpiringThresholdEnum.PERCENT_0);
+        enqueue(referentEmail, subject, TemplateEmail.EXPIRED_BUCKET_CODES, context, errorMessage, trackingKey);
+    }
 
-        var body = getTemplateHtml(TemplateEmail.EXPIRED_BUCKET_CODES, context);
-        var emailParams = createEmailParams(referentEmail, subject, body, errorMessage);
-        emailNotificationService.sendAsyncMessage(emailParams, trackingKey);
+    /**
+     * Renders and sends a notification taken from the outbox.
+     */
+    CompletableFuture<Void> sendQueuedNotification(NotificationOutboxEntity notification) {
+        var context = new Context();
+        context.setVariables(readVariables(notification.getTemplateVariables()));
+        var body = getTemplateHtml(TemplateEmail.valueOf(notification.getTemplate()), context);
+        var emailParams = createEmailParams(notification.getMailTo(),
+                                            Optional.ofNullable(notification.getReplyTo()),
+                                            notification.getSubject(),
+                                            body,
+                                            notification.getFailureMessage());
+        return emailNotificationService.sendAsyncMessage(emailParams, notification.getTrackingKey());
+    }
+
+    /**
+     * Renders and sends the notifications to the same merchant taken from the outbox as a single email.
+     * Every notification keeps its own tracking key: the ones already sent are left out of the digest.
+     */
+    CompletableFuture<Void> sendQueuedDigest(List<NotificationOutboxEntity> notifications) {
+        List<Map<String, Object>> items = new ArrayList<>(notifications.size());
+        List<String> trackingKeys = new ArrayList<>(notifications.size());
+        for (NotificationOutboxEntity notification : notifications) {
+            String trackingKey = notification.getTrackingKey();
+            if (trackingKey != null) {
+                if (emailNotificationService.notificationAlreadySent(trackingKey)) {
+                    continue;
+                }
+                trackingKeys.add(trackingKey);
+            }
+            items.add(Map.of("template",
+                             notification.getTemplate(),
+                             "variables",
+                             readVariables(notification.getTemplateVariables())));
+        }
+        if (items.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String mailTo = notifications.get(0).getMailTo();
+        var subject = "[Carta Giovani Nazionale] Aggiornamenti sulle tue agevolazioni";
+        var context = new Context();
+        context.setVariable("items", items);
+        var body = getTemplateHtml(TemplateEmail.MERCHANT_DIGEST, context);
+        var emailParams = createEmailParams(mailTo,
+                                            subject,
+                                            body,
+                                            "Failed to send digest of " + items.size() + " notifications to: " +
+                                            mailTo);
+        return emailNotificationService.sendAsyncMessage(emailParams, trackingKeys);
     }
 
     @Autowired
-    public EmailNotificationFacade(TemplateEngine htmlTemplateEngine,
+    public EmailNotificationFacade(EmailTemplateRenderer emailTemplateRenderer,
                                    EmailNotificationService emailNotificationService,
-                                   ConfigProperties configProperties) {
-        this.htmlTemplateEngine = htmlTemplateEngine;
+                                   ConfigProperties configProperties,
+                                   NotificationOutboxRepository notificationOutboxRepository,
+                                   ObjectMapper objectMapper) {
+        this.emailTemplateRenderer = emailTemplateRenderer;
         this.emailNotificationService = emailNotificationService;
         this.configProperties = configProperties;
+        this.notificationOutboxRepository = notificationOutboxRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    private void enqueue(String mailTo, String subject, TemplateEmail template, Context context, String failureMessage) {
+        enqueue(mailTo, subject, template, context, failureMessage, null);
+    }
+
+    private void enqueue(String mailTo,
+                         String subject,
+                         TemplateEmail template,
+                         Context context,
+                         String failureMessage,
+                         String trackingKey) {
+        enqueue(mailTo, null, subject, template, context, failureMessage, trackingKey);
+    }
+
+    /**
+     * Writes the notification to the outbox in the current transaction, so it is sent only if the transaction
+     * commits. A tracked notification already sent or already waiting is not written again.
+     * With digests enabled a merchant notification waits for the digest window, to be sent with the others
+     * written in the meantime.
+     */
+    private void enqueue(String mailTo,
+                         String replyTo,
+                         String subject,
+                         TemplateEmail template,
+                         Context context,
+                         String failureMessage,
+                         String trackingKey) {
+        if (trackingKey != null && (emailNotificationService.notificationAlreadySent(trackingKey) ||
+                                    notificationOutboxRepository.existsByTrackingKeyAndAbandonedAtIsNull(trackingKey))) {
+            return;
+        }
+        Map<String, Object> variables = new HashMap<>();
+        context.getVariableNames().forEach(name -> variables.put(name, context.getVariable(name)));
+
+        var notification = new NotificationOutboxEntity();
+        notification.setTrackingKey(trackingKey);
+        notification.setMailTo(mailTo);
+        notification.setReplyTo(replyTo);
+        notification.setSubject(subject);
+        notification.setTemplate(template.name());
+        notification.setTemplateVariables(writeVariables(variables));
+        notification.setFailureMessage(failureMessage);
+        notification.setDigest(configProperties.isEmailDigestEnabled() && DIGEST_TEMPLATES.contains(template));
+        notification.setNextAttemptTime(notification.isDigest() ?
+                                        OffsetDateTime.now().plusSeconds(configProperties.getEmailDigestWindowSeconds()) :
+                                        OffsetDateTime.now());
+        notificationOutboxRepository.save(notification);
+    }
+
+    private String writeVariables(Map<String, Object> variables) {
+        try {
+            return objectMapper.writeValueAsString(variables);
+        } catch (JsonProcessingException e) {
+            throw new CGNException(e);
+        }
+    }
+
+    private Map<String, Object> readVariables(String variables) {
+        try {
+            return objectMapper.readValue(variables, new TypeReference<Map<String, Object>>() {});
+        } catch (JsonProcessingException e) {
+            throw new CGNException(e);
+        }
     }
 
     private EmailParams createEmailParams(String mailTo, String subject, String body, String failureMessage) {
@@ -211,8 +353,8 @@ public class EmailNotificationFacade {
                                           String failureMessage) {
         return EmailParams.builder()
                           .mailFrom(configProperties.getCgnNotificationSender())
-                          .logoName("cgn-logo.png")
-                          .logo(configProperties.getCgnLogo())
+                          .logoName(EmailTemplateRenderer.LOGO_NAME)
+                          .logo(emailTemplateRenderer.getLogo())
                           .mailToList(Collections.singletonList(mailTo))
                           .replyToOpt(replyToOpt)
                           .subject(subject)
@@ -221,12 +363,8 @@ public class EmailNotificationFacade {
                           .build();
     }
 
-    private String getTemplateHtml(TemplateEmail template) {
-        return getTemplateHtml(template, new Context());
-    }
-
     private String getTemplateHtml(TemplateEmail template, Context context) {
-        return htmlTemplateEngine.process(template.getTemplateName(), context);
+        return emailTemplateRenderer.render(template, context);
     }
 
     private static class InvalidValueException extends RuntimeException {
@@ -1,7 +1,6 @@
 package it.gov.pagopa.cgn.portal.email;
 
-import it.gov.pagopa.cgn.portal.model.NotificationEntity;
-import it.gov.pagopa.cgn.portal.repository.NotificationRepository;
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.mail.javamail.JavaMailSender;
@@ -10,95 +9,137 @@ import org.springframework.stereotype.Component;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
-import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @Component
 public class EmailNotificationService {
 
     private final JavaMailSender javaMailSender;
-    private final NotificationRepository notificationRepository;
+    private final NotificationTracker notificationTracker;
+    private final EmailDispatcher emailDispatcher;
+    private final long sendTimeoutMillis;
 
     @Autowired
-    public EmailNotificationService(JavaMailSender javaMailSender, NotificationRepository notificationRepository) {
+    public EmailNotificationService(JavaMailSender javaMailSender, NotificationTracker notificationTracker,
+                                    EmailDispatcher emailDispatcher, ConfigProperties configProperties) {
         this.javaMailSender = javaMailSender;
-        this.notificationRepository = notificationRepository;
+        this.notificationTracker = notificationTracker;
+        this.emailDispatcher = emailDispatcher;
+        this.sendTimeoutMillis = configProperties.getEmailOutboxSendTimeoutMillis();
     }
 
     public CompletableFuture<Void> sendAsyncMessage(EmailParams emailParams) {
-        return sendAsyncMessage(emailParams, null);
+        return sendAsyncMessage(emailParams, Collections.emptyList());
     }
 
     public CompletableFuture<Void> sendAsyncMessage(EmailParams emailParams, String trackingKey) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                sendSyncMessage(emailParams, trackingKey);
-            } catch (MessagingException e) {
-                log.error(emailParams.getFailureMessage(), e);
+        return sendAsyncMessage(emailParams,
+                                trackingKey == null ? Collections.emptyList() : Collections.singletonList(trackingKey));
+    }
+
+    /**
+     * Queues the email on the dispatcher; the notifications are tracked once the email has been sent or has failed.
+     * An email grouping several notifications, like a digest, tracks each of them.
+     */
+    public CompletableFuture<Void> sendAsyncMessage(EmailParams emailParams, List<String> trackingKeys) {
+
+        if (!trackingKeys.isEmpty() && trackingKeys.stream().allMatch(this::notificationAlreadySent))
+            return CompletableFuture.completedFuture(null);
+
+        MimeMessage mimeMessage;
+        try {
+            mimeMessage = createMimeMessage(emailParams);
+        } catch (MessagingException e) {
+            log.error(emailParams.getFailureMessage(), e);
+            trackingKeys.forEach(trackingKey -> trackNotification(trackingKey, e.getMessage()));
+            return CompletableFuture.failedFuture(e);
+        }
+
+        log.info("Queueing email '{}'", log.isDebugEnabled() ? emailParams.toString() : emailParams.toLightString());
+        CompletableFuture<Void> queued = emailDispatcher.submit(mimeMessage);
+        CompletableFuture<Void> sent = queued.whenComplete((result, error) -> {
+            if (error != null) {
+                log.error(emailParams.getFailureMessage(), error);
             }
-            return null;
+            trackingKeys.forEach(trackingKey -> trackNotification(trackingKey,
+                                                                  error == null ? null : error.getMessage()));
         });
+        // a caller that stops waiting cancels the email, which is dropped if still queued on the dispatcher
+        sent.whenComplete((result, error) -> {
+            if (error instanceof CancellationException) {
+                queued.cancel(false);
+            }
+        });
+        return sent;
     }
 
     public void sendSyncMessage(EmailParams emailParams) throws MessagingException {
         sendSyncMessage(emailParams, null);
     }
 
+    /**
+     * Sends the email through the dispatcher, like the async ones, so it is rate limited and retried when
+     * deferred by the relay, and waits until it has been sent. An email not sent within the timeout is dropped
+     * if still queued.
+     */
     public void sendSyncMessage(EmailParams emailParams, String trackingKey) throws MessagingException {
-
-        if (notificationAlreadySent(trackingKey))
-            return;
-
-        MimeMessage mimeMessage = javaMailSender.createMimeMessage();
+        CompletableFuture<Void> sent = sendAsyncMessage(emailParams, trackingKey);
         try {
-            MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, true, "UTF-8");
-            helper.setFrom(emailParams.getMailFrom());
-            helper.setTo(emailParams.getMailToList().toArray(new String[0]));
-
-            if (emailParams.getReplyToOpt().isPresent()) {
-                helper.setReplyTo(emailParams.getReplyToOpt().orElseThrow());
+            sent.get(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MessagingException) {
+                throw (MessagingException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MessagingException(emailParams.getFailureMessage(), e);
+        } catch (TimeoutException e) {
+            sent.cancel(false);
+            throw new MessagingException("Email not sent in " + sendTimeoutMillis + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sent.cancel(false);
+            throw new MessagingException(emailParams.getFailureMessage(), e);
+        } finally {
+            if (trackingKey != null) {
+                notificationTracker.flush();
             }
-            helper.setSubject(emailParams.getSubject());
-            helper.setText(emailParams.getBody(), true);
-            helper.addInline(emailParams.getLogoName(), emailParams.getLogo());
-
-            log.info("Sending email '{}'", log.isDebugEnabled() ? emailParams.toString() : emailParams.toLightString());
-            javaMailSender.send(mimeMessage);
-            trackNotification(trackingKey);
-        } catch (Exception e) {
-            trackNotification(trackingKey, e.getMessage());
-            throw e;
         }
     }
 
-    private NotificationEntity findNotification(String trackingKey) {
-        return notificationRepository.findByKey(trackingKey);
-    }
+    private MimeMessage createMimeMessage(EmailParams emailParams) throws MessagingException {
+        MimeMessage mimeMessage = javaMailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, true, "UTF-8");
+        helper.setFrom(emailParams.getMailFrom());
+        helper.setTo(emailParams.getMailToList().toArray(new String[0]));
 
-    private void trackNotification(String trackingKey) {
-        trackNotification(trackingKey, null);
+        if (emailParams.getReplyToOpt().isPresent()) {
+            helper.setReplyTo(emailParams.getReplyToOpt().orElseThrow());
+        }
+        helper.setSubject(emailParams.getSubject());
+        helper.setText(emailParams.getBody(), true);
+        helper.addInline(emailParams.getLogoName(), emailParams.getLogo());
+        return mimeMessage;
     }
 
     /**
-     * Saves a new Notification, or updates the existing one if already existent,
-     * for a given key.
+     * Saves a new Notification, or updates the existing one if it had failed,
+     * for a given key. Sync sends write it immediately, async ones with the next batch.
      *
      * @param trackingKey  a key that uniquely identify this notification
      * @param errorMessage a message that indicates any error occurred
      */
     private void trackNotification(String trackingKey, String errorMessage) {
         if (trackingKey != null) {
-            // if a key has been given we check if a notification exists
-            // this is useful to update a notification that had an error
-            var notification = findNotification(trackingKey);
-            if (notification == null) {
-                // if no notification is found create a new Notification
-                notification = new NotificationEntity(trackingKey);
-            }
-            notification.setSentAt(OffsetDateTime.now());
-            notification.setErrorMessage(errorMessage);
-            notificationRepository.save(notification);
+            notificationTracker.track(trackingKey, errorMessage);
         }
     }
 
@@ -109,11 +150,10 @@ public class EmailNotificationService {
      * @param trackingKey the tracking key of the notification if any
      * @return boolean
      */
-    private boolean notificationAlreadySent(String trackingKey) {
+    public boolean notificationAlreadySent(String trackingKey) {
         if (trackingKey != null) {
             // if a key has been given we check if a notification exist
-            var notification = findNotification(trackingKey);
-            return notification != null && notification.getErrorMessage() == null;
+            return notificationTracker.isSent(trackingKey);
         }
         return false;
     }
@@ -3,8 +3,8 @@ package it.gov.pagopa.cgn.portal.email;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.ToString;
-import org.springframework.core.io.Resource;
 
+import javax.activation.DataSource;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,7 +18,7 @@ public class EmailParams {
     private final Optional<String> replyToOpt;
     private final String subject;
     private final String body;
-    private final Resource logo;
+    private final DataSource logo;
     private final String logoName;
     private final String failureMessage;
 
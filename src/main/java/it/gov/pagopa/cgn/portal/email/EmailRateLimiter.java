@@ -0,0 +1,119 @@
+package it.gov.pagopa.cgn.portal.email;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the emails handed to the smtp relay.
+ * When the relay defers emails the rate is halved and sending pauses with an exponential delay,
+ * then the rate recovers step by step while the relay accepts emails. A rate of zero disables the limit,
+ * not the pause after a deferral.
+ */
+class EmailRateLimiter {
+
+    private static final double MIN_RATE_FRACTION = 1.0 / 16;
+    private static final double RECOVERY_FRACTION = 0.1;
+
+    private final double maxRate;
+    private final double burst;
+    private final long backoffBaseNanos;
+    private final long backoffMaxNanos;
+
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long pausedUntilNanos;
+    private int consecutiveDeferrals;
+
+    EmailRateLimiter(double messagesPerSecond, int burst, long backoffBaseMillis, long backoffMaxMillis) {
+        this.maxRate = Math.max(0, messagesPerSecond);
+        this.burst = Math.max(1, burst);
+        this.backoffBaseNanos = TimeUnit.MILLISECONDS.toNanos(backoffBaseMillis);
+        this.backoffMaxNanos = TimeUnit.MILLISECONDS.toNanos(backoffMaxMillis);
+        this.rate = maxRate;
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+        this.pausedUntilNanos = lastRefillNanos;
+    }
+
+    /**
+     * Waits until the given number of emails can be sent. A batch larger than the burst is let through once
+     * the bucket is full and leaves the bucket in debt.
+     */
+    void acquire(int permits) throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                refill(now);
+                if (now - pausedUntilNanos < 0) {
+                    waitNanos = pausedUntilNanos - now;
+                } else if (maxRate <= 0) {
+                    return;
+                } else if (tokens >= Math.min(permits, burst)) {
+                    tokens -= permits;
+                    return;
+                } else {
+                    waitNanos = (long) ((Math.min(permits, burst) - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+                }
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(1, waitNanos));
+        }
+    }
+
+    /**
+     * The relay deferred some emails: halves the rate and pauses sending.
+     */
+    synchronized void deferred() {
+        if (consecutiveDeferrals < Integer.MAX_VALUE) {
+            consecutiveDeferrals++;
+        }
+        long now = System.nanoTime();
+        refill(now);
+        if (maxRate > 0) {
+            rate = Math.max(maxRate * MIN_RATE_FRACTION, rate / 2);
+            tokens = Math.min(tokens, 0);
+        }
+        pausedUntilNanos = now + getBackoffNanos();
+    }
+
+    /**
+     * The relay accepted the emails: moves the rate back towards the configured one.
+     */
+    synchronized void accepted() {
+        consecutiveDeferrals = 0;
+        rate = Math.min(maxRate, rate + maxRate * RECOVERY_FRACTION);
+    }
+
+    synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * The base backoff doubled once per consecutive deferral, saturating at the maximum instead of overflowing.
+     */
+    private long getBackoffNanos() {
+        long backoff = backoffBaseNanos;
+        for (int i = 1; i < consecutiveDeferrals && backoff < backoffMaxNanos; i++) {
+            try {
+                backoff = Math.multiplyExact(backoff, 2);
+            } catch (ArithmeticException e) {
+                return backoffMaxNanos;
+            }
+        }
+        return Math.min(backoffMaxNanos, backoff);
+    }
+
+    private void refill(long now) {
+        // while paused the bucket stays empty
+        if (now - pausedUntilNanos < 0) {
+            lastRefillNanos = now;
+            return;
+        }
+        long elapsed = now - Math.max(lastRefillNanos, pausedUntilNanos);
+        if (elapsed > 0) {
+            tokens = Math.min(burst, tokens + rate * elapsed / TimeUnit.SECONDS.toNanos(1));
+        }
+        lastRefillNanos = now;
+    }
+
+}
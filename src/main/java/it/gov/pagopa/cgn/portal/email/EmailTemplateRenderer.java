@@ -0,0 +1,102 @@
+package it.gov.pagopa.cgn.portal.email;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.Context;
+
+import javax.activation.DataSource;
+import javax.annotation.PostConstruct;
+import javax.mail.util.ByteArrayDataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renders the email templates. The templates are parsed at startup, the body of a static template is rendered
+ * once and reused, and the logo is read once and shared by every email.
+ */
+@Slf4j
+@Component
+public class EmailTemplateRenderer {
+
+    public static final String LOGO_NAME = "cgn-logo.png";
+
+    private static final String LOGO_CONTENT_TYPE = "image/png";
+
+    private final TemplateEngine htmlTemplateEngine;
+    private final DataSource logo;
+    private final Map<TemplateEmail, String> staticBodies = new ConcurrentHashMap<>();
+    private final Map<TemplateEmail, Timer> renderTimers = new EnumMap<>(TemplateEmail.class);
+    private final Counter staticHitCounter;
+
+    public String render(TemplateEmail template, Context context) {
+        if (template.isStaticContent()) {
+            String body = staticBodies.get(template);
+            if (body != null) {
+                staticHitCounter.increment();
+                return body;
+            }
+            return staticBodies.computeIfAbsent(template, t -> process(t, new Context()));
+        }
+        return process(template, context);
+    }
+
+    /**
+     * The logo to add inline to every email, kept in memory.
+     */
+    public DataSource getLogo() {
+        return logo;
+    }
+
+    /**
+     * Renders every template once, so the template engine caches the parsed templates and the first emails
+     * sent do not pay for the parsing. A template that cannot be rendered is reported and parsed again on use.
+     */
+    @PostConstruct
+    public void preload() {
+        for (TemplateEmail template : TemplateEmail.values()) {
+            try {
+                render(template, new Context());
+            } catch (RuntimeException e) {
+                log.warn("Email template " + template.getTemplateName() + " not preloaded: " + e.getMessage());
+            }
+        }
+    }
+
+    private String process(TemplateEmail template, Context context) {
+        return renderTimers.get(template).record(() -> htmlTemplateEngine.process(template.getTemplateName(), context));
+    }
+
+    private static DataSource readLogo(ConfigProperties configProperties) {
+        try (InputStream inputStream = configProperties.getCgnLogo().getInputStream()) {
+            ByteArrayDataSource dataSource = new ByteArrayDataSource(StreamUtils.copyToByteArray(inputStream),
+                                                                     LOGO_CONTENT_TYPE);
+            dataSource.setName(LOGO_NAME);
+            return dataSource;
+        } catch (IOException e) {
+            throw new CGNException(e);
+        }
+    }
+
+    public EmailTemplateRenderer(TemplateEngine htmlTemplateEngine,
+                                 ConfigProperties configProperties,
+                                 MeterRegistry meterRegistry) {
+        this.htmlTemplateEngine = htmlTemplateEngine;
+        this.logo = readLogo(configProperties);
+        for (TemplateEmail template : TemplateEmail.values()) {
+            renderTimers.put(template,
+                             Timer.builder("cgn.email.render").tag("template", template.name()).register(meterRegistry));
+        }
+        this.staticHitCounter = Counter.builder("cgn.email.render.static.hits").register(meterRegistry);
+    }
+
+}
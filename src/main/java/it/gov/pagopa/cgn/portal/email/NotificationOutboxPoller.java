@@ -0,0 +1,215 @@
+package it.gov.pagopa.cgn.portal.email;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.model.NotificationOutboxEntity;
+import it.gov.pagopa.cgn.portal.repository.NotificationOutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Sends the notifications of the outbox. Every instance polls: the notifications to send are claimed in a short
+ * transaction, locking them with {@code FOR UPDATE SKIP LOCKED} and leasing them to the instance, so each
+ * notification is taken by one instance only. They are sent outside of any transaction and then removed from the
+ * outbox, or rescheduled, in a second short transaction.
+ * A failed notification is retried with an exponential delay and abandoned after the last attempt.
+ * Merchant notifications written in digest mode are sent together, one email per address.
+ */
+@Slf4j
+@Component
+public class NotificationOutboxPoller {
+
+    private final NotificationOutboxRepository notificationOutboxRepository;
+    private final EmailNotificationFacade emailNotificationFacade;
+    private final NotificationTracker notificationTracker;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean pollingEnabled;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryBaseDelaySeconds;
+    private final long retryMaxDelaySeconds;
+    private final long sendTimeoutMillis;
+    private final long leaseMillis;
+    private final Counter sentCounter;
+    private final Counter retriedCounter;
+    private final Counter abandonedCounter;
+    private final Counter digestCounter;
+
+    @Scheduled(fixedDelayString = "${cgn.email.outbox.poll-interval-millis}")
+    public void scheduledPoll() {
+        if (pollingEnabled) {
+            poll();
+        }
+    }
+
+    public void poll() {
+        int taken;
+        do {
+            taken = sendBatch();
+        } while (taken == batchSize);
+    }
+
+    /**
+     * Sends a batch of notifications: claims them, sends them without holding a connection or a lock
+     * and records the outcome.
+     *
+     * @return the number of notifications taken from the outbox
+     */
+    private int sendBatch() {
+        List<List<NotificationOutboxEntity>> emails = transactionTemplate.execute(status -> claimBatch());
+        if (emails == null || emails.isEmpty()) {
+            return 0;
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(emails.size());
+        for (List<NotificationOutboxEntity> email : emails) {
+            try {
+                futures.add(email.size() == 1 ?
+                            emailNotificationFacade.sendQueuedNotification(email.get(0)) :
+                            emailNotificationFacade.sendQueuedDigest(email));
+            } catch (RuntimeException e) {
+                futures.add(CompletableFuture.failedFuture(e));
+            }
+        }
+
+        List<NotificationOutboxEntity> sent = new ArrayList<>();
+        List<NotificationOutboxEntity> failed = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + sendTimeoutMillis;
+        for (int i = 0; i < emails.size(); i++) {
+            List<NotificationOutboxEntity> email = emails.get(i);
+            CompletableFuture<Void> future = futures.get(i);
+            try {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                sent.addAll(email);
+                sentCounter.increment(email.size());
+                if (email.size() > 1) {
+                    digestCounter.increment();
+                }
+            } catch (ExecutionException e) {
+                email.forEach(notification -> sendFailed(notification, e.getCause()));
+                failed.addAll(email);
+            } catch (TimeoutException e) {
+                // an email still queued on the dispatcher is dropped, so the retry does not send it twice
+                future.cancel(false);
+                TimeoutException timeout = new TimeoutException("Email not sent in " + sendTimeoutMillis + " ms");
+                email.forEach(notification -> sendFailed(notification, timeout));
+                failed.addAll(email);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(false);
+                email.forEach(notification -> sendFailed(notification, e));
+                failed.addAll(email);
+            }
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!sent.isEmpty()) {
+                notificationOutboxRepository.deleteInBatch(sent);
+            }
+            notificationOutboxRepository.saveAll(failed);
+            // the sent notifications are tracked in the same transaction that removes them from the outbox
+            notificationTracker.flush();
+        });
+        return emails.stream().mapToInt(List::size).sum();
+    }
+
+    /**
+     * Locks a batch of notifications ready to be sent and leases them to this instance.
+     *
+     * @return the notifications grouped in the emails to send
+     */
+    private List<List<NotificationOutboxEntity>> claimBatch() {
+        List<NotificationOutboxEntity> notifications = notificationOutboxRepository.lockReadyToSend(batchSize);
+        List<List<NotificationOutboxEntity>> emails = groupDigests(notifications);
+        OffsetDateTime leaseUntil = OffsetDateTime.now().plus(leaseMillis, ChronoUnit.MILLIS);
+        emails.forEach(email -> email.forEach(notification -> notification.setLeaseUntil(leaseUntil)));
+        return emails;
+    }
+
+    /**
+     * Groups the notifications in emails: a digest notification ready to be sent takes with it all the
+     * notifications waiting for a digest to the same address, the others are sent alone.
+     */
+    private List<List<NotificationOutboxEntity>> groupDigests(List<NotificationOutboxEntity> notifications) {
+        List<List<NotificationOutboxEntity>> emails = new ArrayList<>(notifications.size());
+        Map<String, List<NotificationOutboxEntity>> digests = new LinkedHashMap<>();
+        for (NotificationOutboxEntity notification : notifications) {
+            if (notification.isDigest()) {
+                digests.computeIfAbsent(notification.getMailTo(), mailTo -> new ArrayList<>()).add(notification);
+            } else {
+                emails.add(Collections.singletonList(notification));
+            }
+        }
+        for (Map.Entry<String, List<NotificationOutboxEntity>> digest : digests.entrySet()) {
+            List<NotificationOutboxEntity> email = digest.getValue();
+            Set<Long> ids = email.stream().map(NotificationOutboxEntity::getId).collect(Collectors.toSet());
+            for (NotificationOutboxEntity waiting : notificationOutboxRepository.lockDigestToSend(digest.getKey())) {
+                if (ids.add(waiting.getId())) {
+                    email.add(waiting);
+                }
+            }
+            email.sort(Comparator.comparing(NotificationOutboxEntity::getId));
+            emails.add(email);
+        }
+        return emails;
+    }
+
+    private void sendFailed(NotificationOutboxEntity notification, Throwable error) {
+        notification.setLeaseUntil(null);
+        int attempts = notification.getAttempts() + 1;
+        notification.setAttempts(attempts);
+        notification.setLastError(String.valueOf(error.getMessage()));
+        if (attempts >= maxAttempts) {
+            notification.setAbandonedAt(OffsetDateTime.now());
+            abandonedCounter.increment();
+            log.error("Notification " + notification.getId() + " abandoned after " + attempts + " attempts: " +
+                      notification.getFailureMessage());
+        } else {
+            long delay = Math.min(retryMaxDelaySeconds, retryBaseDelaySeconds << Math.min(attempts - 1, 30));
+            notification.setNextAttemptTime(OffsetDateTime.now().plusSeconds(delay));
+            retriedCounter.increment();
+        }
+    }
+
+    public NotificationOutboxPoller(NotificationOutboxRepository notificationOutboxRepository,
+                                    EmailNotificationFacade emailNotificationFacade,
+                                    NotificationTracker notificationTracker,
+                                    PlatformTransactionManager transactionManager,
+                                    ConfigProperties configProperties,
+                                    MeterRegistry meterRegistry) {
+        this.notificationOutboxRepository = notificationOutboxRepository;
+        this.emailNotificationFacade = emailNotificationFacade;
+        this.notificationTracker = notificationTracker;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.pollingEnabled = configProperties.isEmailOutboxPollingEnabled();
+        this.batchSize = configProperties.getEmailOutboxBatchSize();
+        this.maxAttempts = configProperties.getEmailOutboxMaxAttempts();
+        this.retryBaseDelaySeconds = configProperties.getEmailOutboxRetryBaseDelaySeconds();
+        this.retryMaxDelaySeconds = configProperties.getEmailOutboxRetryMaxDelaySeconds();
+        this.sendTimeoutMillis = configProperties.getEmailOutboxSendTimeoutMillis();
+        this.leaseMillis = Math.max(configProperties.getEmailOutboxLeaseMillis(), sendTimeoutMillis);
+        this.sentCounter = Counter.builder("cgn.email.outbox.sent").register(meterRegistry);
+        this.retriedCounter = Counter.builder("cgn.email.outbox.retried").register(meterRegistry);
+        this.abandonedCounter = Counter.builder("cgn.email.outbox.abandoned").register(meterRegistry);
+        this.digestCounter = Counter.builder("cgn.email.outbox.digests").register(meterRegistry);
+    }
+
+}
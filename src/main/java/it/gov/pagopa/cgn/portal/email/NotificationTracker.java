@@ -0,0 +1,183 @@
+package it.gov.pagopa.cgn.portal.email;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.model.NotificationEntity;
+import it.gov.pagopa.cgn.portal.repository.NotificationRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the notifications sent with a tracking key.
+ * The keys sent successfully are kept in a LRU cache in front of the notification table, so a key checked again
+ * at every run of a job does not query the table. The optional bloom filter answers for the keys never tracked
+ * without querying the table: it knows only the keys tracked by this instance, so it must be enabled only when
+ * a single instance sends the notifications.
+ * The notifications are written to the table in batches and removed once older than the retention.
+ */
+@Slf4j
+@Component
+public class NotificationTracker {
+
+    private static final double BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+    private final NotificationRepository notificationRepository;
+    private final Map<String, Boolean> sentKeys;
+    private final Map<String, NotificationEntity> pendingWrites = new LinkedHashMap<>();
+    private final BloomFilter trackedKeys;
+    private final int writeBatchSize;
+    private final int retentionDays;
+    private final int purgeBatchSize;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter bloomFilterNegativeCounter;
+    private final Counter purgedCounter;
+
+    /**
+     * @return whether a notification with the given key has been sent without errors
+     */
+    public boolean isSent(String trackingKey) {
+        synchronized (sentKeys) {
+            if (sentKeys.containsKey(trackingKey)) {
+                hitCounter.increment();
+                return true;
+            }
+        }
+        if (trackedKeys != null && !trackedKeys.mightContain(trackingKey)) {
+            bloomFilterNegativeCounter.increment();
+            return false;
+        }
+        missCounter.increment();
+        NotificationEntity notification = notificationRepository.findByKey(trackingKey);
+        boolean sent = notification != null && notification.getErrorMessage() == null;
+        if (sent) {
+            rememberSent(trackingKey);
+        }
+        return sent;
+    }
+
+    /**
+     * Records the outcome of a notification. The record is written with the next batch.
+     *
+     * @param trackingKey  a key that uniquely identify this notification
+     * @param errorMessage a message that indicates any error occurred, null if the notification has been sent
+     */
+    public void track(String trackingKey, String errorMessage) {
+        var notification = new NotificationEntity(trackingKey);
+        notification.setSentAt(OffsetDateTime.now());
+        notification.setErrorMessage(errorMessage);
+        if (errorMessage == null) {
+            rememberSent(trackingKey);
+        }
+        if (trackedKeys != null) {
+            trackedKeys.put(trackingKey);
+        }
+        boolean batchFull;
+        synchronized (pendingWrites) {
+            pendingWrites.put(trackingKey, notification);
+            batchFull = pendingWrites.size() >= writeBatchSize;
+        }
+        if (batchFull) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the pending notifications. When the write fails they are kept for the next flush.
+     */
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${cgn.email.notification.write.flush-interval-millis}")
+    public void flush() {
+        List<NotificationEntity> batch;
+        synchronized (pendingWrites) {
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pendingWrites.values());
+            pendingWrites.clear();
+        }
+        try {
+            notificationRepository.bulkUpsert(batch);
+        } catch (RuntimeException e) {
+            log.error("Failed to write " + batch.size() + " notifications: " + e.getMessage());
+            synchronized (pendingWrites) {
+                batch.forEach(notification -> pendingWrites.putIfAbsent(notification.getKey(), notification));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the notifications older than the retention, a chunk per transaction, except the expiring bucket
+     * codes notifications of the last bucket load of each discount.
+     */
+    @Scheduled(cron = "${cgn.email.notification.purge.cron}")
+    public void purge() {
+        OffsetDateTime sentBefore = OffsetDateTime.now().minusDays(retentionDays);
+        long purged = 0;
+        int deleted;
+        do {
+            deleted = notificationRepository.deleteSentBefore(sentBefore, purgeBatchSize);
+            purged += deleted;
+        } while (deleted >= purgeBatchSize);
+        purgedCounter.increment(purged);
+        log.info("Purged " + purged + " notifications sent before " + sentBefore);
+    }
+
+    public int size() {
+        synchronized (sentKeys) {
+            return sentKeys.size();
+        }
+    }
+
+    @PostConstruct
+    public void loadTrackedKeys() {
+        if (trackedKeys != null) {
+            notificationRepository.findAllKeys().forEach(trackedKeys::put);
+        }
+    }
+
+    private void rememberSent(String trackingKey) {
+        synchronized (sentKeys) {
+            sentKeys.put(trackingKey, Boolean.TRUE);
+        }
+    }
+
+    public NotificationTracker(NotificationRepository notificationRepository,
+                               ConfigProperties configProperties,
+                               MeterRegistry meterRegistry) {
+        this.notificationRepository = notificationRepository;
+        int maxEntries = configProperties.getEmailNotificationCacheMaxEntries();
+        this.sentKeys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.trackedKeys = configProperties.isEmailNotificationBloomFilterEnabled() ?
+                           new BloomFilter(configProperties.getEmailNotificationBloomFilterExpectedKeys(),
+                                           BLOOM_FILTER_FALSE_POSITIVE_RATE) :
+                           null;
+        this.writeBatchSize = Math.max(1, configProperties.getEmailNotificationWriteBatchSize());
+        this.retentionDays = configProperties.getEmailNotificationRetentionDays();
+        this.purgeBatchSize = Math.max(1, configProperties.getEmailNotificationPurgeBatchSize());
+        this.hitCounter = Counter.builder("cgn.email.notification.cache.hits").register(meterRegistry);
+        this.missCounter = Counter.builder("cgn.email.notification.cache.misses").register(meterRegistry);
+        this.bloomFilterNegativeCounter = Counter.builder("cgn.email.notification.cache.bloom.negatives")
+                                                 .register(meterRegistry);
+        this.purgedCounter = Counter.builder("cgn.email.notification.purged").register(meterRegistry);
+        Gauge.builder("cgn.email.notification.cache.size", this::size).register(meterRegistry);
+    }
+
+}
@@ -7,18 +7,24 @@ import lombok.Getter;
 @Getter
 public enum TemplateEmail {
 
-    NEW_AGREEMENT("email/agreement-request-new.html"),
-    APPROVED_AGREEMENT_BOTH("email/agreement-request-approved-both.html"),
-    APPROVED_AGREEMENT_OFFLINE("email/agreement-request-approved-offline.html"),
-    APPROVED_AGREEMENT_ONLINE_API_CODE("email/agreement-request-approved-online-api-code.html"),
-    APPROVED_AGREEMENT_ONLINE_STATIC_CODE("email/agreement-request-approved-online-static-code.html"),
-    REJECTED_AGREEMENT("email/agreement-request-rejected.html"),
-    SUSPENDED_DISCOUNT("email/discount-suspended.html"),
-    EXPIRED_DISCOUNT("email/discount-expiring.html"),
-    DISCOUNT_TEST_REQUEST("email/discount-test-request.html"),
-    EXPIRING_BUCKET_CODES("email/bucket-codes-expiring.html"),
-    EXPIRED_BUCKET_CODES("email/bucket-codes-expired.html"),
-    HELP_REQUEST("email/help-request.html");
+    NEW_AGREEMENT("email/agreement-request-new.html", false),
+    APPROVED_AGREEMENT_BOTH("email/agreement-request-approved-both.html", true),
+    APPROVED_AGREEMENT_OFFLINE("email/agreement-request-approved-offline.html", true),
+    APPROVED_AGREEMENT_ONLINE_API_CODE("email/agreement-request-approved-online-api-code.html", true),
+    APPROVED_AGREEMENT_ONLINE_STATIC_CODE("email/agreement-request-approved-online-static-code.html", true),
+    REJECTED_AGREEMENT("email/agreement-request-rejected.html", false),
+    SUSPENDED_DISCOUNT("email/discount-suspended.html", false),
+    EXPIRED_DISCOUNT("email/discount-expiring.html", false),
+    DISCOUNT_TEST_REQUEST("email/discount-test-request.html", false),
+    EXPIRING_BUCKET_CODES("email/bucket-codes-expiring.html", false),
+    EXPIRED_BUCKET_CODES("email/bucket-codes-expired.html", false),
+    HELP_REQUEST("email/help-request.html", false),
+    MERCHANT_DIGEST("email/merchant-digest.html", false);
 
     private final String templateName;
+
+    /**
+     * A static template uses no variable, so its output is the same for every email.
+     */
+    private final boolean staticContent;
 }
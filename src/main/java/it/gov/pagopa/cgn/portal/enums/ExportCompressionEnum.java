@@ -0,0 +1,56 @@
+package it.gov.pagopa.cgn.portal.enums;
+
+import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.codehaus.plexus.util.StringUtils;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@Getter
+@AllArgsConstructor
+public enum ExportCompressionEnum {
+
+    NONE("none", "csv", MediaType.TEXT_PLAIN),
+    GZIP("gzip", "csv.gz", MediaType.parseMediaType("application/gzip")),
+    ZIP("zip", "zip", MediaType.parseMediaType("application/zip"));
+
+    private final String code;
+    private final String extension;
+    private final MediaType mediaType;
+
+    /**
+     * Wraps the given stream so that everything written to it is compressed on the fly.
+     *
+     * @param out       the stream receiving the compressed bytes
+     * @param entryName the name of the csv inside the archive, used only by ZIP
+     * @return the stream to write the csv to
+     */
+    public OutputStream compress(OutputStream out, String entryName) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out);
+            case ZIP:
+                ZipOutputStream zipOutputStream = new ZipOutputStream(out);
+                zipOutputStream.putNextEntry(new ZipEntry(entryName));
+                return zipOutputStream;
+            default:
+                return out;
+        }
+    }
+
+    public static ExportCompressionEnum fromValue(String value) {
+        if (StringUtils.isBlank(value)) {
+            return NONE;
+        }
+        return Arrays.stream(ExportCompressionEnum.values())
+                .filter(compressionEnum -> compressionEnum.getCode().equalsIgnoreCase(value)).findFirst()
+                .orElseThrow(() -> new InvalidRequestException("Compression value not valid"));
+    }
+}
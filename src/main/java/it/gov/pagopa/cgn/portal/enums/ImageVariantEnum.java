@@ -0,0 +1,26 @@
+package it.gov.pagopa.cgn.portal.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Resized copies of the agreement image. Each variant fits in its box keeping the aspect ratio
+ * and is never larger than the uploaded image.
+ */
+@Getter
+@AllArgsConstructor
+public enum ImageVariantEnum {
+
+    THUMBNAIL("thumbnail", 160, 160),
+    CARD("card", 640, 480),
+    DETAIL("detail", 1280, 960);
+
+    private final String code;
+    private final int maxWidth;
+    private final int maxHeight;
+
+    public String getBlobName(String agreementId, String extension) {
+        return "image-" + agreementId + "-" + code + "." + extension;
+    }
+
+}
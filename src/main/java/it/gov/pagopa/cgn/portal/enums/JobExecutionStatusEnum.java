@@ -0,0 +1,14 @@
+package it.gov.pagopa.cgn.portal.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@AllArgsConstructor
+@Getter
+public enum JobExecutionStatusEnum {
+
+    PENDING("PENDING"), RUNNING("RUNNING"), COMPLETED("COMPLETED"), FAILED("FAILED");
+
+    private final String code;
+
+}
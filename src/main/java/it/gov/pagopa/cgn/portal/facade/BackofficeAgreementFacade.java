@@ -5,23 +5,33 @@ import it.gov.pagopa.cgn.portal.converter.backoffice.BackofficeDocumentConverter
 import it.gov.pagopa.cgn.portal.converter.backoffice.approved.BackofficeApprovedAgreementConverter;
 import it.gov.pagopa.cgn.portal.converter.backoffice.approved.BackofficeApprovedAgreementDetailConverter;
 import it.gov.pagopa.cgn.portal.enums.DocumentTypeEnum;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
 import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
-import it.gov.pagopa.cgn.portal.filestorage.AzureStorage;
+import it.gov.pagopa.cgn.portal.filestorage.DocumentStorage;
 import it.gov.pagopa.cgn.portal.filter.BackofficeFilter;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
-import it.gov.pagopa.cgn.portal.model.ApprovedAgreementEntity;
 import it.gov.pagopa.cgn.portal.model.DocumentEntity;
 import it.gov.pagopa.cgn.portal.service.*;
+import it.gov.pagopa.cgn.portal.service.BackofficeListCache.BackofficeList;
+import it.gov.pagopa.cgn.portal.util.CGNUtils;
 import it.gov.pagopa.cgnonboardingportal.backoffice.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.CollectionUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -48,18 +58,47 @@ public class BackofficeAgreementFacade {
 
     private final DiscountService discountService;
 
-    private final AzureStorage azureStorage;
+    private final DocumentStorage documentStorage;
+
+    private final DocumentBundleService documentBundleService;
+
+    private final BackofficeListCache backofficeListCache;
+
+    private final TransactionTemplate readOnlyTransactionTemplate;
 
 
-    @Transactional(readOnly = true)  // for converter
     public ResponseEntity<Agreements> getAgreements(BackofficeFilter filter) {
-        Page<AgreementEntity> agreements = backofficeAgreementService.getAgreements(filter);
-        return ResponseEntity.ok(agreementConverter.getAgreementFromPage(agreements));
+        // the converter reads lazy associations, so it runs in the same transaction of the query
+        Agreements agreements = backofficeListCache.get(
+                BackofficeList.AGREEMENT_REQUESTS, CGNUtils.getJwtAdminUserName(), filter,
+                () -> readOnlyTransactionTemplate.execute(
+                        status -> agreementConverter.getAgreementFromPage(backofficeAgreementService.getAgreements(filter))));
+        return ResponseEntity.ok(agreements);
+    }
+
+    public ResponseEntity<Resource> getDocumentBundle(List<String> agreementIds, BackofficeFilter filter) {
+        List<String> bundleAgreementIds = CollectionUtils.isEmpty(agreementIds)
+                                          ? backofficeAgreementService.getAgreementIds(filter)
+                                          : agreementIds;
+        Resource bundle = documentBundleService.createDocumentBundle(bundleAgreementIds);
+        String filename = "documents-" + LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE) + ".zip";
+        try {
+            return ResponseEntity.ok().contentLength(bundle.contentLength())
+                    .contentType(MediaType.parseMediaType("application/zip"))
+                    .cacheControl(CacheControl.noCache().mustRevalidate())
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename)
+                    .body(bundle);
+        } catch (IOException e) {
+            throw new CGNException(e);
+        }
     }
 
     public ResponseEntity<ApprovedAgreements> getApprovedAgreements(BackofficeFilter filter) {
-        Page<ApprovedAgreementEntity> agreements = approvedAgreementService.getApprovedAgreements(filter);
-        return ResponseEntity.ok(approvedAgreementConverter.getApprovedAgreementsFromPage(agreements));
+        ApprovedAgreements agreements = backofficeListCache.get(
+                BackofficeList.APPROVED_AGREEMENTS, CGNUtils.getJwtAdminUserName(), filter,
+                () -> approvedAgreementConverter.getApprovedAgreementsFromPage(
+                        approvedAgreementService.getApprovedAgreements(filter)));
+        return ResponseEntity.ok(agreements);
     }
 
     @Transactional(readOnly = true)  // for converter
@@ -106,15 +145,9 @@ public class BackofficeAgreementFacade {
 
 
     public ResponseEntity<Document> uploadDocument(String agreementId, String documentType, MultipartFile document) {
-        DocumentEntity documentEntity;
-        try {
-            documentEntity = documentService.storeDocument(agreementId,
-                    documentConverter.getBackofficeDocumentTypeEnum(documentType), document.getInputStream(),
-                    document.getSize());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        azureStorage.setSecureDocumentUrl(documentEntity);
+        DocumentEntity documentEntity = documentService.storeDocument(agreementId,
+                documentConverter.getBackofficeDocumentTypeEnum(documentType), document, document.getSize());
+        documentStorage.setSecureDocumentUrl(documentEntity);
         return ResponseEntity.ok(documentConverter.toDto(documentEntity));
     }
 
@@ -129,7 +162,10 @@ public class BackofficeAgreementFacade {
                                      AgreementService agreementService, DiscountService discountService,
                                      BackofficeApprovedAgreementDetailConverter agreementDetailConverter,
                                      BackofficeApprovedAgreementConverter approvedAgreementConverter,
-                                     AzureStorage azureStorage, ApprovedAgreementService approvedAgreementService) {
+                                     DocumentStorage documentStorage, ApprovedAgreementService approvedAgreementService,
+                                     DocumentBundleService documentBundleService,
+                                     BackofficeListCache backofficeListCache,
+                                     PlatformTransactionManager transactionManager) {
         this.backofficeAgreementService = backofficeAgreementService;
         this.agreementService = agreementService;
         this.discountService = discountService;
@@ -138,7 +174,11 @@ public class BackofficeAgreementFacade {
         this.agreementDetailConverter = agreementDetailConverter;
         this.approvedAgreementConverter = approvedAgreementConverter;
         this.documentService = documentService;
-        this.azureStorage = azureStorage;
+        this.documentStorage = documentStorage;
         this.approvedAgreementService = approvedAgreementService;
+        this.documentBundleService = documentBundleService;
+        this.backofficeListCache = backofficeListCache;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
     }
 }
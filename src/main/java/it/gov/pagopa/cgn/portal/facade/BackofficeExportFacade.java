@@ -1,5 +1,6 @@
 package it.gov.pagopa.cgn.portal.facade;
 
+import it.gov.pagopa.cgn.portal.filter.ExportFilter;
 import it.gov.pagopa.cgn.portal.service.ExportService;
 import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
@@ -17,8 +18,8 @@ public class BackofficeExportFacade {
     }
 
     @Transactional(Transactional.TxType.REQUIRED)
-    public ResponseEntity<Resource> exportAgreements() {
-        return exportService.exportAgreements();
+    public ResponseEntity<Resource> exportAgreements(ExportFilter filter) {
+        return exportService.exportAgreements(filter);
     }
 
 
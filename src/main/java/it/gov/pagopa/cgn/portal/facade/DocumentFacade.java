@@ -3,14 +3,15 @@ package it.gov.pagopa.cgn.portal.facade;
 import it.gov.pagopa.cgn.portal.converter.DocumentConverter;
 import it.gov.pagopa.cgn.portal.enums.DocumentTypeEnum;
 import it.gov.pagopa.cgn.portal.exception.CGNException;
-import it.gov.pagopa.cgn.portal.filestorage.AzureStorage;
+import it.gov.pagopa.cgn.portal.filestorage.DocumentStorage;
 import it.gov.pagopa.cgn.portal.model.DocumentEntity;
+import it.gov.pagopa.cgn.portal.pdf.RenderedDocument;
 import it.gov.pagopa.cgn.portal.service.DocumentService;
 import it.gov.pagopa.cgnonboardingportal.model.BucketLoad;
 import it.gov.pagopa.cgnonboardingportal.model.Document;
 import it.gov.pagopa.cgnonboardingportal.model.Documents;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
@@ -26,32 +27,30 @@ public class DocumentFacade {
 
     private final DocumentService documentService;
     private final DocumentConverter documentConverter;
-    private final AzureStorage azureStorage;
+    private final DocumentStorage documentStorage;
 
     public ResponseEntity<Resource> getDocumentTemplate(String agreementId, String documentType) {
-        byte[] document = documentService
-                .renderDocument(agreementId, DocumentTypeEnum.fromValue(documentType.toUpperCase())).toByteArray();
+        RenderedDocument document = documentService
+                .getRenderedDocument(agreementId, DocumentTypeEnum.fromValue(documentType.toUpperCase()));
 
-        return ResponseEntity.ok().contentLength(document.length).contentType(MediaType.APPLICATION_PDF)
-                .cacheControl(CacheControl.noCache().mustRevalidate()).body(new ByteArrayResource(document));
+        // the etag lets the browser revalidate, spring answers 304 when it matches If-None-Match
+        // the pdf is streamed from the cached buffer, without copying it
+        return ResponseEntity.ok().contentLength(document.getContent().size()).contentType(MediaType.APPLICATION_PDF)
+                .cacheControl(CacheControl.noCache().mustRevalidate()).eTag(document.getETag())
+                .body(new InputStreamResource(document.getContent().getInputStream()));
     }
 
     public ResponseEntity<Documents> getDocuments(String agreementId) {
         List<DocumentEntity> documentList = documentService.getPrioritizedDocuments(agreementId);
-        azureStorage.setSecureDocumentUrl(documentList);
+        documentStorage.setSecureDocumentUrl(documentList);
         Documents documents = documentConverter.getDocumentsDtoFromDocumentEntityList(documentList);
         return ResponseEntity.ok(documents);
     }
 
     public ResponseEntity<Document> uploadDocument(String agreementId, String documentType, MultipartFile document) {
-        DocumentEntity documentEntity;
-        try {
-            documentEntity = documentService.storeDocument(agreementId, DocumentTypeEnum.fromValue(documentType),
-                    document.getInputStream(), document.getSize());
-        } catch (IOException e) {
-            throw new CGNException(e);
-        }
-        azureStorage.setSecureDocumentUrl(documentEntity);
+        DocumentEntity documentEntity = documentService.storeDocument(agreementId,
+                DocumentTypeEnum.fromValue(documentType), document, document.getSize());
+        documentStorage.setSecureDocumentUrl(documentEntity);
         return ResponseEntity.ok(documentConverter.toDto(documentEntity));
     }
 
@@ -73,10 +72,10 @@ public class DocumentFacade {
 
     @Autowired
     public DocumentFacade(DocumentService documentService, DocumentConverter documentConverter,
-            AzureStorage azureStorage) {
+            DocumentStorage documentStorage) {
         this.documentService = documentService;
         this.documentConverter = documentConverter;
-        this.azureStorage = azureStorage;
+        this.documentStorage = documentStorage;
     }
 
 }
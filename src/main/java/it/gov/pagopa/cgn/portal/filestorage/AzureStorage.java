@@ -1,47 +1,49 @@
 package it.gov.pagopa.cgn.portal.filestorage;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.OffsetDateTime;
-import java.util.List;
-import java.util.stream.Stream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import javax.annotation.PostConstruct;
 
+import com.azure.core.util.Context;
 import com.azure.storage.blob.BlobClient;
 import com.azure.storage.blob.BlobContainerClient;
 import com.azure.storage.blob.BlobContainerClientBuilder;
+import com.azure.storage.blob.models.ParallelTransferOptions;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
 import com.azure.storage.blob.sas.BlobSasPermission;
 import com.azure.storage.blob.sas.BlobServiceSasSignatureValues;
 import com.azure.storage.common.sas.SasProtocol;
 
-import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
-import org.springframework.util.CollectionUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import it.gov.pagopa.cgn.portal.config.ConfigProperties;
-import it.gov.pagopa.cgn.portal.enums.DocumentTypeEnum;
 import it.gov.pagopa.cgn.portal.exception.CGNException;
 import it.gov.pagopa.cgn.portal.exception.ImageException;
 import it.gov.pagopa.cgn.portal.model.DocumentEntity;
-import it.gov.pagopa.cgn.portal.util.CsvUtils;
 
 @Component
-public class AzureStorage {
+@ConditionalOnProperty(name = "cgn.storage.type", havingValue = "azure", matchIfMissing = true)
+public class AzureStorage implements DocumentStorage {
 
     private final ConfigProperties configProperties;
+    private final SasUrlCache sasUrlCache;
 
     private BlobContainerClient documentContainerClient;
     private BlobContainerClient imagesContainerClient;
 
     @Autowired
-    public AzureStorage(ConfigProperties configProperties) {
+    public AzureStorage(ConfigProperties configProperties, SasUrlCache sasUrlCache) {
         this.configProperties = configProperties;
+        this.sasUrlCache = sasUrlCache;
     }
 
     @PostConstruct
@@ -56,24 +58,24 @@ public class AzureStorage {
                 .containerName(configProperties.getImagesContainerName()).buildClient();
     }
 
-    public String storeDocument(String agreementId, DocumentTypeEnum documentType, InputStream content, long size) {
-        String blobName = agreementId + "/" + documentType.getCode().toLowerCase() + ".pdf";
-
+    @Override
+    public String storeDocument(String blobName, InputStream content, long size) {
         BlobClient blobClient = documentContainerClient.getBlobClient(blobName);
-        try (ByteArrayInputStream contentIs = new ByteArrayInputStream(IOUtils.toByteArray(content))) {
-            blobClient.upload(contentIs, size, true);
+        try (InputStream contentIs = content) {
+            upload(blobClient, contentIs, size);
         } catch (IOException e) {
             throw new CGNException(e);
         }
         return configProperties.getDocumentsContainerName() + "/" + blobName;
     }
 
+    @Override
     public String storeImage(String agreementId, MultipartFile image) {
         String blobName = "image-" + agreementId + "." + FilenameUtils.getExtension(image.getOriginalFilename());
 
         BlobClient blobClient = imagesContainerClient.getBlobClient(blobName);
-        try (ByteArrayInputStream contentIs = new ByteArrayInputStream(IOUtils.toByteArray(image.getInputStream()))) {
-            blobClient.upload(contentIs, image.getSize(), true);
+        try (InputStream contentIs = image.getInputStream()) {
+            upload(blobClient, contentIs, image.getSize());
         } catch (IOException e) {
             throw new ImageException(ImageException.ImageErrorCodeEnum.GENERIC, e.getMessage());
         }
@@ -81,6 +83,22 @@ public class AzureStorage {
         return configProperties.getImagesContainerName() + "/" + blobName;
     }
 
+    @Override
+    public String storeImage(String blobName, InputStream content, long size) {
+        try (InputStream contentIs = content) {
+            upload(imagesContainerClient.getBlobClient(blobName), contentIs, size);
+        } catch (IOException e) {
+            throw new ImageException(ImageException.ImageErrorCodeEnum.GENERIC, e.getMessage());
+        }
+        return configProperties.getImagesContainerName() + "/" + blobName;
+    }
+
+    @Override
+    public InputStream openImage(String blobName) {
+        return imagesContainerClient.getBlobClient(blobName).openInputStream();
+    }
+
+    @Override
     public void uploadCsv(InputStream content, String blobName, long size) {
         BlobClient blobClient = documentContainerClient.getBlobClient(blobName + ".csv");
         try (InputStream contentIs = content) {
@@ -90,35 +108,76 @@ public class AzureStorage {
         }
     }
 
-    public Stream<CSVRecord> readCsvDocument(String blobName) throws IOException {
-        BlobClient blobClient = documentContainerClient.getBlobClient(blobName + ".csv");
-        return CsvUtils.getCsvRecordStream(blobClient.openInputStream());
+    @Override
+    public InputStream openDocument(String blobName) {
+        return documentContainerClient.getBlobClient(blobName).openInputStream();
     }
 
+    @Override
+    public ReadableByteChannel openDocumentChannel(String blobName) {
+        return Channels.newChannel(openDocument(blobName));
+    }
+
+    @Override
+    public long transferDocument(String blobName, WritableByteChannel target) {
+        CountingOutputStream out = new CountingOutputStream(Channels.newOutputStream(target));
+        documentContainerClient.getBlobClient(blobName).download(out);
+        return out.getByteCount();
+    }
+
+    @Override
     public boolean existsDocument(String blobName) {
         BlobClient blobClient = documentContainerClient.getBlobClient(blobName);
         return blobClient.exists();
     }
 
-    public String getDocumentSasFileUrl(String documentUrl) {
-        BlobClient blobClient = documentContainerClient.getBlobClient(getBlobName(documentUrl));
-        BlobServiceSasSignatureValues blobServiceSasSignatureValues = new BlobServiceSasSignatureValues(
-                OffsetDateTime.now().plusHours(configProperties.getSasExpiryTimeHours()),
-                new BlobSasPermission().setReadPermission(true)).setProtocol(SasProtocol.HTTPS_ONLY);
-        return String.format("%s?%s", blobClient.getBlobUrl(), blobClient.generateSas(blobServiceSasSignatureValues));
+    @Override
+    public long getDocumentSize(String blobName) {
+        return documentContainerClient.getBlobClient(blobName).getProperties().getBlobSize();
+    }
 
+    @Override
+    public void deleteDocument(String blobName) {
+        documentContainerClient.getBlobClient(blobName).deleteIfExists();
     }
 
-    public void setSecureDocumentUrl(DocumentEntity documentEntity) {
-        documentEntity.setDocumentUrl(getDocumentSasFileUrl(documentEntity.getDocumentUrl()));
+    @Override
+    public String getDocumentSasFileUrl(String documentUrl) {
+        String blobName = getBlobName(documentUrl);
+        return sasUrlCache.get(blobName, expiry -> {
+            BlobClient blobClient = documentContainerClient.getBlobClient(blobName);
+            BlobServiceSasSignatureValues blobServiceSasSignatureValues = new BlobServiceSasSignatureValues(expiry,
+                    new BlobSasPermission().setReadPermission(true)).setProtocol(SasProtocol.HTTPS_ONLY);
+            return String.format("%s?%s", blobClient.getBlobUrl(), blobClient.generateSas(blobServiceSasSignatureValues));
+        });
     }
 
-    public void setSecureDocumentUrl(List<DocumentEntity> documentList) {
-        if (!CollectionUtils.isEmpty(documentList)) {
-            documentList.forEach(this::setSecureDocumentUrl);
+    @Override
+    public void setSecureDocumentUrl(DocumentEntity documentEntity) {
+        // the same entity may be secured more than once in a request, its url is signed only the first time
+        if (!isSignedUrl(documentEntity.getDocumentUrl())) {
+            documentEntity.setDocumentUrl(getDocumentSasFileUrl(documentEntity.getDocumentUrl()));
         }
     }
 
+    /**
+     * Streams the content to the blob, staging blocks of the configured size in parallel and committing
+     * the block list at the end. Only the blocks being staged are buffered, never the whole content.
+     * An existing blob is overwritten.
+     */
+    private void upload(BlobClient blobClient, InputStream content, long size) {
+        ParallelTransferOptions transferOptions = new ParallelTransferOptions()
+                .setBlockSizeLong(configProperties.getUploadBlockSizeBytes())
+                .setMaxSingleUploadSizeLong(configProperties.getUploadBlockSizeBytes())
+                .setMaxConcurrency(configProperties.getUploadMaxConcurrency());
+        blobClient.uploadWithResponse(new BlobParallelUploadOptions(content, size)
+                .setParallelTransferOptions(transferOptions), null, Context.NONE);
+    }
+
+    private boolean isSignedUrl(String documentUrl) {
+        return documentUrl.startsWith(documentContainerClient.getBlobContainerUrl());
+    }
+
     private String getBlobName(String documentUrl) {
         if (documentUrl.contains("/")) {
             return documentUrl.substring(documentUrl.indexOf("/") + 1);
@@ -0,0 +1,72 @@
+package it.gov.pagopa.cgn.portal.filestorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.csv.CSVRecord;
+import org.springframework.util.CollectionUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import it.gov.pagopa.cgn.portal.model.DocumentEntity;
+import it.gov.pagopa.cgn.portal.util.CsvUtils;
+
+/**
+ * Storage of agreement documents, profile images and bucket code files.
+ * The backend is chosen with cgn.storage.type: azure (default) or local.
+ * Store methods return the document url as "container/blobName".
+ */
+public interface DocumentStorage {
+
+    /**
+     * Stores the content in the documents container under the given blob name.
+     */
+    String storeDocument(String blobName, InputStream content, long size);
+
+    String storeImage(String agreementId, MultipartFile image);
+
+    /**
+     * Stores the content in the images container under the given blob name.
+     */
+    String storeImage(String blobName, InputStream content, long size);
+
+    InputStream openImage(String blobName) throws IOException;
+
+    void uploadCsv(InputStream content, String blobName, long size);
+
+    InputStream openDocument(String blobName) throws IOException;
+
+    ReadableByteChannel openDocumentChannel(String blobName) throws IOException;
+
+    /**
+     * Writes the whole document to the target channel and returns the number of bytes written.
+     */
+    long transferDocument(String blobName, WritableByteChannel target) throws IOException;
+
+    boolean existsDocument(String blobName);
+
+    long getDocumentSize(String blobName) throws IOException;
+
+    void deleteDocument(String blobName);
+
+    /**
+     * Returns a time limited url that can be used to download the document without authentication.
+     */
+    String getDocumentSasFileUrl(String documentUrl);
+
+    void setSecureDocumentUrl(DocumentEntity documentEntity);
+
+    default void setSecureDocumentUrl(List<DocumentEntity> documentList) {
+        if (!CollectionUtils.isEmpty(documentList)) {
+            documentList.forEach(this::setSecureDocumentUrl);
+        }
+    }
+
+    default Stream<CSVRecord> readCsvDocument(String blobName) throws IOException {
+        return CsvUtils.getCsvRecordStream(openDocument(blobName + ".csv"));
+    }
+
+}
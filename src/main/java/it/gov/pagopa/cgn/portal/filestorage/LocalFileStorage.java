@@ -0,0 +1,293 @@
+package it.gov.pagopa.cgn.portal.filestorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.util.Base64;
+import java.util.stream.Stream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import it.gov.pagopa.cgn.portal.exception.ImageException;
+import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
+import it.gov.pagopa.cgn.portal.model.DocumentEntity;
+import it.gov.pagopa.cgn.portal.util.CsvUtils;
+
+/**
+ * Stores documents on the local filesystem, one directory per container under cgn.storage.local.root-dir.
+ * Writes go to a temporary file that is atomically moved in place, reads use file channels:
+ * csv files are memory mapped and downloads are copied with transferTo.
+ * Signed urls point to LocalFileStorageController and carry an hmac of the blob name and expiry.
+ */
+@Component
+@ConditionalOnProperty(name = "cgn.storage.type", havingValue = "local")
+public class LocalFileStorage implements DocumentStorage {
+
+    private static final String SIGNATURE_ALGORITHM = "HmacSHA256";
+
+    private final ConfigProperties configProperties;
+    private final SasUrlCache sasUrlCache;
+    private final Path documentsDir;
+    private final Path imagesDir;
+    private final SecretKeySpec signingKey;
+
+    @Override
+    public String storeDocument(String blobName, InputStream content, long size) {
+        try (InputStream contentIs = content) {
+            write(resolve(documentsDir, blobName), contentIs, size);
+        } catch (IOException e) {
+            throw new CGNException(e);
+        }
+        return configProperties.getDocumentsContainerName() + "/" + blobName;
+    }
+
+    @Override
+    public String storeImage(String agreementId, MultipartFile image) {
+        String blobName = "image-" + agreementId + "." + FilenameUtils.getExtension(image.getOriginalFilename());
+        try (InputStream contentIs = image.getInputStream()) {
+            write(resolve(imagesDir, blobName), contentIs, image.getSize());
+        } catch (IOException e) {
+            throw new ImageException(ImageException.ImageErrorCodeEnum.GENERIC, e.getMessage());
+        }
+        return configProperties.getImagesContainerName() + "/" + blobName;
+    }
+
+    @Override
+    public String storeImage(String blobName, InputStream content, long size) {
+        try (InputStream contentIs = content) {
+            write(resolve(imagesDir, blobName), contentIs, size);
+        } catch (IOException e) {
+            throw new ImageException(ImageException.ImageErrorCodeEnum.GENERIC, e.getMessage());
+        }
+        return configProperties.getImagesContainerName() + "/" + blobName;
+    }
+
+    @Override
+    public InputStream openImage(String blobName) throws IOException {
+        return Files.newInputStream(resolve(imagesDir, blobName));
+    }
+
+    @Override
+    public void uploadCsv(InputStream content, String blobName, long size) {
+        try (InputStream contentIs = content) {
+            write(resolve(documentsDir, blobName + ".csv"), contentIs, size);
+        } catch (IOException e) {
+            throw new CGNException(e);
+        }
+    }
+
+    @Override
+    public InputStream openDocument(String blobName) throws IOException {
+        return Files.newInputStream(resolve(documentsDir, blobName));
+    }
+
+    @Override
+    public FileChannel openDocumentChannel(String blobName) throws IOException {
+        return FileChannel.open(resolve(documentsDir, blobName), StandardOpenOption.READ);
+    }
+
+    @Override
+    public long transferDocument(String blobName, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = openDocumentChannel(blobName)) {
+            long size = channel.size();
+            long position = 0;
+            // transferTo may copy less than asked, the kernel does the copy when target is a file or socket
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Parses the csv from a read only memory mapping of the file, so the rows are never copied
+     * through a heap buffer. The mapping is released when the stream is garbage collected.
+     */
+    @Override
+    public Stream<CSVRecord> readCsvDocument(String blobName) throws IOException {
+        try (FileChannel channel = openDocumentChannel(blobName + ".csv")) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return CsvUtils.getCsvRecordStream(openDocument(blobName + ".csv"));
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return CsvUtils.getCsvRecordStream(new ByteBufferInputStream(buffer));
+        }
+    }
+
+    @Override
+    public boolean existsDocument(String blobName) {
+        return Files.isRegularFile(resolve(documentsDir, blobName));
+    }
+
+    @Override
+    public void deleteDocument(String blobName) {
+        try {
+            Files.deleteIfExists(resolve(documentsDir, blobName));
+        } catch (IOException e) {
+            throw new CGNException(e);
+        }
+    }
+
+    @Override
+    public String getDocumentSasFileUrl(String documentUrl) {
+        String blobName = getBlobName(documentUrl);
+        return sasUrlCache.get(blobName, expiry -> {
+            long expirySeconds = expiry.toEpochSecond();
+            return configProperties.getLocalStorageBaseUrl() + "/" + blobName +
+                   "?se=" + expirySeconds + "&sig=" + sign(blobName, expirySeconds);
+        });
+    }
+
+    @Override
+    public void setSecureDocumentUrl(DocumentEntity documentEntity) {
+        // the same entity may be secured more than once in a request, its url is signed only the first time
+        if (!documentEntity.getDocumentUrl().startsWith(configProperties.getLocalStorageBaseUrl())) {
+            documentEntity.setDocumentUrl(getDocumentSasFileUrl(documentEntity.getDocumentUrl()));
+        }
+    }
+
+    /**
+     * Checks a signature created by {@link #getDocumentSasFileUrl(String)}.
+     */
+    public boolean isValidSignature(String blobName, long expirySeconds, String signature) {
+        if (OffsetDateTime.now().toEpochSecond() > expirySeconds) {
+            return false;
+        }
+        return MessageDigest.isEqual(sign(blobName, expirySeconds).getBytes(StandardCharsets.US_ASCII),
+                                     signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public long getDocumentSize(String blobName) throws IOException {
+        return Files.size(resolve(documentsDir, blobName));
+    }
+
+    private String sign(String blobName, long expirySeconds) {
+        try {
+            Mac mac = Mac.getInstance(SIGNATURE_ALGORITHM);
+            mac.init(signingKey);
+            byte[] signature = mac.doFinal((blobName + "\n" + expirySeconds).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new CGNException("Cannot sign document url", e);
+        }
+    }
+
+    private static void write(Path target, InputStream content, long size) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), ".upload-", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+                 ReadableByteChannel source = Channels.newChannel(content)) {
+                long position = 0;
+                long transferred;
+                while (position < size && (transferred = channel.transferFrom(source, position, size - position)) > 0) {
+                    position += transferred;
+                }
+                // a truncated or oversized upload must not replace the stored file
+                if (position != size) {
+                    throw new IOException("Expected " + size + " bytes for " + target.getFileName() + ", received " +
+                                          position);
+                }
+                if (content.read() != -1) {
+                    throw new IOException("Expected " + size + " bytes for " + target.getFileName() +
+                                          ", received more");
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static Path resolve(Path container, String blobName) {
+        Path path = container.resolve(blobName).normalize();
+        if (!path.startsWith(container)) {
+            throw new InvalidRequestException("Invalid document name");
+        }
+        return path;
+    }
+
+    private String getBlobName(String documentUrl) {
+        if (documentUrl.contains("/")) {
+            return documentUrl.substring(documentUrl.indexOf("/") + 1);
+        }
+        return documentUrl;
+    }
+
+    public LocalFileStorage(ConfigProperties configProperties, SasUrlCache sasUrlCache) {
+        this.configProperties = configProperties;
+        this.sasUrlCache = sasUrlCache;
+        Path rootDir = Paths.get(configProperties.getLocalStorageRootDir()).toAbsolutePath().normalize();
+        this.documentsDir = rootDir.resolve(configProperties.getDocumentsContainerName());
+        this.imagesDir = rootDir.resolve(configProperties.getImagesContainerName());
+        if (StringUtils.isBlank(configProperties.getLocalStorageSigningKey())) {
+            throw new CGNException("cgn.storage.local.signing-key is required with local storage");
+        }
+        this.signingKey = new SecretKeySpec(configProperties.getLocalStorageSigningKey()
+                                                            .getBytes(StandardCharsets.UTF_8), SIGNATURE_ALGORITHM);
+        try {
+            Files.createDirectories(documentsDir);
+            Files.createDirectories(imagesDir);
+        } catch (IOException e) {
+            throw new CGNException("Cannot create local storage directories under " + rootDir, e);
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
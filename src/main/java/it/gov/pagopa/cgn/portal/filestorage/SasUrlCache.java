@@ -0,0 +1,111 @@
+package it.gov.pagopa.cgn.portal.filestorage;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Cache of signed document urls keyed by blob name.
+ * A url is reused until the refresh margin before its sas expiry, so a client always gets at least
+ * the margin to download the document.
+ * Reads take no lock. When a new url takes the cache past its bound, the inserting thread drops the urls
+ * due for refresh and then the least recently used ones, down to nine tenths of the bound.
+ */
+@Component
+public class SasUrlCache {
+
+    private final Map<String, SasUrl> urls = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final Duration validity;
+    private final Duration refreshMargin;
+    private final int maxEntries;
+    private final int evictTo;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    /**
+     * Returns the cached url of the blob or signs a new one.
+     *
+     * @param signer creates the signed url expiring at the given time
+     */
+    public String get(String blobName, Function<OffsetDateTime, String> signer) {
+        OffsetDateTime now = OffsetDateTime.now();
+        SasUrl cached = urls.get(blobName);
+        if (cached != null && now.isBefore(cached.refreshAfter)) {
+            cached.lastAccess = System.nanoTime();
+            hitCounter.increment();
+            return cached.url;
+        }
+        missCounter.increment();
+        // signing is cheap enough that two concurrent misses may both sign, the last one wins
+        OffsetDateTime expiry = now.plus(validity);
+        SasUrl signed = new SasUrl(signer.apply(expiry), expiry.minus(refreshMargin));
+        urls.put(blobName, signed);
+        evictIfFull(now);
+        return signed.url;
+    }
+
+    public int size() {
+        return urls.size();
+    }
+
+    private void evictIfFull(OffsetDateTime now) {
+        // one thread evicts at a time and the others go on; the bound is checked again once the eviction ends,
+        // so the urls added meanwhile are not left over it
+        while (urls.size() > maxEntries && evicting.compareAndSet(false, true)) {
+            try {
+                urls.values().removeIf(url -> !now.isBefore(url.refreshAfter));
+                int excess = urls.size() - evictTo;
+                if (excess > 0) {
+                    // access times are copied before sorting, they keep changing while the entries are sorted
+                    urls.entrySet()
+                        .stream()
+                        .map(entry -> new AbstractMap.SimpleEntry<>(entry, entry.getValue().lastAccess))
+                        .sorted(Map.Entry.comparingByValue())
+                        .limit(excess)
+                        .map(Map.Entry::getKey)
+                        .forEach(entry -> urls.remove(entry.getKey(), entry.getValue()));
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    public SasUrlCache(ConfigProperties configProperties, MeterRegistry meterRegistry) {
+        this.validity = Duration.ofHours(configProperties.getSasExpiryTimeHours());
+        this.refreshMargin = Duration.ofMinutes(configProperties.getSasCacheRefreshMarginMinutes());
+        if (refreshMargin.compareTo(validity) >= 0) {
+            throw new CGNException("cgn.storage.document.sas.cache.refresh-margin-minutes must be shorter than " +
+                                   "cgn.storage.document.sas.expiry.time.hours, or no url would ever be reused");
+        }
+        this.maxEntries = configProperties.getSasCacheMaxEntries();
+        this.evictTo = maxEntries - maxEntries / 10;
+        this.hitCounter = Counter.builder("cgn.storage.sas.cache.hits").register(meterRegistry);
+        this.missCounter = Counter.builder("cgn.storage.sas.cache.misses").register(meterRegistry);
+        Gauge.builder("cgn.storage.sas.cache.size", this::size).register(meterRegistry);
+    }
+
+    private static class SasUrl {
+        private final String url;
+        private final OffsetDateTime refreshAfter;
+        private volatile long lastAccess = System.nanoTime();
+
+        SasUrl(String url, OffsetDateTime refreshAfter) {
+            this.url = url;
+            this.refreshAfter = refreshAfter;
+        }
+    }
+
+}
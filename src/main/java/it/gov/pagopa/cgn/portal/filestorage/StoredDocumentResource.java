@@ -0,0 +1,43 @@
+package it.gov.pagopa.cgn.portal.filestorage;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A document of the documents container, opened only when the content is read.
+ */
+public class StoredDocumentResource extends AbstractResource {
+
+    private final DocumentStorage documentStorage;
+    private final String blobName;
+    private final long size;
+
+    @Override
+    public String getDescription() {
+        return "Stored document [" + blobName + "]";
+    }
+
+    @Override
+    public boolean exists() {
+        return documentStorage.existsDocument(blobName);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return documentStorage.openDocument(blobName);
+    }
+
+    @Override
+    public long contentLength() {
+        return size;
+    }
+
+    public StoredDocumentResource(DocumentStorage documentStorage, String blobName, long size) {
+        this.documentStorage = documentStorage;
+        this.blobName = blobName;
+        this.size = size;
+    }
+
+}
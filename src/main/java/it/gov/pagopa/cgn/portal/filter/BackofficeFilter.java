@@ -10,6 +10,10 @@ import org.springframework.data.domain.Sort;
 
 import java.io.Serializable;
 import java.time.LocalDate;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Getter
 @Setter
@@ -36,10 +40,15 @@ public class BackofficeFilter implements Serializable {
 
     private Sort.Direction sortDirection;
 
+    private String continuationToken;
+
+    private boolean skipCount;
+
 
     public static BackofficeFilter getRequestFilter(
             String state, String profileFullName, String assignee, LocalDate startDateFrom, LocalDate startDateTo,
-            Integer pageSize, Integer page, String sortColumn, String sortDirection) {
+            Integer pageSize, Integer page, String sortColumn, String sortDirection, String continuationToken,
+            Boolean skipCount) {
 
         return BackofficeFilter.builder()
                 .agreementState(state)
@@ -51,12 +60,30 @@ public class BackofficeFilter implements Serializable {
                 .pageSize(pageSize)
                 .requestSortColumnEnum(BackofficeRequestSortColumnEnum.fromValue(sortColumn))
                 .sortDirection(Sort.Direction.valueOf(sortDirection))
+                .continuationToken(continuationToken)
+                .skipCount(Boolean.TRUE.equals(skipCount))
+                .build();
+    }
+
+    public static BackofficeFilter getDocumentBundleFilter(
+            String state, String profileFullName, String assignee, LocalDate startDateFrom, LocalDate startDateTo,
+            Integer maxAgreements) {
+
+        return BackofficeFilter.builder()
+                .agreementState(state)
+                .profileFullName(profileFullName)
+                .assignee(AssigneeEnum.fromValue(assignee))
+                .dateFrom(startDateFrom)
+                .dateTo(startDateTo)
+                .page(0)
+                // one more than allowed, so that a filter matching too many agreements is refused, not truncated
+                .pageSize(maxAgreements + 1)
                 .build();
     }
 
     public static BackofficeFilter getApprovedFilter(
             String profileFullName, LocalDate requestDateFrom, LocalDate requestDateTo,Integer pageSize, Integer page,
-            String sortColumn, String sortDirection) {
+            String sortColumn, String sortDirection, String continuationToken, Boolean skipCount) {
         return BackofficeFilter.builder()
                 .profileFullName(profileFullName)
                 .dateFrom(requestDateFrom)
@@ -65,7 +92,21 @@ public class BackofficeFilter implements Serializable {
                 .pageSize(pageSize)
                 .approvedSortColumnEnum(BackofficeApprovedSortColumnEnum.fromValue(sortColumn))
                 .sortDirection(Sort.Direction.valueOf(sortDirection))
+                .continuationToken(continuationToken)
+                .skipCount(Boolean.TRUE.equals(skipCount))
                 .build();
     }
 
+    /**
+     * Key identifying the rows selected by this filter, page included.
+     * The name search is case insensitive, so the name is lower cased.
+     */
+    public String getCacheKey() {
+        String normalisedFullName = profileFullName == null ? null : profileFullName.toLowerCase(Locale.ROOT);
+        return Stream.of(agreementState, normalisedFullName, assignee, dateFrom, dateTo, pageSize, page,
+                        requestSortColumnEnum, approvedSortColumnEnum, sortDirection, continuationToken, skipCount)
+                .map(value -> Objects.toString(value, "-"))
+                .collect(Collectors.joining("|"));
+    }
+
 }
@@ -0,0 +1,80 @@
+package it.gov.pagopa.cgn.portal.filter;
+
+import it.gov.pagopa.cgn.portal.enums.AgreementStateEnum;
+import it.gov.pagopa.cgn.portal.enums.DiscountStateEnum;
+import it.gov.pagopa.cgn.portal.enums.ExportCompressionEnum;
+import it.gov.pagopa.cgn.portal.enums.SalesChannelEnum;
+import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Getter
+@Setter
+@Builder
+public class ExportFilter implements Serializable {
+
+    private AgreementStateEnum agreementState;
+
+    private DiscountStateEnum discountState;
+
+    private SalesChannelEnum salesChannel;
+
+    private LocalDate discountDateFrom;
+
+    private LocalDate discountDateTo;
+
+    private Boolean visibleOnEyca;
+
+    @Builder.Default
+    private ExportCompressionEnum compression = ExportCompressionEnum.NONE;
+
+    private boolean snapshot;
+
+    public static ExportFilter getExportFilter(
+            String agreementState, String discountState, String salesChannel, LocalDate discountDateFrom,
+            LocalDate discountDateTo, Boolean visibleOnEyca, String compression, Boolean snapshot) {
+
+        return ExportFilter.builder()
+                .agreementState(toEnum(agreementState, AgreementStateEnum::valueOf, "Agreement state"))
+                .discountState(toEnum(discountState, DiscountStateEnum::valueOf, "Discount state"))
+                .salesChannel(toEnum(salesChannel, SalesChannelEnum::valueOf, "Sales channel"))
+                .discountDateFrom(discountDateFrom)
+                .discountDateTo(discountDateTo)
+                .visibleOnEyca(visibleOnEyca)
+                .compression(ExportCompressionEnum.fromValue(compression))
+                .snapshot(Boolean.TRUE.equals(snapshot))
+                .build();
+    }
+
+    /**
+     * Key identifying the rows selected by this filter, compression included.
+     * Two filters with the same key produce the same export file.
+     */
+    public String getSnapshotKey() {
+        return Stream.of(agreementState, discountState, salesChannel, discountDateFrom, discountDateTo,
+                        visibleOnEyca, compression)
+                .map(value -> Objects.toString(value, "-"))
+                .collect(Collectors.joining("|"));
+    }
+
+    private static <E extends Enum<E>> E toEnum(String value, Function<String, E> valueOf, String label) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        try {
+            return valueOf.apply(value);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequestException(label + " value not valid");
+        }
+    }
+
+}
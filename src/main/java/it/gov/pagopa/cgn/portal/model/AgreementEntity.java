@@ -51,6 +51,15 @@ public class AgreementEntity extends BaseEntity {
     @Column(name = "image_url", length = 500)
     private String imageUrl;
 
+    @Column(name = "image_thumbnail_url", length = 500)
+    private String imageThumbnailUrl;
+
+    @Column(name = "image_card_url", length = 500)
+    private String imageCardUrl;
+
+    @Column(name = "image_detail_url", length = 500)
+    private String imageDetailUrl;
+
     @ToString.Exclude
     @EqualsAndHashCode.Exclude
     @OneToOne(mappedBy = "agreement", fetch = FetchType.LAZY)
@@ -0,0 +1,39 @@
+package it.gov.pagopa.cgn.portal.model;
+
+import lombok.Data;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import java.time.OffsetDateTime;
+
+/**
+ * Uploaded document content, stored once per agreement and shared by the documents with the same sha-256.
+ */
+@Entity
+@Table(name = "document_blob")
+@Data
+public class DocumentBlobEntity extends BaseEntity {
+
+    @Id
+    @NotNull
+    @Column(name = "blob_url")
+    private String blobUrl;
+
+    @NotNull
+    @Column(name = "agreement_fk", length = 36)
+    private String agreementId;
+
+    @NotNull
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "reference_count")
+    private int referenceCount;
+
+    @Column(name = "unreferenced_since")
+    private OffsetDateTime unreferencedSince;
+
+}
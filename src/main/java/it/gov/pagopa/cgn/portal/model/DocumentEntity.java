@@ -17,8 +17,17 @@ import java.time.OffsetDateTime;
 public class DocumentEntity extends BaseEntity {
 
     @Id
+    @Column(name = "document_k")
+    @SequenceGenerator(name = "document_document_k_seq",
+            sequenceName = "document_document_k_seq",
+            allocationSize = 1)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE,
+            generator = "document_document_k_seq")
+    private Long id;
+
+    // the url is replaced with a signed one before being returned, it must never be written back
     @NotNull
-    @Column(name = "document_url")
+    @Column(name = "document_url", updatable = false)
     private String documentUrl;
 
     @Enumerated(EnumType.STRING)
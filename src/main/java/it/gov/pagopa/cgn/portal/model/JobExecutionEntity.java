@@ -0,0 +1,51 @@
+package it.gov.pagopa.cgn.portal.model;
+
+import it.gov.pagopa.cgn.portal.enums.JobExecutionStatusEnum;
+import lombok.Data;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.time.OffsetDateTime;
+
+/**
+ * A run of a scheduled job.
+ */
+@Entity
+@Table(name = "job_execution")
+@Data
+public class JobExecutionEntity extends BaseEntity {
+
+    @Id
+    @Column(name = "job_execution_k")
+    @SequenceGenerator(name = "job_execution_job_execution_k_seq",
+            sequenceName = "job_execution_job_execution_k_seq",
+            allocationSize = 1)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "job_execution_job_execution_k_seq")
+    private Long id;
+
+    @NotNull
+    @Column(name = "job_name", length = 100)
+    private String jobName;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 50)
+    private JobExecutionStatusEnum status;
+
+    @NotNull
+    @Column(name = "start_time")
+    private OffsetDateTime startTime;
+
+    @Column(name = "end_time")
+    private OffsetDateTime endTime;
+
+    @Column(name = "items_processed")
+    private int itemsProcessed;
+
+    @Column(name = "errors")
+    private int errors;
+
+    @Column(name = "last_error")
+    private String lastError;
+
+}
@@ -0,0 +1,65 @@
+package it.gov.pagopa.cgn.portal.model;
+
+import it.gov.pagopa.cgn.portal.enums.JobExecutionStatusEnum;
+import lombok.Data;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.time.OffsetDateTime;
+
+/**
+ * A partition of a job run: the items whose discount id modulo the partition count is the partition index.
+ */
+@Entity
+@Table(name = "job_partition")
+@Data
+public class JobPartitionEntity extends BaseEntity {
+
+    @Id
+    @Column(name = "job_partition_k")
+    @SequenceGenerator(name = "job_partition_job_partition_k_seq",
+            sequenceName = "job_partition_job_partition_k_seq",
+            allocationSize = 1)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "job_partition_job_partition_k_seq")
+    private Long id;
+
+    @NotNull
+    @Column(name = "job_execution_fk")
+    private Long jobExecutionId;
+
+    @Column(name = "partition_index")
+    private int partitionIndex;
+
+    @Column(name = "partition_count")
+    private int partitionCount;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 50)
+    private JobExecutionStatusEnum status;
+
+    @Column(name = "attempts")
+    private int attempts;
+
+    @Column(name = "start_time")
+    private OffsetDateTime startTime;
+
+    @Column(name = "end_time")
+    private OffsetDateTime endTime;
+
+    @Column(name = "items_processed")
+    private int itemsProcessed;
+
+    @Column(name = "errors")
+    private int errors;
+
+    @Column(name = "last_error")
+    private String lastError;
+
+    @Column(name = "owner", length = 100)
+    private String owner;
+
+    @Column(name = "lease_until")
+    private OffsetDateTime leaseUntil;
+
+}
@@ -0,0 +1,70 @@
+package it.gov.pagopa.cgn.portal.model;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.time.OffsetDateTime;
+
+/**
+ * Email waiting to be sent. The template is rendered with the stored variables when the email is sent.
+ */
+@Entity
+@Table(name = "notification_outbox")
+@Data
+public class NotificationOutboxEntity extends BaseEntity {
+
+    @Id
+    @Column(name = "notification_outbox_k")
+    @SequenceGenerator(name = "notification_outbox_notification_outbox_k_seq",
+            sequenceName = "notification_outbox_notification_outbox_k_seq",
+            allocationSize = 1)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE,
+            generator = "notification_outbox_notification_outbox_k_seq")
+    private Long id;
+
+    @Column(name = "tracking_key")
+    private String trackingKey;
+
+    @NotNull
+    @Column(name = "mail_to")
+    private String mailTo;
+
+    @Column(name = "reply_to")
+    private String replyTo;
+
+    @NotNull
+    @Column(name = "subject")
+    private String subject;
+
+    @NotNull
+    @Column(name = "template", length = 50)
+    private String template;
+
+    @NotNull
+    @Column(name = "template_variables")
+    private String templateVariables;
+
+    @Column(name = "failure_message")
+    private String failureMessage;
+
+    @Column(name = "attempts")
+    private int attempts;
+
+    @NotNull
+    @Column(name = "next_attempt_time")
+    private OffsetDateTime nextAttemptTime;
+
+    @Column(name = "last_error")
+    private String lastError;
+
+    @Column(name = "abandoned_at")
+    private OffsetDateTime abandonedAt;
+
+    @Column(name = "digest")
+    private boolean digest;
+
+    @Column(name = "lease_until")
+    private OffsetDateTime leaseUntil;
+
+}
@@ -0,0 +1,143 @@
+package it.gov.pagopa.cgn.portal.pdf;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import it.gov.pagopa.cgn.portal.exception.ServiceUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the pdf layout on the dedicated render executor, so request threads never do cpu heavy rendering.
+ * When the executor queue is full the request is refused with a retry hint.
+ * A render given up while still queued is skipped; one already running cannot be interrupted, it keeps its
+ * thread and renderer until the layout ends.
+ */
+@Slf4j
+@Component
+public class AsyncPdfRenderer {
+
+    private final PdfRendererPool pdfRendererPool;
+    private final ThreadPoolTaskExecutor pdfRenderExecutor;
+    private final MeterRegistry meterRegistry;
+    private final long renderTimeoutMillis;
+    private final long retryAfterSeconds;
+    private final Timer queueTimer;
+    private final Counter rejectedCounter;
+    private final Counter timeoutCounter;
+    private final Counter skippedCounter;
+
+    /**
+     * Renders the given xhtml and returns the pdf.
+     * Not to be called inside a transaction: the calling thread waits for the render.
+     *
+     * @param documentName name used to tag the render metrics
+     * @throws ServiceUnavailableException if too many renders are queued or the render takes too long
+     */
+    public PdfContent render(String documentName, String renderedContent) {
+        return await(documentName, submit(documentName, renderedContent));
+    }
+
+    /**
+     * Waits at most the render timeout for a submitted render, then cancels it.
+     * A cancelled render still queued is skipped, a running one ends anyway: cgn.pdf.render.timeouts minus
+     * cgn.pdf.render.skipped counts the renders that kept their slot after being given up.
+     *
+     * @param documentName name used in the timeout log
+     * @throws ServiceUnavailableException if the render takes too long
+     */
+    public <T> T await(String documentName, CompletableFuture<T> future) {
+        try {
+            return future.get(renderTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // the layout is not interruptible, cancelling only keeps a queued render from starting
+            future.cancel(false);
+            timeoutCounter.increment();
+            log.warn("Rendering of " + documentName + " exceeded " + renderTimeoutMillis + " ms");
+            throw new ServiceUnavailableException("Document rendering timed out", retryAfterSeconds);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CGNException("Error in document rendering", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CGNException("Interrupted while rendering document", e);
+        }
+    }
+
+    /**
+     * Queues the rendering of the given xhtml without waiting for it.
+     *
+     * @param documentName name used to tag the render metrics
+     * @throws ServiceUnavailableException if too many renders are queued
+     */
+    public CompletableFuture<PdfContent> submit(String documentName, String renderedContent) {
+        long submitTime = System.nanoTime();
+        CompletableFuture<PdfContent> result = new CompletableFuture<>();
+        try {
+            pdfRenderExecutor.execute(() -> {
+                queueTimer.record(System.nanoTime() - submitTime, TimeUnit.NANOSECONDS);
+                // a caller that stopped waiting has cancelled the result, the render would only hold a renderer
+                if (result.isDone()) {
+                    skippedCounter.increment();
+                    return;
+                }
+                try {
+                    result.complete(Timer.builder("cgn.pdf.render")
+                                         .tag("document", documentName)
+                                         .register(meterRegistry)
+                                         .record(() -> {
+                                             PdfContent content = new PdfContent();
+                                             pdfRendererPool.render(renderedContent, content);
+                                             return content;
+                                         }));
+                } catch (RuntimeException | Error e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            return result;
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw new ServiceUnavailableException("Too many documents being rendered", retryAfterSeconds);
+        }
+    }
+
+    public long getRenderTimeoutMillis() {
+        return renderTimeoutMillis;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public AsyncPdfRenderer(PdfRendererPool pdfRendererPool,
+                            @Qualifier("pdfRenderExecutor") ThreadPoolTaskExecutor pdfRenderExecutor,
+                            ConfigProperties configProperties,
+                            MeterRegistry meterRegistry) {
+        this.pdfRendererPool = pdfRendererPool;
+        this.pdfRenderExecutor = pdfRenderExecutor;
+        this.meterRegistry = meterRegistry;
+        this.renderTimeoutMillis = configProperties.getPdfRenderTimeoutMillis();
+        this.retryAfterSeconds = configProperties.getPdfRenderRetryAfterSeconds();
+        this.queueTimer = Timer.builder("cgn.pdf.render.queue").register(meterRegistry);
+        this.rejectedCounter = Counter.builder("cgn.pdf.render.rejected").register(meterRegistry);
+        this.timeoutCounter = Counter.builder("cgn.pdf.render.timeouts").register(meterRegistry);
+        this.skippedCounter = Counter.builder("cgn.pdf.render.skipped").register(meterRegistry);
+        Gauge.builder("cgn.pdf.render.queue.size",
+                      pdfRenderExecutor,
+                      executor -> executor.getThreadPoolExecutor().getQueue().size()).register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,23 @@
+package it.gov.pagopa.cgn.portal.pdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+/**
+ * Pdf written by a renderer, read back from the same buffer without copying it.
+ * It must not be written once the rendering completed.
+ */
+public class PdfContent extends ByteArrayOutputStream {
+
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    public synchronized InputStream getInputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    public PdfContent() {
+        super(INITIAL_SIZE);
+    }
+
+}
@@ -0,0 +1,156 @@
+package it.gov.pagopa.cgn.portal.pdf;
+
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.BaseFont;
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.xhtmlrenderer.pdf.ITextFontResolver;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of pdf renderers sharing the Titillium fonts.
+ * Fonts are parsed once at startup, so a render never reads a font file.
+ */
+@Slf4j
+@Component
+@ManagedResource(objectName = "it.gov.pagopa.cgn:type=PdfRendererPool")
+public class PdfRendererPool {
+
+    private static final List<String> FONTS = List.of("fonts/TitilliumWeb-Black.ttf",
+                                                      "fonts/TitilliumWeb-Bold.ttf",
+                                                      "fonts/TitilliumWeb-BoldItalic.ttf",
+                                                      "fonts/TitilliumWeb-ExtraLight.ttf",
+                                                      "fonts/TitilliumWeb-ExtraLightItalic.ttf",
+                                                      "fonts/TitilliumWeb-Italic.ttf",
+                                                      "fonts/TitilliumWeb-Light.ttf",
+                                                      "fonts/TitilliumWeb-LightItalic.ttf",
+                                                      "fonts/TitilliumWeb-Regular.ttf",
+                                                      "fonts/TitilliumWeb-SemiBold.ttf",
+                                                      "fonts/TitilliumWeb-SemiBoldItalic.ttf");
+
+    private final Map<String, ITextFontResolver.FontFamily> fontFamilies;
+    private final Queue<ITextRenderer> idleRenderers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeRenderers = new AtomicInteger();
+    private final Semaphore permits;
+    private final int maxRenderers;
+    private final long borrowTimeoutMillis;
+    private final Timer borrowTimer;
+    private final Counter borrowTimeoutCounter;
+    private final Counter createdCounter;
+
+    /**
+     * Renders the given xhtml to pdf with a pooled renderer, writing it to the given stream.
+     * Waits at most the configured timeout when all renderers are busy.
+     */
+    public void render(String renderedContent, OutputStream outputStream) {
+        ITextRenderer renderer = borrow();
+        boolean reusable = false;
+        try {
+            renderer.setDocumentFromString(renderedContent);
+            renderer.layout();
+            renderer.createPDF(outputStream);
+            reusable = true;
+        } catch (DocumentException e) {
+            throw new CGNException("Error in document rendering", e);
+        } finally {
+            release(renderer, reusable);
+        }
+    }
+
+    @ManagedAttribute(description = "Renderers currently in use")
+    public int getActiveRenderers() {
+        return activeRenderers.get();
+    }
+
+    @ManagedAttribute(description = "Renderers ready to be reused")
+    public int getIdleRenderers() {
+        return idleRenderers.size();
+    }
+
+    @ManagedAttribute(description = "Maximum number of concurrent renderers")
+    public int getMaxRenderers() {
+        return maxRenderers;
+    }
+
+    private ITextRenderer borrow() {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                borrowTimeoutCounter.increment();
+                throw new CGNException("No pdf renderer available");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CGNException("Interrupted while waiting for a pdf renderer", e);
+        } finally {
+            borrowTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        activeRenderers.incrementAndGet();
+        ITextRenderer renderer = idleRenderers.poll();
+        return renderer != null ? renderer : createRenderer();
+    }
+
+    private void release(ITextRenderer renderer, boolean reusable) {
+        // a renderer that failed may be left in an inconsistent state, a new one is created on demand
+        if (reusable) {
+            idleRenderers.offer(renderer);
+        }
+        activeRenderers.decrementAndGet();
+        permits.release();
+    }
+
+    private ITextRenderer createRenderer() {
+        var renderer = new ITextRenderer();
+        // each renderer gets its own map, the parsed fonts are shared
+        renderer.getFontResolver().setFontFamilies(new HashMap<>(fontFamilies));
+        createdCounter.increment();
+        return renderer;
+    }
+
+    private static Map<String, ITextFontResolver.FontFamily> loadFontFamilies() {
+        ITextFontResolver fontResolver = new ITextRenderer().getFontResolver();
+        try {
+            for (String font : FONTS) {
+                fontResolver.addFont(font, BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
+            }
+        } catch (DocumentException | IOException e) {
+            throw new CGNException("Error loading pdf fonts", e);
+        }
+        return fontResolver.getFontFamilies();
+    }
+
+    public PdfRendererPool(ConfigProperties configProperties, MeterRegistry meterRegistry) {
+        this.maxRenderers = configProperties.getPdfRendererPoolSize();
+        this.borrowTimeoutMillis = configProperties.getPdfRendererBorrowTimeoutMillis();
+        this.permits = new Semaphore(maxRenderers, true);
+        this.fontFamilies = loadFontFamilies();
+        log.info("Loaded " + FONTS.size() + " pdf fonts, renderer pool size " + maxRenderers);
+
+        Gauge.builder("cgn.pdf.renderer.pool.active", activeRenderers, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("cgn.pdf.renderer.pool.idle", idleRenderers, Queue::size).register(meterRegistry);
+        Gauge.builder("cgn.pdf.renderer.pool.max", () -> maxRenderers).register(meterRegistry);
+        this.borrowTimer = Timer.builder("cgn.pdf.renderer.pool.wait").register(meterRegistry);
+        this.borrowTimeoutCounter = Counter.builder("cgn.pdf.renderer.pool.timeouts").register(meterRegistry);
+        this.createdCounter = Counter.builder("cgn.pdf.renderer.pool.created").register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,22 @@
+package it.gov.pagopa.cgn.portal.pdf;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class RenderedDocument {
+
+    /**
+     * Version of the data the document was rendered from.
+     */
+    private final String version;
+
+    /**
+     * Strong entity tag, derived from the version.
+     */
+    private final String eTag;
+
+    private final PdfContent content;
+
+}
@@ -0,0 +1,91 @@
+package it.gov.pagopa.cgn.portal.pdf;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.enums.DocumentTypeEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * LRU cache of the rendered agreement and adhesion request templates.
+ * An entry is reused only while the version of the data it was rendered from is unchanged.
+ */
+@Component
+public class RenderedDocumentCache {
+
+    private final Map<String, RenderedDocument> documents;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    /**
+     * Returns the cached document only if it was rendered from the given version.
+     */
+    public Optional<RenderedDocument> getIfValid(String agreementId, DocumentTypeEnum documentType, String version) {
+        RenderedDocument document;
+        synchronized (documents) {
+            document = documents.get(getKey(agreementId, documentType));
+        }
+        if (document != null && document.getVersion().equals(version)) {
+            hitCounter.increment();
+            return Optional.of(document);
+        }
+        missCounter.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Caches a rendering. Renders run outside the lock: at worst two concurrent misses render the same document.
+     */
+    public RenderedDocument put(String agreementId,
+                                DocumentTypeEnum documentType,
+                                String version,
+                                PdfContent content) {
+        // the same version renders the same pdf: the etag is derived from the version, without hashing the pdf
+        RenderedDocument document = new RenderedDocument(version,
+                                                         DigestUtils.md5DigestAsHex(version.getBytes(
+                                                                 StandardCharsets.UTF_8)),
+                                                         content);
+        synchronized (documents) {
+            documents.put(getKey(agreementId, documentType), document);
+        }
+        return document;
+    }
+
+    public void evict(String agreementId) {
+        synchronized (documents) {
+            documents.remove(getKey(agreementId, DocumentTypeEnum.AGREEMENT));
+            documents.remove(getKey(agreementId, DocumentTypeEnum.ADHESION_REQUEST));
+        }
+    }
+
+    public int size() {
+        synchronized (documents) {
+            return documents.size();
+        }
+    }
+
+    private String getKey(String agreementId, DocumentTypeEnum documentType) {
+        return agreementId + ":" + documentType.getCode();
+    }
+
+    public RenderedDocumentCache(ConfigProperties configProperties, MeterRegistry meterRegistry) {
+        int maxEntries = configProperties.getPdfCacheMaxEntries();
+        this.documents = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RenderedDocument> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hitCounter = Counter.builder("cgn.pdf.cache.hits").register(meterRegistry);
+        this.missCounter = Counter.builder("cgn.pdf.cache.misses").register(meterRegistry);
+        Gauge.builder("cgn.pdf.cache.size", this::size).register(meterRegistry);
+    }
+
+}
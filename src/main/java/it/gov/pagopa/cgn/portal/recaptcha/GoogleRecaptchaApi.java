@@ -1,40 +1,91 @@
 package it.gov.pagopa.cgn.portal.recaptcha;
 
 import it.gov.pagopa.cgn.portal.config.ConfigProperties;
-import org.springframework.http.HttpEntity;
+import it.gov.pagopa.cgn.portal.exception.ServiceUnavailableException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.RestTemplate;
 
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Verifies recaptcha tokens with a non blocking http client: the caller gets a future and no thread waits
+ * for the round trip to Google.
+ */
+@Slf4j
 @Component
 public class GoogleRecaptchaApi {
 
+    private static final long RETRY_AFTER_SECONDS = 10;
+
     private final ConfigProperties configProperties;
-    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final HttpClient httpClient;
+    private final Duration timeout;
 
-    public GoogleRecaptchaApi(ConfigProperties configProperties, RestTemplate restTemplate) {
+    public GoogleRecaptchaApi(ConfigProperties configProperties, ObjectMapper objectMapper) {
         this.configProperties = configProperties;
-        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+        this.timeout = Duration.ofMillis(configProperties.getRecaptchaTimeoutMillis());
+        this.httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
     }
 
-    public boolean isTokenValid(String token) {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+    /**
+     * @return a future completed with the verification outcome, or exceptionally with a
+     * {@link ServiceUnavailableException} when Google cannot be reached
+     */
+    public CompletableFuture<Boolean> isTokenValid(String token) {
+        String form = "secret=" + encode(configProperties.getRecaptchaSecretKey()) + "&response=" + encode(token);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(configProperties.getRecaptchaGoogleHost() +
+                                                                "/recaptcha/api/siteverify"))
+                                         .timeout(timeout)
+                                         .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+                                         .POST(HttpRequest.BodyPublishers.ofString(form))
+                                         .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                         .handle((response, error) -> {
+                             if (error != null) {
+                                 log.warn("Recaptcha verification failed: " + error.getMessage());
+                                 throw unavailable();
+                             }
+                             return isSuccess(response);
+                         });
+    }
 
-        MultiValueMap<String, String> map = new LinkedMultiValueMap<>();
-        map.add("secret", configProperties.getRecaptchaSecretKey());
-        map.add("response", token);
+    private boolean isSuccess(HttpResponse<String> response) {
+        if (response.statusCode() != HttpStatus.OK.value()) {
+            log.warn("Recaptcha verification answered with status " + response.statusCode());
+            throw unavailable();
+        }
+        try {
+            GoogleRecaptchaResponse recaptchaResponse = objectMapper.readValue(response.body(),
+                                                                               GoogleRecaptchaResponse.class);
+            return recaptchaResponse != null && recaptchaResponse.isSuccess();
+        } catch (JsonProcessingException e) {
+            log.warn("Recaptcha verification response not valid: " + e.getMessage());
+            throw unavailable();
+        }
+    }
 
-        GoogleRecaptchaResponse response = restTemplate.postForObject(
-                configProperties.getRecaptchaGoogleHost() + "/recaptcha/api/siteverify",
-                new HttpEntity<>(map, headers),
-                GoogleRecaptchaResponse.class
-        );
+    private static CompletionException unavailable() {
+        return new CompletionException(new ServiceUnavailableException("Recaptcha verification not available",
+                                                                       RETRY_AFTER_SECONDS));
+    }
 
-        return response != null && response.isSuccess();
+    private static String encode(String value) {
+        return URLEncoder.encode(value == null ? "" : value, StandardCharsets.UTF_8);
     }
 
 }
@@ -2,10 +2,19 @@ package it.gov.pagopa.cgn.portal.repository;
 
 import it.gov.pagopa.cgn.portal.model.AddressEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.Optional;
 
 public interface AddressRepository extends JpaRepository<AddressEntity, Long> {
 
     List<AddressEntity> findByProfileId(Long profileId);
+
+    long countByProfileId(Long profileId);
+
+    @Query("select max(coalesce(a.updateTime, a.insertTime)) from AddressEntity a where a.profile.id = :profile_id")
+    Optional<OffsetDateTime> findLastUpdateTimeByProfileId(@Param("profile_id") Long profileId);
 }
\ No newline at end of file
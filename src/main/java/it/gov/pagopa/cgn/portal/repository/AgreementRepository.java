@@ -1,9 +1,57 @@
 package it.gov.pagopa.cgn.portal.repository;
 
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
+import it.gov.pagopa.cgn.portal.repository.custom.AgreementRepositoryCustom;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface AgreementRepository extends JpaRepository<AgreementEntity, String>, JpaSpecificationExecutor {
+import java.util.Collection;
+import java.util.List;
 
-}
\ No newline at end of file
+public interface AgreementRepository
+        extends JpaRepository<AgreementEntity, String>, JpaSpecificationExecutor, AgreementRepositoryCustom {
+
+    /**
+     * Loads the agreements with profile and referent in a single select.
+     * Their collections are loaded by {@link #fetchBackofficeCollections(Collection)}.
+     */
+    @EntityGraph(attributePaths = {"profile", "profile.referent"})
+    List<AgreementEntity> findByIdIn(Collection<String> ids);
+
+    /**
+     * Records the image variants only if the agreement still has the image they were created from.
+     */
+    @Transactional
+    @Modifying
+    @Query("update AgreementEntity a set a.imageThumbnailUrl = :thumbnail_url, a.imageCardUrl = :card_url, " +
+           "a.imageDetailUrl = :detail_url where a.id = :agreement_id and a.imageUrl = :image_url")
+    int updateImageVariants(@Param("agreement_id") String agreementId,
+                            @Param("image_url") String imageUrl,
+                            @Param("thumbnail_url") String thumbnailUrl,
+                            @Param("card_url") String cardUrl,
+                            @Param("detail_url") String detailUrl);
+
+    /**
+     * Locks the agreement row until the end of the transaction.
+     */
+    @Transactional
+    @Query(value = "SELECT agreement_k FROM agreement WHERE agreement_k = :agreement_id FOR UPDATE", nativeQuery = true)
+    String lockById(@Param("agreement_id") String agreementId);
+
+    /**
+     * Recounts the published discounts of the agreement, kept on the agreement for the approved agreements list.
+     * The counter is not mapped on the entity, so saving an agreement never overwrites it.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query(value = "UPDATE agreement SET published_discounts = (SELECT COUNT(*) FROM discount d " +
+                   "WHERE d.agreement_fk = :agreement_id AND d.state = 'PUBLISHED') WHERE agreement_k = :agreement_id",
+           nativeQuery = true)
+    int updatePublishedDiscounts(@Param("agreement_id") String agreementId);
+
+}
@@ -1,9 +1,10 @@
 package it.gov.pagopa.cgn.portal.repository;
 
 import it.gov.pagopa.cgn.portal.model.ApprovedAgreementEntity;
+import it.gov.pagopa.cgn.portal.repository.custom.ApprovedAgreementRepositoryCustom;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 
-public interface ApprovedAgreementRepository extends JpaRepository<ApprovedAgreementEntity, String>, JpaSpecificationExecutor<ApprovedAgreementEntity> {
+public interface ApprovedAgreementRepository extends JpaRepository<ApprovedAgreementEntity, String>, JpaSpecificationExecutor<ApprovedAgreementEntity>, ApprovedAgreementRepositoryCustom {
 
-}
\ No newline at end of file
+}
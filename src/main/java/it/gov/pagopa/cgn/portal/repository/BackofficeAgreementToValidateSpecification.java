@@ -4,6 +4,7 @@ package it.gov.pagopa.cgn.portal.repository;
 import it.gov.pagopa.cgn.portal.converter.backoffice.BackofficeAgreementConverter;
 import it.gov.pagopa.cgn.portal.enums.AgreementStateEnum;
 import it.gov.pagopa.cgn.portal.enums.AssigneeEnum;
+import it.gov.pagopa.cgn.portal.enums.BackofficeRequestSortColumnEnum;
 import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
 import it.gov.pagopa.cgn.portal.filter.BackofficeFilter;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
@@ -11,14 +12,23 @@ import org.apache.commons.lang3.StringUtils;
 import org.hibernate.query.criteria.internal.OrderImpl;
 
 import javax.persistence.criteria.*;
-import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.List;
 import java.util.Objects;
 
 
 public class BackofficeAgreementToValidateSpecification extends CommonBackofficeSpecification<AgreementEntity> {
 
+    // fixed bounds around the request dates, so that a continuation token stays valid across days
+    private static final OffsetDateTime ASSIGNED_TO_CURRENT_USER_KEY = OffsetDateTime.of(1970, 1, 1, 0, 0, 0, 0,
+                                                                                         ZoneOffset.UTC);
+    private static final OffsetDateTime ASSIGNED_TO_OTHERS_KEY = OffsetDateTime.of(9999, 12, 31, 0, 0, 0, 0,
+                                                                                   ZoneOffset.UTC);
+
+    private static final int NOT_ASSIGNED_STATE_KEY = 1;
+    private static final int ASSIGNED_STATE_KEY = 2;
+
     public BackofficeAgreementToValidateSpecification(BackofficeFilter filter, String currentUser) {
         super(filter, currentUser);
     }
@@ -41,6 +51,11 @@ public class BackofficeAgreementToValidateSpecification extends CommonBackoffice
         predicateList.add(cb.equal(root.get("state"), AgreementStateEnum.PENDING));
     }
 
+    @Override
+    protected String getId(AgreementEntity entity) {
+        return entity.getId();
+    }
+
     @Override
     protected Order getOrder(Root<AgreementEntity> root, CriteriaBuilder cb) {
         Path<OffsetDateTime> dateExpression = getRequestApprovalTimePath(root);
@@ -54,13 +69,36 @@ public class BackofficeAgreementToValidateSpecification extends CommonBackoffice
         }
         return new OrderImpl(cb.selectCase()
                 // first the agreements assigned to current user
-                .when(cb.equal(getBackofficeAssigneePath(root), currentUser), LocalDate.now().minusYears(10))
+                .when(cb.equal(getBackofficeAssigneePath(root), currentUser), ASSIGNED_TO_CURRENT_USER_KEY)
                 // last the agreements assigned to others user
-                .when(cb.isNotNull(getBackofficeAssigneePath(root)), LocalDate.now().plusYears(10))
+                .when(cb.isNotNull(getBackofficeAssigneePath(root)), ASSIGNED_TO_OTHERS_KEY)
                 // after agreements assigned to current user, the agreements not assigned
                 .otherwise(dateExpression), direction.isAscending());
     }
 
+    @Override
+    protected ComputedSortKey<AgreementEntity> getComputedSortKey() {
+        // the same values the CASE expressions of getOrder take on the agreement row
+        if (filter.getRequestSortColumnEnum() == null) {
+            return new ComputedSortKey<>("assignee-request-date", OffsetDateTime.class, agreement -> {
+                if (currentUser.equals(agreement.getBackofficeAssignee())) {
+                    return ASSIGNED_TO_CURRENT_USER_KEY;
+                }
+                return agreement.getBackofficeAssignee() != null ?
+                       ASSIGNED_TO_OTHERS_KEY :
+                       agreement.getRequestApprovalTime();
+            });
+        }
+        if (BackofficeRequestSortColumnEnum.STATE.equals(filter.getRequestSortColumnEnum())) {
+            return new ComputedSortKey<>("state",
+                                         Integer.class,
+                                         agreement -> agreement.getBackofficeAssignee() == null ?
+                                                      NOT_ASSIGNED_STATE_KEY :
+                                                      ASSIGNED_STATE_KEY);
+        }
+        return null;
+    }
+
     private Order getOrderByFilter(Root<AgreementEntity> root, CriteriaBuilder cb) {
         switch (filter.getRequestSortColumnEnum()) {
             case ASSIGNEE:
@@ -70,8 +108,8 @@ public class BackofficeAgreementToValidateSpecification extends CommonBackoffice
                             otherwise first rows with assignee not null and then others
                          */
                 return new OrderImpl(
-                        cb.selectCase().when(cb.isNull(getBackofficeAssigneePath(root)), 1)
-                                .otherwise(2), isSortAscending());
+                        cb.selectCase().when(cb.isNull(getBackofficeAssigneePath(root)), NOT_ASSIGNED_STATE_KEY)
+                                .otherwise(ASSIGNED_STATE_KEY), isSortAscending());
             case OPERATOR:
                 return new OrderImpl(getProfileFullNamePath(root), isSortAscending());
             case REQUEST_DATE:
@@ -34,6 +34,11 @@ public class BackofficeApprovedAgreementSpecification extends CommonBackofficeSp
         predicateList.add(cb.equal(root.get("state"), AgreementStateEnum.APPROVED));
     }
 
+    @Override
+    protected String getId(ApprovedAgreementEntity entity) {
+        return entity.getId();
+    }
+
     @Override
     protected Order getOrder(Root<ApprovedAgreementEntity> root, CriteriaBuilder cb) {
         if (filter.getApprovedSortColumnEnum() != null) {
@@ -0,0 +1,33 @@
+package it.gov.pagopa.cgn.portal.repository;
+
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+/**
+ * Page of a backoffice list with the token to read the next one.
+ * When the total has not been counted, {@link #getTotalElements()} only covers the rows read so far.
+ */
+public class BackofficePage<T> extends PageImpl<T> {
+
+    private final boolean totalCounted;
+
+    private final String continuationToken;
+
+    public BackofficePage(List<T> content, Pageable pageable, long total, boolean totalCounted,
+                          String continuationToken) {
+        super(content, pageable, total);
+        this.totalCounted = totalCounted;
+        this.continuationToken = continuationToken;
+    }
+
+    public boolean isTotalCounted() {
+        return totalCounted;
+    }
+
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+}
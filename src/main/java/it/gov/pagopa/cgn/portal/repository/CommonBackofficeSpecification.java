@@ -1,39 +1,61 @@
 package it.gov.pagopa.cgn.portal.repository;
 
 
+import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
 import it.gov.pagopa.cgn.portal.filter.BackofficeFilter;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.PropertyAccessorFactory;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 
 import javax.persistence.criteria.*;
+import javax.persistence.metamodel.Attribute;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
 
 public abstract class CommonBackofficeSpecification<T> implements Specification<T> {
 
+    private static final char LIKE_ESCAPE_CHAR = '\\';
+
+    private static final int DEFAULT_PAGE_SIZE = 20;
+
     protected final Sort.Direction direction;
     protected final BackofficeFilter filter;
     protected final String currentUser;
+    private final ContinuationToken continuationToken;
+
+    // set when the query is built: a continuation token can be created only when sorting by an attribute
+    // or by an expression whose value is also computed from the entity
+    private String sortKeyPath;
+    private ComputedSortKey<T> computedSortKey;
+    private boolean sortAscending;
 
     protected CommonBackofficeSpecification(final BackofficeFilter filter, final String currentUser) {
         this.direction = Sort.Direction.DESC;
         this.filter = filter;
         this.currentUser = currentUser;
+        this.continuationToken = ContinuationToken.decode(filter.getContinuationToken());
     }
 
     public Pageable getPage() {
-        if (filter.getPageSize() == null) {
-            return PageRequest.of(0, 20);
+        int pageSize = filter.getPageSize() == null ? DEFAULT_PAGE_SIZE : filter.getPageSize();
+        // with a continuation token the page starts right after the token position
+        if (filter.getPageSize() == null || continuationToken != null) {
+            return PageRequest.of(0, pageSize);
         }
-        return PageRequest.of(filter.getPage(), filter.getPageSize());
+        return PageRequest.of(filter.getPage(), pageSize);
     }
 
     protected abstract void addFiltersDatePredicate(
@@ -44,20 +66,69 @@ public abstract class CommonBackofficeSpecification<T> implements Specification<
 
     protected abstract Order getOrder(Root<T> root, CriteriaBuilder cb);
 
+    protected abstract String getId(T entity);
+
+    /**
+     * The sort key of the current order when it is an expression, e.g. a CASE, rather than an attribute.
+     * Without it the pages of that order have no continuation token.
+     */
+    protected ComputedSortKey<T> getComputedSortKey() {
+        return null;
+    }
+
     @Override
     public Predicate toPredicate(Root<T> root, CriteriaQuery<?> query, CriteriaBuilder cb) {
-        List<Predicate> predicateList = addFiltersPredicate(root, cb);
-        addStaticFiltersPredicate(root, cb, predicateList);
+        List<Predicate> predicateList = getFilterPredicates(root, cb);
+        Order order = getOrder(root, cb);
+        sortAscending = order.isAscending();
+        computedSortKey = order.getExpression() instanceof Path ? null : getComputedSortKey();
+        if (order.getExpression() instanceof Path) {
+            sortKeyPath = getAttributePath((Path<?>) order.getExpression());
+        } else {
+            sortKeyPath = computedSortKey == null ? null : computedSortKey.name;
+        }
+        if (continuationToken != null) {
+            predicateList.add(getContinuationPredicate(root, cb, order.getExpression()));
+        }
         query.where(predicateList.toArray(new Predicate[predicateList.size()]));
-        query.orderBy(getOrder(root, cb));
+        // id as last sort key, so that rows with the same sort value keep their position between pages
+        query.orderBy(order, cb.asc(getIdPath(root)));
         return null;
     }
 
+    /**
+     * Same filters of this specification, without continuation token and order: used to count the total.
+     */
+    public Specification<T> getCountSpecification() {
+        return (root, query, cb) -> {
+            List<Predicate> predicateList = getFilterPredicates(root, cb);
+            return cb.and(predicateList.toArray(new Predicate[predicateList.size()]));
+        };
+    }
+
+    /**
+     * Wraps the rows read with this specification in a page.
+     * The total is counted only when requested and when it cannot be inferred from the rows read.
+     */
+    public BackofficePage<T> toBackofficePage(List<T> content, LongSupplier countSupplier) {
+        Pageable pageable = getPage();
+        boolean lastPage = content.size() < pageable.getPageSize();
+        String nextToken = lastPage ? null : createContinuationToken(content.get(content.size() - 1));
+        long readRows = pageable.getOffset() + content.size();
+        if (filter.isSkipCount()) {
+            return new BackofficePage<>(content, pageable, readRows, false, nextToken);
+        }
+        boolean totalKnown = continuationToken == null && lastPage && (!content.isEmpty() || readRows == 0);
+        long total = totalKnown ? readRows : countSupplier.getAsLong();
+        return new BackofficePage<>(content, pageable, total, true, nextToken);
+    }
+
     protected List<Predicate> addFiltersPredicate(Root<T> root, CriteriaBuilder cb) {
         List<Predicate> predicateList = new ArrayList<>();
         if (StringUtils.isNotEmpty(filter.getProfileFullName())) {
-            predicateList.add(cb.like(cb.upper(getProfileFullNamePath(root)),
-                    toFullLikeUpperCaseString(filter.getProfileFullName())));
+            // lower(full_name) is the expression covered by the trigram index on profile
+            predicateList.add(cb.like(cb.lower(getProfileFullNamePath(root)),
+                    toFullLikeLowerCaseString(filter.getProfileFullName()), LIKE_ESCAPE_CHAR));
         }
         addFiltersDatePredicate(root, cb, predicateList);
         return predicateList;
@@ -71,8 +142,95 @@ public abstract class CommonBackofficeSpecification<T> implements Specification<
         return "%" + value + "%";
     }
 
-    protected String toFullLikeUpperCaseString(String value) {
-        return toFullLikeString(value).toUpperCase();
+    protected String toFullLikeLowerCaseString(String value) {
+        return toFullLikeString(escapeLikeWildcards(value)).toLowerCase();
+    }
+
+    protected String escapeLikeWildcards(String value) {
+        String escape = String.valueOf(LIKE_ESCAPE_CHAR);
+        return value.replace(escape, escape + escape)
+                    .replace("%", escape + "%")
+                    .replace("_", escape + "_");
+    }
+
+    protected Path<String> getIdPath(Root<T> root) {
+        return root.get("id");
+    }
+
+    private List<Predicate> getFilterPredicates(Root<T> root, CriteriaBuilder cb) {
+        List<Predicate> predicateList = addFiltersPredicate(root, cb);
+        addStaticFiltersPredicate(root, cb, predicateList);
+        return predicateList;
+    }
+
+    private String createContinuationToken(T lastEntity) {
+        if (sortKeyPath == null) {
+            return null;
+        }
+        Object sortKey = computedSortKey != null ?
+                         computedSortKey.value.apply(lastEntity) :
+                         PropertyAccessorFactory.forBeanPropertyAccess(lastEntity).getPropertyValue(sortKeyPath);
+        return new ContinuationToken(getSortSignature(), getId(lastEntity), Objects.toString(sortKey, null)).encode();
+    }
+
+    /**
+     * Rows after the token position, following the postgres null ordering: nulls last ascending, first descending.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Predicate getContinuationPredicate(Root<T> root, CriteriaBuilder cb, Expression<?> sortExpression) {
+        if (sortKeyPath == null || !getSortSignature().equals(continuationToken.getSort())) {
+            throw new InvalidRequestException("Continuation token not valid for the requested sort");
+        }
+        Expression<Comparable> sortKey = (Expression<Comparable>) sortExpression;
+        Path<String> id = getIdPath(root);
+        Predicate sameKeyNextId = cb.greaterThan(id, continuationToken.getId());
+        if (continuationToken.getSortKey() == null) {
+            Predicate nullKeyNextId = cb.and(cb.isNull(sortKey), sameKeyNextId);
+            return sortAscending ? nullKeyNextId : cb.or(cb.isNotNull(sortKey), nullKeyNextId);
+        }
+        Comparable lastKey = parseSortKey(continuationToken.getSortKey(),
+                                          computedSortKey != null ? computedSortKey.type : sortExpression.getJavaType());
+        Predicate sameKey = cb.and(cb.equal(sortKey, lastKey), sameKeyNextId);
+        if (sortAscending) {
+            return cb.or(cb.greaterThan(sortKey, lastKey), sameKey, cb.isNull(sortKey));
+        }
+        return cb.or(cb.lessThan(sortKey, lastKey), sameKey);
+    }
+
+    private String getSortSignature() {
+        return sortKeyPath + (sortAscending ? ":asc" : ":desc");
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Comparable parseSortKey(String value, Class<?> type) {
+        try {
+            if (String.class.equals(type)) {
+                return value;
+            }
+            if (LocalDate.class.equals(type)) {
+                return LocalDate.parse(value);
+            }
+            if (OffsetDateTime.class.equals(type)) {
+                return OffsetDateTime.parse(value);
+            }
+            if (Long.class.equals(type)) {
+                return Long.valueOf(value);
+            }
+            if (Integer.class.equals(type)) {
+                return Integer.valueOf(value);
+            }
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new InvalidRequestException("Continuation token not valid");
+        }
+        throw new InvalidRequestException("Continuation token not valid for the requested sort");
+    }
+
+    private static String getAttributePath(Path<?> path) {
+        LinkedList<String> attributes = new LinkedList<>();
+        for (Path<?> current = path; current.getParentPath() != null; current = current.getParentPath()) {
+            attributes.addFirst(((Attribute<?, ?>) current.getModel()).getName());
+        }
+        return String.join(".", attributes);
     }
 
     protected Path<String> getProfileFullNamePath(Root<T> root) {
@@ -82,4 +240,20 @@ public abstract class CommonBackofficeSpecification<T> implements Specification<
     protected boolean isSortAscending() {
         return Sort.Direction.ASC.equals(filter.getSortDirection());
     }
+
+    /**
+     * Sort key of an order on an expression: the value computed from an entity must be the one the expression
+     * takes on its row, so that the next page can start right after it.
+     */
+    protected static class ComputedSortKey<T> {
+        private final String name;
+        private final Class<?> type;
+        private final Function<T, Object> value;
+
+        protected ComputedSortKey(String name, Class<?> type, Function<T, Object> value) {
+            this.name = name;
+            this.type = type;
+            this.value = value;
+        }
+    }
 }
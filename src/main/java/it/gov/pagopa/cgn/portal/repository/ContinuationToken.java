@@ -0,0 +1,61 @@
+package it.gov.pagopa.cgn.portal.repository;
+
+import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position of the last row of a backoffice page: the sort it was taken with, the agreement id and the sort key.
+ * Clients see it as an opaque string.
+ */
+class ContinuationToken {
+
+    private static final String SEPARATOR = "\n";
+
+    private final String sort;
+    private final String id;
+    private final String sortKey;
+
+    ContinuationToken(String sort, String id, String sortKey) {
+        this.sort = sort;
+        this.id = id;
+        this.sortKey = sortKey;
+    }
+
+    static ContinuationToken decode(String token) {
+        if (StringUtils.isBlank(token)) {
+            return null;
+        }
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(SEPARATOR, 3);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequestException("Continuation token not valid");
+        }
+        if (parts.length < 2) {
+            throw new InvalidRequestException("Continuation token not valid");
+        }
+        // a missing sort key means the last row had a null sort value
+        return new ContinuationToken(parts[0], parts[1], parts.length == 3 ? parts[2] : null);
+    }
+
+    String encode() {
+        String value = sort + SEPARATOR + id + (sortKey == null ? "" : SEPARATOR + sortKey);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    String getSort() {
+        return sort;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getSortKey() {
+        return sortKey;
+    }
+
+}
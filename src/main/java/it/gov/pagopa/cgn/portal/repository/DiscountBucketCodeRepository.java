@@ -1,5 +1,6 @@
 package it.gov.pagopa.cgn.portal.repository;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -21,6 +22,10 @@ public interface DiscountBucketCodeRepository
     @Query(value = "SELECT COUNT(*) FROM discount_bucket_code WHERE discount_fk=:discount_id AND used=false", nativeQuery = true)
     long countNotUsedByDiscountId(@Param("discount_id") Long discountId);
 
+    @Query("select bc.discount.id as discountId, count(bc) as notUsedCodes from DiscountBucketCodeEntity bc " +
+           "where bc.discount.id in :discountIds and bc.isUsed = false group by bc.discount.id")
+    List<DiscountNotUsedCodesView> countNotUsedByDiscountIds(@Param("discountIds") Collection<Long> discountIds);
+
     @Modifying
     @Query(value = "delete from discount_bucket_code where discount_fk=:discount_id", nativeQuery = true)
     void deleteByDiscountId(@Param("discount_id") Long discountId);
@@ -2,13 +2,15 @@ package it.gov.pagopa.cgn.portal.repository;
 
 import it.gov.pagopa.cgn.portal.model.DiscountBucketCodeSummaryEntity;
 import it.gov.pagopa.cgn.portal.model.DiscountEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.OffsetDateTime;
-import java.util.List;
+import java.util.Collection;
 
 public interface DiscountBucketCodeSummaryRepository
         extends JpaRepository<DiscountBucketCodeSummaryEntity, Long> {
@@ -19,9 +21,34 @@ public interface DiscountBucketCodeSummaryRepository
     @Query(value = "delete from discount_bucket_code_summary where discount_fk=:discount_id", nativeQuery = true)
     void deleteByDiscountId(@Param("discount_id") Long discountId);
 
-    @Query("select bs from DiscountBucketCodeSummaryEntity bs join bs.discount d where bs.expiredAt is null and bs.availableCodes > 0 and d.state = 'PUBLISHED'")
-    List<DiscountBucketCodeSummaryEntity> findAllPublishedByExpiredAtIsNullAndAvailableCodesGreaterThanZero();
+    @Query("select bs.id as discountId, d.name as discountName, a.id as agreementId, " +
+           "bs.availableCodes as availableCodes, r.emailAddress as referentEmailAddress, " +
+           "l.uid as lastBucketCodeLoadUid, p.salesChannel as salesChannel " +
+           "from DiscountBucketCodeSummaryEntity bs join bs.discount d join d.agreement a join a.profile p " +
+           "join p.referent r left join d.lastBucketCodeLoad l " +
+           "where bs.expiredAt is null and bs.availableCodes > 0 and d.state = 'PUBLISHED' " +
+           "and mod(bs.id, :partitionCount) = :partitionIndex and bs.id > :afterId order by bs.id")
+    Slice<DiscountBucketCodeSummaryView> findPublishedNotExpiredWithAvailableCodesInPartition(
+            @Param("partitionIndex") long partitionIndex,
+            @Param("partitionCount") long partitionCount,
+            @Param("afterId") long afterId,
+            Pageable pageable);
 
-    @Query("select bs from DiscountBucketCodeSummaryEntity bs join bs.discount d where bs.expiredAt <=  ?1 and bs.availableCodes > 0 and d.state = 'PUBLISHED'")
-    List<DiscountBucketCodeSummaryEntity> findAllPublishedByExpiredAtLessThanEqualAndAvailableCodesGreaterZero(OffsetDateTime thresholdDatetime);
+    @Query("select bs.id as discountId, d.name as discountName, a.id as agreementId, " +
+           "bs.availableCodes as availableCodes, r.emailAddress as referentEmailAddress, " +
+           "l.uid as lastBucketCodeLoadUid, p.salesChannel as salesChannel " +
+           "from DiscountBucketCodeSummaryEntity bs join bs.discount d join d.agreement a join a.profile p " +
+           "join p.referent r left join d.lastBucketCodeLoad l " +
+           "where bs.expiredAt <= :thresholdDatetime and bs.availableCodes > 0 and d.state = 'PUBLISHED' " +
+           "and mod(bs.id, :partitionCount) = :partitionIndex and bs.id > :afterId order by bs.id")
+    Slice<DiscountBucketCodeSummaryView> findPublishedExpiredWithAvailableCodesInPartition(
+            @Param("thresholdDatetime") OffsetDateTime thresholdDatetime,
+            @Param("partitionIndex") long partitionIndex,
+            @Param("partitionCount") long partitionCount,
+            @Param("afterId") long afterId,
+            Pageable pageable);
+
+    @Modifying
+    @Query("update DiscountBucketCodeSummaryEntity bs set bs.expiredAt = :expiredAt where bs.id in :ids")
+    int updateExpiredAt(@Param("ids") Collection<Long> ids, @Param("expiredAt") OffsetDateTime expiredAt);
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package it.gov.pagopa.cgn.portal.repository;
+
+import it.gov.pagopa.cgn.portal.enums.SalesChannelEnum;
+
+/**
+ * The columns of a bucket code summary, and of its discount, needed to check the codes left and notify the referent.
+ */
+public interface DiscountBucketCodeSummaryView {
+
+    Long getDiscountId();
+
+    String getDiscountName();
+
+    String getAgreementId();
+
+    Long getAvailableCodes();
+
+    String getReferentEmailAddress();
+
+    String getLastBucketCodeLoadUid();
+
+    SalesChannelEnum getSalesChannel();
+
+}
@@ -0,0 +1,9 @@
+package it.gov.pagopa.cgn.portal.repository;
+
+public interface DiscountNotUsedCodesView {
+
+    Long getDiscountId();
+
+    Long getNotUsedCodes();
+
+}
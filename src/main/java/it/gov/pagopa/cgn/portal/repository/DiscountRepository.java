@@ -2,17 +2,55 @@ package it.gov.pagopa.cgn.portal.repository;
 
 import it.gov.pagopa.cgn.portal.enums.DiscountStateEnum;
 import it.gov.pagopa.cgn.portal.model.DiscountEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface DiscountRepository extends JpaRepository<DiscountEntity, Long> {
 
     List<DiscountEntity> findByAgreementId(String agreementId);
 
+    long countByAgreementId(String agreementId);
+
+    @Query("select max(coalesce(d.updateTime, d.insertTime)) from DiscountEntity d where d.agreement.id = :agreement_id")
+    Optional<OffsetDateTime> findLastUpdateTimeByAgreementId(@Param("agreement_id") String agreementId);
+
     long countByAgreementIdAndState(String agreementId, DiscountStateEnum discountStateEnum);
 
-    List<DiscountEntity> findByStateAndExpirationWarningSentDateTimeIsNullAndEndDateLessThan(
-            DiscountStateEnum discountStateEnum, LocalDate endDate);
+    @Query("select d.id as id, d.name as name, d.endDate as endDate, r.emailAddress as referentEmailAddress " +
+           "from DiscountEntity d join d.agreement a join a.profile p join p.referent r " +
+           "where d.state = :state and d.expirationWarningSentDateTime is null and d.endDate < :endDate " +
+           "and mod(d.id, :partitionCount) = :partitionIndex and d.id > :afterId order by d.id")
+    Slice<ExpiringDiscountView> findExpiringToNotifyInPartition(@Param("state") DiscountStateEnum discountStateEnum,
+                                                                @Param("endDate") LocalDate endDate,
+                                                                @Param("partitionIndex") long partitionIndex,
+                                                                @Param("partitionCount") long partitionCount,
+                                                                @Param("afterId") long afterId,
+                                                                Pageable pageable);
+
+    /**
+     * Suspends the discounts of the given ids still published.
+     *
+     * @return the number of discounts suspended
+     */
+    @Modifying
+    @Query(value = "UPDATE discount SET state = 'SUSPENDED', suspended_reason_message = :reasonMessage, " +
+                   "update_time = CURRENT_TIMESTAMP WHERE discount_k IN (:ids) AND state = 'PUBLISHED'",
+           nativeQuery = true)
+    int suspendPublished(@Param("ids") Collection<Long> ids, @Param("reasonMessage") String reasonMessage);
+
+    @Modifying
+    @Query("update DiscountEntity d set d.expirationWarningSentDateTime = :sentDateTime, d.updateTime = :sentDateTime " +
+           "where d.id in :ids")
+    int updateExpirationWarningSentDateTime(@Param("ids") Collection<Long> ids,
+                                            @Param("sentDateTime") OffsetDateTime sentDateTime);
 }
\ No newline at end of file
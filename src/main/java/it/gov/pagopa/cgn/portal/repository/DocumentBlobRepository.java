@@ -0,0 +1,59 @@
+package it.gov.pagopa.cgn.portal.repository;
+
+import it.gov.pagopa.cgn.portal.model.DocumentBlobEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+public interface DocumentBlobRepository extends JpaRepository<DocumentBlobEntity, String> {
+
+    @Modifying
+    @Query(value = "UPDATE document_blob SET reference_count = reference_count + 1, unreferenced_since = NULL, " +
+                   "update_time = CURRENT_TIMESTAMP WHERE agreement_fk = :agreement_id AND content_hash = :content_hash",
+           nativeQuery = true)
+    int addReference(@Param("agreement_id") String agreementId, @Param("content_hash") String contentHash);
+
+    /**
+     * Inserts the blob with one reference, or adds a reference if a concurrent upload inserted it first.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO document_blob (blob_url, agreement_fk, content_hash, reference_count) " +
+                   "VALUES (:blob_url, :agreement_id, :content_hash, 1) ON CONFLICT (agreement_fk, content_hash) " +
+                   "DO UPDATE SET reference_count = document_blob.reference_count + 1, unreferenced_since = NULL, " +
+                   "update_time = CURRENT_TIMESTAMP",
+           nativeQuery = true)
+    int insertOrAddReference(@Param("blob_url") String blobUrl,
+                             @Param("agreement_id") String agreementId,
+                             @Param("content_hash") String contentHash);
+
+    @Modifying
+    @Query(value = "UPDATE document_blob SET reference_count = reference_count - 1, " +
+                   "unreferenced_since = CASE WHEN reference_count = 1 THEN CURRENT_TIMESTAMP END, " +
+                   "update_time = CURRENT_TIMESTAMP WHERE blob_url = :blob_url AND reference_count > 0",
+           nativeQuery = true)
+    int removeReference(@Param("blob_url") String blobUrl);
+
+    @Query("select b.blobUrl from DocumentBlobEntity b where b.agreementId = :agreement_id " +
+           "and b.referenceCount = 0 and b.unreferencedSince < :unreferenced_before")
+    List<String> findUnreferencedBlobUrls(@Param("agreement_id") String agreementId,
+                                          @Param("unreferenced_before") OffsetDateTime unreferencedBefore);
+
+    /**
+     * The unreferenced blobs of every agreement, ordered by url and starting after the given one.
+     */
+    @Query("select b.blobUrl from DocumentBlobEntity b where b.referenceCount = 0 " +
+           "and b.unreferencedSince < :unreferenced_before and b.blobUrl > :after_blob_url order by b.blobUrl")
+    List<String> findUnreferencedBlobUrlsAfter(@Param("unreferenced_before") OffsetDateTime unreferencedBefore,
+                                               @Param("after_blob_url") String afterBlobUrl,
+                                               Pageable pageable);
+
+    @Modifying
+    @Query(value = "DELETE FROM document_blob WHERE blob_url = :blob_url AND reference_count = 0", nativeQuery = true)
+    int deleteUnreferenced(@Param("blob_url") String blobUrl);
+
+}
@@ -6,10 +6,10 @@ import org.springframework.data.jpa.repository.JpaRepository;
 
 import java.util.List;
 
-public interface DocumentRepository extends JpaRepository<DocumentEntity, String> {
+public interface DocumentRepository extends JpaRepository<DocumentEntity, Long> {
 
     List<DocumentEntity> findByAgreementId(String agreementId);
 
-    long deleteByAgreementIdAndDocumentType(String agreementId, DocumentTypeEnum documentType);
+    List<DocumentEntity> findByAgreementIdAndDocumentType(String agreementId, DocumentTypeEnum documentType);
 
 }
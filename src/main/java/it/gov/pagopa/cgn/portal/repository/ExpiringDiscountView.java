@@ -0,0 +1,18 @@
+package it.gov.pagopa.cgn.portal.repository;
+
+import java.time.LocalDate;
+
+/**
+ * The columns of an expiring discount needed to warn its referent.
+ */
+public interface ExpiringDiscountView {
+
+    Long getId();
+
+    String getName();
+
+    LocalDate getEndDate();
+
+    String getReferentEmailAddress();
+
+}
@@ -0,0 +1,28 @@
+package it.gov.pagopa.cgn.portal.repository;
+
+import it.gov.pagopa.cgn.portal.model.JobExecutionEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+public interface JobExecutionRepository extends JpaRepository<JobExecutionEntity, Long> {
+
+    List<JobExecutionEntity> findByJobNameOrderByStartTimeDesc(String jobName);
+
+    /**
+     * Fails the runs of the job still running after their start: their coordinator stopped without ending them.
+     */
+    @Modifying
+    @Query(value = "UPDATE job_execution SET status = 'FAILED', end_time = CURRENT_TIMESTAMP, " +
+                   "last_error = :lastError, update_time = CURRENT_TIMESTAMP " +
+                   "WHERE job_name = :jobName AND status = 'RUNNING' AND start_time < :startedBefore",
+           nativeQuery = true)
+    int failStaleRuns(@Param("jobName") String jobName,
+                      @Param("startedBefore") OffsetDateTime startedBefore,
+                      @Param("lastError") String lastError);
+
+}
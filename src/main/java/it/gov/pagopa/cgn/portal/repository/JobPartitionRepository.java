@@ -0,0 +1,50 @@
+package it.gov.pagopa.cgn.portal.repository;
+
+import it.gov.pagopa.cgn.portal.model.JobPartitionEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface JobPartitionRepository extends JpaRepository<JobPartitionEntity, Long> {
+
+    List<JobPartitionEntity> findByJobExecutionIdOrderByPartitionIndex(Long jobExecutionId);
+
+    /**
+     * Locks a partition of the run that can be taken: a pending one, or a running one whose lease has expired
+     * because its node stopped. Those already being taken by another node are skipped.
+     */
+    @Query(value = "SELECT * FROM job_partition " +
+                   "WHERE job_execution_fk = :jobExecutionId " +
+                   "AND (status = 'PENDING' OR (status = 'RUNNING' AND lease_until < CURRENT_TIMESTAMP)) " +
+                   "ORDER BY partition_index LIMIT 1 FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    Optional<JobPartitionEntity> lockTakeable(@Param("jobExecutionId") Long jobExecutionId);
+
+    @Modifying
+    @Query(value = "UPDATE job_partition SET lease_until = :leaseUntil, update_time = CURRENT_TIMESTAMP " +
+                   "WHERE job_partition_k IN (:ids) AND owner = :owner AND status = 'RUNNING'", nativeQuery = true)
+    int renewLease(@Param("ids") Collection<Long> ids,
+                   @Param("owner") String owner,
+                   @Param("leaseUntil") OffsetDateTime leaseUntil);
+
+    /**
+     * Fails the partitions not ended of the runs of the job still running after their start, lost with their
+     * coordinator.
+     */
+    @Modifying
+    @Query(value = "UPDATE job_partition SET status = 'FAILED', end_time = CURRENT_TIMESTAMP, owner = NULL, " +
+                   "lease_until = NULL, last_error = :lastError, update_time = CURRENT_TIMESTAMP " +
+                   "WHERE status IN ('PENDING', 'RUNNING') AND job_execution_fk IN " +
+                   "(SELECT job_execution_k FROM job_execution " +
+                   "WHERE job_name = :jobName AND status = 'RUNNING' AND start_time < :startedBefore)",
+           nativeQuery = true)
+    int failPartitionsOfStaleRuns(@Param("jobName") String jobName,
+                                  @Param("startedBefore") OffsetDateTime startedBefore,
+                                  @Param("lastError") String lastError);
+
+}
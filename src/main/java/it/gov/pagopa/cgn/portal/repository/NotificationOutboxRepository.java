@@ -0,0 +1,32 @@
+package it.gov.pagopa.cgn.portal.repository;
+
+import it.gov.pagopa.cgn.portal.model.NotificationOutboxEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface NotificationOutboxRepository extends JpaRepository<NotificationOutboxEntity, Long> {
+
+    boolean existsByTrackingKeyAndAbandonedAtIsNull(String trackingKey);
+
+    /**
+     * Locks the notifications ready to be sent, skipping the ones already locked or leased by other instances.
+     */
+    @Query(value = "SELECT * FROM notification_outbox " +
+                   "WHERE abandoned_at IS NULL AND next_attempt_time <= CURRENT_TIMESTAMP " +
+                   "AND (lease_until IS NULL OR lease_until < CURRENT_TIMESTAMP) " +
+                   "ORDER BY next_attempt_time LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<NotificationOutboxEntity> lockReadyToSend(@Param("limit") int limit);
+
+    /**
+     * Locks the notifications waiting to be sent to the given address in a digest, even if not ready yet.
+     */
+    @Query(value = "SELECT * FROM notification_outbox " +
+                   "WHERE digest AND abandoned_at IS NULL AND mail_to = :mailTo " +
+                   "AND (lease_until IS NULL OR lease_until < CURRENT_TIMESTAMP) " +
+                   "ORDER BY notification_outbox_k FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<NotificationOutboxEntity> lockDigestToSend(@Param("mailTo") String mailTo);
+
+}
@@ -1,9 +1,16 @@
 package it.gov.pagopa.cgn.portal.repository;
 
 import it.gov.pagopa.cgn.portal.model.NotificationEntity;
+import it.gov.pagopa.cgn.portal.repository.custom.NotificationRepositoryCustom;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
 
 public interface NotificationRepository
-        extends JpaRepository<NotificationEntity, Long> {
+        extends JpaRepository<NotificationEntity, Long>, NotificationRepositoryCustom {
     NotificationEntity findByKey(String key);
-}
\ No newline at end of file
+
+    @Query("select n.key from NotificationEntity n")
+    List<String> findAllKeys();
+}
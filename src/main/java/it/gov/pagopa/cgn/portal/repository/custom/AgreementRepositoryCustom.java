@@ -0,0 +1,34 @@
+package it.gov.pagopa.cgn.portal.repository.custom;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.persistence.Tuple;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+
+import it.gov.pagopa.cgn.portal.filter.ExportFilter;
+import it.gov.pagopa.cgn.portal.model.AgreementEntity;
+
+public interface AgreementRepositoryCustom {
+
+    /**
+     * Streams one tuple (agreement, discount) for every discount matching the filter.
+     * Agreements without discounts are returned with a null discount unless a discount filter is set.
+     */
+    Stream<Tuple> streamExportRows(ExportFilter filter);
+
+    /**
+     * Returns only the ids of the agreements in the requested page, in the order given by the specification.
+     */
+    List<String> findAgreementIds(Specification<AgreementEntity> spec, Pageable pageable);
+
+    /**
+     * Initializes discounts with their products, documents and profile addresses of the agreements already
+     * loaded in the persistence context, with one select per collection whatever the number of agreements.
+     */
+    void fetchBackofficeCollections(Collection<String> agreementIds);
+
+}
@@ -0,0 +1,119 @@
+package it.gov.pagopa.cgn.portal.repository.custom;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.hibernate.jpa.QueryHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Repository;
+
+import it.gov.pagopa.cgn.portal.filter.ExportFilter;
+import it.gov.pagopa.cgn.portal.model.AgreementEntity;
+import it.gov.pagopa.cgn.portal.model.DiscountEntity;
+import it.gov.pagopa.cgn.portal.model.ProfileEntity;
+
+@Repository
+public class AgreementRepositoryCustomImpl implements AgreementRepositoryCustom {
+
+    private static final int EXPORT_FETCH_SIZE = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Stream<Tuple> streamExportRows(ExportFilter filter) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<AgreementEntity> agreement = query.from(AgreementEntity.class);
+        // profile is fetched to avoid one select per exported agreement
+        Join<AgreementEntity, ProfileEntity> profile = (Join<AgreementEntity, ProfileEntity>) agreement.<AgreementEntity, ProfileEntity>fetch(
+                "profile",
+                JoinType.LEFT);
+        Join<AgreementEntity, DiscountEntity> discount = agreement.join("discountList", JoinType.LEFT);
+
+        List<Predicate> predicateList = new ArrayList<>();
+        if (filter.getAgreementState() != null) {
+            predicateList.add(cb.equal(agreement.get("state"), filter.getAgreementState()));
+        }
+        if (filter.getSalesChannel() != null) {
+            predicateList.add(cb.equal(profile.get("salesChannel"), filter.getSalesChannel()));
+        }
+        if (filter.getDiscountState() != null) {
+            predicateList.add(cb.equal(discount.get("state"), filter.getDiscountState()));
+        }
+        // a discount matches the date range when its validity period overlaps it
+        if (filter.getDiscountDateFrom() != null) {
+            predicateList.add(cb.greaterThanOrEqualTo(discount.get("endDate"), filter.getDiscountDateFrom()));
+        }
+        if (filter.getDiscountDateTo() != null) {
+            predicateList.add(cb.lessThanOrEqualTo(discount.get("startDate"), filter.getDiscountDateTo()));
+        }
+        if (filter.getVisibleOnEyca() != null) {
+            predicateList.add(cb.equal(discount.get("visibleOnEyca"), filter.getVisibleOnEyca()));
+        }
+
+        query.multiselect(agreement, discount)
+             .where(predicateList.toArray(new Predicate[0]))
+             .orderBy(cb.asc(agreement.get("id")), cb.asc(discount.get("id")));
+
+        return entityManager.createQuery(query)
+                            .setHint(QueryHints.HINT_FETCH_SIZE, EXPORT_FETCH_SIZE)
+                            .setHint(QueryHints.HINT_READONLY, true)
+                            .getResultStream();
+    }
+
+    @Override
+    public List<String> findAgreementIds(Specification<AgreementEntity> spec, Pageable pageable) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = cb.createQuery(String.class);
+        Root<AgreementEntity> agreement = query.from(AgreementEntity.class);
+        // backoffice specifications set where and order by on the query themselves
+        Predicate predicate = spec.toPredicate(agreement, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.select(agreement.get("id"));
+
+        return entityManager.createQuery(query)
+                            .setFirstResult((int) pageable.getOffset())
+                            .setMaxResults(pageable.getPageSize())
+                            .getResultList();
+    }
+
+    @Override
+    public void fetchBackofficeCollections(Collection<String> agreementIds) {
+        // bags cannot be join fetched together: each select initializes one collection of the managed entities.
+        // Discounts come first with their eager products and bucket load, so the agreements select finds them
+        // already initialized
+        fetch("select distinct d from DiscountEntity d left join fetch d.products left join fetch d.lastBucketCodeLoad " +
+              "where d.agreement.id in :agreement_ids", agreementIds);
+        fetch("select distinct a from AgreementEntity a left join fetch a.discountList where a.id in :agreement_ids",
+              agreementIds);
+        fetch("select distinct a from AgreementEntity a left join fetch a.documentList where a.id in :agreement_ids",
+              agreementIds);
+        fetch("select distinct p from ProfileEntity p left join fetch p.addressList " +
+              "where p.agreement.id in :agreement_ids", agreementIds);
+    }
+
+    private void fetch(String query, Collection<String> agreementIds) {
+        entityManager.createQuery(query)
+                     .setParameter("agreement_ids", agreementIds)
+                     .setHint(QueryHints.HINT_PASS_DISTINCT_THROUGH, false)
+                     .getResultList();
+    }
+
+}
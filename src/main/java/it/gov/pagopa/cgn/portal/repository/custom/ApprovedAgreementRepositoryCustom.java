@@ -0,0 +1,18 @@
+package it.gov.pagopa.cgn.portal.repository.custom;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+
+import it.gov.pagopa.cgn.portal.model.ApprovedAgreementEntity;
+
+public interface ApprovedAgreementRepositoryCustom {
+
+    /**
+     * Returns the approved agreements in the requested page without counting the total.
+     */
+    List<ApprovedAgreementEntity> findApprovedAgreements(Specification<ApprovedAgreementEntity> spec,
+                                                         Pageable pageable);
+
+}
@@ -0,0 +1,43 @@
+package it.gov.pagopa.cgn.portal.repository.custom;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Repository;
+
+import it.gov.pagopa.cgn.portal.model.ApprovedAgreementEntity;
+
+@Repository
+public class ApprovedAgreementRepositoryCustomImpl implements ApprovedAgreementRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<ApprovedAgreementEntity> findApprovedAgreements(Specification<ApprovedAgreementEntity> spec,
+                                                                Pageable pageable) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<ApprovedAgreementEntity> query = cb.createQuery(ApprovedAgreementEntity.class);
+        Root<ApprovedAgreementEntity> agreement = query.from(ApprovedAgreementEntity.class);
+        // backoffice specifications set where and order by on the query themselves
+        Predicate predicate = spec.toPredicate(agreement, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.select(agreement);
+
+        return entityManager.createQuery(query)
+                            .setFirstResult((int) pageable.getOffset())
+                            .setMaxResults(pageable.getPageSize())
+                            .getResultList();
+    }
+
+}
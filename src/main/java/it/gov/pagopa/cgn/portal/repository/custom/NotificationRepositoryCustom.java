@@ -0,0 +1,24 @@
+package it.gov.pagopa.cgn.portal.repository.custom;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import it.gov.pagopa.cgn.portal.model.NotificationEntity;
+
+public interface NotificationRepositoryCustom {
+
+    /**
+     * Inserts the given notifications in a single batch. An existing notification is updated only if it
+     * had failed, so a notification sent by another instance is never marked as failed.
+     */
+    public void bulkUpsert(List<NotificationEntity> entities);
+
+    /**
+     * Deletes at most {@code limit} notifications sent before the given time. The expiring bucket codes
+     * notifications of the last bucket load of a discount are kept, they still prevent sending them again.
+     *
+     * @return the number of deleted notifications
+     */
+    public int deleteSentBefore(OffsetDateTime sentBefore, int limit);
+
+}
@@ -0,0 +1,62 @@
+package it.gov.pagopa.cgn.portal.repository.custom;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import javax.transaction.Transactional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import it.gov.pagopa.cgn.portal.model.NotificationEntity;
+
+@Repository
+@Transactional
+public class NotificationRepositoryCustomImpl implements NotificationRepositoryCustom {
+
+    @Autowired
+    private JdbcTemplate template;
+
+    @Override
+    public void bulkUpsert(List<NotificationEntity> entities) {
+        template.batchUpdate(
+                "insert into notification (notification_k, sent_at, error_message) values (?, ?, ?) " +
+                "on conflict (notification_k) do update " +
+                "set sent_at = excluded.sent_at, error_message = excluded.error_message " +
+                "where notification.error_message is not null",
+                new BatchPreparedStatementSetter() {
+
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        NotificationEntity toUpsert = entities.get(i);
+                        ps.setString(1, toUpsert.getKey());
+                        ps.setObject(2, toUpsert.getSentAt());
+                        ps.setString(3, toUpsert.getErrorMessage());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return entities.size();
+                    }
+                });
+    }
+
+    @Override
+    public int deleteSentBefore(OffsetDateTime sentBefore, int limit) {
+        // the expiring codes keys are "threshold::discount::load uid", the ones of the last load are still in use
+        return template.update(
+                "delete from notification where notification_k in " +
+                "(select n.notification_k from notification n where n.sent_at < ? and not exists " +
+                "(select 1 from discount d " +
+                "join bucket_code_load l on l.bucket_code_load_k = d.last_bucket_code_load_id " +
+                "where cast(d.discount_k as varchar) = split_part(n.notification_k, '::', 2) " +
+                "and l.uid = split_part(n.notification_k, '::', 3)) limit ?)",
+                sentBefore,
+                limit);
+    }
+
+}
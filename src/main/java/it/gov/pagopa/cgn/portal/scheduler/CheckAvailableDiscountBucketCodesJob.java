@@ -1,49 +1,48 @@
 package it.gov.pagopa.cgn.portal.scheduler;
 
-import it.gov.pagopa.cgn.portal.model.DiscountBucketCodeSummaryEntity;
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
 import it.gov.pagopa.cgn.portal.repository.DiscountBucketCodeSummaryRepository;
+import it.gov.pagopa.cgn.portal.repository.DiscountBucketCodeSummaryView;
 import it.gov.pagopa.cgn.portal.service.BucketService;
 import lombok.extern.slf4j.Slf4j;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Component;
-import org.springframework.util.CollectionUtils;
 
 import javax.transaction.Transactional;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.List;
 
 @Component
 @Slf4j
 public class CheckAvailableDiscountBucketCodesJob implements Job {
 
-    private static final String JOB_LOG_NAME = "Available Discounts Buckets Codes Notification Job ";
-
     private final DiscountBucketCodeSummaryRepository discountBucketCodeSummaryRepository;
     private final BucketService bucketService;
+    private final ConfigProperties configProperties;
+    private final JobPartitionCoordinator jobPartitionCoordinator;
 
     @Autowired
-    public CheckAvailableDiscountBucketCodesJob(DiscountBucketCodeSummaryRepository discountBucketCodeSummaryRepository, BucketService bucketService) {
+    public CheckAvailableDiscountBucketCodesJob(DiscountBucketCodeSummaryRepository discountBucketCodeSummaryRepository, BucketService bucketService,
+                                                ConfigProperties configProperties,
+                                                JobPartitionCoordinator jobPartitionCoordinator) {
         this.discountBucketCodeSummaryRepository = discountBucketCodeSummaryRepository;
         this.bucketService = bucketService;
+        this.configProperties = configProperties;
+        this.jobPartitionCoordinator = jobPartitionCoordinator;
     }
 
     @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public void execute(JobExecutionContext context) {
-
-        log.info(JOB_LOG_NAME + "started");
-        Instant start = Instant.now();
-        List<DiscountBucketCodeSummaryEntity> discountBucketCodeSummaryList = discountBucketCodeSummaryRepository.findAllPublishedByExpiredAtIsNullAndAvailableCodesGreaterThanZero();
-
-        if (!CollectionUtils.isEmpty(discountBucketCodeSummaryList)) {
-            log.info("Found " + discountBucketCodeSummaryList.size() + " not expired discount bucket code summaries to check");
-            discountBucketCodeSummaryList.forEach(bucketService::checkDiscountBucketCodeSummaryExpirationAndSendNotification);
-        }
-
-        Instant end = Instant.now();
-        log.info(JOB_LOG_NAME + "ended in " + Duration.between(start, end).getSeconds() + " seconds");
+        Pageable batch = PageRequest.of(0, configProperties.getJobBatchSize());
+        jobPartitionCoordinator.execute(JobRegistry.CHECK_AVAILABLE_BUCKET_CODES, context, (partitionIndex, partitionCount, run) ->
+                run.processInBatches(afterId -> discountBucketCodeSummaryRepository.findPublishedNotExpiredWithAvailableCodesInPartition(partitionIndex,
+                                                                                                                                       partitionCount,
+                                                                                                                                       afterId,
+                                                                                                                                       batch),
+                                     DiscountBucketCodeSummaryView::getDiscountId,
+                                     bucketService::checkDiscountBucketCodeSummariesExpirationAndSendNotification));
     }
 
 }
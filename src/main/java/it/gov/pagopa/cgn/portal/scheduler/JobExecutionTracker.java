@@ -0,0 +1,171 @@
+package it.gov.pagopa.cgn.portal.scheduler;
+
+import it.gov.pagopa.cgn.portal.enums.JobExecutionStatusEnum;
+import it.gov.pagopa.cgn.portal.model.JobExecutionEntity;
+import it.gov.pagopa.cgn.portal.repository.JobExecutionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.JobKey;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Runs a scheduled job recording the run in the job_execution table and in the metrics of the job:
+ * the duration on cgn.job.execution, the items processed and failed on cgn.job.items and cgn.job.errors.
+ */
+@Slf4j
+@Component
+public class JobExecutionTracker {
+
+    private final JobExecutionRepository jobExecutionRepository;
+    private final MeterRegistry meterRegistry;
+
+    public void run(JobKey jobKey, Consumer<JobRun> job) {
+        String jobName = jobKey.getName();
+        var execution = new JobExecutionEntity();
+        execution.setJobName(jobName);
+        execution.setStatus(JobExecutionStatusEnum.RUNNING);
+        execution.setStartTime(OffsetDateTime.now());
+        execution = jobExecutionRepository.save(execution);
+        log.info("Job " + jobName + " started");
+
+        JobRun run = new JobRun(jobName, execution.getId());
+        JobExecutionStatusEnum status = JobExecutionStatusEnum.FAILED;
+        long start = System.nanoTime();
+        try {
+            job.accept(run);
+            status = JobExecutionStatusEnum.COMPLETED;
+        } catch (RuntimeException e) {
+            run.failed(e);
+            throw e;
+        } finally {
+            long duration = System.nanoTime() - start;
+            execution.setStatus(status);
+            execution.setEndTime(OffsetDateTime.now());
+            execution.setItemsProcessed(run.processed);
+            execution.setErrors(run.errors);
+            execution.setLastError(run.lastError);
+            jobExecutionRepository.save(execution);
+
+            Timer.builder("cgn.job.execution")
+                 .tag("job", jobName)
+                 .tag("status", status.getCode())
+                 .register(meterRegistry)
+                 .record(duration, TimeUnit.NANOSECONDS);
+            Counter.builder("cgn.job.items").tag("job", jobName).register(meterRegistry).increment(run.processed);
+            Counter.builder("cgn.job.errors").tag("job", jobName).register(meterRegistry).increment(run.errors);
+            log.info("Job " + jobName + " ended in " + TimeUnit.NANOSECONDS.toMillis(duration) + " ms with status " +
+                     status.getCode() + ": " + run.processed + " items processed, " + run.errors + " errors");
+        }
+    }
+
+    public JobExecutionTracker(JobExecutionRepository jobExecutionRepository, MeterRegistry meterRegistry) {
+        this.jobExecutionRepository = jobExecutionRepository;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * The items processed by a run. An item that fails is counted and logged, and the job goes on with the others.
+     */
+    public static class JobRun {
+        private final String jobName;
+        private final Long executionId;
+        private int processed;
+        private int errors;
+        private String lastError;
+
+        JobRun(String jobName, Long executionId) {
+            this.jobName = jobName;
+            this.executionId = executionId;
+        }
+
+        public Long getExecutionId() {
+            return executionId;
+        }
+
+        public int getProcessed() {
+            return processed;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+
+        public String getLastError() {
+            return lastError;
+        }
+
+        /**
+         * Processes the items a batch at a time, reading each batch after the last key of the previous one,
+         * so that one batch only is held in memory. A batch that fails is counted and logged as a whole.
+         *
+         * @param nextSlice reads the items with a key greater than the given one
+         * @param key       the key the items are ordered by
+         * @param batch     processes a batch, returning the number of items processed: the others are errors
+         */
+        public <T> void processInBatches(LongFunction<Slice<T>> nextSlice,
+                                         ToLongFunction<T> key,
+                                         ToIntFunction<List<T>> batch) {
+            long lastKey = Long.MIN_VALUE;
+            Slice<T> slice;
+            do {
+                slice = nextSlice.apply(lastKey);
+                List<T> items = slice.getContent();
+                if (items.isEmpty()) {
+                    return;
+                }
+                processBatch(items, batch);
+                lastKey = key.applyAsLong(items.get(items.size() - 1));
+            } while (slice.hasNext());
+        }
+
+        private <T> void processBatch(List<T> items, ToIntFunction<List<T>> batch) {
+            try {
+                int processedItems = batch.applyAsInt(items);
+                processed += processedItems;
+                errors += items.size() - processedItems;
+            } catch (RuntimeException e) {
+                errors += items.size();
+                lastError = e.getMessage();
+                log.error("Job " + jobName + " failed to process a batch of " + items.size() + " items", e);
+            }
+        }
+
+        /**
+         * Adds the items processed elsewhere, e.g. by a partition of the run.
+         */
+        void add(int processed, int errors, String lastError) {
+            this.processed += processed;
+            this.errors += errors;
+            if (lastError != null) {
+                this.lastError = lastError;
+            }
+        }
+
+        void failed(RuntimeException error) {
+            lastError = error.getMessage();
+        }
+
+        public void process(Runnable item) {
+            try {
+                item.run();
+                processed++;
+            } catch (RuntimeException e) {
+                errors++;
+                lastError = e.getMessage();
+                log.error("Job " + jobName + " failed to process an item", e);
+            }
+        }
+    }
+
+}
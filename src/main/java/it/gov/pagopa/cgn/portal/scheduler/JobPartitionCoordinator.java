@@ -0,0 +1,323 @@
+package it.gov.pagopa.cgn.portal.scheduler;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.enums.JobExecutionStatusEnum;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import it.gov.pagopa.cgn.portal.model.JobPartitionEntity;
+import it.gov.pagopa.cgn.portal.repository.JobExecutionRepository;
+import it.gov.pagopa.cgn.portal.repository.JobPartitionRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.TriggerBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a scheduled job as partitions spread over the quartz cluster.
+ * The cron trigger starts the coordinator: it splits the run in partitions by discount id modulo the partition count
+ * and fires a worker trigger of the same job for each other partition, which quartz runs on any node of the cluster.
+ * Coordinator and workers take the pending partitions one at a time; a failed partition is pending again until its
+ * attempts are exhausted. A running partition is leased to its node, which renews the lease while processing it:
+ * when a node stops, its partitions are taken again once the lease expires.
+ * The coordinator waits for all the partitions to end and records the totals of the run. A run still running after
+ * the timeout has lost its coordinator and is failed by the next run of the job.
+ */
+@Slf4j
+@Component
+public class JobPartitionCoordinator {
+
+    static final String EXECUTION_ID = "jobExecutionId";
+
+    private static final long WAIT_MILLIS = 500;
+
+    private final JobPartitionRepository jobPartitionRepository;
+    private final JobExecutionRepository jobExecutionRepository;
+    private final JobExecutionTracker jobExecutionTracker;
+    private final Scheduler scheduler;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int partitions;
+    private final int maxAttempts;
+    private final long timeoutNanos;
+    private final long leaseSeconds;
+    private final String owner = UUID.randomUUID().toString();
+    private final Set<Long> runningPartitions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Runs the job as coordinator when started by its cron trigger, as worker when started by a worker trigger.
+     */
+    public void execute(JobKey jobKey, JobExecutionContext context, PartitionProcessor processor) {
+        JobDataMap data = context == null ? null : context.getMergedJobDataMap();
+        if (data != null && data.containsKey(EXECUTION_ID)) {
+            work(jobKey, data.getLong(EXECUTION_ID), processor);
+        } else {
+            coordinate(jobKey, processor);
+        }
+    }
+
+    /**
+     * Renews the lease of the partitions this node is processing.
+     */
+    @Scheduled(fixedDelayString = "${cgn.jobs.partition.heartbeat-millis}")
+    public void heartbeat() {
+        Set<Long> ids = Set.copyOf(runningPartitions);
+        if (!ids.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> jobPartitionRepository.renewLease(ids,
+                                                                                                  owner,
+                                                                                                  leaseUntil()));
+        }
+    }
+
+    private void coordinate(JobKey jobKey, PartitionProcessor processor) {
+        failStaleRuns(jobKey);
+        jobExecutionTracker.run(jobKey, run -> {
+            Long executionId = run.getExecutionId();
+            createPartitions(executionId);
+            fireWorkers(jobKey, executionId);
+
+            long deadline = System.nanoTime() + timeoutNanos;
+            List<JobPartitionEntity> partitionList = work(jobKey, executionId, processor);
+            while (partitionList.stream().anyMatch(partition -> !isEnded(partition))) {
+                if (System.nanoTime() > deadline) {
+                    throw new CGNException("Partitions of job " + jobKey.getName() + " not ended in " +
+                                           TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + " seconds");
+                }
+                sleep();
+                partitionList = work(jobKey, executionId, processor);
+            }
+
+            partitionList.forEach(partition -> run.add(partition.getItemsProcessed(),
+                                                       partition.getErrors(),
+                                                       partition.getLastError()));
+            long failed = partitionList.stream()
+                                       .filter(partition -> JobExecutionStatusEnum.FAILED.equals(partition.getStatus()))
+                                       .count();
+            if (failed > 0) {
+                throw new CGNException(failed + " partitions of job " + jobKey.getName() + " failed");
+            }
+        });
+    }
+
+    /**
+     * Processes the pending partitions of the run until there are none left.
+     *
+     * @return the partitions of the run, as they are after the last one taken has been processed
+     */
+    private List<JobPartitionEntity> work(JobKey jobKey, Long executionId, PartitionProcessor processor) {
+        JobPartitionEntity partition;
+        while ((partition = take(executionId)) != null) {
+            process(jobKey, partition, processor);
+        }
+        return jobPartitionRepository.findByJobExecutionIdOrderByPartitionIndex(executionId);
+    }
+
+    /**
+     * Takes a pending partition, or a running one whose node stopped if it has attempts left.
+     */
+    private JobPartitionEntity take(Long executionId) {
+        return transactionTemplate.execute(status -> {
+            Optional<JobPartitionEntity> partition;
+            while ((partition = jobPartitionRepository.lockTakeable(executionId)).isPresent()) {
+                if (partition.get().getAttempts() < maxAttempts) {
+                    return start(partition.get());
+                }
+                expire(partition.get());
+            }
+            return null;
+        });
+    }
+
+    private JobPartitionEntity start(JobPartitionEntity partition) {
+        if (JobExecutionStatusEnum.RUNNING.equals(partition.getStatus())) {
+            log.warn("Lease of partition " + partition.getPartitionIndex() + " of run " +
+                     partition.getJobExecutionId() + " expired, taken again");
+        }
+        partition.setStatus(JobExecutionStatusEnum.RUNNING);
+        partition.setAttempts(partition.getAttempts() + 1);
+        partition.setStartTime(OffsetDateTime.now());
+        partition.setEndTime(null);
+        partition.setOwner(owner);
+        partition.setLeaseUntil(leaseUntil());
+        return jobPartitionRepository.save(partition);
+    }
+
+    private void expire(JobPartitionEntity partition) {
+        partition.setStatus(JobExecutionStatusEnum.FAILED);
+        partition.setEndTime(OffsetDateTime.now());
+        partition.setLastError("Lease expired at attempt " + partition.getAttempts());
+        partition.setOwner(null);
+        partition.setLeaseUntil(null);
+        // flushed before the next partition is locked
+        jobPartitionRepository.saveAndFlush(partition);
+    }
+
+    private void process(JobKey jobKey, JobPartitionEntity partition, PartitionProcessor processor) {
+        String partitionName = jobKey.getName() + " partition " + partition.getPartitionIndex() + "/" +
+                               partition.getPartitionCount();
+        JobExecutionTracker.JobRun run = new JobExecutionTracker.JobRun(jobKey.getName(),
+                                                                        partition.getJobExecutionId());
+        JobExecutionStatusEnum status;
+        long start = System.nanoTime();
+        runningPartitions.add(partition.getId());
+        try {
+            processor.process(partition.getPartitionIndex(), partition.getPartitionCount(), run);
+            status = JobExecutionStatusEnum.COMPLETED;
+        } catch (RuntimeException e) {
+            run.failed(e);
+            // taken again by any node until the attempts are exhausted
+            status = partition.getAttempts() < maxAttempts ?
+                     JobExecutionStatusEnum.PENDING :
+                     JobExecutionStatusEnum.FAILED;
+            log.error("Job " + partitionName + " failed at attempt " + partition.getAttempts(), e);
+        } finally {
+            runningPartitions.remove(partition.getId());
+        }
+        long duration = System.nanoTime() - start;
+        JobExecutionStatusEnum endStatus = status;
+        boolean ended = Boolean.TRUE.equals(transactionTemplate.execute(
+                tx -> jobPartitionRepository.findById(partition.getId())
+                                            .filter(current -> isTakenBy(current, partition))
+                                            .map(current -> {
+                                                current.setStatus(endStatus);
+                                                current.setEndTime(OffsetDateTime.now());
+                                                current.setItemsProcessed(run.getProcessed());
+                                                current.setErrors(run.getErrors());
+                                                current.setLastError(run.getLastError());
+                                                current.setOwner(null);
+                                                current.setLeaseUntil(null);
+                                                jobPartitionRepository.save(current);
+                                                return true;
+                                            })
+                                            .orElse(false)));
+        if (!ended) {
+            log.warn("Job " + partitionName + " lost its lease: the partition has been taken again by another node");
+        }
+
+        Timer.builder("cgn.job.partition")
+             .tag("job", jobKey.getName())
+             .tag("status", status.getCode())
+             .register(meterRegistry)
+             .record(duration, TimeUnit.NANOSECONDS);
+        log.info("Job " + partitionName + " ended in " + TimeUnit.NANOSECONDS.toMillis(duration) +
+                 " ms with status " + status.getCode() + ": " + run.getProcessed() + " items processed, " +
+                 run.getErrors() + " errors");
+    }
+
+    /**
+     * Fails the runs of the job whose coordinator stopped: a live coordinator ends its run within the timeout.
+     */
+    private void failStaleRuns(JobKey jobKey) {
+        OffsetDateTime startedBefore = OffsetDateTime.now().minusNanos(timeoutNanos);
+        String lastError = "Coordinator stopped before the end of the run";
+        Integer stale = transactionTemplate.execute(status -> {
+            jobPartitionRepository.failPartitionsOfStaleRuns(jobKey.getName(), startedBefore, lastError);
+            return jobExecutionRepository.failStaleRuns(jobKey.getName(), startedBefore, lastError);
+        });
+        if (stale != null && stale > 0) {
+            log.warn(stale + " runs of job " + jobKey.getName() + " failed: their coordinator stopped");
+        }
+    }
+
+    private void createPartitions(Long executionId) {
+        List<JobPartitionEntity> partitionList = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            var partition = new JobPartitionEntity();
+            partition.setJobExecutionId(executionId);
+            partition.setPartitionIndex(i);
+            partition.setPartitionCount(partitions);
+            partition.setStatus(JobExecutionStatusEnum.PENDING);
+            partitionList.add(partition);
+        }
+        jobPartitionRepository.saveAll(partitionList);
+    }
+
+    /**
+     * Fires a worker trigger for every partition but the one the coordinator takes itself.
+     * If the triggers cannot be scheduled the coordinator processes all the partitions alone.
+     */
+    private void fireWorkers(JobKey jobKey, Long executionId) {
+        try {
+            for (int i = 1; i < partitions; i++) {
+                scheduler.scheduleJob(TriggerBuilder.newTrigger()
+                                                    .forJob(jobKey)
+                                                    .usingJobData(EXECUTION_ID, executionId)
+                                                    .startNow()
+                                                    .build());
+            }
+        } catch (SchedulerException e) {
+            log.warn("Workers of job " + jobKey.getName() + " not started, the coordinator runs all the partitions: " +
+                     e.getMessage());
+        }
+    }
+
+    private OffsetDateTime leaseUntil() {
+        return OffsetDateTime.now().plusSeconds(leaseSeconds);
+    }
+
+    /**
+     * Whether the partition is still the attempt taken by this node, and not taken again after its lease expired.
+     */
+    private boolean isTakenBy(JobPartitionEntity current, JobPartitionEntity taken) {
+        return JobExecutionStatusEnum.RUNNING.equals(current.getStatus()) && owner.equals(current.getOwner()) &&
+               current.getAttempts() == taken.getAttempts();
+    }
+
+    private static boolean isEnded(JobPartitionEntity partition) {
+        return JobExecutionStatusEnum.COMPLETED.equals(partition.getStatus()) ||
+               JobExecutionStatusEnum.FAILED.equals(partition.getStatus());
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CGNException(e);
+        }
+    }
+
+    public JobPartitionCoordinator(JobPartitionRepository jobPartitionRepository,
+                                   JobExecutionRepository jobExecutionRepository,
+                                   JobExecutionTracker jobExecutionTracker,
+                                   Scheduler scheduler,
+                                   PlatformTransactionManager transactionManager,
+                                   ConfigProperties configProperties,
+                                   MeterRegistry meterRegistry) {
+        this.jobPartitionRepository = jobPartitionRepository;
+        this.jobExecutionRepository = jobExecutionRepository;
+        this.jobExecutionTracker = jobExecutionTracker;
+        this.scheduler = scheduler;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.partitions = Math.max(1, configProperties.getJobPartitions());
+        this.maxAttempts = Math.max(1, configProperties.getJobPartitionMaxAttempts());
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(configProperties.getJobPartitionTimeoutSeconds());
+        this.leaseSeconds = configProperties.getJobPartitionLeaseSeconds();
+    }
+
+    /**
+     * Processes the items of a partition: those whose discount id modulo the partition count is the partition index.
+     */
+    @FunctionalInterface
+    public interface PartitionProcessor {
+        void process(int partitionIndex, int partitionCount, JobExecutionTracker.JobRun run);
+    }
+
+}
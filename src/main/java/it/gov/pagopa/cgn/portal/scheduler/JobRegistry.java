@@ -0,0 +1,86 @@
+package it.gov.pagopa.cgn.portal.scheduler;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import org.quartz.Job;
+import org.quartz.JobKey;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The scheduled jobs: each job key is run by its own job class with its own cron expression.
+ */
+@Component
+public class JobRegistry {
+
+    private static final String DISCOUNTS_JOB_GROUP = "discounts";
+
+    private static final String STORAGE_JOB_GROUP = "storage";
+
+    public static final JobKey CHECK_EXPIRING_DISCOUNTS = JobKey.jobKey("check-expiring", DISCOUNTS_JOB_GROUP);
+
+    public static final JobKey CHECK_AVAILABLE_BUCKET_CODES = JobKey.jobKey("check-available-codes",
+                                                                            DISCOUNTS_JOB_GROUP);
+
+    public static final JobKey SUSPEND_DISCOUNTS_WITHOUT_BUCKET_CODES = JobKey.jobKey(
+            "suspend-discount-with-expired-bucket",
+            DISCOUNTS_JOB_GROUP);
+
+    public static final JobKey PURGE_UNREFERENCED_DOCUMENTS = JobKey.jobKey("purge-unreferenced-documents",
+                                                                            STORAGE_JOB_GROUP);
+
+    private final Map<JobKey, RegisteredJob> jobs = new LinkedHashMap<>();
+
+    public Set<JobKey> getJobKeys() {
+        return Collections.unmodifiableSet(jobs.keySet());
+    }
+
+    public Class<? extends Job> getJobClass(JobKey jobKey) {
+        return get(jobKey).jobClass;
+    }
+
+    public String getCronExpression(JobKey jobKey) {
+        return get(jobKey).cronExpression;
+    }
+
+    private RegisteredJob get(JobKey jobKey) {
+        RegisteredJob job = jobs.get(jobKey);
+        if (job == null) {
+            throw new IllegalArgumentException("Job " + jobKey + " not registered");
+        }
+        return job;
+    }
+
+    private void register(JobKey jobKey, Class<? extends Job> jobClass, String cronExpression) {
+        jobs.put(jobKey, new RegisteredJob(jobClass, cronExpression));
+    }
+
+    public JobRegistry(ConfigProperties configProperties) {
+        register(CHECK_EXPIRING_DISCOUNTS,
+                 CheckExpiringDiscountsJob.class,
+                 configProperties.getExpiringDiscountsJobCronExpression());
+        register(CHECK_AVAILABLE_BUCKET_CODES,
+                 CheckAvailableDiscountBucketCodesJob.class,
+                 configProperties.getAvailableDiscountBucketCodesJobCronExpression());
+        register(SUSPEND_DISCOUNTS_WITHOUT_BUCKET_CODES,
+                 SuspendDiscountsWithoutAvailableBucketCodesJob.class,
+                 configProperties.getSuspendDiscountsWithoutAvailableBucketCodesJobCronExpression());
+        register(PURGE_UNREFERENCED_DOCUMENTS,
+                 PurgeUnreferencedDocumentsJob.class,
+                 configProperties.getPurgeUnreferencedDocumentsJobCronExpression());
+    }
+
+    private static class RegisteredJob {
+        private final Class<? extends Job> jobClass;
+        private final String cronExpression;
+
+        RegisteredJob(Class<? extends Job> jobClass, String cronExpression) {
+            this.jobClass = jobClass;
+            this.cronExpression = cronExpression;
+        }
+    }
+
+}
@@ -1,52 +1,56 @@
 package it.gov.pagopa.cgn.portal.scheduler;
 
-import it.gov.pagopa.cgn.portal.config.ConfigProperties;
 import org.quartz.*;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
 import java.util.TimeZone;
 
 @Service
 public class JobScheduler {
 
     private final Scheduler scheduler;
-    private final ConfigProperties configProperties;
-    private static final String DISCOUNTS_JOB_GROUP = "discounts";
+    private final JobRegistry jobRegistry;
 
-    public JobScheduler(Scheduler scheduler, ConfigProperties configProperties) {
+    public JobScheduler(Scheduler scheduler, JobRegistry jobRegistry) {
         this.scheduler = scheduler;
-        this.configProperties = configProperties;
+        this.jobRegistry = jobRegistry;
     }
 
     public void scheduleCheckExpiringDiscountsJob() throws SchedulerException {
-        JobKey jobKey = JobKey.jobKey("check-expiring", DISCOUNTS_JOB_GROUP);
-        scheduleJob(jobKey, configProperties.getExpiringDiscountsJobCronExpression());
+        scheduleJob(JobRegistry.CHECK_EXPIRING_DISCOUNTS);
     }
 
     public void scheduleCheckAvailableDiscountBucketCodesJob() throws SchedulerException {
-        JobKey jobKey = JobKey.jobKey("check-available-codes", DISCOUNTS_JOB_GROUP);
-        scheduleJob(jobKey, configProperties.getAvailableDiscountBucketCodesJobCronExpression());
+        scheduleJob(JobRegistry.CHECK_AVAILABLE_BUCKET_CODES);
     }
 
     public void scheduleSuspendDiscountsWithoutAvailableBucketCodesJob() throws SchedulerException {
-        JobKey jobKey = JobKey.jobKey("suspend-discount-with-expired-bucket", DISCOUNTS_JOB_GROUP);
-        scheduleJob(jobKey, configProperties.getSuspendDiscountsWithoutAvailableBucketCodesJobCronExpression());
+        scheduleJob(JobRegistry.SUSPEND_DISCOUNTS_WITHOUT_BUCKET_CODES);
     }
 
-    private void scheduleJob(JobKey jobKey, String cronExpression) throws SchedulerException {
+    public void schedulePurgeUnreferencedDocumentsJob() throws SchedulerException {
+        scheduleJob(JobRegistry.PURGE_UNREFERENCED_DOCUMENTS);
+    }
+
+    /**
+     * Schedules the job with the class and the cron expression registered for its key,
+     * replacing the job and the triggers stored by a previous version.
+     */
+    private void scheduleJob(JobKey jobKey) throws SchedulerException {
         for (Trigger trigger : scheduler.getTriggersOfJob(jobKey)) {
             scheduler.unscheduleJob(trigger.getKey());
         }
 
-        JobDetail job = JobBuilder.newJob(CheckAvailableDiscountBucketCodesJob.class).withIdentity(jobKey).build();
+        JobDetail job = JobBuilder.newJob(jobRegistry.getJobClass(jobKey)).withIdentity(jobKey).build();
 
         Trigger trigger = TriggerBuilder.newTrigger()
                 .withSchedule(
                         CronScheduleBuilder
-                                .cronSchedule(cronExpression)
+                                .cronSchedule(jobRegistry.getCronExpression(jobKey))
                                 .inTimeZone(TimeZone.getTimeZone("Europe/Rome")))
                 .build();
 
-        scheduler.scheduleJob(job, trigger);
+        scheduler.scheduleJob(job, Collections.singleton(trigger), true);
     }
 }
@@ -0,0 +1,54 @@
+package it.gov.pagopa.cgn.portal.scheduler;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.service.DocumentBlobService;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.transaction.Transactional;
+import java.util.List;
+
+/**
+ * Deletes the documents of every agreement unreferenced for longer than the retention period.
+ * Quartz fires it on one node of the cluster, and each blob is deleted only if still unreferenced.
+ */
+@Component
+@Slf4j
+@DisallowConcurrentExecution
+public class PurgeUnreferencedDocumentsJob implements Job {
+
+    private final DocumentBlobService documentBlobService;
+    private final ConfigProperties configProperties;
+    private final JobExecutionTracker jobExecutionTracker;
+
+    @Autowired
+    public PurgeUnreferencedDocumentsJob(DocumentBlobService documentBlobService,
+                                         ConfigProperties configProperties,
+                                         JobExecutionTracker jobExecutionTracker) {
+        this.documentBlobService = documentBlobService;
+        this.configProperties = configProperties;
+        this.jobExecutionTracker = jobExecutionTracker;
+    }
+
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public void execute(JobExecutionContext context) {
+        int batchSize = configProperties.getJobBatchSize();
+        jobExecutionTracker.run(JobRegistry.PURGE_UNREFERENCED_DOCUMENTS, run -> {
+            // chunks are read after the last url of the previous one, so a blob that cannot be deleted is not read again
+            String lastBlobUrl = "";
+            List<String> blobUrls;
+            do {
+                blobUrls = documentBlobService.findPurgeableBlobUrls(lastBlobUrl, batchSize);
+                blobUrls.forEach(blobUrl -> run.process(() -> documentBlobService.purgeUnreferencedBlob(blobUrl)));
+                if (!blobUrls.isEmpty()) {
+                    lastBlobUrl = blobUrls.get(blobUrls.size() - 1);
+                }
+            } while (blobUrls.size() == batchSize);
+        });
+    }
+
+}
@@ -2,6 +2,7 @@ package it.gov.pagopa.cgn.portal.security;
 
 
 import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.controller.LocalFileStorageController;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -62,7 +63,7 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
                     .cors()
                     .and()
                     .authorizeRequests()
-                    .antMatchers("/actuator/**", "/help", "/")
+                    .antMatchers("/actuator/**", "/help", "/", LocalFileStorageController.DOCUMENTS_PATH + "/**")
                     .permitAll()
                     .anyRequest()
                     .authenticated();
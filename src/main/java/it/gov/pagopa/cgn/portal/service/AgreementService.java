@@ -6,9 +6,10 @@ import it.gov.pagopa.cgn.portal.enums.AgreementStateEnum;
 import it.gov.pagopa.cgn.portal.enums.DiscountStateEnum;
 import it.gov.pagopa.cgn.portal.enums.DocumentTypeEnum;
 import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
-import it.gov.pagopa.cgn.portal.filestorage.AzureStorage;
+import it.gov.pagopa.cgn.portal.filestorage.DocumentStorage;
 import it.gov.pagopa.cgn.portal.model.*;
 import it.gov.pagopa.cgn.portal.repository.AgreementRepository;
+import it.gov.pagopa.cgn.portal.service.BackofficeListCache.BackofficeList;
 import it.gov.pagopa.cgn.portal.util.CGNUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -33,12 +34,16 @@ public class AgreementService extends AgreementServiceLight {
     private final DiscountService discountService;
 
     private final DocumentService documentService;
-    private final AzureStorage azureStorage;
+    private final DocumentStorage documentStorage;
 
     private final EmailNotificationFacade emailNotificationFacade;
 
     private final ConfigProperties configProperties;
 
+    private final ImageVariantService imageVariantService;
+
+    private final BackofficeListCache backofficeListCache;
+
     @Transactional
     public AgreementEntity createAgreementIfNotExists(String merchantTaxCode) {
         AgreementEntity agreementEntity;
@@ -74,6 +79,7 @@ public class AgreementService extends AgreementServiceLight {
         agreementEntity.setRequestApprovalTime(OffsetDateTime.now());
 
         var saved = agreementRepository.save(agreementEntity);
+        backofficeListCache.invalidate(BackofficeList.AGREEMENT_REQUESTS);
 
         emailNotificationFacade.notifyDepartmentNewAgreementRequest(profile.getFullName());
 
@@ -84,8 +90,12 @@ public class AgreementService extends AgreementServiceLight {
     public String uploadImage(String agreementId, MultipartFile image) {
         AgreementEntity agreementEntity = findById(agreementId);
         CGNUtils.validateImage(image, configProperties.getMinWidth(), configProperties.getMinHeight());
-        String imageUrl = azureStorage.storeImage(agreementId, image);
+        String imageUrl = documentStorage.storeImage(agreementId, image);
         agreementEntity.setImageUrl(imageUrl);
+        // variants of the previous image are replaced once the new ones are ready
+        agreementEntity.setImageThumbnailUrl(null);
+        agreementEntity.setImageCardUrl(null);
+        agreementEntity.setImageDetailUrl(null);
         if (AgreementStateEnum.APPROVED.equals(agreementEntity.getState())) {
             setInformationLastUpdateDate(agreementEntity);
         }
@@ -94,6 +104,7 @@ public class AgreementService extends AgreementServiceLight {
             documentService.resetAllDocuments(agreementEntity.getId());
         }
         agreementRepository.save(agreementEntity);
+        imageVariantService.scheduleImageVariants(agreementId, imageUrl);
         return imageUrl;
     }
 
@@ -124,17 +135,20 @@ public class AgreementService extends AgreementServiceLight {
     @Autowired
     public AgreementService(AgreementRepository agreementRepository, AgreementUserService userService,
                             ProfileService profileService, DiscountService discountService,
-                            DocumentService documentService, AzureStorage azureStorage,
+                            DocumentService documentService, DocumentStorage documentStorage,
                             EmailNotificationFacade emailNotificationFacade,
-                            ConfigProperties configProperties) {
+                            ConfigProperties configProperties, ImageVariantService imageVariantService,
+                            BackofficeListCache backofficeListCache) {
         super(agreementRepository);
         this.userService = userService;
         this.profileService = profileService;
         this.discountService = discountService;
         this.documentService = documentService;
-        this.azureStorage = azureStorage;
+        this.documentStorage = documentStorage;
         this.emailNotificationFacade = emailNotificationFacade;
         this.configProperties = configProperties;
+        this.imageVariantService = imageVariantService;
+        this.backofficeListCache = backofficeListCache;
     }
 
 
@@ -39,6 +39,14 @@ public class AgreementServiceLight {
         agreementRepository.save(agreementEntity);
     }
 
+    @Transactional(Transactional.TxType.REQUIRED)
+    public void updatePublishedDiscounts(String agreementId) {
+        // the recount waits on the lock in a statement of its own, so that its snapshot is taken after
+        // the commit of a concurrent transaction changing other discounts of the same agreement
+        agreementRepository.lockById(agreementId);
+        agreementRepository.updatePublishedDiscounts(agreementId);
+    }
+
     @Transactional(Transactional.TxType.REQUIRED)
     public AgreementEntity setDraftAgreementFromRejected(AgreementEntity agreement) {
         agreement.setState(AgreementStateEnum.DRAFT);
@@ -4,25 +4,29 @@ import it.gov.pagopa.cgn.portal.email.EmailNotificationFacade;
 import it.gov.pagopa.cgn.portal.enums.AgreementStateEnum;
 import it.gov.pagopa.cgn.portal.enums.DocumentTypeEnum;
 import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
-import it.gov.pagopa.cgn.portal.filestorage.AzureStorage;
+import it.gov.pagopa.cgn.portal.filestorage.DocumentStorage;
 import it.gov.pagopa.cgn.portal.filter.BackofficeFilter;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
 import it.gov.pagopa.cgn.portal.model.DocumentEntity;
 import it.gov.pagopa.cgn.portal.repository.AgreementRepository;
+import it.gov.pagopa.cgn.portal.repository.BackofficePage;
 import it.gov.pagopa.cgn.portal.repository.BackofficeAgreementToValidateSpecification;
+import it.gov.pagopa.cgn.portal.service.BackofficeListCache.BackofficeList;
 import it.gov.pagopa.cgn.portal.util.CGNUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 
 import java.time.LocalDate;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -38,31 +42,55 @@ public class BackofficeAgreementService {
 
     private final EmailNotificationFacade emailNotificationFacade;
 
-    private final AzureStorage azureStorage;
+    private final DocumentStorage documentStorage;
+
+    private final BackofficeListCache backofficeListCache;
 
     private final Collection<DocumentTypeEnum> mandatoryDocuments = Stream.of(DocumentTypeEnum.AGREEMENT,
                                                                               DocumentTypeEnum.ADHESION_REQUEST,
                                                                               DocumentTypeEnum.BACKOFFICE_AGREEMENT)
                                                                           .collect(Collectors.toList());
 
+    /**
+     * Loads the page in two steps: first the ids of the agreements in the page, then the agreements
+     * with their associations in bulk, so the number of queries does not depend on the page size.
+     */
     @Transactional(readOnly = true)
-    public Page<AgreementEntity> getAgreements(BackofficeFilter filter) {
-
-        BackofficeAgreementToValidateSpecification spec;
-        spec = new BackofficeAgreementToValidateSpecification(filter, CGNUtils.getJwtAdminUserName());
-        Page<AgreementEntity> agreementEntityPage = agreementRepository.findAll(spec, spec.getPage());
+    public BackofficePage<AgreementEntity> getAgreements(BackofficeFilter filter) {
+        var spec = new BackofficeAgreementToValidateSpecification(filter, CGNUtils.getJwtAdminUserName());
+        List<AgreementEntity> agreements = findAgreementsByIds(agreementRepository.findAgreementIds(spec,
+                                                                                                   spec.getPage()));
 
         // exclude backoffice documents
-        agreementEntityPage.getContent().forEach(agreementEntity -> {
+        agreements.forEach(agreementEntity -> {
             List<DocumentEntity> documents = agreementEntity.getDocumentList()
                                                             .stream()
                                                             .filter(d -> !d.getDocumentType().isBackoffice())
                                                             .collect(Collectors.toList());
             //setting SAS Url
-            azureStorage.setSecureDocumentUrl(documents);
+            documentStorage.setSecureDocumentUrl(documents);
             agreementEntity.setDocumentList(documents);
         });
-        return agreementEntityPage;
+        return spec.toBackofficePage(agreements, () -> agreementRepository.count(spec.getCountSpecification()));
+    }
+
+    @Transactional(readOnly = true)
+    public List<String> getAgreementIds(BackofficeFilter filter) {
+        var spec = new BackofficeAgreementToValidateSpecification(filter, CGNUtils.getJwtAdminUserName());
+        return agreementRepository.findAgreementIds(spec, spec.getPage());
+    }
+
+    private List<AgreementEntity> findAgreementsByIds(List<String> agreementIds) {
+        if (agreementIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, AgreementEntity> agreementById = agreementRepository.findByIdIn(agreementIds)
+                                                                        .stream()
+                                                                        .collect(Collectors.toMap(AgreementEntity::getId,
+                                                                                                  Function.identity()));
+        agreementRepository.fetchBackofficeCollections(agreementIds);
+        // keep the order of the ids page
+        return agreementIds.stream().map(agreementById::get).collect(Collectors.toList());
     }
 
     @Transactional
@@ -70,6 +98,7 @@ public class BackofficeAgreementService {
         var agreementEntity = agreementServiceLight.findById(agreementId);
         validateForAssignment(agreementEntity);
         agreementEntity.setBackofficeAssignee(CGNUtils.getJwtAdminUserName());
+        backofficeListCache.invalidate(BackofficeList.AGREEMENT_REQUESTS);
         return agreementRepository.save(agreementEntity);
     }
 
@@ -78,6 +107,7 @@ public class BackofficeAgreementService {
         var agreementEntity = agreementServiceLight.findById(agreementId);
         validateForUnassignment(agreementEntity);
         agreementEntity.setBackofficeAssignee(null);
+        backofficeListCache.invalidate(BackofficeList.AGREEMENT_REQUESTS);
         return agreementRepository.save(agreementEntity);
     }
 
@@ -100,6 +130,7 @@ public class BackofficeAgreementService {
         agreementEntity.setState(AgreementStateEnum.APPROVED);
         agreementEntity.setInformationLastUpdateDate(LocalDate.now());  //default equals to start date
         agreementEntity = agreementRepository.save(agreementEntity);
+        backofficeListCache.invalidate(BackofficeList.AGREEMENT_REQUESTS, BackofficeList.APPROVED_AGREEMENTS);
 
         var profile = agreementEntity.getProfile();
         String referentEmail = profile.getReferent().getEmailAddress();
@@ -120,6 +151,7 @@ public class BackofficeAgreementService {
         agreementEntity.setState(AgreementStateEnum.REJECTED);
 
         agreementEntity = agreementRepository.save(agreementEntity);
+        backofficeListCache.invalidate(BackofficeList.AGREEMENT_REQUESTS);
 
         String referentEmail = agreementEntity.getProfile().getReferent().getEmailAddress();
         emailNotificationFacade.notifyMerchantAgreementRequestRejected(referentEmail, reasonMessage);
@@ -132,12 +164,14 @@ public class BackofficeAgreementService {
                                       AgreementServiceLight agreementServiceLight,
                                       DocumentService documentService,
                                       EmailNotificationFacade emailNotificationFacade,
-                                      AzureStorage azureStorage) {
+                                      DocumentStorage documentStorage,
+                                      BackofficeListCache backofficeListCache) {
         this.agreementRepository = agreementRepository;
         this.agreementServiceLight = agreementServiceLight;
         this.documentService = documentService;
         this.emailNotificationFacade = emailNotificationFacade;
-        this.azureStorage = azureStorage;
+        this.documentStorage = documentStorage;
+        this.backofficeListCache = backofficeListCache;
     }
 
 
@@ -0,0 +1,130 @@
+package it.gov.pagopa.cgn.portal.service;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.filter.BackofficeFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Short lived LRU cache of the backoffice agreement lists, keyed by list, admin user and filter.
+ * The admin user is part of the key because the default order of the requests depends on it.
+ * Every change to the agreements of a list invalidates all of its entries once committed.
+ */
+@Component
+public class BackofficeListCache {
+
+    public enum BackofficeList {
+        AGREEMENT_REQUESTS, APPROVED_AGREEMENTS
+    }
+
+    private final Map<String, CachedList> lists;
+    private final Map<BackofficeList, AtomicLong> generations = new EnumMap<>(BackofficeList.class);
+    private final long ttlNanos;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    /**
+     * Returns the cached list or loads it. A list loaded while the same list was invalidated is not cached.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(BackofficeList list, String adminUser, BackofficeFilter filter, Supplier<T> loader) {
+        if (ttlNanos <= 0) {
+            return loader.get();
+        }
+        String key = list + ":" + adminUser + ":" + filter.getCacheKey();
+        long now = System.nanoTime();
+        CachedList cached;
+        synchronized (lists) {
+            cached = lists.get(key);
+        }
+        if (cached != null && now - cached.loadTime < ttlNanos) {
+            hitCounter.increment();
+            return (T) cached.value;
+        }
+        missCounter.increment();
+        long generation = generations.get(list).get();
+        T value = loader.get();
+        synchronized (lists) {
+            if (generation == generations.get(list).get()) {
+                lists.put(key, new CachedList(list, now, value));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drops the entries of the given lists when the current transaction commits, or immediately without one.
+     */
+    public void invalidate(BackofficeList... toInvalidate) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(toInvalidate);
+                }
+            });
+        } else {
+            evict(toInvalidate);
+        }
+    }
+
+    public void invalidateAll() {
+        evict(BackofficeList.values());
+    }
+
+    public int size() {
+        synchronized (lists) {
+            return lists.size();
+        }
+    }
+
+    private void evict(BackofficeList... toEvict) {
+        synchronized (lists) {
+            for (BackofficeList list : toEvict) {
+                generations.get(list).incrementAndGet();
+                lists.values().removeIf(cached -> cached.list == list);
+            }
+        }
+    }
+
+    public BackofficeListCache(ConfigProperties configProperties, MeterRegistry meterRegistry) {
+        int maxEntries = configProperties.getBackofficeListCacheMaxEntries();
+        this.ttlNanos = Duration.ofSeconds(configProperties.getBackofficeListCacheTtlSeconds()).toNanos();
+        this.lists = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedList> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        for (BackofficeList list : BackofficeList.values()) {
+            generations.put(list, new AtomicLong());
+        }
+        this.hitCounter = Counter.builder("cgn.backoffice.list.cache.hits").register(meterRegistry);
+        this.missCounter = Counter.builder("cgn.backoffice.list.cache.misses").register(meterRegistry);
+        Gauge.builder("cgn.backoffice.list.cache.size", this::size).register(meterRegistry);
+    }
+
+    private static class CachedList {
+        private final BackofficeList list;
+        private final long loadTime;
+        private final Object value;
+
+        CachedList(BackofficeList list, long loadTime, Object value) {
+            this.list = list;
+            this.loadTime = loadTime;
+            this.value = value;
+        }
+    }
+
+}
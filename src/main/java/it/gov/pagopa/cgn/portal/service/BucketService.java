@@ -3,7 +3,7 @@ package it.gov.pagopa.cgn.portal.service;
 import it.gov.pagopa.cgn.portal.email.EmailNotificationFacade;
 import it.gov.pagopa.cgn.portal.enums.BucketCodeExpiringThresholdEnum;
 import it.gov.pagopa.cgn.portal.enums.BucketCodeLoadStatusEnum;
-import it.gov.pagopa.cgn.portal.filestorage.AzureStorage;
+import it.gov.pagopa.cgn.portal.filestorage.DocumentStorage;
 import it.gov.pagopa.cgn.portal.model.BucketCodeLoadEntity;
 import it.gov.pagopa.cgn.portal.model.DiscountBucketCodeEntity;
 import it.gov.pagopa.cgn.portal.model.DiscountBucketCodeSummaryEntity;
@@ -11,6 +11,8 @@ import it.gov.pagopa.cgn.portal.model.DiscountEntity;
 import it.gov.pagopa.cgn.portal.repository.BucketCodeLoadRepository;
 import it.gov.pagopa.cgn.portal.repository.DiscountBucketCodeRepository;
 import it.gov.pagopa.cgn.portal.repository.DiscountBucketCodeSummaryRepository;
+import it.gov.pagopa.cgn.portal.repository.DiscountBucketCodeSummaryView;
+import it.gov.pagopa.cgn.portal.repository.DiscountNotUsedCodesView;
 import it.gov.pagopa.cgn.portal.repository.DiscountRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.csv.CSVRecord;
@@ -21,7 +23,10 @@ import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Spliterator;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Slf4j
@@ -31,20 +36,20 @@ public class BucketService {
     private final DiscountBucketCodeSummaryRepository discountBucketCodeSummaryRepository;
     private final BucketCodeLoadRepository bucketCodeLoadRepository;
     private final DiscountRepository discountRepository;
-    private final AzureStorage azureStorage;
+    private final DocumentStorage documentStorage;
     private final EmailNotificationFacade emailNotificationFacade;
 
-    public BucketService(DiscountBucketCodeRepository discountBucketCodeRepository, DiscountBucketCodeSummaryRepository discountBucketCodeSummaryRepository, BucketCodeLoadRepository bucketCodeLoadRepository, DiscountRepository discountRepository, EmailNotificationFacade emailNotificationFacade, AzureStorage azureStorage) {
+    public BucketService(DiscountBucketCodeRepository discountBucketCodeRepository, DiscountBucketCodeSummaryRepository discountBucketCodeSummaryRepository, BucketCodeLoadRepository bucketCodeLoadRepository, DiscountRepository discountRepository, EmailNotificationFacade emailNotificationFacade, DocumentStorage documentStorage) {
         this.discountBucketCodeRepository = discountBucketCodeRepository;
         this.discountBucketCodeSummaryRepository = discountBucketCodeSummaryRepository;
         this.bucketCodeLoadRepository = bucketCodeLoadRepository;
         this.discountRepository = discountRepository;
         this.emailNotificationFacade = emailNotificationFacade;
-        this.azureStorage = azureStorage;
+        this.documentStorage = documentStorage;
     }
 
     public boolean checkBucketLoadUID(String uid) {
-        return azureStorage.existsDocument(uid + ".csv");
+        return documentStorage.existsDocument(uid + ".csv");
     }
 
     @Transactional(Transactional.TxType.REQUIRED)
@@ -53,29 +58,47 @@ public class BucketService {
         discountBucketCodeSummaryRepository.save(bucketCodeSummaryEntity);
     }
 
-    @Transactional(Transactional.TxType.REQUIRED)
-    public boolean checkDiscountBucketCodeSummaryExpirationAndSendNotification(DiscountBucketCodeSummaryEntity discountBucketCodeSummaryEntity) {
-        var discountBucketCodeSummary = discountBucketCodeSummaryRepository.getOne(discountBucketCodeSummaryEntity.getId());
-        DiscountEntity discount = discountBucketCodeSummary.getDiscount();
-        String referentEmailAddress = discount.getAgreement().getProfile().getReferent().getEmailAddress();
-        var remainingCodes = discountBucketCodeRepository.countNotUsedByDiscountId(discount.getId());
-        var remainingPercent = Math.floor(remainingCodes / Float.valueOf(discountBucketCodeSummary.getAvailableCodes()) * 100);
-        var notificationRequired = Arrays.stream(BucketCodeExpiringThresholdEnum.values()).sorted().filter(t -> remainingPercent <= t.getValue()).findFirst().map(t -> {
-            switch (t) {
-                case PERCENT_0:
-                    emailNotificationFacade.notifyMerchantDiscountBucketCodesExpired(referentEmailAddress, discount);
-                    discountBucketCodeSummary.setExpiredAt(OffsetDateTime.now());
-                    discountBucketCodeSummaryRepository.save(discountBucketCodeSummary);
-                    break;
-                case PERCENT_10:
-                case PERCENT_25:
-                case PERCENT_50:
-                    emailNotificationFacade.notifyMerchantDiscountBucketCodesExpiring(referentEmailAddress, discount, t, remainingCodes);
-                    break;
-            }
-            return true;
-        });
-        return notificationRequired.orElse(false);
+    /**
+     * Checks the codes left of a batch of summaries in one transaction: the codes not used are counted
+     * with one query for the whole batch and the expired summaries are updated together.
+     *
+     * @return the number of summaries checked
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public int checkDiscountBucketCodeSummariesExpirationAndSendNotification(List<DiscountBucketCodeSummaryView> summaries) {
+        List<Long> discountIds = summaries.stream().map(DiscountBucketCodeSummaryView::getDiscountId).collect(Collectors.toList());
+        Map<Long, Long> notUsedCodes = discountBucketCodeRepository.countNotUsedByDiscountIds(discountIds)
+                                                                   .stream()
+                                                                   .collect(Collectors.toMap(DiscountNotUsedCodesView::getDiscountId,
+                                                                                             DiscountNotUsedCodesView::getNotUsedCodes));
+        List<Long> expiredIds = new ArrayList<>();
+        for (DiscountBucketCodeSummaryView summary : summaries) {
+            long remainingCodes = notUsedCodes.getOrDefault(summary.getDiscountId(), 0L);
+            getExpiringThreshold(remainingCodes, summary.getAvailableCodes()).ifPresent(t -> {
+                String trackingKey = EmailNotificationFacade.createTrackingKeyForExpirationNotification(
+                        summary.getDiscountId(), summary.getLastBucketCodeLoadUid(), t);
+                if (BucketCodeExpiringThresholdEnum.PERCENT_0.equals(t)) {
+                    emailNotificationFacade.notifyMerchantDiscountBucketCodesExpired(summary.getReferentEmailAddress(),
+                                                                                     summary.getDiscountName(),
+                                                                                     trackingKey);
+                    expiredIds.add(summary.getDiscountId());
+                } else {
+                    emailNotificationFacade.notifyMerchantDiscountBucketCodesExpiring(summary.getReferentEmailAddress(),
+                                                                                      summary.getDiscountName(),
+                                                                                      trackingKey,
+                                                                                      remainingCodes);
+                }
+            });
+        }
+        if (!expiredIds.isEmpty()) {
+            discountBucketCodeSummaryRepository.updateExpiredAt(expiredIds, OffsetDateTime.now());
+        }
+        return summaries.size();
+    }
+
+    private static Optional<BucketCodeExpiringThresholdEnum> getExpiringThreshold(long remainingCodes, Long availableCodes) {
+        var remainingPercent = Math.floor(remainingCodes / Float.valueOf(availableCodes) * 100);
+        return Arrays.stream(BucketCodeExpiringThresholdEnum.values()).sorted().filter(t -> remainingPercent <= t.getValue()).findFirst();
     }
 
     @Transactional(Transactional.TxType.REQUIRED)
@@ -101,7 +124,7 @@ public class BucketService {
         DiscountEntity discountEntity = discountRepository.getOne(discountId);
         BucketCodeLoadEntity bucketCodeLoadEntity = discountEntity.getLastBucketCodeLoad();
         try {
-            Stream<CSVRecord> csvStream = azureStorage.readCsvDocument(bucketCodeLoadEntity.getUid());
+            Stream<CSVRecord> csvStream = documentStorage.readCsvDocument(bucketCodeLoadEntity.getUid());
             bucketCodeLoadEntity.setStatus(BucketCodeLoadStatusEnum.RUNNING);
             bucketCodeLoadEntity.setNumberOfCodes(csvStream.count());
         } catch (Exception ex) {
@@ -119,7 +142,7 @@ public class BucketService {
         if (bucketCodeLoadEntity.getStatus().equals(BucketCodeLoadStatusEnum.FAILED)) return;
 
         try {
-            Stream<CSVRecord> csvStream = azureStorage.readCsvDocument(bucketCodeLoadEntity.getUid());
+            Stream<CSVRecord> csvStream = documentStorage.readCsvDocument(bucketCodeLoadEntity.getUid());
             Spliterator<DiscountBucketCodeEntity> split = csvStream.map(csvRecord -> new DiscountBucketCodeEntity(csvRecord.get(0), discountEntity, bucketCodeLoadEntity.getId())).spliterator();
 
             int chunkSize = 5000;
@@ -6,28 +6,38 @@ import it.gov.pagopa.cgn.portal.enums.AgreementStateEnum;
 import it.gov.pagopa.cgn.portal.enums.DiscountCodeTypeEnum;
 import it.gov.pagopa.cgn.portal.enums.DiscountStateEnum;
 import it.gov.pagopa.cgn.portal.enums.SalesChannelEnum;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
 import it.gov.pagopa.cgn.portal.exception.ConflictErrorException;
 import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
 import it.gov.pagopa.cgn.portal.model.*;
 import it.gov.pagopa.cgn.portal.repository.*;
+import it.gov.pagopa.cgn.portal.service.BackofficeListCache.BackofficeList;
 import it.gov.pagopa.cgn.portal.util.BucketLoadUtils;
 import it.gov.pagopa.cgn.portal.util.ValidationUtils;
 import it.gov.pagopa.cgn.portal.wrapper.CrudDiscountWrapper;
 import it.gov.pagopa.cgnonboardingportal.model.DiscountBucketCodeLoadingProgess;
+import lombok.extern.slf4j.Slf4j;
 import org.codehaus.plexus.util.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 
 import javax.transaction.Transactional;
 import javax.validation.ValidatorFactory;
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 public class DiscountService {
 
@@ -46,6 +56,8 @@ public class DiscountService {
     private final OfflineMerchantRepository offlineMerchantRepository;
     private final OnlineMerchantRepository onlineMerchantRepository;
     private final PublishedProductCategoryRepository publishedProductCategoryRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final BackofficeListCache backofficeListCache;
 
     @Transactional(Transactional.TxType.REQUIRED)
     public CrudDiscountWrapper createDiscount(String agreementId, DiscountEntity discountEntity) {
@@ -54,10 +66,12 @@ public class DiscountService {
         discountEntity.setAgreement(agreement);
         ProfileEntity profileEntity = validateDiscount(agreementId, discountEntity, true);
         DiscountEntity toReturn = discountRepository.save(discountEntity);
+        agreementServiceLight.updatePublishedDiscounts(agreementId);
         if (DiscountCodeTypeEnum.BUCKET.equals(profileEntity.getDiscountCodeType())) {
             bucketService.prepareDiscountBucketCodeSummary(toReturn);
             bucketService.createPendingBucketLoad(toReturn);
         }
+        documentService.evictRenderedDocuments(agreementId);
         return new CrudDiscountWrapper(toReturn, profileEntity.getDiscountCodeType());
     }
 
@@ -135,6 +149,7 @@ public class DiscountService {
 
         discountEntity.setAgreement(agreementEntity);
         discountRepository.save(dbEntity);
+        documentService.evictRenderedDocuments(agreementId);
         return new CrudDiscountWrapper(dbEntity, profileDiscountType, isChangedBucketLoad);
     }
 
@@ -145,6 +160,9 @@ public class DiscountService {
         ProfileEntity profileEntity = profileService.getProfile(agreementId).orElseThrow();
 
         discountRepository.deleteById(discountId);
+        agreementServiceLight.updatePublishedDiscounts(agreementId);
+        backofficeListCache.invalidate(BackofficeList.APPROVED_AGREEMENTS);
+        documentService.evictRenderedDocuments(agreementId);
 
         // refresh materialized views
         refreshMaterializedViews(profileEntity);
@@ -177,6 +195,10 @@ public class DiscountService {
         validatePublishingDiscount(agreementEntity, discount);
         discount.setState(DiscountStateEnum.PUBLISHED);
         discount = discountRepository.save(discount);
+        agreementServiceLight.updatePublishedDiscounts(agreementId);
+        backofficeListCache.invalidate(BackofficeList.APPROVED_AGREEMENTS);
+        // start date may have been moved, it is printed in the adhesion request
+        documentService.evictRenderedDocuments(agreementId);
         agreementServiceLight.setInformationLastUpdateDate(agreementEntity);
         // check if exists almost one discount already published
         if (agreementEntity.getFirstDiscountPublishingDate() == null) {
@@ -202,6 +224,8 @@ public class DiscountService {
         }
         discount.setState(DiscountStateEnum.DRAFT);
         discount = discountRepository.save(discount);
+        agreementServiceLight.updatePublishedDiscounts(agreementId);
+        backofficeListCache.invalidate(BackofficeList.APPROVED_AGREEMENTS);
 
         // refresh materialized views
         ProfileEntity profileEntity = profileService.getProfile(agreementId).orElseThrow();
@@ -220,6 +244,8 @@ public class DiscountService {
         discount.setState(DiscountStateEnum.SUSPENDED);
         discount.setSuspendedReasonMessage(reasonMessage);
         discount = discountRepository.save(discount);
+        agreementServiceLight.updatePublishedDiscounts(agreementId);
+        backofficeListCache.invalidate(BackofficeList.APPROVED_AGREEMENTS);
         // send notification
         ProfileEntity profileEntity = profileService.getProfile(agreementId).orElseThrow();
         emailNotificationFacade.notifyMerchantDiscountSuspended(profileEntity.getReferent().getEmailAddress(),
@@ -234,28 +260,41 @@ public class DiscountService {
 
     @Transactional(Transactional.TxType.REQUIRED)
     public void refreshMaterializedViews(ProfileEntity profileEntity) {
+        refreshMaterializedViews(EnumSet.of(profileEntity.getSalesChannel()));
+    }
+
+    private void refreshMaterializedViews(Set<SalesChannelEnum> salesChannels) {
         publishedProductCategoryRepository.refreshView();
-        switch (profileEntity.getSalesChannel()) {
-            case ONLINE:
-                onlineMerchantRepository.refreshView();
-                break;
-            case OFFLINE:
-                offlineMerchantRepository.refreshView();
-                break;
-            case BOTH:
-                onlineMerchantRepository.refreshView();
-                offlineMerchantRepository.refreshView();
-                break;
+        if (salesChannels.contains(SalesChannelEnum.ONLINE) || salesChannels.contains(SalesChannelEnum.BOTH)) {
+            onlineMerchantRepository.refreshView();
+        }
+        if (salesChannels.contains(SalesChannelEnum.OFFLINE) || salesChannels.contains(SalesChannelEnum.BOTH)) {
+            offlineMerchantRepository.refreshView();
         }
     }
 
+    /**
+     * Warns the referents of a batch of expiring discounts and marks the warned discounts, in one transaction.
+     * A discount whose warning could not be sent is left to the next run.
+     *
+     * @return the number of discounts warned
+     */
     @Transactional(Transactional.TxType.REQUIRES_NEW)
-    public void sendNotificationDiscountExpiring(DiscountEntity discount) {
-        String referentEmailAddress = discount.getAgreement().getProfile().getReferent().getEmailAddress();
-
-        emailNotificationFacade.notifyMerchantDiscountExpiring(referentEmailAddress, discount.getName());
-        discount.setExpirationWarningSentDateTime(OffsetDateTime.now());
-        discountRepository.save(discount);
+    public int sendNotificationDiscountsExpiring(List<ExpiringDiscountView> discounts) {
+        List<Long> warnedIds = new ArrayList<>(discounts.size());
+        for (ExpiringDiscountView discount : discounts) {
+            try {
+                emailNotificationFacade.notifyMerchantDiscountExpiring(discount.getReferentEmailAddress(),
+                                                                       discount.getName());
+                warnedIds.add(discount.getId());
+            } catch (CGNException e) {
+                log.error("Failed to warn the referent of expiring discount " + discount.getId(), e);
+            }
+        }
+        if (!warnedIds.isEmpty()) {
+            discountRepository.updateExpirationWarningSentDateTime(warnedIds, OffsetDateTime.now());
+        }
+        return warnedIds.size();
     }
 
     @Autowired
@@ -271,7 +310,9 @@ public class DiscountService {
                            BucketLoadUtils bucketLoadUtils,
                            OfflineMerchantRepository offlineMerchantRepository,
                            OnlineMerchantRepository onlineMerchantRepository,
-                           PublishedProductCategoryRepository publishedProductCategoryRepository) {
+                           PublishedProductCategoryRepository publishedProductCategoryRepository,
+                           PlatformTransactionManager transactionManager,
+                           BackofficeListCache backofficeListCache) {
         this.discountRepository = discountRepository;
         this.agreementServiceLight = agreementServiceLight;
         this.profileService = profileService;
@@ -285,6 +326,10 @@ public class DiscountService {
         this.offlineMerchantRepository = offlineMerchantRepository;
         this.onlineMerchantRepository = onlineMerchantRepository;
         this.publishedProductCategoryRepository = publishedProductCategoryRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // the batches of the jobs run in their own transactions
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.backofficeListCache = backofficeListCache;
     }
 
     @Transactional(Transactional.TxType.REQUIRED)
@@ -475,17 +520,78 @@ public class DiscountService {
         return (!now.isBefore(startDate)) && (now.isBefore(endDate));
     }
 
-    @Transactional(Transactional.TxType.REQUIRES_NEW)
-    public void suspendDiscountIfDiscountBucketCodesAreExpired(DiscountBucketCodeSummaryEntity discountBucketCodeSummaryEntity) {
-        var discountBucketCodeSummary
-                = discountBucketCodeSummaryRepository.getOne(discountBucketCodeSummaryEntity.getId());
-        DiscountEntity discount = discountBucketCodeSummary.getDiscount();
-        suspendDiscount(discount.getAgreement().getId(),
-                        discount.getId(),
-                        "La lista di codici è esaurita da più di " +
-                        configProperties.getSuspendDiscountsWithoutAvailableBucketCodesAfterDays() +
-                        " giorni");
+    /**
+     * Suspends a batch of discounts whose bucket codes are expired, in one transaction, and refreshes the
+     * materialized views once for the whole batch. If the batch fails the discounts are suspended one at a time,
+     * each in its own transaction, so that a failing discount does not hold back the others.
+     *
+     * @return the number of discounts processed without errors
+     */
+    public int suspendDiscountsWithExpiredBucketCodes(List<DiscountBucketCodeSummaryView> summaries) {
+        String reasonMessage = "La lista di codici è esaurita da più di " +
+                               configProperties.getSuspendDiscountsWithoutAvailableBucketCodesAfterDays() +
+                               " giorni";
+        int processed;
+        try {
+            transactionTemplate.executeWithoutResult(status -> suspendExpiredBucketCodes(summaries,
+                                                                                         reasonMessage,
+                                                                                         true));
+            processed = summaries.size();
+        } catch (RuntimeException e) {
+            log.warn("Failed to suspend a batch of " + summaries.size() + " discounts, suspending them one at a time",
+                     e);
+            processed = 0;
+            for (DiscountBucketCodeSummaryView summary : summaries) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> suspendExpiredBucketCodes(List.of(summary),
+                                                                                                 reasonMessage,
+                                                                                                 false));
+                    processed++;
+                } catch (RuntimeException itemError) {
+                    log.error("Failed to suspend discount " + summary.getDiscountId(), itemError);
+                }
+            }
+        }
+        if (processed > 0) {
+            Set<SalesChannelEnum> salesChannels = summaries.stream()
+                                                           .map(DiscountBucketCodeSummaryView::getSalesChannel)
+                                                           .collect(Collectors.toCollection(() -> EnumSet.noneOf(
+                                                                   SalesChannelEnum.class)));
+            transactionTemplate.executeWithoutResult(status -> refreshMaterializedViews(salesChannels));
+        }
+        return processed;
     }
 
+    /**
+     * Suspends the discounts still published and notifies their referents, using the data read with the batch.
+     *
+     * @param allPublished whether the discounts must all be still published, failing the batch otherwise
+     */
+    private void suspendExpiredBucketCodes(List<DiscountBucketCodeSummaryView> summaries,
+                                           String reasonMessage,
+                                           boolean allPublished) {
+        List<Long> ids = summaries.stream()
+                                  .map(DiscountBucketCodeSummaryView::getDiscountId)
+                                  .collect(Collectors.toList());
+        int suspended = discountRepository.suspendPublished(ids, reasonMessage);
+        if (suspended < ids.size()) {
+            if (allPublished) {
+                throw new CGNException((ids.size() - suspended) + " discounts of the batch are not published anymore");
+            }
+            // the discount has been suspended or changed in the meantime
+            return;
+        }
+        summaries.stream()
+                 .map(DiscountBucketCodeSummaryView::getAgreementId)
+                 .distinct()
+                 // agreements are locked in the same order by every batch
+                 .sorted()
+                 .forEach(agreementServiceLight::updatePublishedDiscounts);
+        backofficeListCache.invalidate(BackofficeList.APPROVED_AGREEMENTS);
+        summaries.forEach(summary -> emailNotificationFacade.notifyMerchantDiscountSuspended(
+                summary.getReferentEmailAddress(),
+                summary.getDiscountName(),
+                reasonMessage));
+    }
 
 }
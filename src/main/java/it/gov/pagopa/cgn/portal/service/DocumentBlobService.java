@@ -0,0 +1,165 @@
+package it.gov.pagopa.cgn.portal.service;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import it.gov.pagopa.cgn.portal.filestorage.DocumentStorage;
+import it.gov.pagopa.cgn.portal.repository.DocumentBlobRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/**
+ * Content addressed storage of the uploaded documents.
+ * A blob is named after the sha-256 of its content and shared by all the documents of the agreement
+ * with that content. Blobs left without references are kept for the retention period, so that
+ * re-submitting a document after a reset does not upload it again, and then deleted.
+ */
+@Slf4j
+@Service
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class DocumentBlobService {
+
+    private final DocumentBlobRepository documentBlobRepository;
+    private final DocumentStorage documentStorage;
+    private final ConfigProperties configProperties;
+    private final TransactionTemplate purgeTransactionTemplate;
+    private final Counter reusedCounter;
+    private final Counter uploadedCounter;
+
+    /**
+     * Returns the url of the blob holding the given content, uploading it only if the agreement
+     * has no blob with the same hash yet.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public String addDocumentBlob(String agreementId, InputStreamSource content, long size) {
+        String contentHash = sha256(content);
+        String blobName = agreementId + "/" + contentHash + ".pdf";
+        String blobUrl = configProperties.getDocumentsContainerName() + "/" + blobName;
+        if (documentBlobRepository.addReference(agreementId, contentHash) > 0) {
+            reusedCounter.increment();
+        } else {
+            try {
+                documentStorage.storeDocument(blobName, content.getInputStream(), size);
+            } catch (IOException e) {
+                throw new CGNException(e);
+            }
+            documentBlobRepository.insertOrAddReference(blobUrl, agreementId, contentHash);
+            uploadedCounter.increment();
+        }
+        purgeAfterCommit(agreementId);
+        return blobUrl;
+    }
+
+    /**
+     * Removes a reference to the blob. Documents uploaded before deduplication have no blob record
+     * and their blob is left untouched.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void removeDocumentBlob(String blobUrl) {
+        documentBlobRepository.removeReference(blobUrl);
+    }
+
+    /**
+     * Deletes the blobs of the agreement unreferenced for longer than the retention period.
+     * Runs after each upload; the scheduled purge covers the agreements that do not upload again.
+     */
+    public void purgeUnreferencedBlobs(String agreementId) {
+        for (String blobUrl : documentBlobRepository.findUnreferencedBlobUrls(agreementId, getUnreferencedBefore())) {
+            purgeUnreferencedBlob(blobUrl);
+        }
+    }
+
+    /**
+     * Returns a chunk of the blobs of every agreement unreferenced for longer than the retention period.
+     *
+     * @param afterBlobUrl the last url of the previous chunk, empty for the first one
+     */
+    public List<String> findPurgeableBlobUrls(String afterBlobUrl, int limit) {
+        return documentBlobRepository.findUnreferencedBlobUrlsAfter(getUnreferencedBefore(),
+                                                                    afterBlobUrl,
+                                                                    PageRequest.of(0, limit));
+    }
+
+    /**
+     * Deletes the blob if still unreferenced. The record is deleted in the same transaction as its blob,
+     * so a concurrent upload of the same content either keeps the blob or uploads it again, and of two
+     * concurrent purges only one deletes it.
+     *
+     * @return whether the blob has been deleted
+     */
+    public boolean purgeUnreferencedBlob(String blobUrl) {
+        return Boolean.TRUE.equals(purgeTransactionTemplate.execute(status -> {
+            if (documentBlobRepository.deleteUnreferenced(blobUrl) == 0) {
+                return false;
+            }
+            documentStorage.deleteDocument(blobUrl.substring(blobUrl.indexOf('/') + 1));
+            log.info("Deleted unreferenced document " + blobUrl);
+            return true;
+        }));
+    }
+
+    private OffsetDateTime getUnreferencedBefore() {
+        return OffsetDateTime.now().minusHours(configProperties.getDocumentBlobRetentionHours());
+    }
+
+    private void purgeAfterCommit(String agreementId) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    purgeUnreferencedBlobs(agreementId);
+                } catch (RuntimeException e) {
+                    log.warn("Cannot purge unreferenced documents of agreement " + agreementId + ": " +
+                             e.getMessage());
+                }
+            }
+        });
+    }
+
+    private static String sha256(InputStreamSource content) {
+        try (DigestInputStream in = new DigestInputStream(content.getInputStream(),
+                                                          MessageDigest.getInstance("SHA-256"))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            StringBuilder hash = new StringBuilder();
+            for (byte b : in.getMessageDigest().digest()) {
+                hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hash.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new CGNException(e);
+        }
+    }
+
+    public DocumentBlobService(DocumentBlobRepository documentBlobRepository,
+                               DocumentStorage documentStorage,
+                               ConfigProperties configProperties,
+                               PlatformTransactionManager transactionManager,
+                               MeterRegistry meterRegistry) {
+        this.documentBlobRepository = documentBlobRepository;
+        this.documentStorage = documentStorage;
+        this.configProperties = configProperties;
+        this.purgeTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.purgeTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.reusedCounter = Counter.builder("cgn.storage.document.blobs.reused").register(meterRegistry);
+        this.uploadedCounter = Counter.builder("cgn.storage.document.blobs.uploaded").register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,177 @@
+package it.gov.pagopa.cgn.portal.service;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.enums.DocumentTypeEnum;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
+import it.gov.pagopa.cgn.portal.exception.ServiceUnavailableException;
+import it.gov.pagopa.cgn.portal.pdf.AsyncPdfRenderer;
+import it.gov.pagopa.cgn.portal.pdf.PdfContent;
+import it.gov.pagopa.cgn.portal.util.TemporaryFileResource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@Service
+@Slf4j
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class DocumentBundleService {
+
+    private static final List<DocumentTypeEnum> BUNDLE_DOCUMENTS = List.of(DocumentTypeEnum.AGREEMENT,
+                                                                           DocumentTypeEnum.ADHESION_REQUEST);
+
+    private final DocumentService documentService;
+    private final AsyncPdfRenderer asyncPdfRenderer;
+    private final ConfigProperties configProperties;
+
+    /**
+     * Builds a zip with the agreement and adhesion request templates of the given agreements.
+     * Documents are rendered in parallel on the render executor and written in completion order;
+     * at most as many documents as renderer threads are held in memory at the same time.
+     * Bundle renders bypass the rendered documents cache, so a large bundle does not evict the single downloads.
+     */
+    public Resource createDocumentBundle(List<String> agreementIds) {
+        if (agreementIds.size() > configProperties.getPdfBundleMaxAgreements()) {
+            throw new InvalidRequestException("Cannot bundle more than " +
+                                              configProperties.getPdfBundleMaxAgreements() +
+                                              " agreements");
+        }
+        Deque<BundleEntry> toRender = new ArrayDeque<>();
+        agreementIds.stream()
+                    .distinct()
+                    .forEach(agreementId -> BUNDLE_DOCUMENTS.forEach(type -> toRender.add(new BundleEntry(agreementId,
+                                                                                                          type))));
+        Path bundle = null;
+        try {
+            bundle = Files.createTempFile("cgn-documents-", ".zip");
+            try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(bundle)))) {
+                writeEntries(toRender, zip);
+            }
+            return new TemporaryFileResource(bundle);
+        } catch (IOException e) {
+            deleteQuietly(bundle);
+            throw new CGNException("Error creating document bundle", e);
+        } catch (RuntimeException e) {
+            deleteQuietly(bundle);
+            throw e;
+        }
+    }
+
+    private void writeEntries(Deque<BundleEntry> toRender, ZipOutputStream zip) throws IOException {
+        int parallelism = configProperties.getPdfRendererPoolSize();
+        BlockingQueue<BundleEntry> rendered = new LinkedBlockingQueue<>();
+        List<CompletableFuture<PdfContent>> submitted = new ArrayList<>();
+        int inFlight = 0;
+        try {
+            while (!toRender.isEmpty() || inFlight > 0) {
+                while (!toRender.isEmpty() && inFlight < parallelism) {
+                    BundleEntry entry = toRender.peek();
+                    try {
+                        CompletableFuture<PdfContent> render = documentService.submitDocument(entry.agreementId,
+                                                                                              entry.documentType);
+                        render.whenComplete((document, error) -> rendered.add(entry.completed(document, error)));
+                        submitted.add(render);
+                    } catch (ServiceUnavailableException e) {
+                        // the executor is shared with single downloads: wait for our own renders before retrying
+                        if (inFlight == 0) {
+                            throw e;
+                        }
+                        break;
+                    }
+                    toRender.poll();
+                    inFlight++;
+                }
+
+                BundleEntry entry = takeRendered(rendered);
+                inFlight--;
+                if (entry.error != null) {
+                    throw new CGNException("Error rendering " + entry.getName(), unwrap(entry.error));
+                }
+                zip.putNextEntry(new ZipEntry(entry.getName()));
+                entry.document.writeTo(zip);
+                zip.closeEntry();
+            }
+        } finally {
+            // a failed bundle gives up its renders still queued, the completed ones are not affected
+            submitted.forEach(render -> render.cancel(false));
+        }
+    }
+
+    private BundleEntry takeRendered(BlockingQueue<BundleEntry> rendered) {
+        try {
+            BundleEntry entry = rendered.poll(asyncPdfRenderer.getRenderTimeoutMillis(), TimeUnit.MILLISECONDS);
+            if (entry == null) {
+                throw new ServiceUnavailableException("Document rendering timed out",
+                                                      asyncPdfRenderer.getRetryAfterSeconds());
+            }
+            return entry;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CGNException("Interrupted while rendering documents", e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Cannot delete " + path + ": " + e.getMessage());
+        }
+    }
+
+    public DocumentBundleService(DocumentService documentService,
+                                 AsyncPdfRenderer asyncPdfRenderer,
+                                 ConfigProperties configProperties) {
+        this.documentService = documentService;
+        this.asyncPdfRenderer = asyncPdfRenderer;
+        this.configProperties = configProperties;
+    }
+
+    private static class BundleEntry {
+        private final String agreementId;
+        private final DocumentTypeEnum documentType;
+        private PdfContent document;
+        private Throwable error;
+
+        BundleEntry(String agreementId, DocumentTypeEnum documentType) {
+            this.agreementId = agreementId;
+            this.documentType = documentType;
+        }
+
+        BundleEntry completed(PdfContent document, Throwable error) {
+            this.document = document;
+            this.error = error;
+            return this;
+        }
+
+        String getName() {
+            return agreementId + "/" + documentType.getCode().toLowerCase() + ".pdf";
+        }
+    }
+
+}
@@ -1,15 +1,18 @@
 package it.gov.pagopa.cgn.portal.service;
 
-import com.lowagie.text.DocumentException;
-import com.lowagie.text.pdf.BaseFont;
 import it.gov.pagopa.cgn.portal.config.ConfigProperties;
 import it.gov.pagopa.cgn.portal.enums.DiscountCodeTypeEnum;
 import it.gov.pagopa.cgn.portal.enums.DocumentTypeEnum;
 import it.gov.pagopa.cgn.portal.enums.SalesChannelEnum;
 import it.gov.pagopa.cgn.portal.exception.CGNException;
 import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
-import it.gov.pagopa.cgn.portal.filestorage.AzureStorage;
+import it.gov.pagopa.cgn.portal.filestorage.DocumentStorage;
 import it.gov.pagopa.cgn.portal.model.*;
+import it.gov.pagopa.cgn.portal.pdf.AsyncPdfRenderer;
+import it.gov.pagopa.cgn.portal.pdf.PdfContent;
+import it.gov.pagopa.cgn.portal.pdf.RenderedDocument;
+import it.gov.pagopa.cgn.portal.pdf.RenderedDocumentCache;
+import it.gov.pagopa.cgn.portal.repository.AddressRepository;
 import it.gov.pagopa.cgn.portal.repository.DiscountRepository;
 import it.gov.pagopa.cgn.portal.repository.DocumentRepository;
 import it.gov.pagopa.cgn.portal.repository.ProfileRepository;
@@ -17,22 +20,25 @@ import it.gov.pagopa.cgn.portal.util.CsvUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.Context;
-import org.xhtmlrenderer.pdf.ITextFontResolver;
-import org.xhtmlrenderer.pdf.ITextRenderer;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -45,10 +51,15 @@ public class DocumentService {
     private final DocumentRepository documentRepository;
     private final ProfileRepository profileRepository;
     private final DiscountRepository discountRepository;
+    private final AddressRepository addressRepository;
     private final AgreementServiceLight agreementServiceLight;
-    private final AzureStorage azureStorage;
+    private final DocumentStorage documentStorage;
     private final TemplateEngine templateEngine;
     private final ConfigProperties configProperties;
+    private final AsyncPdfRenderer asyncPdfRenderer;
+    private final RenderedDocumentCache renderedDocumentCache;
+    private final DocumentBlobService documentBlobService;
+    private final TransactionTemplate readOnlyTransactionTemplate;
 
     private static final int MAX_ALLOWED_BUCKET_CODE_LENGTH = 20;
 
@@ -66,7 +77,7 @@ public class DocumentService {
         List<DocumentEntity> documents = getAllDocuments(agreementId);
         if (!CollectionUtils.isEmpty(documents)) {
             documents = documents.stream().filter(documentFilter).collect(Collectors.toList());
-            documents.forEach(azureStorage::setSecureDocumentUrl);
+            documents.forEach(documentStorage::setSecureDocumentUrl);
             return documents;
         }
         return Collections.emptyList();
@@ -75,12 +86,12 @@ public class DocumentService {
     @Transactional
     public DocumentEntity storeDocument(String agreementId,
                                         DocumentTypeEnum documentType,
-                                        InputStream content,
+                                        InputStreamSource content,
                                         long size) {
         AgreementEntity agreementEntity = agreementServiceLight.findById(agreementId);
-        String url = azureStorage.storeDocument(agreementId, documentType, content, size);
+        String url = documentBlobService.addDocumentBlob(agreementId, content, size);
         // Delete old document if exists
-        long deleted = documentRepository.deleteByAgreementIdAndDocumentType(agreementId, documentType);
+        long deleted = deleteDocuments(agreementId, documentType);
         if (deleted > 0) {
             documentRepository.flush();
             log.debug(String.format("delete document for agreement id %s and with type %s", agreementId, documentType));
@@ -128,7 +139,7 @@ public class DocumentService {
 
             String bucketLoadUID = UUID.randomUUID().toString();
             try (ByteArrayInputStream in = new ByteArrayInputStream(content)) {
-                azureStorage.uploadCsv(in, bucketLoadUID, size);
+                documentStorage.uploadCsv(in, bucketLoadUID, size);
             } catch (IOException e) {
                 throw new CGNException(e.getMessage());
             }
@@ -151,21 +162,28 @@ public class DocumentService {
 
     @Transactional
     public long deleteDocument(String agreementId, DocumentTypeEnum documentType) {
-        return documentRepository.deleteByAgreementIdAndDocumentType(agreementId, documentType);
+        return deleteDocuments(agreementId, documentType);
     }
 
     @Transactional
     public void resetMerchantDocuments(String agreementId) {
-        documentRepository.deleteByAgreementIdAndDocumentType(agreementId, DocumentTypeEnum.AGREEMENT);
-        documentRepository.deleteByAgreementIdAndDocumentType(agreementId, DocumentTypeEnum.ADHESION_REQUEST);
+        deleteDocuments(agreementId, DocumentTypeEnum.AGREEMENT);
+        deleteDocuments(agreementId, DocumentTypeEnum.ADHESION_REQUEST);
     }
 
     @Transactional
     public void resetAllDocuments(String agreementId) {
         resetMerchantDocuments(agreementId);
-        documentRepository.deleteByAgreementIdAndDocumentType(agreementId, DocumentTypeEnum.BACKOFFICE_AGREEMENT);
-        documentRepository.deleteByAgreementIdAndDocumentType(agreementId,
-                                                              DocumentTypeEnum.BACKOFFICE_ADHESION_REQUEST);
+        deleteDocuments(agreementId, DocumentTypeEnum.BACKOFFICE_AGREEMENT);
+        deleteDocuments(agreementId, DocumentTypeEnum.BACKOFFICE_ADHESION_REQUEST);
+    }
+
+    private long deleteDocuments(String agreementId, DocumentTypeEnum documentType) {
+        List<DocumentEntity> documents = documentRepository.findByAgreementIdAndDocumentType(agreementId,
+                                                                                              documentType);
+        documents.forEach(document -> documentBlobService.removeDocumentBlob(document.getDocumentUrl()));
+        documentRepository.deleteAll(documents);
+        return documents.size();
     }
 
     // if there are documents created by profile and backoffice user, the document
@@ -194,21 +212,130 @@ public class DocumentService {
         return toReturn;
     }
 
-    @Transactional(readOnly = true)
-    public ByteArrayOutputStream renderDocument(String agreementId, DocumentTypeEnum documentType) {
+    /**
+     * Renders the template without caching it.
+     * The data is read in a short read only transaction, which ends before the rendering starts.
+     */
+    public PdfContent renderDocument(String agreementId, DocumentTypeEnum documentType) {
+        String renderedContent = readOnlyTransactionTemplate.execute(
+                status -> processDocumentTemplate(agreementId, documentType));
+        return asyncPdfRenderer.render(documentType.getCode(), renderedContent);
+    }
+
+    /**
+     * Queues the rendering of the template on the render executor, without reading or filling the cache.
+     * The data is read in a short read only transaction, the render is submitted after it ends.
+     *
+     * @throws it.gov.pagopa.cgn.portal.exception.ServiceUnavailableException if too many renders are queued
+     */
+    public CompletableFuture<PdfContent> submitDocument(String agreementId, DocumentTypeEnum documentType) {
+        String renderedContent = readOnlyTransactionTemplate.execute(
+                status -> processDocumentTemplate(agreementId, documentType));
+        return asyncPdfRenderer.submit(documentType.getCode(), renderedContent);
+    }
+
+    /**
+     * Returns the rendered template, reusing the last rendering while profile and discounts are unchanged.
+     * The calling thread waits at most the render timeout, holding no database connection.
+     */
+    public RenderedDocument getRenderedDocument(String agreementId, DocumentTypeEnum documentType) {
+        return asyncPdfRenderer.await(documentType.getCode(), submitRenderedDocument(agreementId, documentType));
+    }
+
+    /**
+     * Like getRenderedDocument, but a missing rendering is queued on the render executor instead of awaited.
+     * Version and template are read in a short read only transaction, the render is submitted after it ends.
+     *
+     * @throws it.gov.pagopa.cgn.portal.exception.ServiceUnavailableException if too many renders are queued
+     */
+    public CompletableFuture<RenderedDocument> submitRenderedDocument(String agreementId,
+                                                                      DocumentTypeEnum documentType) {
+        DocumentTemplate template = readOnlyTransactionTemplate.execute(status -> {
+            String version = getRenderedDocumentVersion(agreementId, documentType);
+            Optional<RenderedDocument> cached = renderedDocumentCache.getIfValid(agreementId, documentType, version);
+            return cached.map(DocumentTemplate::new)
+                         .orElseGet(() -> new DocumentTemplate(version,
+                                                               processDocumentTemplate(agreementId, documentType)));
+        });
+        if (template.cached != null) {
+            return CompletableFuture.completedFuture(template.cached);
+        }
+        CompletableFuture<PdfContent> render = asyncPdfRenderer.submit(documentType.getCode(),
+                                                                       template.renderedContent);
+        CompletableFuture<RenderedDocument> rendered = render.thenApply(
+                content -> renderedDocumentCache.put(agreementId, documentType, template.version, content));
+        // a caller that stops waiting cancels the render, which is skipped if still queued
+        rendered.whenComplete((document, error) -> {
+            if (rendered.isCancelled()) {
+                render.cancel(false);
+            }
+        });
+        return rendered;
+    }
+
+    /**
+     * Evicts the renderings of the agreement once the caller's transaction commits, so that a rendering
+     * of the data not committed yet is not kept; without a transaction they are evicted at once.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void evictRenderedDocuments(String agreementId) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            renderedDocumentCache.evict(agreementId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                renderedDocumentCache.evict(agreementId);
+            }
+        });
+    }
+
+    private String getRenderedDocumentVersion(String agreementId, DocumentTypeEnum documentType) {
+        ProfileEntity profileEntity = getProfile(agreementId);
+        // templates print the current date, so a rendering is valid for the day only
+        StringBuilder version = new StringBuilder().append(LocalDate.now())
+                                                   .append('|')
+                                                   .append(profileEntity.getInsertTime())
+                                                   .append('|')
+                                                   .append(profileEntity.getUpdateTime());
+        if (DocumentTypeEnum.ADHESION_REQUEST.equals(documentType)) {
+            ReferentEntity referent = profileEntity.getReferent();
+            version.append('|')
+                   .append(referent.getInsertTime())
+                   .append('|')
+                   .append(referent.getUpdateTime())
+                   .append('|')
+                   .append(addressRepository.countByProfileId(profileEntity.getId()))
+                   .append('|')
+                   .append(addressRepository.findLastUpdateTimeByProfileId(profileEntity.getId()).orElse(null))
+                   .append('|')
+                   .append(discountRepository.countByAgreementId(agreementId))
+                   .append('|')
+                   .append(discountRepository.findLastUpdateTimeByAgreementId(agreementId).orElse(null));
+        }
+        return version.toString();
+    }
+
+    private ProfileEntity getProfile(String agreementId) {
+        return profileRepository.findByAgreementId(agreementId)
+                                .orElseThrow(() -> new InvalidRequestException("Profile not found for agreement " +
+                                                                               agreementId));
+    }
+
+    private String processDocumentTemplate(String agreementId, DocumentTypeEnum documentType) {
         switch (documentType) {
             case AGREEMENT:
-                return renderAgreementDocument(agreementId);
+                return processAgreementTemplate(agreementId);
             case ADHESION_REQUEST:
-                return renderAdhesionRequestDocument(agreementId);
+                return processAdhesionRequestTemplate(agreementId);
             default:
                 throw new RuntimeException("Invalid document type: " + documentType);
         }
     }
 
-    private ByteArrayOutputStream renderAgreementDocument(String agreementId) {
-        ProfileEntity profileEntity = profileRepository.findByAgreementId(agreementId)
-                                                       .orElseThrow(() -> new RuntimeException("no profile"));
+    private String processAgreementTemplate(String agreementId) {
+        ProfileEntity profileEntity = getProfile(agreementId);
 
         Context context = new Context();
         context.setVariable("legal_name", profileEntity.getFullName());
@@ -222,13 +349,11 @@ public class DocumentService {
         context.setVariable("department_pec_address", "giovanieserviziocivile@pec.governo.it");
         context.setVariable("current_date", LocalDate.now().format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
 
-        String renderedContent = templateEngine.process("pdf/pe-agreement.html", context);
-        return generatePdfFromHtml(renderedContent);
+        return templateEngine.process("pdf/pe-agreement.html", context);
     }
 
-    private ByteArrayOutputStream renderAdhesionRequestDocument(String agreementId) {
-        ProfileEntity profileEntity = profileRepository.findByAgreementId(agreementId)
-                                                       .orElseThrow(() -> new RuntimeException("no profile"));
+    private String processAdhesionRequestTemplate(String agreementId) {
+        ProfileEntity profileEntity = getProfile(agreementId);
 
         List<String> addressList = profileEntity.getAddressList()
                                                 .stream()
@@ -288,54 +413,52 @@ public class DocumentService {
         context.setVariable("referent_email_address", referent.getEmailAddress());
         context.setVariable("referent_telephone_nr", referent.getTelephoneNumber());
 
-        String renderedContent = templateEngine.process("pdf/pe-adhesion-request.html", context);
-        return generatePdfFromHtml(renderedContent);
-    }
-
-    private ByteArrayOutputStream generatePdfFromHtml(String renderedContent) {
-        var outputStream = new ByteArrayOutputStream();
-
-        try {
-            var renderer = new ITextRenderer();
-
-            ITextFontResolver fontResolver = renderer.getFontResolver();
-            fontResolver.addFont("fonts/TitilliumWeb-Black.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-            fontResolver.addFont("fonts/TitilliumWeb-Bold.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-            fontResolver.addFont("fonts/TitilliumWeb-BoldItalic.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-            fontResolver.addFont("fonts/TitilliumWeb-ExtraLight.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-            fontResolver.addFont("fonts/TitilliumWeb-ExtraLightItalic.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-            fontResolver.addFont("fonts/TitilliumWeb-Italic.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-            fontResolver.addFont("fonts/TitilliumWeb-Light.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-            fontResolver.addFont("fonts/TitilliumWeb-LightItalic.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-            fontResolver.addFont("fonts/TitilliumWeb-Regular.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-            fontResolver.addFont("fonts/TitilliumWeb-SemiBold.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-            fontResolver.addFont("fonts/TitilliumWeb-SemiBoldItalic.ttf", BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
-
-            renderer.setDocumentFromString(renderedContent);
-            renderer.layout();
-
-            renderer.createPDF(outputStream);
-        } catch (DocumentException | IOException e) {
-            throw new CGNException("Error in document rendering", e);
-        }
-
-        return outputStream;
+        return templateEngine.process("pdf/pe-adhesion-request.html", context);
     }
 
     public DocumentService(DocumentRepository documentRepository,
                            ProfileRepository profileRepository,
                            DiscountRepository discountRepository,
+                           AddressRepository addressRepository,
                            AgreementServiceLight agreementServiceLight,
-                           AzureStorage azureStorage,
+                           DocumentStorage documentStorage,
                            TemplateEngine templateEngine,
-                           ConfigProperties configProperties) {
+                           ConfigProperties configProperties,
+                           AsyncPdfRenderer asyncPdfRenderer,
+                           RenderedDocumentCache renderedDocumentCache,
+                           DocumentBlobService documentBlobService,
+                           PlatformTransactionManager transactionManager) {
         this.documentRepository = documentRepository;
         this.profileRepository = profileRepository;
         this.discountRepository = discountRepository;
+        this.addressRepository = addressRepository;
         this.agreementServiceLight = agreementServiceLight;
-        this.azureStorage = azureStorage;
+        this.documentStorage = documentStorage;
         this.templateEngine = templateEngine;
         this.configProperties = configProperties;
+        this.asyncPdfRenderer = asyncPdfRenderer;
+        this.renderedDocumentCache = renderedDocumentCache;
+        this.documentBlobService = documentBlobService;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    private static class DocumentTemplate {
+        private final String version;
+        private final String renderedContent;
+        private final RenderedDocument cached;
+
+        DocumentTemplate(String version, String renderedContent) {
+            this.version = version;
+            this.renderedContent = renderedContent;
+            this.cached = null;
+        }
+
+        DocumentTemplate(RenderedDocument cached) {
+            this.version = cached.getVersion();
+            this.renderedContent = null;
+            this.cached = cached;
+        }
     }
 
     private static class RenderableDiscount {
@@ -1,40 +1,62 @@
 package it.gov.pagopa.cgn.portal.service;
 
 import it.gov.pagopa.cgn.portal.enums.DiscountCodeTypeEnum;
+import it.gov.pagopa.cgn.portal.enums.ExportCompressionEnum;
 import it.gov.pagopa.cgn.portal.enums.SalesChannelEnum;
+import it.gov.pagopa.cgn.portal.filestorage.DocumentStorage;
+import it.gov.pagopa.cgn.portal.filestorage.StoredDocumentResource;
+import it.gov.pagopa.cgn.portal.filter.ExportFilter;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
 import it.gov.pagopa.cgn.portal.model.DiscountEntity;
 import it.gov.pagopa.cgn.portal.model.ProfileEntity;
 import it.gov.pagopa.cgn.portal.repository.AgreementRepository;
+import it.gov.pagopa.cgn.portal.util.TemporaryFileResource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
 import javax.transaction.Transactional;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
 public class ExportService {
 
+    private static final String SNAPSHOT_PREFIX = "exports/";
+
+    // rows after which the exported entities are detached, so the persistence context does not grow with the export
+    private static final int CLEAR_INTERVAL = 500;
+
     private final AgreementRepository agreementRepository;
 
+    private final DocumentStorage documentStorage;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     private final String[] headers = new String[]{"Stato Convenzione",
                                                   "Ragione sociale",
                                                   "Nome alternativo",
@@ -55,31 +77,37 @@ public class ExportService {
                                                   "Landing page",
                                                   "Referer"};
 
-    public ExportService(AgreementRepository agreementRepository) {
+    public ExportService(AgreementRepository agreementRepository, DocumentStorage documentStorage) {
         this.agreementRepository = agreementRepository;
+        this.documentStorage = documentStorage;
     }
 
     @Transactional(Transactional.TxType.REQUIRED)
-    public ResponseEntity<Resource> exportAgreements() {
+    public ResponseEntity<Resource> exportAgreements(ExportFilter filter) {
         log.info("exportAgreements start");
-        List<AgreementEntity> agreementEntities = agreementRepository.findAll();
-        StringWriter writer = new StringWriter();
-        try (CSVPrinter printer = new CSVPrinter(writer, CSVFormat.EXCEL)) {
-            printerConsumer.apply(printer).accept(headers);
-            agreementEntities.stream()
-                             .map(getAgreementData)
-                             .forEach(agreementData -> agreementData.forEach(printerConsumer.apply(printer)));
-
-            byte[] export = writer.toString().getBytes(StandardCharsets.UTF_8);
-            String filename = "export-" + LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE) + ".csv";
+        ExportCompressionEnum compression = filter.getCompression();
+        String exportName = "export-" + LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE);
+        String filename = exportName + "." + compression.getExtension();
+        try {
+            Resource export;
+            ResponseEntity.BodyBuilder responseBuilder = ResponseEntity.ok();
+            if (filter.isSnapshot()) {
+                // snapshots are kept in the document storage for the whole day, shared by all the instances,
+                // so a download can be resumed with a Range request served by any of them
+                String snapshotKey = DigestUtils.md5DigestAsHex(filter.getSnapshotKey()
+                                                                      .getBytes(StandardCharsets.UTF_8));
+                export = getSnapshotExport(filter, exportName, snapshotKey);
+                responseBuilder.eTag(exportName + "-" + snapshotKey);
+            } else {
+                export = createTemporaryExport(filter, exportName + ".csv");
+            }
 
             log.info("exportAgreements end success");
-            return ResponseEntity.ok()
-                                 .contentLength(export.length)
-                                 .contentType(MediaType.TEXT_PLAIN)
-                                 .cacheControl(CacheControl.noCache().mustRevalidate())
-                                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename)
-                                 .body(new ByteArrayResource(export));
+            return responseBuilder.contentLength(export.contentLength())
+                                  .contentType(compression.getMediaType())
+                                  .cacheControl(CacheControl.noCache().mustRevalidate())
+                                  .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + filename)
+                                  .body(export);
         } catch (Exception ex) {
             log.error("exportAgreements end failure: " + ex.getMessage());
             log.error(Arrays.stream(ex.getStackTrace())
@@ -89,6 +117,66 @@ public class ExportService {
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
 
+    private Resource getSnapshotExport(ExportFilter filter, String exportName, String snapshotKey)
+            throws IOException {
+        String blobName = SNAPSHOT_PREFIX + exportName + "-" + snapshotKey;
+        if (!documentStorage.existsDocument(blobName)) {
+            // written aside and then stored as a whole, so a concurrent request never serves a partial snapshot
+            Path partial = Files.createTempFile("cgn-export-", "." + filter.getCompression().getExtension());
+            try {
+                writeExport(filter, partial, exportName + ".csv");
+                documentStorage.storeDocument(blobName, Files.newInputStream(partial), Files.size(partial));
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+            deletePreviousSnapshot(snapshotKey);
+        }
+        return new StoredDocumentResource(documentStorage, blobName, documentStorage.getDocumentSize(blobName));
+    }
+
+    private Resource createTemporaryExport(ExportFilter filter, String csvName) throws IOException {
+        Path export = Files.createTempFile("cgn-export-", "." + filter.getCompression().getExtension());
+        try {
+            writeExport(filter, export, csvName);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(export);
+            throw e;
+        }
+        return new TemporaryFileResource(export);
+    }
+
+    private void writeExport(ExportFilter filter, Path target, String csvName) throws IOException {
+        try (Stream<Tuple> rows = agreementRepository.streamExportRows(filter);
+             CSVPrinter printer = new CSVPrinter(new OutputStreamWriter(filter.getCompression()
+                                                                              .compress(new BufferedOutputStream(
+                                                                                      Files.newOutputStream(target)),
+                                                                                        csvName),
+                                                                        StandardCharsets.UTF_8), CSVFormat.EXCEL)) {
+            Consumer<String[]> printRow = printerConsumer.apply(printer);
+            printRow.accept(headers);
+            AtomicLong written = new AtomicLong();
+            rows.forEach(row -> {
+                printRow.accept(extractValuesForAgreementAndDiscount.apply(row.get(0, AgreementEntity.class),
+                                                                           Optional.ofNullable(row.get(1,
+                                                                                                       DiscountEntity.class))));
+                if (written.incrementAndGet() % CLEAR_INTERVAL == 0) {
+                    entityManager.clear();
+                }
+            });
+        }
+    }
+
+    private void deletePreviousSnapshot(String snapshotKey) {
+        // a snapshot is valid for the day it was created: the one of the same filter taken yesterday is removed
+        String previousName = "export-" + LocalDate.now().minusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE) +
+                              "-" + snapshotKey;
+        try {
+            documentStorage.deleteDocument(SNAPSHOT_PREFIX + previousName);
+        } catch (RuntimeException e) {
+            log.warn("Cannot delete old export snapshot " + previousName + ": " + e.getMessage());
+        }
+    }
+
     private final BiFunction<AgreementEntity, Optional<DiscountEntity>, String[]> extractValuesForAgreementAndDiscount
             = (agreement, maybeDiscount) -> new String[]{agreement.getState().getCode(),
                                                          Optional.ofNullable(agreement.getProfile())
@@ -129,20 +217,6 @@ public class ExportService {
                                                          maybeDiscount.map(DiscountEntity::getLandingPageReferrer).orElse(
                                                                  null)};
 
-    private final Function<AgreementEntity, List<String[]>> getAgreementData = agreement -> {
-        List<String[]> agreementRows = agreement.getDiscountList()
-                                                .stream()
-                                                .map(d -> extractValuesForAgreementAndDiscount.apply(agreement,
-                                                                                                     Optional.of(d)))
-                                                .collect(Collectors.toList());
-
-        if (agreementRows.isEmpty()) {
-            agreementRows.add(extractValuesForAgreementAndDiscount.apply(agreement, Optional.empty()));
-        }
-
-        return agreementRows;
-    };
-
     private final Function<CSVPrinter, Consumer<String[]>> printerConsumer = printer -> row -> {
         try {
             printer.printRecord(row);
@@ -35,11 +35,7 @@ public class HelpService {
                 .merchantLegalName(profile.getFullName())
                 .build();
 
-        try {
-            emailNotificationFacade.notifyDepartmentNewHelpRequest(helpParams);
-        } catch (Exception exc) {
-            throw new RuntimeException("Help request error", exc);
-        }
+        emailNotificationFacade.notifyDepartmentNewHelpRequest(helpParams);
     }
 
     @Autowired
@@ -0,0 +1,226 @@
+package it.gov.pagopa.cgn.portal.service;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.enums.ImageVariantEnum;
+import it.gov.pagopa.cgn.portal.filestorage.DocumentStorage;
+import it.gov.pagopa.cgn.portal.repository.AgreementRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Creates the resized variants of the agreement image in the background.
+ * The uploaded image stays the reference: until its variants are recorded, or if creating them fails,
+ * the agreement only has the original image url.
+ */
+@Slf4j
+@Service
+public class ImageVariantService {
+
+    // largest first, each variant is scaled down from the previous one
+    private static final ImageVariantEnum[] VARIANTS = Stream.of(ImageVariantEnum.values())
+                                                             .sorted(Comparator.comparingInt(
+                                                                     ImageVariantEnum::getMaxWidth).reversed())
+                                                             .toArray(ImageVariantEnum[]::new);
+
+    private final DocumentStorage documentStorage;
+    private final AgreementRepository agreementRepository;
+    private final ThreadPoolTaskExecutor imageVariantExecutor;
+    private final float jpegQuality;
+    private final Timer variantsTimer;
+    private final Counter failedCounter;
+    private final Counter rejectedCounter;
+
+    /**
+     * Queues the creation of the image variants once the current transaction commits,
+     * so that the variants are never recorded for an image url that was rolled back.
+     */
+    public void scheduleImageVariants(String agreementId, String imageUrl) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(agreementId, imageUrl);
+                }
+            });
+        } else {
+            submit(agreementId, imageUrl);
+        }
+    }
+
+    /**
+     * Creates all the variants of the image and records their urls on the agreement,
+     * unless the agreement image changed in the meantime.
+     */
+    public void createImageVariants(String agreementId, String imageUrl) {
+        long start = System.nanoTime();
+        try {
+            Map<ImageVariantEnum, String> variantUrls = storeImageVariants(agreementId, imageUrl);
+            int updated = agreementRepository.updateImageVariants(agreementId,
+                                                                  imageUrl,
+                                                                  variantUrls.get(ImageVariantEnum.THUMBNAIL),
+                                                                  variantUrls.get(ImageVariantEnum.CARD),
+                                                                  variantUrls.get(ImageVariantEnum.DETAIL));
+            if (updated == 0) {
+                log.info("Image of agreement " + agreementId + " changed while creating its variants");
+            }
+        } catch (IOException | RuntimeException e) {
+            failedCounter.increment();
+            log.error("Cannot create image variants for agreement " + agreementId, e);
+        } finally {
+            variantsTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void submit(String agreementId, String imageUrl) {
+        try {
+            imageVariantExecutor.execute(() -> createImageVariants(agreementId, imageUrl));
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            log.warn("Image variants of agreement " + agreementId + " not created: too many images in progress");
+        }
+    }
+
+    private Map<ImageVariantEnum, String> storeImageVariants(String agreementId, String imageUrl)
+            throws IOException {
+        String extension = FilenameUtils.getExtension(imageUrl).toLowerCase();
+        boolean png = "png".equals(extension);
+        BufferedImage image = readImage(getBlobName(imageUrl));
+        Map<ImageVariantEnum, String> variantUrls = new EnumMap<>(ImageVariantEnum.class);
+        for (ImageVariantEnum variant : VARIANTS) {
+            image = resize(image, variant.getMaxWidth(), variant.getMaxHeight(), png);
+            byte[] content = encode(image, png);
+            variantUrls.put(variant, documentStorage.storeImage(variant.getBlobName(agreementId, extension),
+                                                                new ByteArrayInputStream(content),
+                                                                content.length));
+        }
+        return variantUrls;
+    }
+
+    private BufferedImage readImage(String blobName) throws IOException {
+        try (InputStream input = documentStorage.openImage(blobName);
+             ImageInputStream stream = new MemoryCacheImageInputStream(input)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format for " + blobName);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                // large images are decoded skipping pixels, the result is still bigger than the largest variant
+                int subsampling = Math.max(1, Math.min(width / VARIANTS[0].getMaxWidth(),
+                                                       height / VARIANTS[0].getMaxHeight()));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static BufferedImage resize(BufferedImage image, int maxWidth, int maxHeight, boolean alpha) {
+        double scale = Math.min(1.0, Math.min((double) maxWidth / image.getWidth(),
+                                              (double) maxHeight / image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage resized = image;
+        // a single bilinear pass over a big reduction skips most source pixels, so halve in steps
+        do {
+            resized = draw(resized,
+                           Math.max(width, resized.getWidth() / 2),
+                           Math.max(height, resized.getHeight() / 2),
+                           alpha);
+        } while (resized.getWidth() != width || resized.getHeight() != height);
+        return resized;
+    }
+
+    private static BufferedImage draw(BufferedImage image, int width, int height, boolean alpha) {
+        BufferedImage target = new BufferedImage(width, height,
+                                                 alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (!alpha) {
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+            }
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private byte[] encode(BufferedImage image, boolean png) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(png ? "png" : "jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (!png) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static String getBlobName(String imageUrl) {
+        return imageUrl.substring(imageUrl.indexOf('/') + 1);
+    }
+
+    public ImageVariantService(DocumentStorage documentStorage,
+                               AgreementRepository agreementRepository,
+                               @Qualifier("imageVariantExecutor") ThreadPoolTaskExecutor imageVariantExecutor,
+                               ConfigProperties configProperties,
+                               MeterRegistry meterRegistry) {
+        this.documentStorage = documentStorage;
+        this.agreementRepository = agreementRepository;
+        this.imageVariantExecutor = imageVariantExecutor;
+        this.jpegQuality = configProperties.getImageVariantsJpegQuality();
+        this.variantsTimer = Timer.builder("cgn.image.variants").register(meterRegistry);
+        this.failedCounter = Counter.builder("cgn.image.variants.failed").register(meterRegistry);
+        this.rejectedCounter = Counter.builder("cgn.image.variants.rejected").register(meterRegistry);
+    }
+
+}
@@ -56,6 +56,7 @@ public class ProfileService {
             agreementServiceLight.setDraftAgreementFromRejected(agreementEntity);
             documentService.resetAllDocuments(agreementId);
         }
+        documentService.evictRenderedDocuments(agreementId);
         return profileRepository.save(profileEntity);
     }
 
@@ -6,21 +6,26 @@ import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
 import it.gov.pagopa.cgn.portal.security.JwtAdminUser;
 import it.gov.pagopa.cgn.portal.security.JwtAuthenticationToken;
 import it.gov.pagopa.cgn.portal.security.JwtOperatorUser;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.multipart.MultipartFile;
 
-import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.spi.IIORegistry;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import java.awt.Dimension;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDate;
 import java.util.Iterator;
 
 public class CGNUtils {
 
+    // headers of png and jpg images are far smaller, only big embedded metadata could get close
+    private static final long IMAGE_HEADER_MAX_BYTES = 1024L * 1024L;
+
     private CGNUtils() {
     }
 
@@ -32,7 +37,7 @@ public class CGNUtils {
         Dimension dimension;
         try {
             checkIfImageFile(image.getOriginalFilename());
-            dimension = getImageDimensions(image.getInputStream());
+            dimension = getImageDimensions(image);
         } catch (IOException e) {
             throw new ImageException(ImageException.ImageErrorCodeEnum.GENERIC);
         }
@@ -43,25 +48,26 @@ public class CGNUtils {
         }
     }
 
-    private static Dimension getImageDimensions(Object input) throws IOException {
-
-        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) { // accepts File, InputStream,
-                                                                                // RandomAccessFile
-            if (stream != null) {
-                IIORegistry iioRegistry = IIORegistry.getDefaultInstance();
-                Iterator<ImageReaderSpi> iter = iioRegistry.getServiceProviders(ImageReaderSpi.class, true);
-                while (iter.hasNext()) {
-                    ImageReaderSpi readerSpi = iter.next();
-                    if (readerSpi.canDecodeInput(stream)) {
-                        ImageReader reader = readerSpi.createReaderInstance();
-                        try {
-                            reader.setInput(stream);
-                            int width = reader.getWidth(reader.getMinIndex());
-                            int height = reader.getHeight(reader.getMinIndex());
-                            return new Dimension(width, height);
-                        } finally {
-                            reader.dispose();
-                        }
+    /**
+     * Reads the dimensions from the image header only: the upload is consumed up to the header,
+     * cached in memory rather than on a temporary file, and never decoded.
+     */
+    private static Dimension getImageDimensions(MultipartFile image) throws IOException {
+        try (InputStream input = new BoundedInputStream(image.getInputStream(), IMAGE_HEADER_MAX_BYTES);
+             ImageInputStream stream = new MemoryCacheImageInputStream(input)) {
+            IIORegistry iioRegistry = IIORegistry.getDefaultInstance();
+            Iterator<ImageReaderSpi> iter = iioRegistry.getServiceProviders(ImageReaderSpi.class, true);
+            while (iter.hasNext()) {
+                ImageReaderSpi readerSpi = iter.next();
+                if (readerSpi.canDecodeInput(stream)) {
+                    ImageReader reader = readerSpi.createReaderInstance();
+                    try {
+                        reader.setInput(stream, true, true);
+                        int width = reader.getWidth(reader.getMinIndex());
+                        int height = reader.getHeight(reader.getMinIndex());
+                        return new Dimension(width, height);
+                    } finally {
+                        reader.dispose();
                     }
                 }
             }
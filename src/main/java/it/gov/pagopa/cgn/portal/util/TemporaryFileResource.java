@@ -0,0 +1,53 @@
+package it.gov.pagopa.cgn.portal.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A file that is deleted as soon as its content has been read.
+ * Created during a request, it is also deleted when the request completes, so a response whose body
+ * is never written, e.g. a HEAD request, a failure or a client gone away, does not leave it on disk.
+ */
+@Slf4j
+public class TemporaryFileResource extends FileSystemResource {
+
+    public TemporaryFileResource(Path path) {
+        super(path);
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes != null) {
+            requestAttributes.registerDestructionCallback(TemporaryFileResource.class.getName() + ":" + path,
+                                                          this::delete,
+                                                          RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new FilterInputStream(super.getInputStream()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    delete();
+                }
+            }
+        };
+    }
+
+    private void delete() {
+        try {
+            Files.deleteIfExists(getFile().toPath());
+        } catch (IOException e) {
+            log.warn("Cannot delete temporary file " + getPath() + ": " + e.getMessage());
+        }
+    }
+}
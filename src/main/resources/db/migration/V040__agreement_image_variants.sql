@@ -0,0 +1,4 @@
+ALTER TABLE agreement
+    ADD COLUMN image_thumbnail_url VARCHAR(500),
+    ADD COLUMN image_card_url      VARCHAR(500),
+    ADD COLUMN image_detail_url    VARCHAR(500);
@@ -0,0 +1,22 @@
+-- documents with the same content share a blob, so the url is no longer unique
+ALTER TABLE document DROP CONSTRAINT document_pk;
+ALTER TABLE document ADD COLUMN document_k BIGSERIAL NOT NULL;
+ALTER TABLE document ADD CONSTRAINT document_pk PRIMARY KEY (document_k);
+CREATE INDEX document_url_idx ON document (document_url);
+
+CREATE TABLE document_blob
+(
+    blob_url           VARCHAR(255) NOT NULL,
+    agreement_fk       VARCHAR(36)  NOT NULL,
+    content_hash       CHAR(64)     NOT NULL,
+    reference_count    INTEGER      NOT NULL DEFAULT 0,
+    unreferenced_since TIMESTAMPTZ,
+    insert_time        TIMESTAMPTZ  NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time        TIMESTAMPTZ,
+
+    CONSTRAINT document_blob_pk PRIMARY KEY (blob_url),
+    CONSTRAINT document_blob_agreement_hash_uk UNIQUE (agreement_fk, content_hash),
+    CONSTRAINT document_blob_agreement_fk FOREIGN KEY (agreement_fk) REFERENCES agreement (agreement_k)
+);
+CREATE INDEX document_blob_unreferenced_idx ON document_blob (agreement_fk, unreferenced_since)
+    WHERE reference_count = 0;
@@ -0,0 +1,2 @@
+-- serves the backoffice search on merchant name: lower(full_name) LIKE '%...%'
+CREATE INDEX IF NOT EXISTS idx_profile_full_name_trgm ON profile USING gin (lower(full_name) gin_trgm_ops);
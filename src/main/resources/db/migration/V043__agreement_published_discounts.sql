@@ -0,0 +1,11 @@
+ALTER TABLE agreement ADD COLUMN published_discounts BIGINT NOT NULL DEFAULT 0;
+
+UPDATE agreement a
+SET published_discounts = c.published_discounts
+FROM (SELECT d.agreement_fk, COUNT(*) AS published_discounts
+      FROM discount d
+      WHERE d.state = 'PUBLISHED'
+      GROUP BY d.agreement_fk) c
+WHERE c.agreement_fk = a.agreement_k;
+
+CREATE INDEX agreement_published_discounts_idx ON agreement (published_discounts);
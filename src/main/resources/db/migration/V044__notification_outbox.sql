@@ -0,0 +1,26 @@
+-- notifications are written here in the transaction of the change that causes them and sent by a poller
+CREATE TABLE notification_outbox
+(
+    notification_outbox_k BIGSERIAL    NOT NULL,
+    tracking_key          VARCHAR(255),
+    mail_to               VARCHAR(255) NOT NULL,
+    reply_to              VARCHAR(255),
+    subject               TEXT         NOT NULL,
+    template              VARCHAR(50)  NOT NULL,
+    template_variables    TEXT         NOT NULL,
+    failure_message       TEXT,
+    attempts              INTEGER      NOT NULL DEFAULT 0,
+    next_attempt_time     TIMESTAMPTZ  NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    last_error            TEXT,
+    abandoned_at          TIMESTAMPTZ,
+    -- notifications being sent are leased to the instance that claimed them, outside of any transaction
+    lease_until           TIMESTAMPTZ,
+    insert_time           TIMESTAMPTZ  NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time           TIMESTAMPTZ,
+
+    CONSTRAINT notification_outbox_pk PRIMARY KEY (notification_outbox_k)
+);
+CREATE INDEX notification_outbox_next_attempt_idx ON notification_outbox (next_attempt_time)
+    WHERE abandoned_at IS NULL;
+CREATE INDEX notification_outbox_tracking_key_idx ON notification_outbox (tracking_key)
+    WHERE tracking_key IS NOT NULL AND abandoned_at IS NULL;
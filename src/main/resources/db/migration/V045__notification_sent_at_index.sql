@@ -0,0 +1,2 @@
+-- used by the retention purge of old notifications
+CREATE INDEX notification_sent_at_idx ON notification (sent_at);
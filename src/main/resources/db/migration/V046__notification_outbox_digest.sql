@@ -0,0 +1,5 @@
+-- notifications to a merchant sent together in a single digest email
+ALTER TABLE notification_outbox
+    ADD COLUMN digest BOOLEAN NOT NULL DEFAULT FALSE;
+CREATE INDEX notification_outbox_digest_idx ON notification_outbox (mail_to)
+    WHERE digest AND abandoned_at IS NULL;
@@ -0,0 +1,17 @@
+-- one row per run of a scheduled job
+CREATE TABLE job_execution
+(
+    job_execution_k BIGSERIAL    NOT NULL,
+    job_name        VARCHAR(100) NOT NULL,
+    status          VARCHAR(50)  NOT NULL,
+    start_time      TIMESTAMPTZ  NOT NULL,
+    end_time        TIMESTAMPTZ,
+    items_processed INTEGER      NOT NULL DEFAULT 0,
+    errors          INTEGER      NOT NULL DEFAULT 0,
+    last_error      TEXT,
+    insert_time     TIMESTAMPTZ  NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time     TIMESTAMPTZ,
+
+    CONSTRAINT job_execution_pk PRIMARY KEY (job_execution_k)
+);
+CREATE INDEX job_execution_job_name_idx ON job_execution (job_name, start_time);
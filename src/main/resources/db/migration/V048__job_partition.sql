@@ -0,0 +1,24 @@
+-- the partitions of a job run, taken by the nodes of the cluster
+CREATE TABLE job_partition
+(
+    job_partition_k  BIGSERIAL   NOT NULL,
+    job_execution_fk BIGINT      NOT NULL,
+    partition_index  INTEGER     NOT NULL,
+    partition_count  INTEGER     NOT NULL,
+    status           VARCHAR(50) NOT NULL,
+    attempts         INTEGER     NOT NULL DEFAULT 0,
+    start_time       TIMESTAMPTZ,
+    end_time         TIMESTAMPTZ,
+    items_processed  INTEGER     NOT NULL DEFAULT 0,
+    errors           INTEGER     NOT NULL DEFAULT 0,
+    last_error       TEXT,
+    -- a running partition is leased to the node processing it, which renews the lease until the partition ends
+    owner            VARCHAR(100),
+    lease_until      TIMESTAMPTZ,
+    insert_time      TIMESTAMPTZ NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time      TIMESTAMPTZ,
+
+    CONSTRAINT job_partition_pk PRIMARY KEY (job_partition_k),
+    CONSTRAINT job_partition_job_execution_fk FOREIGN KEY (job_execution_fk) REFERENCES job_execution (job_execution_k),
+    CONSTRAINT job_partition_uk UNIQUE (job_execution_fk, partition_index)
+);
@@ -1,6 +1,7 @@
 package it.gov.pagopa.cgn.portal;
 
 import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.email.NotificationOutboxPoller;
 import it.gov.pagopa.cgn.portal.enums.*;
 import it.gov.pagopa.cgn.portal.facade.BackofficeExportFacade;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
@@ -79,7 +80,9 @@ public class IntegrationAbstractTest {
                           "spring.mail.host",
                           greenMailContainer.getHost(),
                           "spring.mail.port",
-                          String.valueOf(greenMailContainer.getFirstMappedPort()));
+                          String.valueOf(greenMailContainer.getFirstMappedPort()),
+                          "cgn.email.outbox.polling-enabled",
+                          "false");
         }
 
         @Override
@@ -125,6 +128,9 @@ public class IntegrationAbstractTest {
     @Autowired
     protected DocumentRepository documentRepository;
 
+    @Autowired
+    protected DocumentBlobRepository documentBlobRepository;
+
     @Autowired
     protected DiscountBucketCodeSummaryRepository discountBucketCodeSummaryRepository;
 
@@ -179,10 +185,23 @@ public class IntegrationAbstractTest {
     @Autowired
     protected BackofficeExportFacade backofficeExportFacade;
 
+    @Autowired
+    protected BackofficeListCache backofficeListCache;
+
+    @Autowired
+    protected NotificationOutboxRepository notificationOutboxRepository;
+
+    @Autowired
+    protected NotificationOutboxPoller notificationOutboxPoller;
+
     @AfterEach
     protected void cleanAll() throws InterruptedException {
+        backofficeListCache.invalidateAll();
+        notificationOutboxRepository.deleteAllInBatch();
         documentRepository.deleteAll();
         documentRepository.flush();
+        documentBlobRepository.deleteAll();
+        documentBlobRepository.flush();
         discountBucketCodeRepository.deleteAll();
         discountBucketCodeRepository.flush();
         bucketCodeLoadRepository.deleteAll();
@@ -13,10 +13,10 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
 
-import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -60,7 +60,7 @@ class DocumentApiTest extends IntegrationAbstractTest {
         AgreementEntity agreementEntity = this.agreementService.createAgreementIfNotExists(TestUtils.FAKE_ID);
         byte[] content = "pdf-document".getBytes(StandardCharsets.UTF_8);
         documentService.storeDocument(agreementEntity.getId(),
-                DocumentTypeEnum.AGREEMENT, new ByteArrayInputStream(content), content.length);
+                DocumentTypeEnum.AGREEMENT, new ByteArrayResource(content), content.length);
 
         this.mockMvc.perform(
                 get(TestUtils.getDocumentPath(agreementEntity.getId())))
@@ -3,59 +3,74 @@ package it.gov.pagopa.cgn.portal.controller;
 
 import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
 import it.gov.pagopa.cgn.portal.TestUtils;
+import it.gov.pagopa.cgn.portal.email.TemplateEmail;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
+import it.gov.pagopa.cgn.portal.model.NotificationOutboxEntity;
 import it.gov.pagopa.cgn.portal.model.ProfileEntity;
-import it.gov.pagopa.cgn.portal.recaptcha.GoogleRecaptchaResponse;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.boot.test.context.TestConfiguration;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Import;
-import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.test.web.servlet.MvcResult;
 
-import static org.mockito.ArgumentMatchers.*;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.log;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
 @RunWith(SpringRunner.class)
 @AutoConfigureMockMvc(addFilters = false)
-@Import(HelpApiTest.IntegrationAbstractTestConfiguration.class)
 class HelpApiTest extends IntegrationAbstractTest {
 
-    @Autowired
-    private RestTemplate restTemplateMock;
+    // stands in for Google: the real recaptcha client is used, timeouts and errors included
+    private static final MockWebServer recaptchaServer = startRecaptchaServer();
 
     @Autowired
     private MockMvc mockMvc;
 
     private AgreementEntity agreement;
 
-    @TestConfiguration
-    static class IntegrationAbstractTestConfiguration {
+    @DynamicPropertySource
+    static void recaptchaProperties(DynamicPropertyRegistry registry) {
+        registry.add("cgn.recaptcha.google-host",
+                     () -> "http://" + recaptchaServer.getHostName() + ":" + recaptchaServer.getPort());
+        registry.add("cgn.recaptcha.timeout-millis", () -> "1000");
+    }
 
-        @Bean
-        @Primary
-        public RestTemplate getRestTemplateBean() {
-            return mock(RestTemplate.class);
-        }
+    @AfterAll
+    static void stopRecaptchaServer() throws IOException {
+        recaptchaServer.shutdown();
     }
 
     @BeforeEach
-    void init() {
+    void init() throws InterruptedException {
         agreement = agreementService.createAgreementIfNotExists(TestUtils.FAKE_ID);
         setOperatorAuth();
+        // forget the verifications recorded by the previous tests
+        while (recaptchaServer.takeRequest(0, TimeUnit.MILLISECONDS) != null) {
+        }
     }
 
     @Test
@@ -63,16 +78,27 @@ class HelpApiTest extends IntegrationAbstractTest {
 
         it.gov.pagopa.cgnonboardingportal.publicapi.model.HelpRequest helpRequest = TestUtils.createSamplePublicApiHelpRequest();
 
-        GoogleRecaptchaResponse response = new GoogleRecaptchaResponse();
-        response.setSuccess(true);
-        when(restTemplateMock.postForObject(anyString(), any(), eq(GoogleRecaptchaResponse.class))).thenReturn(response);
+        recaptchaServer.enqueue(recaptchaResponse(true));
 
-        this.mockMvc.perform(
+        MvcResult result = this.mockMvc.perform(
                 post(TestUtils.PUBLIC_HELP_CONTROLLER_PATH)
                         .contentType(MediaType.APPLICATION_JSON).content(TestUtils.getJson(helpRequest))
         )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
                 .andDo(log())
-                .andExpect(status().isNoContent());
+                .andExpect(status().isAccepted());
+
+        List<NotificationOutboxEntity> notifications = notificationOutboxRepository.findAll();
+        Assertions.assertEquals(1, notifications.size());
+        Assertions.assertEquals(TemplateEmail.HELP_REQUEST.name(), notifications.get(0).getTemplate());
+        Assertions.assertEquals(helpRequest.getEmailAddress(), notifications.get(0).getReplyTo());
+        RecordedRequest verification = recaptchaServer.takeRequest(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(verification);
+        Assertions.assertEquals("/recaptcha/api/siteverify", verification.getPath());
+        Assertions.assertEquals("secret=secret&response=" + helpRequest.getRecaptchaToken(),
+                                verification.getBody().readUtf8());
     }
 
 
@@ -81,16 +107,77 @@ class HelpApiTest extends IntegrationAbstractTest {
 
         it.gov.pagopa.cgnonboardingportal.publicapi.model.HelpRequest helpRequest = TestUtils.createSamplePublicApiHelpRequest();
 
-        GoogleRecaptchaResponse response = new GoogleRecaptchaResponse();
-        response.setSuccess(false);
-        when(restTemplateMock.postForObject(anyString(), any(), eq(GoogleRecaptchaResponse.class))).thenReturn(response);
+        recaptchaServer.enqueue(recaptchaResponse(false));
 
-        this.mockMvc.perform(
+        MvcResult result = this.mockMvc.perform(
                 post(TestUtils.PUBLIC_HELP_CONTROLLER_PATH)
                         .contentType(MediaType.APPLICATION_JSON).content(TestUtils.getJson(helpRequest))
         )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
                 .andDo(log())
                 .andExpect(status().isBadRequest());
+        Assertions.assertEquals(0, notificationOutboxRepository.count());
+    }
+
+    @Test
+    void Send_SendPublicHelpRequestWithRecaptchaError_ServiceUnavailable() throws Exception {
+
+        it.gov.pagopa.cgnonboardingportal.publicapi.model.HelpRequest helpRequest = TestUtils.createSamplePublicApiHelpRequest();
+
+        recaptchaServer.enqueue(new MockResponse().setResponseCode(500));
+
+        MvcResult result = this.mockMvc.perform(
+                post(TestUtils.PUBLIC_HELP_CONTROLLER_PATH)
+                        .contentType(MediaType.APPLICATION_JSON).content(TestUtils.getJson(helpRequest))
+        )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andDo(log())
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+        Assertions.assertEquals(0, notificationOutboxRepository.count());
+    }
+
+    @Test
+    void Send_SendPublicHelpRequestWithInvalidRecaptchaResponse_ServiceUnavailable() throws Exception {
+
+        it.gov.pagopa.cgnonboardingportal.publicapi.model.HelpRequest helpRequest = TestUtils.createSamplePublicApiHelpRequest();
+
+        recaptchaServer.enqueue(new MockResponse().setBody("<html>Not json</html>"));
+
+        MvcResult result = this.mockMvc.perform(
+                post(TestUtils.PUBLIC_HELP_CONTROLLER_PATH)
+                        .contentType(MediaType.APPLICATION_JSON).content(TestUtils.getJson(helpRequest))
+        )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andDo(log())
+                .andExpect(status().isServiceUnavailable());
+        Assertions.assertEquals(0, notificationOutboxRepository.count());
+    }
+
+    @Test
+    void Send_SendPublicHelpRequestWithRecaptchaTimeout_ServiceUnavailable() throws Exception {
+
+        it.gov.pagopa.cgnonboardingportal.publicapi.model.HelpRequest helpRequest = TestUtils.createSamplePublicApiHelpRequest();
+
+        recaptchaServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+        MvcResult result = this.mockMvc.perform(
+                post(TestUtils.PUBLIC_HELP_CONTROLLER_PATH)
+                        .contentType(MediaType.APPLICATION_JSON).content(TestUtils.getJson(helpRequest))
+        )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                .andDo(log())
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+        Assertions.assertEquals(0, notificationOutboxRepository.count());
     }
 
     @Test
@@ -106,7 +193,7 @@ class HelpApiTest extends IntegrationAbstractTest {
                         .contentType(MediaType.APPLICATION_JSON).content(TestUtils.getJson(helpRequest))
         )
                 .andDo(log())
-                .andExpect(status().isNoContent());
+                .andExpect(status().isAccepted());
     }
 
     @Test
@@ -121,4 +208,19 @@ class HelpApiTest extends IntegrationAbstractTest {
                 .andDo(log())
                 .andExpect(status().isBadRequest());
     }
+
+    private static MockResponse recaptchaResponse(boolean success) {
+        return new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                                 .setBody("{\"success\": " + success + "}");
+    }
+
+    private static MockWebServer startRecaptchaServer() {
+        MockWebServer server = new MockWebServer();
+        try {
+            server.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return server;
+    }
 }
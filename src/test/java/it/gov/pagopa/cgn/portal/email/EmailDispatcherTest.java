@@ -0,0 +1,199 @@
+package it.gov.pagopa.cgn.portal.email;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SpringRunner.class)
+public class EmailDispatcherTest {
+
+    private final ConfigProperties configProperties = Mockito.mock(ConfigProperties.class);
+
+    private final JavaMailSender javaMailSender = Mockito.mock(JavaMailSender.class);
+
+    private MeterRegistry meterRegistry;
+
+    private EmailDispatcher emailDispatcher;
+
+    @Before
+    public void init() {
+        Mockito.when(configProperties.getEmailDispatcherWorkers()).thenReturn(1);
+        Mockito.when(configProperties.getEmailDispatcherQueueCapacity()).thenReturn(10);
+        Mockito.when(configProperties.getEmailDispatcherBatchSize()).thenReturn(3);
+        Mockito.when(configProperties.getEmailDispatcherBatchLingerMillis()).thenReturn(500L);
+        meterRegistry = new SimpleMeterRegistry();
+        emailDispatcher = new EmailDispatcher(javaMailSender, configProperties, meterRegistry);
+    }
+
+    @After
+    public void destroy() throws InterruptedException {
+        emailDispatcher.stop();
+    }
+
+    @Test
+    public void Submit_QueuedMessages_SentInBatches() throws Exception {
+        MimeMessage[] messages = new MimeMessage[4];
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[4];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new MimeMessage((Session) null);
+        }
+        // queued before the worker starts, so the first batch is full
+        for (int i = 0; i < messages.length; i++) {
+            futures[i] = emailDispatcher.submit(messages[i]);
+        }
+        emailDispatcher.start();
+        CompletableFuture.allOf(futures).get(5, TimeUnit.SECONDS);
+
+        ArgumentCaptor<MimeMessage[]> batch = ArgumentCaptor.forClass(MimeMessage[].class);
+        Mockito.verify(javaMailSender).send(batch.capture());
+        Assert.assertArrayEquals(new MimeMessage[]{messages[0], messages[1], messages[2]}, batch.getValue());
+        Mockito.verify(javaMailSender).send(messages[3]);
+        Assert.assertEquals(2, meterRegistry.get("cgn.email.send").timer().count());
+    }
+
+    @Test
+    public void Submit_OneMessageOfBatchFails_OnlyThatMessageFails() throws Exception {
+        MimeMessage sent = new MimeMessage((Session) null);
+        MimeMessage failed = new MimeMessage((Session) null);
+        Map<Object, Exception> failedMessages = Map.of(failed, new MailSendException("Invalid address"));
+        Mockito.doThrow(new MailSendException(failedMessages))
+               .when(javaMailSender)
+               .send(Mockito.any(MimeMessage[].class));
+
+        CompletableFuture<Void> sentFuture = emailDispatcher.submit(sent);
+        CompletableFuture<Void> failedFuture = emailDispatcher.submit(failed);
+        emailDispatcher.start();
+
+        sentFuture.get(5, TimeUnit.SECONDS);
+        ExecutionException e = Assert.assertThrows(ExecutionException.class,
+                                                   () -> failedFuture.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("Invalid address", e.getCause().getMessage());
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.email.send.failures").counter().count(), 0);
+    }
+
+    @Test
+    public void Submit_MessageDeferredByRelay_RequeuedAndSent() throws Exception {
+        Mockito.when(configProperties.getEmailRateLimitMessagesPerSecond()).thenReturn(100.0);
+        Mockito.when(configProperties.getEmailRateLimitBurst()).thenReturn(10);
+        Mockito.when(configProperties.getEmailRateLimitBackoffBaseMillis()).thenReturn(10L);
+        Mockito.when(configProperties.getEmailRateLimitBackoffMaxMillis()).thenReturn(100L);
+        Mockito.when(configProperties.getEmailRateLimitMaxDeferrals()).thenReturn(2);
+        emailDispatcher = new EmailDispatcher(javaMailSender, configProperties, meterRegistry);
+        MimeMessage message = new MimeMessage((Session) null);
+        Map<Object, Exception> deferred = Map.of(message,
+                                                 new SMTPSendFailedException("DATA",
+                                                                            451,
+                                                                            "451 Too many messages, try later",
+                                                                            null,
+                                                                            null,
+                                                                            null,
+                                                                            null));
+        Mockito.doThrow(new MailSendException(deferred)).doNothing().when(javaMailSender).send(message);
+
+        CompletableFuture<Void> future = emailDispatcher.submit(message);
+        emailDispatcher.start();
+
+        future.get(5, TimeUnit.SECONDS);
+        Mockito.verify(javaMailSender, Mockito.times(2)).send(message);
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.email.send.deferrals").counter().count(), 0);
+        Assert.assertEquals(0.0, meterRegistry.get("cgn.email.send.failures").counter().count(), 0);
+    }
+
+    @Test
+    public void Submit_RecipientDeferredByRelay_RequeuedForThatRecipientOnly() throws Exception {
+        Mockito.when(configProperties.getEmailRateLimitMaxDeferrals()).thenReturn(1);
+        emailDispatcher = new EmailDispatcher(javaMailSender, configProperties, meterRegistry);
+        InternetAddress accepted = new InternetAddress("accepted@pagopa.it");
+        InternetAddress busy = new InternetAddress("busy@pagopa.it");
+        InternetAddress unknown = new InternetAddress("unknown@pagopa.it");
+        MimeMessage message = new MimeMessage((Session) null);
+        message.setRecipients(Message.RecipientType.TO, new Address[]{accepted, busy});
+        message.setRecipients(Message.RecipientType.CC, new Address[]{unknown});
+        message.setText("text");
+        SMTPAddressFailedException busyFailure = new SMTPAddressFailedException(busy,
+                                                                                "RCPT",
+                                                                                450,
+                                                                                "450 Mailbox busy");
+        busyFailure.setNextException(new SMTPAddressFailedException(unknown, "RCPT", 550, "550 No such user"));
+        SendFailedException partiallySent = new SendFailedException("Invalid Addresses",
+                                                                    busyFailure,
+                                                                    new Address[]{accepted},
+                                                                    new Address[0],
+                                                                    new Address[]{busy, unknown});
+        Mockito.doThrow(new MailSendException(Map.of(message, partiallySent)))
+               .doNothing()
+               .when(javaMailSender)
+               .send(Mockito.any(MimeMessage.class));
+
+        CompletableFuture<Void> future = emailDispatcher.submit(message);
+        emailDispatcher.start();
+
+        future.get(5, TimeUnit.SECONDS);
+        ArgumentCaptor<MimeMessage> sent = ArgumentCaptor.forClass(MimeMessage.class);
+        Mockito.verify(javaMailSender, Mockito.times(2)).send(sent.capture());
+        MimeMessage retried = sent.getAllValues().get(1);
+        Assert.assertArrayEquals(new Address[]{busy}, retried.getRecipients(Message.RecipientType.TO));
+        Assert.assertNull(retried.getRecipients(Message.RecipientType.CC));
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.email.send.deferrals").counter().count(), 0);
+    }
+
+    @Test
+    public void Submit_MessageDeferredTooManyTimes_FutureFails() {
+        MimeMessage message = new MimeMessage((Session) null);
+        Map<Object, Exception> deferred = Map.of(message,
+                                                 new SMTPSendFailedException("DATA",
+                                                                            421,
+                                                                            "421 Service not available",
+                                                                            null,
+                                                                            null,
+                                                                            null,
+                                                                            null));
+        Mockito.doThrow(new MailSendException(deferred)).when(javaMailSender).send(message);
+
+        CompletableFuture<Void> future = emailDispatcher.submit(message);
+        emailDispatcher.start();
+
+        // no deferral allowed by the configuration
+        Assert.assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        Mockito.verify(javaMailSender, Mockito.times(1)).send(message);
+    }
+
+    @Test
+    public void Submit_QueueFull_FutureFails() {
+        Mockito.when(configProperties.getEmailDispatcherQueueCapacity()).thenReturn(1);
+        EmailDispatcher notStartedDispatcher = new EmailDispatcher(javaMailSender,
+                                                                   configProperties,
+                                                                   new SimpleMeterRegistry());
+
+        CompletableFuture<Void> queued = notStartedDispatcher.submit(new MimeMessage((Session) null));
+        CompletableFuture<Void> refused = notStartedDispatcher.submit(new MimeMessage((Session) null));
+
+        Assert.assertFalse(queued.isDone());
+        Assert.assertTrue(refused.isCompletedExceptionally());
+        Mockito.verifyNoInteractions(javaMailSender);
+    }
+
+}
@@ -0,0 +1,99 @@
+package it.gov.pagopa.cgn.portal.email;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SpringRunner.class)
+public class EmailRateLimiterTest {
+
+    @Test
+    public void Acquire_WithinBurst_NoWait() throws InterruptedException {
+        EmailRateLimiter rateLimiter = new EmailRateLimiter(1, 5, 1000, 1000);
+
+        long start = System.nanoTime();
+        rateLimiter.acquire(5);
+
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void Acquire_BeyondBurst_WaitsForTokens() throws InterruptedException {
+        EmailRateLimiter rateLimiter = new EmailRateLimiter(20, 2, 1000, 1000);
+        rateLimiter.acquire(2);
+
+        long start = System.nanoTime();
+        rateLimiter.acquire(2);
+
+        // 2 tokens at 20 per second take 100 ms
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(80));
+    }
+
+    @Test
+    public void Deferred_RateHalvedAndSendingPaused() throws InterruptedException {
+        EmailRateLimiter rateLimiter = new EmailRateLimiter(100, 10, 200, 1000);
+
+        rateLimiter.deferred();
+        long start = System.nanoTime();
+        rateLimiter.acquire(1);
+
+        Assert.assertEquals(50, rateLimiter.getRate(), 0.001);
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(180));
+    }
+
+    @Test
+    public void Accepted_AfterDeferral_RateRecoversStepByStep() {
+        EmailRateLimiter rateLimiter = new EmailRateLimiter(100, 10, 0, 0);
+        rateLimiter.deferred();
+        rateLimiter.deferred();
+        Assert.assertEquals(25, rateLimiter.getRate(), 0.001);
+
+        rateLimiter.accepted();
+        Assert.assertEquals(35, rateLimiter.getRate(), 0.001);
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.accepted();
+        }
+        Assert.assertEquals(100, rateLimiter.getRate(), 0.001);
+    }
+
+    @Test
+    public void Acquire_NoRate_NeverWaits() throws InterruptedException {
+        EmailRateLimiter rateLimiter = new EmailRateLimiter(0, 1, 1000, 1000);
+
+        long start = System.nanoTime();
+        rateLimiter.acquire(100);
+
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void Deferred_NoRate_SendingPaused() throws InterruptedException {
+        EmailRateLimiter rateLimiter = new EmailRateLimiter(0, 1, 200, 1000);
+
+        rateLimiter.deferred();
+        long start = System.nanoTime();
+        rateLimiter.acquire(100);
+
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(180));
+    }
+
+    @Test
+    public void Deferred_ManyTimes_PauseSaturatesAtMaximum() throws InterruptedException {
+        // a base of 10 seconds shifted 30 times overflows a long
+        EmailRateLimiter rateLimiter = new EmailRateLimiter(100, 10, 10000, 200);
+        for (int i = 0; i < 40; i++) {
+            rateLimiter.deferred();
+        }
+
+        long start = System.nanoTime();
+        rateLimiter.acquire(1);
+
+        long waited = System.nanoTime() - start;
+        Assert.assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(180));
+        Assert.assertTrue(waited < TimeUnit.SECONDS.toNanos(5));
+    }
+
+}
@@ -0,0 +1,92 @@
+package it.gov.pagopa.cgn.portal.email;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.context.IContext;
+
+import java.io.InputStream;
+
+@RunWith(SpringRunner.class)
+public class EmailTemplateRendererTest {
+
+    private final ConfigProperties configProperties = Mockito.mock(ConfigProperties.class);
+
+    private final TemplateEngine templateEngine = Mockito.mock(TemplateEngine.class);
+
+    private MeterRegistry meterRegistry;
+
+    private EmailTemplateRenderer emailTemplateRenderer;
+
+    @Before
+    public void init() {
+        Mockito.when(configProperties.getCgnLogo()).thenReturn(new ByteArrayResource(new byte[]{1, 2, 3}));
+        Mockito.when(templateEngine.process(Mockito.anyString(), Mockito.any(IContext.class)))
+               .thenAnswer(invocation -> "body of " + invocation.getArgument(0));
+        meterRegistry = new SimpleMeterRegistry();
+        emailTemplateRenderer = new EmailTemplateRenderer(templateEngine, configProperties, meterRegistry);
+    }
+
+    @Test
+    public void Render_StaticTemplate_RenderedOnce() {
+        String first = emailTemplateRenderer.render(TemplateEmail.APPROVED_AGREEMENT_BOTH, new Context());
+        String second = emailTemplateRenderer.render(TemplateEmail.APPROVED_AGREEMENT_BOTH, new Context());
+
+        Assert.assertEquals("body of " + TemplateEmail.APPROVED_AGREEMENT_BOTH.getTemplateName(), first);
+        Assert.assertSame(first, second);
+        Mockito.verify(templateEngine, Mockito.times(1))
+               .process(Mockito.eq(TemplateEmail.APPROVED_AGREEMENT_BOTH.getTemplateName()),
+                        Mockito.any(IContext.class));
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.email.render.static.hits").counter().count(), 0);
+    }
+
+    @Test
+    public void Render_DynamicTemplate_RenderedEveryTime() {
+        Context context = new Context();
+        context.setVariable("discount_name", "A discount");
+
+        emailTemplateRenderer.render(TemplateEmail.EXPIRED_BUCKET_CODES, context);
+        emailTemplateRenderer.render(TemplateEmail.EXPIRED_BUCKET_CODES, context);
+
+        Mockito.verify(templateEngine, Mockito.times(2))
+               .process(TemplateEmail.EXPIRED_BUCKET_CODES.getTemplateName(), context);
+        Assert.assertEquals(2,
+                            meterRegistry.get("cgn.email.render")
+                                         .tag("template", TemplateEmail.EXPIRED_BUCKET_CODES.name())
+                                         .timer()
+                                         .count());
+    }
+
+    @Test
+    public void Preload_TemplateFails_OtherTemplatesPreloaded() {
+        Mockito.when(templateEngine.process(Mockito.eq(TemplateEmail.HELP_REQUEST.getTemplateName()),
+                                            Mockito.any(IContext.class)))
+               .thenThrow(new IllegalStateException("Broken template"));
+
+        emailTemplateRenderer.preload();
+
+        for (TemplateEmail template : TemplateEmail.values()) {
+            Mockito.verify(templateEngine).process(Mockito.eq(template.getTemplateName()), Mockito.any(IContext.class));
+        }
+    }
+
+    @Test
+    public void GetLogo_LogoReadOnce_SharedInMemory() throws Exception {
+        Assert.assertSame(emailTemplateRenderer.getLogo(), emailTemplateRenderer.getLogo());
+        Assert.assertEquals(EmailTemplateRenderer.LOGO_NAME, emailTemplateRenderer.getLogo().getName());
+        try (InputStream inputStream = emailTemplateRenderer.getLogo().getInputStream()) {
+            Assert.assertArrayEquals(new byte[]{1, 2, 3}, inputStream.readAllBytes());
+        }
+        Mockito.verify(configProperties, Mockito.times(1)).getCgnLogo();
+    }
+
+}
@@ -0,0 +1,127 @@
+package it.gov.pagopa.cgn.portal.email;
+
+import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
+import it.gov.pagopa.cgn.portal.model.NotificationOutboxEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.OffsetDateTime;
+
+@SpringBootTest
+@ActiveProfiles("dev")
+class NotificationOutboxPollerTest extends IntegrationAbstractTest {
+
+    private static final String MAIL_TO = "merchant@pagopa.it";
+
+    @BeforeEach
+    void clean() {
+        notificationOutboxRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void Poll_DigestReady_WaitingNotificationsSentTogether() {
+        saveDigestNotification("digest-key-1", TemplateEmail.EXPIRED_DISCOUNT, OffsetDateTime.now().minusSeconds(1));
+        saveDigestNotification("digest-key-2",
+                               TemplateEmail.EXPIRED_BUCKET_CODES,
+                               OffsetDateTime.now().plusHours(1));
+
+        notificationOutboxPoller.poll();
+
+        Assertions.assertEquals(0, notificationOutboxRepository.count());
+        Assertions.assertNull(notificationRepository.findByKey("digest-key-1").getErrorMessage());
+        Assertions.assertNull(notificationRepository.findByKey("digest-key-2").getErrorMessage());
+    }
+
+    @Test
+    void Poll_DigestNotReady_NothingSent() {
+        saveDigestNotification("digest-key-3", TemplateEmail.EXPIRED_DISCOUNT, OffsetDateTime.now().plusHours(1));
+
+        notificationOutboxPoller.poll();
+
+        Assertions.assertEquals(1, notificationOutboxRepository.count());
+        Assertions.assertNull(notificationRepository.findByKey("digest-key-3"));
+    }
+
+    @Test
+    void Poll_SendFails_NotificationRescheduledWithError() {
+        var notification = saveNotification("failing-key-1", "UNKNOWN_TEMPLATE", 0);
+
+        notificationOutboxPoller.poll();
+
+        var retried = notificationOutboxRepository.findById(notification.getId()).orElseThrow();
+        Assertions.assertEquals(1, retried.getAttempts());
+        Assertions.assertNotNull(retried.getLastError());
+        Assertions.assertNull(retried.getLeaseUntil());
+        Assertions.assertNull(retried.getAbandonedAt());
+        Assertions.assertTrue(retried.getNextAttemptTime().isAfter(OffsetDateTime.now()));
+        Assertions.assertNull(notificationRepository.findByKey("failing-key-1"));
+    }
+
+    @Test
+    void Poll_LastAttemptFails_NotificationAbandoned() {
+        var notification = saveNotification("failing-key-2",
+                                             "UNKNOWN_TEMPLATE",
+                                             configProperties.getEmailOutboxMaxAttempts() - 1);
+
+        notificationOutboxPoller.poll();
+
+        var abandoned = notificationOutboxRepository.findById(notification.getId()).orElseThrow();
+        Assertions.assertEquals(configProperties.getEmailOutboxMaxAttempts(), abandoned.getAttempts());
+        Assertions.assertNotNull(abandoned.getAbandonedAt());
+        Assertions.assertNull(abandoned.getLeaseUntil());
+
+        // an abandoned notification is not taken again
+        notificationOutboxPoller.poll();
+        Assertions.assertEquals(configProperties.getEmailOutboxMaxAttempts(),
+                                notificationOutboxRepository.findById(notification.getId())
+                                                            .orElseThrow()
+                                                            .getAttempts());
+    }
+
+    @Test
+    void Poll_NotificationLeased_NotificationNotTakenUntilLeaseExpires() {
+        var notification = saveNotification("leased-key", TemplateEmail.EXPIRED_DISCOUNT.name(), 0);
+        notification.setLeaseUntil(OffsetDateTime.now().plusMinutes(5));
+        notificationOutboxRepository.save(notification);
+
+        notificationOutboxPoller.poll();
+        Assertions.assertEquals(1, notificationOutboxRepository.count());
+
+        notification.setLeaseUntil(OffsetDateTime.now().minusSeconds(1));
+        notificationOutboxRepository.save(notification);
+
+        notificationOutboxPoller.poll();
+        Assertions.assertEquals(0, notificationOutboxRepository.count());
+        Assertions.assertNull(notificationRepository.findByKey("leased-key").getErrorMessage());
+    }
+
+    private NotificationOutboxEntity saveNotification(String trackingKey, String template, int attempts) {
+        var notification = new NotificationOutboxEntity();
+        notification.setTrackingKey(trackingKey);
+        notification.setMailTo(MAIL_TO);
+        notification.setSubject("Subject");
+        notification.setTemplate(template);
+        notification.setTemplateVariables("{\"discount_name\":\"A discount\"}");
+        notification.setFailureMessage("Failed to send " + trackingKey);
+        notification.setAttempts(attempts);
+        notification.setNextAttemptTime(OffsetDateTime.now().minusSeconds(1));
+        return notificationOutboxRepository.save(notification);
+    }
+
+    private void saveDigestNotification(String trackingKey, TemplateEmail template, OffsetDateTime nextAttemptTime) {
+        var notification = new NotificationOutboxEntity();
+        notification.setTrackingKey(trackingKey);
+        notification.setMailTo(MAIL_TO);
+        notification.setSubject("Subject");
+        notification.setTemplate(template.name());
+        notification.setTemplateVariables("{\"discount_name\":\"A discount\"}");
+        notification.setFailureMessage("Failed to send " + trackingKey);
+        notification.setNextAttemptTime(nextAttemptTime);
+        notification.setDigest(true);
+        notificationOutboxRepository.save(notification);
+    }
+
+}
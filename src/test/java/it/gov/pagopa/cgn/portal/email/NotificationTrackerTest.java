@@ -0,0 +1,120 @@
+package it.gov.pagopa.cgn.portal.email;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.model.NotificationEntity;
+import it.gov.pagopa.cgn.portal.repository.NotificationRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+@RunWith(SpringRunner.class)
+public class NotificationTrackerTest {
+
+    private final ConfigProperties configProperties = Mockito.mock(ConfigProperties.class);
+
+    private final NotificationRepository notificationRepository = Mockito.mock(NotificationRepository.class);
+
+    @Before
+    public void init() {
+        Mockito.when(configProperties.getEmailNotificationCacheMaxEntries()).thenReturn(2);
+        Mockito.when(configProperties.getEmailNotificationBloomFilterExpectedKeys()).thenReturn(100);
+        Mockito.when(configProperties.getEmailNotificationWriteBatchSize()).thenReturn(2);
+        Mockito.when(configProperties.getEmailNotificationRetentionDays()).thenReturn(30);
+        Mockito.when(configProperties.getEmailNotificationPurgeBatchSize()).thenReturn(10);
+    }
+
+    @Test
+    public void IsSent_KeyAlreadySent_TableQueriedOnce() {
+        Mockito.when(notificationRepository.findByKey("key")).thenReturn(new NotificationEntity("key"));
+        NotificationTracker notificationTracker = createTracker();
+
+        Assert.assertTrue(notificationTracker.isSent("key"));
+        Assert.assertTrue(notificationTracker.isSent("key"));
+
+        Mockito.verify(notificationRepository, Mockito.times(1)).findByKey("key");
+    }
+
+    @Test
+    public void IsSent_KeyFailed_TableQueriedEveryTime() {
+        NotificationEntity failed = new NotificationEntity("key");
+        failed.setErrorMessage("An error");
+        Mockito.when(notificationRepository.findByKey("key")).thenReturn(failed);
+        NotificationTracker notificationTracker = createTracker();
+
+        Assert.assertFalse(notificationTracker.isSent("key"));
+        Assert.assertFalse(notificationTracker.isSent("key"));
+
+        Mockito.verify(notificationRepository, Mockito.times(2)).findByKey("key");
+    }
+
+    @Test
+    public void IsSent_BloomFilterEnabled_UnknownKeyNotQueried() {
+        Mockito.when(configProperties.isEmailNotificationBloomFilterEnabled()).thenReturn(true);
+        Mockito.when(notificationRepository.findAllKeys()).thenReturn(List.of("stored-key"));
+        Mockito.when(notificationRepository.findByKey("stored-key")).thenReturn(new NotificationEntity("stored-key"));
+        NotificationTracker notificationTracker = createTracker();
+        notificationTracker.loadTrackedKeys();
+
+        Assert.assertFalse(notificationTracker.isSent("unknown-key"));
+        Assert.assertTrue(notificationTracker.isSent("stored-key"));
+
+        Mockito.verify(notificationRepository, Mockito.never()).findByKey("unknown-key");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void Track_BatchFull_WrittenTogether() {
+        NotificationTracker notificationTracker = createTracker();
+
+        notificationTracker.track("sent", null);
+        Mockito.verify(notificationRepository, Mockito.never()).bulkUpsert(Mockito.anyList());
+        notificationTracker.track("failed", "An error");
+
+        ArgumentCaptor<List<NotificationEntity>> batch = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(notificationRepository).bulkUpsert(batch.capture());
+        Assert.assertEquals(2, batch.getValue().size());
+        Assert.assertEquals("An error", batch.getValue().get(1).getErrorMessage());
+        Assert.assertTrue(notificationTracker.isSent("sent"));
+        Mockito.verify(notificationRepository, Mockito.never()).findByKey("sent");
+    }
+
+    @Test
+    public void Flush_WriteFails_NotificationsKept() {
+        NotificationTracker notificationTracker = createTracker();
+        Mockito.doThrow(new IllegalStateException("Database not available"))
+               .doNothing()
+               .when(notificationRepository)
+               .bulkUpsert(Mockito.anyList());
+
+        notificationTracker.track("sent", null);
+        Assert.assertThrows(IllegalStateException.class, notificationTracker::flush);
+        notificationTracker.flush();
+
+        Mockito.verify(notificationRepository, Mockito.times(2)).bulkUpsert(Mockito.anyList());
+    }
+
+    @Test
+    public void Purge_ManyOldNotifications_DeletedInChunks() {
+        Mockito.when(notificationRepository.deleteSentBefore(Mockito.any(OffsetDateTime.class), Mockito.eq(10)))
+               .thenReturn(10, 10, 3);
+        NotificationTracker notificationTracker = createTracker();
+
+        notificationTracker.purge();
+
+        Mockito.verify(notificationRepository, Mockito.times(3))
+               .deleteSentBefore(Mockito.any(OffsetDateTime.class), Mockito.eq(10));
+    }
+
+    private NotificationTracker createTracker() {
+        return new NotificationTracker(notificationRepository, configProperties, new SimpleMeterRegistry());
+    }
+
+}
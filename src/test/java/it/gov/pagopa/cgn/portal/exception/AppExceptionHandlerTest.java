@@ -7,6 +7,9 @@ import it.gov.pagopa.cgnonboardingportal.model.ImageErrorCode;
 import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
@@ -36,6 +39,16 @@ public class AppExceptionHandlerTest extends IntegrationAbstractTest {
         Assert.assertEquals(ex.getMessage(), handler.handleConflictErrorException(ex).getBody());
     }
 
+    @Test
+    public void TestServiceUnavailable_ReturnRetryAfter() {
+        AppExceptionHandler handler = new AppExceptionHandler();
+        ResponseEntity<Object> response = handler.handleServiceUnavailableException(
+                new ServiceUnavailableException("Test unavailable", 10));
+        Assert.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        Assert.assertEquals("10", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        Assert.assertEquals("Test unavailable", response.getBody());
+    }
+
     @Test
     public void TestInternalError_ThrowGenericException() {
         AppExceptionHandler handler = new AppExceptionHandler();
@@ -1,7 +1,12 @@
 package it.gov.pagopa.cgn.portal.facade;
 
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobContainerClientBuilder;
 import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
 import it.gov.pagopa.cgn.portal.TestUtils;
+import it.gov.pagopa.cgn.portal.enums.DiscountStateEnum;
+import it.gov.pagopa.cgn.portal.enums.ExportCompressionEnum;
+import it.gov.pagopa.cgn.portal.filter.ExportFilter;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
 import it.gov.pagopa.cgn.portal.model.DiscountEntity;
 import it.gov.pagopa.cgn.portal.model.ProfileEntity;
@@ -13,9 +18,14 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.zip.GZIPInputStream;
 
 @SpringBootTest
 @ActiveProfiles("dev")
@@ -25,6 +35,13 @@ class BackofficeExportFacadeTest extends IntegrationAbstractTest {
 
     @BeforeEach
     void init() {
+        BlobContainerClient documentContainerClient = new BlobContainerClientBuilder()
+                .connectionString(getAzureConnectionString())
+                .containerName(configProperties.getDocumentsContainerName())
+                .buildClient();
+        if (!documentContainerClient.exists()) {
+            documentContainerClient.create();
+        }
         agreementEntity = agreementService.createAgreementIfNotExists(TestUtils.FAKE_ID);
     }
 
@@ -35,7 +52,7 @@ class BackofficeExportFacadeTest extends IntegrationAbstractTest {
 
     @Test
     void ExportAgreements_DRAFT_NO_PROFILE_OK() throws IOException {
-        ResponseEntity<Resource> response = backofficeExportFacade.exportAgreements();
+        ResponseEntity<Resource> response = backofficeExportFacade.exportAgreements(ExportFilter.builder().build());
         Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
         Assertions.assertNotNull(response.getBody());
         Assertions.assertEquals(2, CsvUtils.countCsvLines(response.getBody().getInputStream()));
@@ -44,7 +61,7 @@ class BackofficeExportFacadeTest extends IntegrationAbstractTest {
     @Test
     void ExportAgreements_DRAFT_WITH_PROFILE_OK() throws IOException {
         createProfile();
-        ResponseEntity<Resource> response = backofficeExportFacade.exportAgreements();
+        ResponseEntity<Resource> response = backofficeExportFacade.exportAgreements(ExportFilter.builder().build());
         Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
         Assertions.assertNotNull(response.getBody());
         Assertions.assertEquals(2, CsvUtils.countCsvLines(response.getBody().getInputStream()));
@@ -53,7 +70,7 @@ class BackofficeExportFacadeTest extends IntegrationAbstractTest {
     @Test
     void ExportAgreements_DRAFT_WITH_PROFILE_NO_DISCOUNTS_OK() throws IOException {
         createProfile();
-        ResponseEntity<Resource> response = backofficeExportFacade.exportAgreements();
+        ResponseEntity<Resource> response = backofficeExportFacade.exportAgreements(ExportFilter.builder().build());
         Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
         Assertions.assertNotNull(response.getBody());
         Assertions.assertEquals(2, CsvUtils.countCsvLines(response.getBody().getInputStream()));
@@ -70,10 +87,66 @@ class BackofficeExportFacadeTest extends IntegrationAbstractTest {
         discountEntity2.setName("Discount 2");
         discountService.createDiscount(agreementEntity.getId(), discountEntity2);
 
-        ResponseEntity<Resource> response = backofficeExportFacade.exportAgreements();
+        ResponseEntity<Resource> response = backofficeExportFacade.exportAgreements(ExportFilter.builder().build());
         Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
         Assertions.assertNotNull(response.getBody());
         Assertions.assertEquals(3, CsvUtils.countCsvLines(response.getBody().getInputStream()));
     }
 
+    @Test
+    void ExportAgreements_FilterByDiscountState_OnlyMatchingDiscounts() throws IOException {
+        createProfile();
+        DiscountEntity discountEntity = TestUtils.createSampleDiscountEntity(agreementEntity);
+        discountService.createDiscount(agreementEntity.getId(), discountEntity);
+
+        ExportFilter filter = ExportFilter.builder().discountState(DiscountStateEnum.PUBLISHED).build();
+        ResponseEntity<Resource> response = backofficeExportFacade.exportAgreements(filter);
+        Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
+        Assertions.assertNotNull(response.getBody());
+        // header only, the discount is still in draft
+        Assertions.assertEquals(1, CsvUtils.countCsvLines(response.getBody().getInputStream()));
+    }
+
+    @Test
+    void ExportAgreements_Gzip_OK() throws IOException {
+        createProfile();
+        ExportFilter filter = ExportFilter.builder().compression(ExportCompressionEnum.GZIP).build();
+        ResponseEntity<Resource> response = backofficeExportFacade.exportAgreements(filter);
+        Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
+        Assertions.assertNotNull(response.getBody());
+        Assertions.assertEquals(ExportCompressionEnum.GZIP.getMediaType(), response.getHeaders().getContentType());
+        Assertions.assertEquals(2,
+                                CsvUtils.countCsvLines(new GZIPInputStream(response.getBody().getInputStream())));
+    }
+
+    @Test
+    void ExportAgreements_Snapshot_ReusedWithSameETag() throws IOException {
+        createProfile();
+        ExportFilter filter = ExportFilter.builder().snapshot(true).build();
+        ResponseEntity<Resource> first = backofficeExportFacade.exportAgreements(filter);
+        ResponseEntity<Resource> second = backofficeExportFacade.exportAgreements(filter);
+        Assertions.assertEquals(HttpStatus.OK, second.getStatusCode());
+        Assertions.assertNotNull(first.getHeaders().getETag());
+        Assertions.assertEquals(first.getHeaders().getETag(), second.getHeaders().getETag());
+        Assertions.assertEquals(first.getHeaders().getContentLength(), second.getHeaders().getContentLength());
+        Assertions.assertEquals(2, CsvUtils.countCsvLines(second.getBody().getInputStream()));
+    }
+
+    @Test
+    void ExportAgreements_BodyNotRead_TemporaryFileDeletedWhenRequestCompletes() throws IOException {
+        ServletRequestAttributes requestAttributes = new ServletRequestAttributes(new MockHttpServletRequest());
+        RequestContextHolder.setRequestAttributes(requestAttributes);
+        try {
+            ResponseEntity<Resource> response = backofficeExportFacade.exportAgreements(ExportFilter.builder().build());
+            Assertions.assertNotNull(response.getBody());
+            File export = response.getBody().getFile();
+            Assertions.assertTrue(export.exists());
+
+            requestAttributes.requestCompleted();
+            Assertions.assertFalse(export.exists());
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
 }
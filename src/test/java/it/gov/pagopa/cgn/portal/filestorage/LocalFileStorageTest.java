@@ -0,0 +1,131 @@
+package it.gov.pagopa.cgn.portal.filestorage;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@RunWith(SpringRunner.class)
+public class LocalFileStorageTest {
+
+    private static final String BASE_URL = "http://localhost:8080/storage/documents";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ConfigProperties configProperties = Mockito.mock(ConfigProperties.class);
+
+    private LocalFileStorage localFileStorage;
+
+    @Before
+    public void init() {
+        Mockito.when(configProperties.getLocalStorageRootDir()).thenReturn(temporaryFolder.getRoot().getPath());
+        Mockito.when(configProperties.getLocalStorageBaseUrl()).thenReturn(BASE_URL);
+        Mockito.when(configProperties.getLocalStorageSigningKey()).thenReturn("test-key");
+        Mockito.when(configProperties.getDocumentsContainerName()).thenReturn("userdocuments");
+        Mockito.when(configProperties.getImagesContainerName()).thenReturn("profileimages");
+        Mockito.when(configProperties.getSasExpiryTimeHours()).thenReturn(2);
+        Mockito.when(configProperties.getSasCacheRefreshMarginMinutes()).thenReturn(30L);
+        Mockito.when(configProperties.getSasCacheMaxEntries()).thenReturn(100);
+        localFileStorage = new LocalFileStorage(configProperties,
+                                                new SasUrlCache(configProperties, new SimpleMeterRegistry()));
+    }
+
+    @Test
+    public void StoreDocument_TransferDocument_ContentIsEqual() throws IOException {
+        byte[] content = "%PDF-1.4 document".getBytes(StandardCharsets.US_ASCII);
+        String url = localFileStorage.storeDocument("agreement/agreement.pdf",
+                                                    new ByteArrayInputStream(content),
+                                                    content.length);
+        Assert.assertEquals("userdocuments/agreement/agreement.pdf", url);
+        Assert.assertTrue(localFileStorage.existsDocument("agreement/agreement.pdf"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long transferred = localFileStorage.transferDocument("agreement/agreement.pdf", Channels.newChannel(out));
+        Assert.assertEquals(content.length, transferred);
+        Assert.assertArrayEquals(content, out.toByteArray());
+
+        localFileStorage.deleteDocument("agreement/agreement.pdf");
+        Assert.assertFalse(localFileStorage.existsDocument("agreement/agreement.pdf"));
+    }
+
+    @Test
+    public void StoreDocument_ContentShorterThanSize_NothingStored() {
+        byte[] content = "%PDF-1.4 document".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertThrows(CGNException.class,
+                            () -> localFileStorage.storeDocument("agreement/agreement.pdf",
+                                                                 new ByteArrayInputStream(content),
+                                                                 content.length + 10));
+
+        Assert.assertFalse(localFileStorage.existsDocument("agreement/agreement.pdf"));
+        Assert.assertArrayEquals(new String[0],
+                                 temporaryFolder.getRoot()
+                                                .toPath()
+                                                .resolve("userdocuments/agreement")
+                                                .toFile()
+                                                .list());
+    }
+
+    @Test
+    public void StoreDocument_ContentLongerThanSize_NothingStored() {
+        byte[] content = "%PDF-1.4 document".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertThrows(CGNException.class,
+                            () -> localFileStorage.storeDocument("agreement/agreement.pdf",
+                                                                 new ByteArrayInputStream(content),
+                                                                 content.length - 1));
+
+        Assert.assertFalse(localFileStorage.existsDocument("agreement/agreement.pdf"));
+    }
+
+    @Test
+    public void New_SigningKeyMissing_ThrowsException() {
+        Mockito.when(configProperties.getLocalStorageSigningKey()).thenReturn("");
+        SasUrlCache sasUrlCache = new SasUrlCache(configProperties, new SimpleMeterRegistry());
+        Assert.assertThrows(CGNException.class, () -> new LocalFileStorage(configProperties, sasUrlCache));
+    }
+
+    @Test
+    public void ReadCsvDocument_UploadedCsv_RecordsAreRead() throws IOException {
+        byte[] csv = "code1\ncode2\ncode3\n".getBytes(StandardCharsets.US_ASCII);
+        localFileStorage.uploadCsv(new ByteArrayInputStream(csv), "bucket", csv.length);
+
+        List<String> codes = localFileStorage.readCsvDocument("bucket")
+                                             .map(record -> record.get(0))
+                                             .collect(Collectors.toList());
+        Assert.assertEquals(List.of("code1", "code2", "code3"), codes);
+    }
+
+    @Test
+    public void GetDocumentSasFileUrl_SignedUrl_SignatureIsValid() {
+        String url = localFileStorage.getDocumentSasFileUrl("userdocuments/agreement/agreement.pdf");
+        Assert.assertTrue(url.startsWith(BASE_URL + "/agreement/agreement.pdf?se="));
+
+        long expiry = Long.parseLong(url.substring(url.indexOf("se=") + 3, url.indexOf("&")));
+        String signature = url.substring(url.indexOf("sig=") + 4);
+        Assert.assertTrue(localFileStorage.isValidSignature("agreement/agreement.pdf", expiry, signature));
+        Assert.assertFalse(localFileStorage.isValidSignature("agreement/adhesion_request.pdf", expiry, signature));
+        Assert.assertFalse(localFileStorage.isValidSignature("agreement/agreement.pdf", expiry + 1, signature));
+    }
+
+    @Test
+    public void ExistsDocument_PathOutsideContainer_ThrowsException() {
+        Assert.assertThrows(InvalidRequestException.class, () -> localFileStorage.existsDocument("../secret.pdf"));
+    }
+
+}
@@ -0,0 +1,85 @@
+package it.gov.pagopa.cgn.portal.filestorage;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(SpringRunner.class)
+public class SasUrlCacheTest {
+
+    private final ConfigProperties configProperties = Mockito.mock(ConfigProperties.class);
+
+    private final AtomicInteger signatures = new AtomicInteger();
+
+    private MeterRegistry meterRegistry;
+
+    @Before
+    public void init() {
+        Mockito.when(configProperties.getSasExpiryTimeHours()).thenReturn(2);
+        Mockito.when(configProperties.getSasCacheRefreshMarginMinutes()).thenReturn(30L);
+        Mockito.when(configProperties.getSasCacheMaxEntries()).thenReturn(2);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    public void Get_SameBlob_SignsOnce() {
+        SasUrlCache sasUrlCache = new SasUrlCache(configProperties, meterRegistry);
+        String first = sasUrlCache.get("agreement/agreement.pdf", expiry -> "url-" + signatures.incrementAndGet());
+        String second = sasUrlCache.get("agreement/agreement.pdf", expiry -> "url-" + signatures.incrementAndGet());
+
+        Assert.assertEquals("url-1", first);
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(1, signatures.get());
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.storage.sas.cache.hits").counter().count(), 0);
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.storage.sas.cache.misses").counter().count(), 0);
+    }
+
+    @Test
+    public void Create_RefreshMarginNotShorterThanExpiry_Throw() {
+        // every url would already be due for refresh when signed
+        Mockito.when(configProperties.getSasCacheRefreshMarginMinutes()).thenReturn(120L);
+        Assert.assertThrows(CGNException.class, () -> new SasUrlCache(configProperties, meterRegistry));
+    }
+
+    @Test
+    public void Get_CacheFull_LeastRecentlyUsedUrlEvicted() {
+        SasUrlCache sasUrlCache = new SasUrlCache(configProperties, meterRegistry);
+        sasUrlCache.get("a", expiry -> "url-a-" + signatures.incrementAndGet());
+        sasUrlCache.get("b", expiry -> "url-b-" + signatures.incrementAndGet());
+        sasUrlCache.get("a", expiry -> "url-a-" + signatures.incrementAndGet());
+        Assert.assertEquals("url-c-3", sasUrlCache.get("c", expiry -> "url-c-" + signatures.incrementAndGet()));
+        Assert.assertEquals(2, sasUrlCache.size());
+
+        Assert.assertEquals("url-a-1", sasUrlCache.get("a", expiry -> "url-a-" + signatures.incrementAndGet()));
+        Assert.assertEquals("url-b-4", sasUrlCache.get("b", expiry -> "url-b-" + signatures.incrementAndGet()));
+    }
+
+    @Test
+    public void Get_ConcurrentReadsAndMisses_BoundKept() throws InterruptedException {
+        Mockito.when(configProperties.getSasCacheMaxEntries()).thenReturn(100);
+        SasUrlCache sasUrlCache = new SasUrlCache(configProperties, meterRegistry);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4000; i++) {
+            String blobName = "blob-" + (i % 300);
+            executor.execute(() -> sasUrlCache.get(blobName, expiry -> "url-" + blobName));
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        Assert.assertTrue(sasUrlCache.size() <= 100);
+        Assert.assertEquals("url-blob-1", sasUrlCache.get("blob-1", expiry -> "url-blob-1"));
+    }
+
+}
@@ -0,0 +1,125 @@
+package it.gov.pagopa.cgn.portal.pdf;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.exception.ServiceUnavailableException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SpringRunner.class)
+public class AsyncPdfRendererTest {
+
+    private final ConfigProperties configProperties = Mockito.mock(ConfigProperties.class);
+
+    private final PdfRendererPool pdfRendererPool = Mockito.mock(PdfRendererPool.class);
+
+    private final CountDownLatch renderLatch = new CountDownLatch(1);
+
+    private ThreadPoolTaskExecutor executor;
+
+    private MeterRegistry meterRegistry;
+
+    private AsyncPdfRenderer asyncPdfRenderer;
+
+    @Before
+    public void init() {
+        Mockito.when(configProperties.getPdfRenderTimeoutMillis()).thenReturn(200L);
+        Mockito.when(configProperties.getPdfRenderRetryAfterSeconds()).thenReturn(5L);
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.initialize();
+        meterRegistry = new SimpleMeterRegistry();
+        asyncPdfRenderer = new AsyncPdfRenderer(pdfRendererPool, executor, configProperties, meterRegistry);
+    }
+
+    @After
+    public void shutdown() {
+        renderLatch.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void Render_ExecutorAvailable_Ok() throws IOException {
+        byte[] pdf = "%PDF".getBytes(StandardCharsets.US_ASCII);
+        Mockito.doAnswer(invocation -> {
+            invocation.getArgument(1, OutputStream.class).write(pdf);
+            return null;
+        }).when(pdfRendererPool).render(Mockito.eq("html"), Mockito.any(OutputStream.class));
+
+        PdfContent content = asyncPdfRenderer.render("AGREEMENT", "html");
+        Assert.assertEquals(pdf.length, content.size());
+        Assert.assertArrayEquals(pdf, content.getInputStream().readAllBytes());
+        Assert.assertEquals(1, meterRegistry.get("cgn.pdf.render").tag("document", "AGREEMENT").timer().count());
+    }
+
+    @Test
+    public void Render_ExecutorBusy_ThrowServiceUnavailable() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            started.countDown();
+            renderLatch.await();
+            return null;
+        }).when(pdfRendererPool).render(Mockito.eq("slow"), Mockito.any(OutputStream.class));
+        executor.submit(() -> pdfRendererPool.render("slow", new PdfContent()));
+        Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        ServiceUnavailableException exception = Assert.assertThrows(ServiceUnavailableException.class,
+                                                                    () -> asyncPdfRenderer.render("AGREEMENT",
+                                                                                                  "html"));
+        Assert.assertEquals(5L, exception.getRetryAfterSeconds());
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.pdf.render.rejected").counter().count(), 0);
+    }
+
+    @Test
+    public void Render_RenderTooSlow_ThrowServiceUnavailable() {
+        Mockito.doAnswer(invocation -> {
+            renderLatch.await();
+            return null;
+        }).when(pdfRendererPool).render(Mockito.eq("slow"), Mockito.any(OutputStream.class));
+        Assert.assertThrows(ServiceUnavailableException.class, () -> asyncPdfRenderer.render("AGREEMENT", "slow"));
+    }
+
+    @Test
+    public void Render_TimedOutWhileQueued_RenderSkipped() throws InterruptedException {
+        ThreadPoolTaskExecutor queuingExecutor = new ThreadPoolTaskExecutor();
+        queuingExecutor.setCorePoolSize(1);
+        queuingExecutor.setMaxPoolSize(1);
+        queuingExecutor.setQueueCapacity(1);
+        queuingExecutor.initialize();
+        AsyncPdfRenderer queuingRenderer = new AsyncPdfRenderer(pdfRendererPool,
+                                                                queuingExecutor,
+                                                                configProperties,
+                                                                meterRegistry);
+        Mockito.doAnswer(invocation -> {
+            renderLatch.await();
+            return null;
+        }).when(pdfRendererPool).render(Mockito.eq("slow"), Mockito.any(OutputStream.class));
+        queuingRenderer.submit("AGREEMENT", "slow");
+
+        Assert.assertThrows(ServiceUnavailableException.class, () -> queuingRenderer.render("AGREEMENT", "html"));
+        renderLatch.countDown();
+        // the queued render still runs on a graceful shutdown, and finds itself cancelled
+        queuingExecutor.getThreadPoolExecutor().shutdown();
+        Assert.assertTrue(queuingExecutor.getThreadPoolExecutor().awaitTermination(1, TimeUnit.SECONDS));
+
+        Mockito.verify(pdfRendererPool, Mockito.never()).render(Mockito.eq("html"), Mockito.any(OutputStream.class));
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.pdf.render.timeouts").counter().count(), 0);
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.pdf.render.skipped").counter().count(), 0);
+    }
+
+}
@@ -0,0 +1,65 @@
+package it.gov.pagopa.cgn.portal.pdf;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(SpringRunner.class)
+public class PdfRendererPoolTest {
+
+    private static final String HTML = "<html><body><p style=\"font-family: 'Titillium Web'\">CGN</p></body></html>";
+
+    private final ConfigProperties configProperties = Mockito.mock(ConfigProperties.class);
+
+    private MeterRegistry meterRegistry;
+
+    private PdfRendererPool pdfRendererPool;
+
+    @Before
+    public void init() {
+        Mockito.when(configProperties.getPdfRendererPoolSize()).thenReturn(2);
+        Mockito.when(configProperties.getPdfRendererBorrowTimeoutMillis()).thenReturn(1000L);
+        meterRegistry = new SimpleMeterRegistry();
+        pdfRendererPool = new PdfRendererPool(configProperties, meterRegistry);
+    }
+
+    @Test
+    public void Render_SequentialRenders_RendererIsReused() {
+        ByteArrayOutputStream first = pdfRendererPool.render(HTML);
+        ByteArrayOutputStream second = pdfRendererPool.render(HTML);
+
+        Assert.assertTrue(new String(first.toByteArray(), 0, 4, StandardCharsets.US_ASCII).startsWith("%PDF"));
+        Assert.assertTrue(new String(second.toByteArray(), 0, 4, StandardCharsets.US_ASCII).startsWith("%PDF"));
+        Assert.assertEquals(1, pdfRendererPool.getIdleRenderers());
+        Assert.assertEquals(0, pdfRendererPool.getActiveRenderers());
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.pdf.renderer.pool.created").counter().count(), 0);
+    }
+
+    @Test
+    public void Render_InvalidHtml_RendererIsDiscarded() {
+        Assert.assertThrows(RuntimeException.class, () -> pdfRendererPool.render("<html><body>"));
+        Assert.assertEquals(0, pdfRendererPool.getIdleRenderers());
+        Assert.assertEquals(0, pdfRendererPool.getActiveRenderers());
+
+        // the permit is given back, so the pool is still usable
+        Assert.assertNotNull(pdfRendererPool.render(HTML));
+    }
+
+    @Test
+    public void Render_PoolExhausted_ThrowsException() {
+        Mockito.when(configProperties.getPdfRendererPoolSize()).thenReturn(0);
+        PdfRendererPool emptyPool = new PdfRendererPool(configProperties, new SimpleMeterRegistry());
+        Assert.assertThrows(CGNException.class, () -> emptyPool.render(HTML));
+    }
+
+}
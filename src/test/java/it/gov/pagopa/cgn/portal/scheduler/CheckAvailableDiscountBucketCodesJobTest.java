@@ -11,7 +11,6 @@ import it.gov.pagopa.cgn.portal.filestorage.AzureStorage;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
 import it.gov.pagopa.cgn.portal.model.DiscountEntity;
 import org.apache.commons.io.IOUtils;
-import org.awaitility.Awaitility;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,7 +20,6 @@ import org.springframework.test.context.ActiveProfiles;
 
 import java.io.IOException;
 import java.time.LocalDate;
-import java.util.concurrent.TimeUnit;
 
 @SpringBootTest
 @ActiveProfiles({"dev"})
@@ -109,7 +107,7 @@ class CheckAvailableDiscountBucketCodesJobTest extends IntegrationAbstractTest {
 
         job.execute(null);
 
-        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> notificationRepository.count() >= 1);
+        notificationOutboxPoller.poll();
 
         var notification
                 = notificationRepository.findByKey(EmailNotificationFacade.createTrackingKeyForExpirationNotification(
@@ -2,8 +2,12 @@ package it.gov.pagopa.cgn.portal.scheduler;
 
 import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
 import it.gov.pagopa.cgn.portal.enums.DiscountStateEnum;
+import it.gov.pagopa.cgn.portal.enums.JobExecutionStatusEnum;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
 import it.gov.pagopa.cgn.portal.model.DiscountEntity;
+import it.gov.pagopa.cgn.portal.model.JobPartitionEntity;
+import it.gov.pagopa.cgn.portal.repository.JobExecutionRepository;
+import it.gov.pagopa.cgn.portal.repository.JobPartitionRepository;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -31,6 +35,12 @@ class CheckExpiringDiscountsJobTest extends IntegrationAbstractTest {
     @Autowired
     private JobScheduler jobScheduler;
 
+    @Autowired
+    private JobExecutionRepository jobExecutionRepository;
+
+    @Autowired
+    private JobPartitionRepository jobPartitionRepository;
+
     @BeforeEach
     void beforeEach() {
         setAdminAuth();
@@ -52,6 +62,49 @@ class CheckExpiringDiscountsJobTest extends IntegrationAbstractTest {
         Assertions.assertEquals(DiscountStateEnum.PUBLISHED, discountEntity.getState());
     }
 
+    @Test
+    void Execute_ExecuteJobUpdateExpiringDiscount_ExecutionRecorded() {
+        AgreementTestObject testObject = createApprovedAgreement();
+        AgreementEntity agreementEntity = testObject.getAgreementEntity();
+        DiscountEntity discountEntity = testObject.getDiscountEntityList().get(0);
+        discountEntity = discountService.publishDiscount(agreementEntity.getId(), discountEntity.getId());
+        discountEntity.setEndDate(LocalDate.now().plusDays(3));
+        discountRepository.save(discountEntity);
+
+        job.execute(null);
+
+        var executions = jobExecutionRepository.findByJobNameOrderByStartTimeDesc(
+                JobRegistry.CHECK_EXPIRING_DISCOUNTS.getName());
+        Assertions.assertFalse(executions.isEmpty());
+        var execution = executions.get(0);
+        Assertions.assertEquals(JobExecutionStatusEnum.COMPLETED, execution.getStatus());
+        Assertions.assertEquals(1, execution.getItemsProcessed());
+        Assertions.assertEquals(0, execution.getErrors());
+        Assertions.assertNotNull(execution.getEndTime());
+    }
+
+    @Test
+    void Execute_ExecuteJobUpdateExpiringDiscount_AllPartitionsCompleted() {
+        AgreementTestObject testObject = createApprovedAgreement();
+        AgreementEntity agreementEntity = testObject.getAgreementEntity();
+        DiscountEntity discountEntity = testObject.getDiscountEntityList().get(0);
+        discountEntity = discountService.publishDiscount(agreementEntity.getId(), discountEntity.getId());
+        discountEntity.setEndDate(LocalDate.now().plusDays(3));
+        discountRepository.save(discountEntity);
+
+        job.execute(null);
+
+        var execution = jobExecutionRepository.findByJobNameOrderByStartTimeDesc(
+                JobRegistry.CHECK_EXPIRING_DISCOUNTS.getName()).get(0);
+        var partitions = jobPartitionRepository.findByJobExecutionIdOrderByPartitionIndex(execution.getId());
+        Assertions.assertEquals(configProperties.getJobPartitions(), partitions.size());
+        partitions.forEach(partition -> Assertions.assertEquals(JobExecutionStatusEnum.COMPLETED,
+                                                                partition.getStatus()));
+        Assertions.assertEquals(1, partitions.stream().mapToInt(JobPartitionEntity::getItemsProcessed).sum());
+        int partitionIndex = (int) (discountEntity.getId() % configProperties.getJobPartitions());
+        Assertions.assertEquals(1, partitions.get(partitionIndex).getItemsProcessed());
+    }
+
     @Test
     void Execute_ExecuteJobWithoutPublicDiscount_Ok() {
         AgreementTestObject testObject = createApprovedAgreement();
@@ -70,4 +123,22 @@ class CheckExpiringDiscountsJobTest extends IntegrationAbstractTest {
         Assertions.assertFalse(triggersOfJob.isEmpty());
         Assertions.assertNotNull(triggersOfJob.get(0).getNextFireTime());
     }
+
+    @Test
+    void Scheduler_ScheduleAllJobs_EachJobRunsItsOwnClass() throws SchedulerException {
+        jobScheduler.scheduleCheckExpiringDiscountsJob();
+        jobScheduler.scheduleCheckAvailableDiscountBucketCodesJob();
+        jobScheduler.scheduleSuspendDiscountsWithoutAvailableBucketCodesJob();
+        jobScheduler.schedulePurgeUnreferencedDocumentsJob();
+
+        Assertions.assertEquals(CheckExpiringDiscountsJob.class,
+                                quartzScheduler.getJobDetail(JobRegistry.CHECK_EXPIRING_DISCOUNTS).getJobClass());
+        Assertions.assertEquals(CheckAvailableDiscountBucketCodesJob.class,
+                                quartzScheduler.getJobDetail(JobRegistry.CHECK_AVAILABLE_BUCKET_CODES).getJobClass());
+        Assertions.assertEquals(SuspendDiscountsWithoutAvailableBucketCodesJob.class,
+                                quartzScheduler.getJobDetail(JobRegistry.SUSPEND_DISCOUNTS_WITHOUT_BUCKET_CODES)
+                                               .getJobClass());
+        Assertions.assertEquals(PurgeUnreferencedDocumentsJob.class,
+                                quartzScheduler.getJobDetail(JobRegistry.PURGE_UNREFERENCED_DOCUMENTS).getJobClass());
+    }
 }
@@ -0,0 +1,61 @@
+package it.gov.pagopa.cgn.portal.scheduler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+@RunWith(SpringRunner.class)
+public class JobExecutionTrackerTest {
+
+    private static final int BATCH_SIZE = 2;
+
+    private final List<Long> items = LongStream.rangeClosed(1, 5).boxed().collect(Collectors.toList());
+
+    @Test
+    public void ProcessInBatches_ItemsReadAfterLastKey_AllItemsProcessedInBatches() {
+        JobExecutionTracker.JobRun run = new JobExecutionTracker.JobRun("test", 1L);
+        List<List<Long>> batches = new ArrayList<>();
+
+        run.processInBatches(this::nextSlice, Long::longValue, batch -> {
+            batches.add(new ArrayList<>(batch));
+            return batch.size();
+        });
+
+        Assert.assertEquals(List.of(List.of(1L, 2L), List.of(3L, 4L), List.of(5L)), batches);
+        Assert.assertEquals(5, run.getProcessed());
+        Assert.assertEquals(0, run.getErrors());
+    }
+
+    @Test
+    public void ProcessInBatches_BatchFails_BatchCountedAsErrorsAndNextBatchesProcessed() {
+        JobExecutionTracker.JobRun run = new JobExecutionTracker.JobRun("test", 1L);
+
+        run.processInBatches(this::nextSlice, Long::longValue, batch -> {
+            if (batch.contains(3L)) {
+                throw new IllegalStateException("Batch failed");
+            }
+            return batch.size();
+        });
+
+        Assert.assertEquals(3, run.getProcessed());
+        Assert.assertEquals(2, run.getErrors());
+        Assert.assertEquals("Batch failed", run.getLastError());
+    }
+
+    private Slice<Long> nextSlice(long afterKey) {
+        List<Long> after = items.stream().filter(item -> item > afterKey).collect(Collectors.toList());
+        return new SliceImpl<>(after.subList(0, Math.min(BATCH_SIZE, after.size())),
+                               PageRequest.of(0, BATCH_SIZE),
+                               after.size() > BATCH_SIZE);
+    }
+
+}
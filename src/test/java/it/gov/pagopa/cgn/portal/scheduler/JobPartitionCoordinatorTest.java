@@ -0,0 +1,161 @@
+package it.gov.pagopa.cgn.portal.scheduler;
+
+import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
+import it.gov.pagopa.cgn.portal.enums.JobExecutionStatusEnum;
+import it.gov.pagopa.cgn.portal.exception.CGNException;
+import it.gov.pagopa.cgn.portal.model.JobExecutionEntity;
+import it.gov.pagopa.cgn.portal.model.JobPartitionEntity;
+import it.gov.pagopa.cgn.portal.repository.JobExecutionRepository;
+import it.gov.pagopa.cgn.portal.repository.JobPartitionRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@SpringBootTest
+@ActiveProfiles({"dev"})
+class JobPartitionCoordinatorTest extends IntegrationAbstractTest {
+
+    // not scheduled in quartz: no worker is started and the coordinator runs all the partitions
+    private static final JobKey TEST_JOB = JobKey.jobKey("partition-test", "test");
+
+    @Autowired
+    private JobPartitionCoordinator jobPartitionCoordinator;
+
+    @Autowired
+    private JobExecutionRepository jobExecutionRepository;
+
+    @Autowired
+    private JobPartitionRepository jobPartitionRepository;
+
+    @Test
+    void Execute_PartitionFailsOnce_PartitionRetriedAndRunCompleted() {
+        Set<Integer> failedPartitions = ConcurrentHashMap.newKeySet();
+        jobPartitionCoordinator.execute(TEST_JOB, null, (partitionIndex, partitionCount, run) -> {
+            if (partitionIndex == 0 && failedPartitions.add(partitionIndex)) {
+                throw new IllegalStateException("Database not available");
+            }
+            run.process(() -> {
+            });
+        });
+
+        var execution = jobExecutionRepository.findByJobNameOrderByStartTimeDesc(TEST_JOB.getName()).get(0);
+        Assertions.assertEquals(JobExecutionStatusEnum.COMPLETED, execution.getStatus());
+        Assertions.assertEquals(configProperties.getJobPartitions(), execution.getItemsProcessed());
+        List<JobPartitionEntity> partitions =
+                jobPartitionRepository.findByJobExecutionIdOrderByPartitionIndex(execution.getId());
+        Assertions.assertEquals(configProperties.getJobPartitions(), partitions.size());
+        Assertions.assertEquals(2, partitions.get(0).getAttempts());
+        partitions.forEach(partition -> Assertions.assertEquals(JobExecutionStatusEnum.COMPLETED,
+                                                                partition.getStatus()));
+    }
+
+    @Test
+    void Execute_PartitionAlwaysFails_RunFailedAfterLastAttempt() {
+        Assertions.assertThrows(CGNException.class,
+                                () -> jobPartitionCoordinator.execute(TEST_JOB,
+                                                                      null,
+                                                                      (partitionIndex, partitionCount, run) -> {
+                                                                          if (partitionIndex == 0) {
+                                                                              throw new IllegalStateException(
+                                                                                      "Database not available");
+                                                                          }
+                                                                      }));
+
+        var execution = jobExecutionRepository.findByJobNameOrderByStartTimeDesc(TEST_JOB.getName()).get(0);
+        Assertions.assertEquals(JobExecutionStatusEnum.FAILED, execution.getStatus());
+        JobPartitionEntity partition =
+                jobPartitionRepository.findByJobExecutionIdOrderByPartitionIndex(execution.getId()).get(0);
+        Assertions.assertEquals(JobExecutionStatusEnum.FAILED, partition.getStatus());
+        Assertions.assertEquals(configProperties.getJobPartitionMaxAttempts(), partition.getAttempts());
+        Assertions.assertEquals("Database not available", partition.getLastError());
+    }
+
+    @Test
+    void Execute_PartitionOfStoppedNode_PartitionTakenAgainAfterLeaseExpired() {
+        var execution = saveRunningExecution(OffsetDateTime.now());
+        var stale = saveRunningPartition(execution.getId(), 0, 1, OffsetDateTime.now().minusSeconds(1));
+        var exhausted = saveRunningPartition(execution.getId(),
+                                             1,
+                                             configProperties.getJobPartitionMaxAttempts(),
+                                             OffsetDateTime.now().minusSeconds(1));
+        var leased = saveRunningPartition(execution.getId(), 2, 1, OffsetDateTime.now().plusMinutes(5));
+        Set<Integer> processedPartitions = ConcurrentHashMap.newKeySet();
+
+        JobExecutionContext context = Mockito.mock(JobExecutionContext.class);
+        Mockito.when(context.getMergedJobDataMap())
+               .thenReturn(new JobDataMap(Map.of(JobPartitionCoordinator.EXECUTION_ID, execution.getId())));
+        jobPartitionCoordinator.execute(TEST_JOB,
+                                        context,
+                                        (partitionIndex, partitionCount, run) -> processedPartitions.add(
+                                                partitionIndex));
+
+        Assertions.assertEquals(Set.of(0), processedPartitions);
+        stale = jobPartitionRepository.findById(stale.getId()).orElseThrow();
+        Assertions.assertEquals(JobExecutionStatusEnum.COMPLETED, stale.getStatus());
+        Assertions.assertEquals(2, stale.getAttempts());
+        Assertions.assertNull(stale.getLeaseUntil());
+        exhausted = jobPartitionRepository.findById(exhausted.getId()).orElseThrow();
+        Assertions.assertEquals(JobExecutionStatusEnum.FAILED, exhausted.getStatus());
+        Assertions.assertEquals(configProperties.getJobPartitionMaxAttempts(), exhausted.getAttempts());
+        leased = jobPartitionRepository.findById(leased.getId()).orElseThrow();
+        Assertions.assertEquals(JobExecutionStatusEnum.RUNNING, leased.getStatus());
+        Assertions.assertEquals("dead-node", leased.getOwner());
+    }
+
+    @Test
+    void Execute_RunOfStoppedCoordinator_RunFailed() {
+        var execution = saveRunningExecution(OffsetDateTime.now()
+                                                         .minusSeconds(configProperties.getJobPartitionTimeoutSeconds())
+                                                         .minusMinutes(1));
+        var partition = saveRunningPartition(execution.getId(), 0, 1, OffsetDateTime.now().plusMinutes(5));
+
+        jobPartitionCoordinator.execute(TEST_JOB, null, (partitionIndex, partitionCount, run) -> {
+        });
+
+        Assertions.assertEquals(JobExecutionStatusEnum.FAILED,
+                                jobExecutionRepository.findById(execution.getId()).orElseThrow().getStatus());
+        Assertions.assertEquals(JobExecutionStatusEnum.FAILED,
+                                jobPartitionRepository.findById(partition.getId()).orElseThrow().getStatus());
+        Assertions.assertEquals(JobExecutionStatusEnum.COMPLETED,
+                                jobExecutionRepository.findByJobNameOrderByStartTimeDesc(TEST_JOB.getName())
+                                                      .get(0)
+                                                      .getStatus());
+    }
+
+    private JobExecutionEntity saveRunningExecution(OffsetDateTime startTime) {
+        var execution = new JobExecutionEntity();
+        execution.setJobName(TEST_JOB.getName());
+        execution.setStatus(JobExecutionStatusEnum.RUNNING);
+        execution.setStartTime(startTime);
+        return jobExecutionRepository.save(execution);
+    }
+
+    private JobPartitionEntity saveRunningPartition(Long executionId,
+                                                    int partitionIndex,
+                                                    int attempts,
+                                                    OffsetDateTime leaseUntil) {
+        var partition = new JobPartitionEntity();
+        partition.setJobExecutionId(executionId);
+        partition.setPartitionIndex(partitionIndex);
+        partition.setPartitionCount(3);
+        partition.setStatus(JobExecutionStatusEnum.RUNNING);
+        partition.setAttempts(attempts);
+        partition.setStartTime(OffsetDateTime.now().minusMinutes(10));
+        partition.setOwner("dead-node");
+        partition.setLeaseUntil(leaseUntil);
+        return jobPartitionRepository.save(partition);
+    }
+
+}
@@ -0,0 +1,78 @@
+package it.gov.pagopa.cgn.portal.scheduler;
+
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobContainerClientBuilder;
+import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
+import it.gov.pagopa.cgn.portal.TestUtils;
+import it.gov.pagopa.cgn.portal.model.AgreementEntity;
+import it.gov.pagopa.cgn.portal.model.DocumentBlobEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+
+@SpringBootTest
+@ActiveProfiles({"dev"})
+class PurgeUnreferencedDocumentsJobTest extends IntegrationAbstractTest {
+
+    @Autowired
+    private PurgeUnreferencedDocumentsJob job;
+
+    private BlobContainerClient documentContainerClient;
+
+    private AgreementEntity agreementEntity;
+
+    @BeforeEach
+    void init() {
+        documentContainerClient = new BlobContainerClientBuilder().connectionString(getAzureConnectionString())
+                                                                  .containerName(configProperties.getDocumentsContainerName())
+                                                                  .buildClient();
+        if (!documentContainerClient.exists()) {
+            documentContainerClient.create();
+        }
+        agreementEntity = agreementService.createAgreementIfNotExists(TestUtils.FAKE_ID);
+    }
+
+    @Test
+    void Execute_UnreferencedAfterRetention_BlobDeleted() {
+        long retentionHours = configProperties.getDocumentBlobRetentionHours();
+        DocumentBlobEntity expired = saveBlob("expired", 0, OffsetDateTime.now().minusHours(retentionHours + 1));
+        DocumentBlobEntity recent = saveBlob("recent", 0, OffsetDateTime.now().minusHours(1));
+        DocumentBlobEntity referenced = saveBlob("referenced", 1, null);
+
+        job.execute(null);
+
+        Assertions.assertFalse(documentBlobRepository.existsById(expired.getBlobUrl()));
+        Assertions.assertFalse(blobExists(expired));
+        Assertions.assertTrue(documentBlobRepository.existsById(recent.getBlobUrl()));
+        Assertions.assertTrue(blobExists(recent));
+        Assertions.assertTrue(documentBlobRepository.existsById(referenced.getBlobUrl()));
+        Assertions.assertTrue(blobExists(referenced));
+    }
+
+    private DocumentBlobEntity saveBlob(String contentHash, int referenceCount, OffsetDateTime unreferencedSince) {
+        String blobName = agreementEntity.getId() + "/" + contentHash + ".pdf";
+        byte[] content = contentHash.getBytes(StandardCharsets.UTF_8);
+        documentContainerClient.getBlobClient(blobName)
+                               .upload(new ByteArrayInputStream(content), content.length, true);
+        var blob = new DocumentBlobEntity();
+        blob.setBlobUrl(configProperties.getDocumentsContainerName() + "/" + blobName);
+        blob.setAgreementId(agreementEntity.getId());
+        blob.setContentHash(contentHash);
+        blob.setReferenceCount(referenceCount);
+        blob.setUnreferencedSince(unreferencedSince);
+        return documentBlobRepository.save(blob);
+    }
+
+    private boolean blobExists(DocumentBlobEntity blob) {
+        return documentContainerClient.getBlobClient(blob.getBlobUrl().substring(blob.getBlobUrl().indexOf("/") + 1))
+                                      .exists();
+    }
+
+}
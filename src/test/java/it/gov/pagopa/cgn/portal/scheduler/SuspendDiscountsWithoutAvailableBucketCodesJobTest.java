@@ -2,19 +2,25 @@ package it.gov.pagopa.cgn.portal.scheduler;
 
 import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
 import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.email.TemplateEmail;
 import it.gov.pagopa.cgn.portal.enums.DiscountStateEnum;
+import it.gov.pagopa.cgn.portal.enums.SalesChannelEnum;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
 import it.gov.pagopa.cgn.portal.model.DiscountEntity;
+import it.gov.pagopa.cgn.portal.repository.DiscountBucketCodeSummaryView;
 import lombok.extern.slf4j.Slf4j;
 import org.awaitility.Awaitility;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.io.IOException;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
@@ -92,6 +98,116 @@ class SuspendDiscountsWithoutAvailableBucketCodesJobTest extends IntegrationAbst
         Assertions.assertEquals(0, onlineMerchantEntities.size());
     }
 
+    @Test
+    void SuspendDiscountsWithExpiredBucketCodes_BatchOfPublishedDiscounts_DiscountsSuspendedAndNotified()
+            throws IOException {
+        init();
+        expireBucketCodes();
+
+        int processed = discountService.suspendDiscountsWithExpiredBucketCodes(readExpiredBatch());
+
+        Assertions.assertEquals(1, processed);
+        Assertions.assertEquals(DiscountStateEnum.SUSPENDED,
+                                discountRepository.findById(discountEntity.getId()).orElseThrow().getState());
+        Assertions.assertEquals(1, countSuspendedNotifications());
+    }
+
+    @Test
+    void SuspendDiscountsWithExpiredBucketCodes_DiscountOfBatchNotFound_OtherDiscountsSuspendedOneAtATime()
+            throws IOException {
+        init();
+        expireBucketCodes();
+        List<DiscountBucketCodeSummaryView> batch = new ArrayList<>(readExpiredBatch());
+        batch.add(unknownDiscount(batch.get(0)));
+
+        int processed = discountService.suspendDiscountsWithExpiredBucketCodes(batch);
+
+        Assertions.assertEquals(2, processed);
+        Assertions.assertEquals(DiscountStateEnum.SUSPENDED,
+                                discountRepository.findById(discountEntity.getId()).orElseThrow().getState());
+        Assertions.assertEquals(1, countSuspendedNotifications());
+    }
+
+    @Test
+    void SuspendDiscountsWithExpiredBucketCodes_DiscountAlreadySuspended_NotNotifiedAgain() throws IOException {
+        init();
+        expireBucketCodes();
+        List<DiscountBucketCodeSummaryView> batch = readExpiredBatch();
+        discountService.suspendDiscount(agreementEntity.getId(), discountEntity.getId(), "Suspended");
+
+        discountService.suspendDiscountsWithExpiredBucketCodes(batch);
+
+        var discount = discountRepository.findById(discountEntity.getId()).orElseThrow();
+        Assertions.assertEquals("Suspended", discount.getSuspendedReasonMessage());
+        Assertions.assertEquals(1, countSuspendedNotifications());
+    }
+
+    private void expireBucketCodes() {
+        discountBucketCodeSummaryRepository.findAll().forEach(s -> {
+            s.setAvailableCodes(1L);
+            s.setExpiredAt(OffsetDateTime.now()
+                                         .minusDays(configProperties.getSuspendDiscountsWithoutAvailableBucketCodesAfterDays()));
+            discountBucketCodeSummaryRepository.save(s);
+        });
+        notificationOutboxRepository.deleteAllInBatch();
+    }
+
+    private List<DiscountBucketCodeSummaryView> readExpiredBatch() {
+        OffsetDateTime thresholdDatetime = OffsetDateTime.now().minusDays(
+                configProperties.getSuspendDiscountsWithoutAvailableBucketCodesAfterDays());
+        return discountBucketCodeSummaryRepository.findPublishedExpiredWithAvailableCodesInPartition(
+                thresholdDatetime,
+                0,
+                1,
+                Long.MIN_VALUE,
+                PageRequest.of(0, 10)).getContent();
+    }
+
+    private long countSuspendedNotifications() {
+        return notificationOutboxRepository.findAll()
+                                           .stream()
+                                           .filter(n -> TemplateEmail.SUSPENDED_DISCOUNT.name().equals(n.getTemplate()))
+                                           .count();
+    }
+
+    private static DiscountBucketCodeSummaryView unknownDiscount(DiscountBucketCodeSummaryView summary) {
+        return new DiscountBucketCodeSummaryView() {
+            @Override
+            public Long getDiscountId() {
+                return -1L;
+            }
+
+            @Override
+            public String getDiscountName() {
+                return "Unknown discount";
+            }
+
+            @Override
+            public String getAgreementId() {
+                return summary.getAgreementId();
+            }
+
+            @Override
+            public Long getAvailableCodes() {
+                return 1L;
+            }
+
+            @Override
+            public String getReferentEmailAddress() {
+                return summary.getReferentEmailAddress();
+            }
+
+            @Override
+            public String getLastBucketCodeLoadUid() {
+                return null;
+            }
+
+            @Override
+            public SalesChannelEnum getSalesChannel() {
+                return summary.getSalesChannel();
+            }
+        };
+    }
 
     private void init() throws IOException {
         setAdminAuth();
@@ -0,0 +1,101 @@
+package it.gov.pagopa.cgn.portal.service;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.filter.BackofficeFilter;
+import it.gov.pagopa.cgn.portal.service.BackofficeListCache.BackofficeList;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(SpringRunner.class)
+public class BackofficeListCacheTest {
+
+    private final ConfigProperties configProperties = Mockito.mock(ConfigProperties.class);
+
+    private MeterRegistry meterRegistry;
+
+    private BackofficeListCache backofficeListCache;
+
+    @Before
+    public void init() {
+        Mockito.when(configProperties.getBackofficeListCacheTtlSeconds()).thenReturn(60L);
+        Mockito.when(configProperties.getBackofficeListCacheMaxEntries()).thenReturn(2);
+        meterRegistry = new SimpleMeterRegistry();
+        backofficeListCache = new BackofficeListCache(configProperties, meterRegistry);
+    }
+
+    @Test
+    public void Get_SameFilter_LoadedOnce() {
+        AtomicInteger loads = new AtomicInteger();
+        BackofficeFilter filter = BackofficeFilter.builder().profileFullName("Merchant").page(0).pageSize(20).build();
+        BackofficeFilter sameFilter = BackofficeFilter.builder().profileFullName("MERCHANT").page(0).pageSize(20).build();
+
+        backofficeListCache.get(BackofficeList.AGREEMENT_REQUESTS, "admin", filter, loads::incrementAndGet);
+        Object cached = backofficeListCache.get(BackofficeList.AGREEMENT_REQUESTS, "admin", sameFilter,
+                                                loads::incrementAndGet);
+
+        Assert.assertEquals(1, cached);
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.backoffice.list.cache.hits").counter().count(), 0);
+    }
+
+    @Test
+    public void Get_OtherAdminUser_LoadedAgain() {
+        AtomicInteger loads = new AtomicInteger();
+        BackofficeFilter filter = BackofficeFilter.builder().page(0).pageSize(20).build();
+
+        backofficeListCache.get(BackofficeList.AGREEMENT_REQUESTS, "admin", filter, loads::incrementAndGet);
+        backofficeListCache.get(BackofficeList.AGREEMENT_REQUESTS, "other", filter, loads::incrementAndGet);
+
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void Invalidate_AgreementRequests_OnlyRequestsDropped() {
+        BackofficeFilter filter = BackofficeFilter.builder().page(0).pageSize(20).build();
+        backofficeListCache.get(BackofficeList.AGREEMENT_REQUESTS, "admin", filter, () -> "requests");
+        backofficeListCache.get(BackofficeList.APPROVED_AGREEMENTS, "admin", filter, () -> "approved");
+
+        backofficeListCache.invalidate(BackofficeList.AGREEMENT_REQUESTS);
+
+        Assert.assertEquals(1, backofficeListCache.size());
+        Assert.assertEquals("approved",
+                            backofficeListCache.get(BackofficeList.APPROVED_AGREEMENTS, "admin", filter, () -> "new"));
+        Assert.assertEquals("new",
+                            backofficeListCache.get(BackofficeList.AGREEMENT_REQUESTS, "admin", filter, () -> "new"));
+    }
+
+    @Test
+    public void Get_InvalidatedWhileLoading_NotCached() {
+        BackofficeFilter filter = BackofficeFilter.builder().page(0).pageSize(20).build();
+
+        backofficeListCache.get(BackofficeList.AGREEMENT_REQUESTS, "admin", filter, () -> {
+            backofficeListCache.invalidate(BackofficeList.AGREEMENT_REQUESTS);
+            return "stale";
+        });
+
+        Assert.assertEquals(0, backofficeListCache.size());
+    }
+
+    @Test
+    public void Get_ZeroTtl_NeverCached() {
+        Mockito.when(configProperties.getBackofficeListCacheTtlSeconds()).thenReturn(0L);
+        BackofficeListCache disabledCache = new BackofficeListCache(configProperties, new SimpleMeterRegistry());
+        AtomicInteger loads = new AtomicInteger();
+        BackofficeFilter filter = BackofficeFilter.builder().page(0).pageSize(20).build();
+
+        disabledCache.get(BackofficeList.AGREEMENT_REQUESTS, "admin", filter, loads::incrementAndGet);
+        disabledCache.get(BackofficeList.AGREEMENT_REQUESTS, "admin", filter, loads::incrementAndGet);
+
+        Assert.assertEquals(2, loads.get());
+        Assert.assertEquals(0, disabledCache.size());
+    }
+
+}
@@ -6,8 +6,10 @@ import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
 import it.gov.pagopa.cgn.portal.TestUtils;
 import it.gov.pagopa.cgn.portal.config.ConfigProperties;
 import it.gov.pagopa.cgn.portal.email.EmailNotificationFacade;
+import it.gov.pagopa.cgn.portal.email.TemplateEmail;
 import it.gov.pagopa.cgn.portal.enums.BucketCodeExpiringThresholdEnum;
 import it.gov.pagopa.cgn.portal.enums.BucketCodeLoadStatusEnum;
+import it.gov.pagopa.cgn.portal.enums.SalesChannelEnum;
 import it.gov.pagopa.cgn.portal.filestorage.AzureStorage;
 import it.gov.pagopa.cgn.portal.model.*;
 import it.gov.pagopa.cgn.portal.repository.*;
@@ -23,8 +25,11 @@ import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.io.IOException;
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @SpringBootTest
 @ActiveProfiles("dev")
@@ -303,7 +308,7 @@ class BucketServiceTest extends IntegrationAbstractTest {
     }
 
     @Test
-    void CheckDiscountBucketCodeSummaryExpirationAndSendNotification_BucketNotLoaded_NoNotifications() throws
+    void CheckDiscountBucketCodeSummariesExpirationAndSendNotification_BucketNotLoaded_NoNotifications() throws
             IOException {
         DiscountEntity discountEntity = TestUtils.createSampleDiscountEntityWithBucketCodes(agreementEntity);
         discountRepository.save(discountEntity);
@@ -321,14 +326,16 @@ class BucketServiceTest extends IntegrationAbstractTest {
         var discountBucketCodeSummaryEntity = discountBucketCodeSummaryRepository.findByDiscount(discountEntity);
         Assertions.assertEquals(0, discountBucketCodeSummaryEntity.getAvailableCodes());
 
-        var notificationRequired = bucketService.checkDiscountBucketCodeSummaryExpirationAndSendNotification(
-                discountBucketCodeSummaryEntity);
+        long queued = notificationOutboxRepository.count();
+        int checked = bucketService.checkDiscountBucketCodeSummariesExpirationAndSendNotification(List.of(
+                summaryOf(discountEntity)));
         // no notification should be sent because bucket has not been loaded yet
-        Assertions.assertFalse(notificationRequired);
+        Assertions.assertEquals(1, checked);
+        Assertions.assertEquals(queued, notificationOutboxRepository.count());
     }
 
     @Test
-    void CheckDiscountBucketCodeSummaryExpirationAndSendNotification_NotificationNotSent() throws IOException {
+    void CheckDiscountBucketCodeSummariesExpirationAndSendNotification_NotificationNotSent() throws IOException {
         DiscountEntity discountEntity = TestUtils.createSampleDiscountEntityWithBucketCodes(agreementEntity);
         discountRepository.save(discountEntity);
 
@@ -343,60 +350,79 @@ class BucketServiceTest extends IntegrationAbstractTest {
 
         Assertions.assertTrue(bucketService.checkBucketLoadUID(discountEntity.getLastBucketCodeLoad().getUid()));
 
-        var discountBucketCodeSummaryEntity = discountBucketCodeSummaryRepository.findByDiscount(discountEntity);
-        var notificationRequired = bucketService.checkDiscountBucketCodeSummaryExpirationAndSendNotification(
-                discountBucketCodeSummaryEntity);
+        long queued = notificationOutboxRepository.count();
+        bucketService.checkDiscountBucketCodeSummariesExpirationAndSendNotification(List.of(summaryOf(discountEntity)));
 
         // no notification should be sent because all codes are available
-        Assertions.assertFalse(notificationRequired);
+        Assertions.assertEquals(queued, notificationOutboxRepository.count());
     }
 
     @Test
-    void CheckDiscountBucketCodeSummaryExpirationAndSendNotification_Percent50notificationRequired() throws
+    void CheckDiscountBucketCodeSummariesExpirationAndSendNotification_Percent50notificationRequired() throws
             IOException {
         var discountEntity = setupDiscount();
-        var notificationRequired = testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_50);
-        Assertions.assertTrue(notificationRequired);
+        testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_50);
     }
 
     @Test
-    void CheckDiscountBucketCodeSummaryExpirationAndSendNotification_Percent25notificationRequired() throws
+    void CheckDiscountBucketCodeSummariesExpirationAndSendNotification_Percent25notificationRequired() throws
             IOException {
         var discountEntity = setupDiscount();
-        var notificationRequired = testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_25);
-        Assertions.assertTrue(notificationRequired);
+        testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_25);
+    }
+
+    @Test
+    void DeleteSentBefore_NotificationsOfLastBucketCodeLoad_Kept() {
+        DiscountEntity discountEntity = TestUtils.createSampleDiscountEntityWithBucketCodes(agreementEntity);
+        discountRepository.save(discountEntity);
+        bucketService.createPendingBucketLoad(discountEntity);
+
+        String liveKey = EmailNotificationFacade.createTrackingKeyForExpirationNotification(
+                discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_50);
+        String staleKey = EmailNotificationFacade.createTrackingKeyForExpirationNotification(
+                discountEntity.getId(),
+                TestUtils.generateDiscountBucketCodeUid(),
+                BucketCodeExpiringThresholdEnum.PERCENT_50);
+        List<NotificationEntity> notifications = Stream.of(liveKey, staleKey, "other-key").map(key -> {
+            NotificationEntity notification = new NotificationEntity(key);
+            notification.setSentAt(OffsetDateTime.now().minusYears(2));
+            return notification;
+        }).collect(Collectors.toList());
+        notificationRepository.bulkUpsert(notifications);
+
+        Assertions.assertEquals(2, notificationRepository.deleteSentBefore(OffsetDateTime.now().minusYears(1), 10));
+        Assertions.assertNotNull(notificationRepository.findByKey(liveKey));
+        Assertions.assertNull(notificationRepository.findByKey(staleKey));
+        Assertions.assertNull(notificationRepository.findByKey("other-key"));
     }
 
     @Test
-    void CheckDiscountBucketCodeSummaryExpirationAndSendNotification_Percent10notificationRequired() throws
+    void CheckDiscountBucketCodeSummariesExpirationAndSendNotification_Percent10notificationRequired() throws
             IOException {
         var discountEntity = setupDiscount();
-        var notificationRequired = testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_10);
-        Assertions.assertTrue(notificationRequired);
+        testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_10);
     }
 
     @Test
-    void CheckDiscountBucketCodeSummaryExpirationAndSendNotification_Percent0notificationRequired() throws IOException {
+    void CheckDiscountBucketCodeSummariesExpirationAndSendNotification_Percent0notificationRequired() throws
+            IOException {
         var discountEntity = setupDiscount();
-        var notificationRequired = testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_0);
-        Assertions.assertTrue(notificationRequired);
+        testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_0);
         var discountBucketCodeSummaryEntity = discountBucketCodeSummaryRepository.findByDiscount(discountEntity);
         Assertions.assertNotNull(discountBucketCodeSummaryEntity.getExpiredAt());
     }
 
     @Test
-    void CheckDiscountBucketCodeSummaryExpirationAndSendNotification_NoDoubleNotification() throws IOException {
+    void CheckDiscountBucketCodeSummariesExpirationAndSendNotification_NoDoubleNotification() throws IOException {
         var discountEntity = setupDiscount();
 
-        var notificationRequired = testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_0);
-        Assertions.assertTrue(notificationRequired);
+        testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_0);
         var firstNotification
                 = notificationRepository.findByKey(EmailNotificationFacade.createTrackingKeyForExpirationNotification(
                 discountEntity,
                 BucketCodeExpiringThresholdEnum.PERCENT_0));
 
-        notificationRequired = testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_0);
-        Assertions.assertTrue(notificationRequired);
+        testNotification(discountEntity, BucketCodeExpiringThresholdEnum.PERCENT_0);
         var secondNotification
                 = notificationRepository.findByKey(EmailNotificationFacade.createTrackingKeyForExpirationNotification(
                 discountEntity,
@@ -407,6 +433,39 @@ class BucketServiceTest extends IntegrationAbstractTest {
         Assertions.assertEquals(firstNotification, secondNotification);
     }
 
+    @Test
+    void CheckDiscountBucketCodeSummariesExpirationAndSendNotification_SeveralDiscounts_EachCheckedWithItsCodes()
+            throws IOException {
+        var expiredDiscount = setupDiscount();
+        var expiringDiscount = setupDiscount();
+        var untouchedDiscount = setupDiscount();
+        burnBucketCodesToLeaveLessThanThresholdCodes(BucketCodeExpiringThresholdEnum.PERCENT_0, expiredDiscount);
+        burnBucketCodesToLeaveLessThanThresholdCodes(BucketCodeExpiringThresholdEnum.PERCENT_50, expiringDiscount);
+
+        int checked = bucketService.checkDiscountBucketCodeSummariesExpirationAndSendNotification(List.of(
+                summaryOf(expiredDiscount),
+                summaryOf(expiringDiscount),
+                summaryOf(untouchedDiscount)));
+
+        Assertions.assertEquals(3, checked);
+        Assertions.assertNotNull(discountBucketCodeSummaryRepository.findByDiscount(expiredDiscount).getExpiredAt());
+        Assertions.assertNull(discountBucketCodeSummaryRepository.findByDiscount(expiringDiscount).getExpiredAt());
+        Assertions.assertNull(discountBucketCodeSummaryRepository.findByDiscount(untouchedDiscount).getExpiredAt());
+
+        var notifications = notificationOutboxRepository.findAll()
+                                                        .stream()
+                                                        .filter(notification -> notification.getTemplate()
+                                                                                            .endsWith("_BUCKET_CODES"))
+                                                        .collect(Collectors.toList());
+        Assertions.assertEquals(2, notifications.size());
+        var expired = findByTrackingKey(notifications, expiredDiscount, BucketCodeExpiringThresholdEnum.PERCENT_0);
+        Assertions.assertEquals(TemplateEmail.EXPIRED_BUCKET_CODES.name(), expired.getTemplate());
+        var expiring = findByTrackingKey(notifications, expiringDiscount, BucketCodeExpiringThresholdEnum.PERCENT_50);
+        Assertions.assertEquals(TemplateEmail.EXPIRING_BUCKET_CODES.name(), expiring.getTemplate());
+        // the codes left are counted for each discount of the batch
+        Assertions.assertTrue(expiring.getTemplateVariables().contains("\"missing_codes\":5"));
+    }
+
     private DiscountEntity setupDiscount() throws IOException {
         DiscountEntity discountEntity = TestUtils.createSampleDiscountEntityWithBucketCodes(agreementEntity);
         discountRepository.save(discountEntity);
@@ -431,23 +490,74 @@ class BucketServiceTest extends IntegrationAbstractTest {
         return discountEntity;
     }
 
-    private boolean testNotification(DiscountEntity discountEntity, BucketCodeExpiringThresholdEnum threshold) {
+    private void testNotification(DiscountEntity discountEntity, BucketCodeExpiringThresholdEnum threshold) {
         var discountBucketCodeSummaryEntity = discountBucketCodeSummaryRepository.findByDiscount(discountEntity);
         Assertions.assertEquals(10, discountBucketCodeSummaryEntity.getAvailableCodes());
 
         burnBucketCodesToLeaveLessThanThresholdCodes(threshold, discountEntity);
 
-        var notificationRequired = bucketService.checkDiscountBucketCodeSummaryExpirationAndSendNotification(
-                discountBucketCodeSummaryEntity);
+        bucketService.checkDiscountBucketCodeSummariesExpirationAndSendNotification(List.of(summaryOf(discountEntity)));
 
-        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> notificationRepository.count() >= 1);
+        notificationOutboxPoller.poll();
 
         var notification
                 = notificationRepository.findByKey(EmailNotificationFacade.createTrackingKeyForExpirationNotification(
                 discountEntity,
                 threshold));
         Assertions.assertNotNull(notification);
+    }
+
+    private static NotificationOutboxEntity findByTrackingKey(List<NotificationOutboxEntity> notifications,
+                                                              DiscountEntity discountEntity,
+                                                              BucketCodeExpiringThresholdEnum threshold) {
+        String trackingKey = EmailNotificationFacade.createTrackingKeyForExpirationNotification(discountEntity,
+                                                                                              threshold);
+        return notifications.stream()
+                            .filter(notification -> trackingKey.equals(notification.getTrackingKey()))
+                            .findFirst()
+                            .orElseThrow();
+    }
 
-        return notificationRequired;
+    /**
+     * The summary of the discount as read by the job, which only reads the published discounts.
+     */
+    private DiscountBucketCodeSummaryView summaryOf(DiscountEntity discountEntity) {
+        var summary = discountBucketCodeSummaryRepository.findByDiscount(discountEntity);
+        return new DiscountBucketCodeSummaryView() {
+            @Override
+            public Long getDiscountId() {
+                return discountEntity.getId();
+            }
+
+            @Override
+            public String getDiscountName() {
+                return discountEntity.getName();
+            }
+
+            @Override
+            public String getAgreementId() {
+                return agreementEntity.getId();
+            }
+
+            @Override
+            public Long getAvailableCodes() {
+                return summary.getAvailableCodes();
+            }
+
+            @Override
+            public String getReferentEmailAddress() {
+                return "referent@pagopa.it";
+            }
+
+            @Override
+            public String getLastBucketCodeLoadUid() {
+                return discountEntity.getLastBucketCodeLoad().getUid();
+            }
+
+            @Override
+            public SalesChannelEnum getSalesChannel() {
+                return SalesChannelEnum.ONLINE;
+            }
+        };
     }
 }
@@ -0,0 +1,123 @@
+package it.gov.pagopa.cgn.portal.service;
+
+import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
+import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
+import it.gov.pagopa.cgn.portal.filter.BackofficeFilter;
+import it.gov.pagopa.cgn.portal.model.AgreementEntity;
+import it.gov.pagopa.cgn.portal.pdf.RenderedDocumentCache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.Resource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+@SpringBootTest
+@ActiveProfiles("dev")
+class DocumentBundleServiceTest extends IntegrationAbstractTest {
+
+    @Autowired
+    private DocumentBundleService documentBundleService;
+
+    @Autowired
+    private RenderedDocumentCache renderedDocumentCache;
+
+    @BeforeEach
+    void beforeEach() {
+        setAdminAuth();
+    }
+
+    @Test
+    void CreateBundle_AgreementIds_AllDocumentsBundled() throws IOException {
+        List<String> agreementIds = createMultiplePendingAgreement(3).stream()
+                                                                     .map(o -> o.getAgreementEntity().getId())
+                                                                     .collect(Collectors.toList());
+
+        Resource bundle = documentBundleService.createDocumentBundle(agreementIds);
+
+        Set<String> expected = agreementIds.stream()
+                                           .flatMap(id -> List.of(id + "/agreement.pdf",
+                                                                  id + "/adhesion_request.pdf").stream())
+                                           .collect(Collectors.toSet());
+        Assertions.assertEquals(expected, readEntryNames(bundle));
+    }
+
+    @Test
+    void CreateBundle_FilteredAgreements_AllDocumentsBundled() throws IOException {
+        AgreementEntity pendingAgreement = createPendingAgreement().getAgreementEntity();
+        BackofficeFilter filter = BackofficeFilter.getDocumentBundleFilter(null, null, null, null, null, 10);
+
+        List<String> agreementIds = backofficeAgreementService.getAgreementIds(filter);
+        Assertions.assertEquals(List.of(pendingAgreement.getId()), agreementIds);
+
+        Resource bundle = documentBundleService.createDocumentBundle(agreementIds);
+        Assertions.assertEquals(Set.of(pendingAgreement.getId() + "/agreement.pdf",
+                                       pendingAgreement.getId() + "/adhesion_request.pdf"), readEntryNames(bundle));
+    }
+
+    @Test
+    void CreateBundle_TooManyAgreements_ThrowInvalidRequestException() {
+        ReflectionTestUtils.setField(configProperties, "pdfBundleMaxAgreements", 1);
+        try {
+            Assertions.assertThrows(InvalidRequestException.class,
+                                    () -> documentBundleService.createDocumentBundle(List.of("a", "b")));
+        } finally {
+            ReflectionTestUtils.setField(configProperties, "pdfBundleMaxAgreements", 100);
+        }
+    }
+
+    @Test
+    void CreateBundle_FilterMatchesTooManyAgreements_ThrowInvalidRequestException() {
+        createMultiplePendingAgreement(2);
+        BackofficeFilter filter = BackofficeFilter.getDocumentBundleFilter(null, null, null, null, null, 1);
+        ReflectionTestUtils.setField(configProperties, "pdfBundleMaxAgreements", 1);
+        try {
+            List<String> agreementIds = backofficeAgreementService.getAgreementIds(filter);
+            Assertions.assertEquals(2, agreementIds.size());
+            Assertions.assertThrows(InvalidRequestException.class,
+                                    () -> documentBundleService.createDocumentBundle(agreementIds));
+        } finally {
+            ReflectionTestUtils.setField(configProperties, "pdfBundleMaxAgreements", 100);
+        }
+    }
+
+    @Test
+    void CreateBundle_UnknownAgreement_ThrowInvalidRequestException() {
+        Assertions.assertThrows(InvalidRequestException.class,
+                                () -> documentBundleService.createDocumentBundle(List.of("unknown")));
+    }
+
+    @Test
+    void CreateBundle_AgreementIds_RenderedDocumentsNotCached() throws IOException {
+        String agreementId = createPendingAgreement().getAgreementEntity().getId();
+        int cached = renderedDocumentCache.size();
+
+        readEntryNames(documentBundleService.createDocumentBundle(List.of(agreementId)));
+
+        Assertions.assertEquals(cached, renderedDocumentCache.size());
+    }
+
+    private Set<String> readEntryNames(Resource bundle) throws IOException {
+        Set<String> names = new HashSet<>();
+        try (InputStream is = bundle.getInputStream(); ZipInputStream zip = new ZipInputStream(is)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                Assertions.assertTrue(zip.readAllBytes().length > 0);
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+}
@@ -14,8 +14,12 @@ import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
 import it.gov.pagopa.cgn.portal.filestorage.AzureStorage;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
 import it.gov.pagopa.cgn.portal.model.DiscountEntity;
+import it.gov.pagopa.cgn.portal.model.DocumentBlobEntity;
 import it.gov.pagopa.cgn.portal.model.DocumentEntity;
 import it.gov.pagopa.cgn.portal.model.ProfileEntity;
+import it.gov.pagopa.cgn.portal.model.ReferentEntity;
+import it.gov.pagopa.cgn.portal.pdf.RenderedDocument;
+import it.gov.pagopa.cgn.portal.pdf.RenderedDocumentCache;
 import it.gov.pagopa.cgn.portal.repository.AddressRepository;
 import it.gov.pagopa.cgn.portal.support.TestReferentRepository;
 import org.apache.commons.io.IOUtils;
@@ -26,9 +30,12 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 
 import java.io.ByteArrayInputStream;
@@ -56,6 +63,12 @@ class DocumentServiceTest extends IntegrationAbstractTest {
     @Autowired
     private AzureStorage azureStorage;
 
+    @Autowired
+    private RenderedDocumentCache renderedDocumentCache;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     private BlobContainerClient documentContainerClient;
 
     private AgreementEntity agreementEntity;
@@ -108,21 +121,57 @@ class DocumentServiceTest extends IntegrationAbstractTest {
 
         DocumentEntity documentEntity = documentService.storeDocument(agreementEntity.getId(),
                                                                       DocumentTypeEnum.AGREEMENT,
-                                                                      new ByteArrayInputStream(content),
+                                                                      new ByteArrayResource(content),
                                                                       content.length);
 
         Assertions.assertEquals(agreementEntity.getId(), documentEntity.getAgreement().getId());
         Assertions.assertEquals(DocumentTypeEnum.AGREEMENT, documentEntity.getDocumentType());
         Assertions.assertTrue(documentEntity.getDocumentUrl().length() > 0);
 
-        BlobClient client = documentContainerClient.getBlobClient(agreementEntity.getId() +
-                                                                  "/" +
-                                                                  DocumentTypeEnum.AGREEMENT.getCode().toLowerCase() +
-                                                                  ".pdf");
+        String blobName = documentEntity.getDocumentUrl()
+                                        .substring(documentEntity.getDocumentUrl().indexOf("/") + 1);
+        BlobClient client = documentContainerClient.getBlobClient(blobName);
 
         Assertions.assertArrayEquals(content, IOUtils.toByteArray(client.openInputStream()));
     }
 
+    @Test
+    void Upload_UploadSameContentTwice_BlobIsShared() {
+        byte[] content = "pdf-document".getBytes(StandardCharsets.UTF_8);
+
+        DocumentEntity agreement = documentService.storeDocument(agreementEntity.getId(),
+                                                                 DocumentTypeEnum.AGREEMENT,
+                                                                 new ByteArrayResource(content),
+                                                                 content.length);
+        DocumentEntity backofficeAgreement = documentService.storeDocument(agreementEntity.getId(),
+                                                                           DocumentTypeEnum.BACKOFFICE_AGREEMENT,
+                                                                           new ByteArrayResource(content),
+                                                                           content.length);
+
+        Assertions.assertEquals(agreement.getDocumentUrl(), backofficeAgreement.getDocumentUrl());
+        DocumentBlobEntity blob = documentBlobRepository.findById(agreement.getDocumentUrl()).orElseThrow();
+        Assertions.assertEquals(2, blob.getReferenceCount());
+
+        documentService.resetAllDocuments(agreementEntity.getId());
+
+        blob = documentBlobRepository.findById(agreement.getDocumentUrl()).orElseThrow();
+        Assertions.assertEquals(0, blob.getReferenceCount());
+        Assertions.assertNotNull(blob.getUnreferencedSince());
+        // unreferenced blobs are kept for the retention period
+        Assertions.assertTrue(documentContainerClient.getBlobClient(blob.getBlobUrl()
+                                                                        .substring(blob.getBlobUrl().indexOf("/") + 1))
+                                                     .exists());
+
+        documentService.storeDocument(agreementEntity.getId(),
+                                      DocumentTypeEnum.AGREEMENT,
+                                      new ByteArrayResource(content),
+                                      content.length);
+        Assertions.assertEquals(1,
+                                documentBlobRepository.findById(agreement.getDocumentUrl())
+                                                      .orElseThrow()
+                                                      .getReferenceCount());
+    }
+
     @Test
     void Upload_UploadBucketWithValidData_Ok() throws IOException {
         setProfileDiscountType(DiscountCodeTypeEnum.BUCKET);
@@ -169,7 +218,7 @@ class DocumentServiceTest extends IntegrationAbstractTest {
 
         documentService.storeDocument(agreementEntity.getId(),
                                       DocumentTypeEnum.AGREEMENT,
-                                      new ByteArrayInputStream(content),
+                                      new ByteArrayResource(content),
                                       content.length);
         long deleteDocument = documentService.deleteDocument(agreementEntity.getId(), DocumentTypeEnum.AGREEMENT);
         Assertions.assertEquals(1, deleteDocument);
@@ -187,7 +236,8 @@ class DocumentServiceTest extends IntegrationAbstractTest {
     @Test
     void Get_GenerateAgreementDocument_Ok() throws Exception {
         PDDocument document = PDDocument.load(documentService.renderDocument(agreementEntity.getId(),
-                                                                             DocumentTypeEnum.AGREEMENT).toByteArray());
+                                                                             DocumentTypeEnum.AGREEMENT)
+                                                              .getInputStream());
 
         PDFTextStripper stripper = new PDFTextStripper();
         String actual = stripper.getText(document);
@@ -204,7 +254,7 @@ class DocumentServiceTest extends IntegrationAbstractTest {
 
         PDDocument document = PDDocument.load(documentService.renderDocument(agreementEntity.getId(),
                                                                              DocumentTypeEnum.ADHESION_REQUEST)
-                                                             .toByteArray());
+                                                              .getInputStream());
 
         PDFTextStripper stripper = new PDFTextStripper();
         String actual = stripper.getText(document);
@@ -221,7 +271,7 @@ class DocumentServiceTest extends IntegrationAbstractTest {
         discountService.createDiscount(agreementEntity.getId(), discountEntity);
         PDDocument document = PDDocument.load(documentService.renderDocument(agreementEntity.getId(),
                                                                              DocumentTypeEnum.ADHESION_REQUEST)
-                                                             .toByteArray());
+                                                              .getInputStream());
 
         PDFTextStripper stripper = new PDFTextStripper();
         String actual = stripper.getText(document);
@@ -238,7 +288,7 @@ class DocumentServiceTest extends IntegrationAbstractTest {
         discountService.createDiscount(agreementEntity.getId(), discountEntity);
         PDDocument document = PDDocument.load(documentService.renderDocument(agreementEntity.getId(),
                                                                              DocumentTypeEnum.ADHESION_REQUEST)
-                                                             .toByteArray());
+                                                              .getInputStream());
 
         PDFTextStripper stripper = new PDFTextStripper();
         String actual = stripper.getText(document);
@@ -255,7 +305,7 @@ class DocumentServiceTest extends IntegrationAbstractTest {
         discountService.createDiscount(agreementEntity.getId(), discountEntity);
         PDDocument document = PDDocument.load(documentService.renderDocument(agreementEntity.getId(),
                                                                              DocumentTypeEnum.ADHESION_REQUEST)
-                                                             .toByteArray());
+                                                              .getInputStream());
 
         PDFTextStripper stripper = new PDFTextStripper();
         String actual = stripper.getText(document);
@@ -274,7 +324,7 @@ class DocumentServiceTest extends IntegrationAbstractTest {
         discountService.createDiscount(agreementEntity.getId(), discountEntity);
         PDDocument document = PDDocument.load(documentService.renderDocument(agreementEntity.getId(),
                                                                              DocumentTypeEnum.ADHESION_REQUEST)
-                                                             .toByteArray());
+                                                              .getInputStream());
 
         PDFTextStripper stripper = new PDFTextStripper();
         String actual = stripper.getText(document);
@@ -295,7 +345,7 @@ class DocumentServiceTest extends IntegrationAbstractTest {
         discountService.createDiscount(agreementEntity.getId(), discountEntity);
         PDDocument document = PDDocument.load(documentService.renderDocument(agreementEntity.getId(),
                                                                              DocumentTypeEnum.ADHESION_REQUEST)
-                                                             .toByteArray());
+                                                              .getInputStream());
 
         PDFTextStripper stripper = new PDFTextStripper();
         String actual = stripper.getText(document);
@@ -303,6 +353,73 @@ class DocumentServiceTest extends IntegrationAbstractTest {
 
     }
 
+    @Test
+    void Get_RenderedDocumentNotChanged_CachedDocumentReturned() {
+        RenderedDocument first = documentService.getRenderedDocument(agreementEntity.getId(),
+                                                                     DocumentTypeEnum.AGREEMENT);
+        RenderedDocument second = documentService.getRenderedDocument(agreementEntity.getId(),
+                                                                      DocumentTypeEnum.AGREEMENT);
+        Assertions.assertSame(first, second);
+        Assertions.assertNotNull(first.getETag());
+    }
+
+    @Test
+    void Get_RenderedDocumentAfterDiscountCreated_DocumentRenderedAgain() throws IOException {
+        RenderedDocument first = documentService.getRenderedDocument(agreementEntity.getId(),
+                                                                     DocumentTypeEnum.ADHESION_REQUEST);
+
+        DiscountEntity discountEntity = TestUtils.createSampleDiscountEntity(agreementEntity);
+        discountService.createDiscount(agreementEntity.getId(), discountEntity);
+
+        RenderedDocument second = documentService.getRenderedDocument(agreementEntity.getId(),
+                                                                      DocumentTypeEnum.ADHESION_REQUEST);
+        Assertions.assertNotEquals(first.getVersion(), second.getVersion());
+        Assertions.assertNotEquals(first.getETag(), second.getETag());
+
+        PDDocument document = PDDocument.load(second.getContent().getInputStream());
+        GenerateAdhesionRequestAssertions(new PDFTextStripper().getText(document));
+    }
+
+    @Test
+    void Get_RenderedDocumentAfterReferentChanged_DocumentRenderedAgain() {
+        RenderedDocument first = documentService.getRenderedDocument(agreementEntity.getId(),
+                                                                     DocumentTypeEnum.ADHESION_REQUEST);
+
+        // changed without going through the profile service, so the rendering is not evicted
+        ProfileEntity profileEntity = profileService.getProfile(agreementEntity.getId()).orElseThrow();
+        ReferentEntity referent = testReferentRepository.findByProfileId(profileEntity.getId());
+        referent.setRole("CTO");
+        testReferentRepository.save(referent);
+
+        RenderedDocument second = documentService.getRenderedDocument(agreementEntity.getId(),
+                                                                      DocumentTypeEnum.ADHESION_REQUEST);
+        Assertions.assertNotEquals(first.getVersion(), second.getVersion());
+        Assertions.assertNotEquals(first.getETag(), second.getETag());
+    }
+
+    @Test
+    void Get_RenderedDocumentOfUnknownAgreement_ThrowInvalidRequestException() {
+        Assertions.assertThrows(InvalidRequestException.class,
+                                () -> documentService.getRenderedDocument("unknown", DocumentTypeEnum.AGREEMENT));
+    }
+
+    @Test
+    void Evict_InsideTransaction_DocumentEvictedAfterCommit() {
+        RenderedDocument document = documentService.getRenderedDocument(agreementEntity.getId(),
+                                                                        DocumentTypeEnum.AGREEMENT);
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            documentService.evictRenderedDocuments(agreementEntity.getId());
+            Assertions.assertTrue(renderedDocumentCache.getIfValid(agreementEntity.getId(),
+                                                                   DocumentTypeEnum.AGREEMENT,
+                                                                   document.getVersion()).isPresent());
+        });
+
+        Assertions.assertTrue(renderedDocumentCache.getIfValid(agreementEntity.getId(),
+                                                               DocumentTypeEnum.AGREEMENT,
+                                                               document.getVersion()).isEmpty());
+    }
+
     private void GenerateAdhesionRequestAssertions(String actual) {
         Assertions.assertTrue(actual.contains("Allegato 1"));
         Assertions.assertTrue(actual.contains("DOMANDA DI"));
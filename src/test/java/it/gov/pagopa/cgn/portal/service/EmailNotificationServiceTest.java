@@ -1,25 +1,33 @@
 package it.gov.pagopa.cgn.portal.service;
 
 import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.email.EmailDispatcher;
 import it.gov.pagopa.cgn.portal.email.EmailNotificationService;
 import it.gov.pagopa.cgn.portal.email.EmailParams;
+import it.gov.pagopa.cgn.portal.email.NotificationTracker;
 import it.gov.pagopa.cgn.portal.model.NotificationEntity;
 import it.gov.pagopa.cgn.portal.repository.NotificationRepository;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.core.io.Resource;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.test.context.ActiveProfiles;
 
 import javax.mail.MessagingException;
 import javax.mail.Session;
+import javax.mail.util.ByteArrayDataSource;
 import javax.mail.internet.MimeMessage;
 import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.Optional;
 
 @SpringBootTest
@@ -31,13 +39,15 @@ class EmailNotificationServiceTest extends IntegrationAbstractTest {
 
     private final JavaMailSender javaMailSenderMock;
 
+    private final NotificationTracker notificationTracker;
+
     private final EmailNotificationService emailNotificationService;
 
     private final EmailParams emailParams;
 
     private final MimeMessage expectedMimeMessage;
 
-    ArgumentCaptor<NotificationEntity> argument;
+    ArgumentCaptor<List<NotificationEntity>> argument;
 
     public EmailNotificationServiceTest() {
 
@@ -48,11 +58,33 @@ class EmailNotificationServiceTest extends IntegrationAbstractTest {
 
         notificationRepositoryMock = Mockito.mock(NotificationRepository.class);
 
-        emailNotificationService = new EmailNotificationService(javaMailSenderMock, notificationRepositoryMock);
+        ConfigProperties dispatcherProperties = Mockito.mock(ConfigProperties.class);
+        Mockito.when(dispatcherProperties.getEmailDispatcherWorkers()).thenReturn(1);
+        Mockito.when(dispatcherProperties.getEmailDispatcherQueueCapacity()).thenReturn(10);
+        Mockito.when(dispatcherProperties.getEmailDispatcherBatchSize()).thenReturn(10);
+        Mockito.when(dispatcherProperties.getEmailNotificationCacheMaxEntries()).thenReturn(10);
+        Mockito.when(dispatcherProperties.getEmailNotificationWriteBatchSize()).thenReturn(10);
+        Mockito.when(dispatcherProperties.getEmailRateLimitBackoffBaseMillis()).thenReturn(10L);
+        Mockito.when(dispatcherProperties.getEmailRateLimitBackoffMaxMillis()).thenReturn(100L);
+        Mockito.when(dispatcherProperties.getEmailRateLimitMaxDeferrals()).thenReturn(1);
+        Mockito.when(dispatcherProperties.getEmailOutboxSendTimeoutMillis()).thenReturn(5000L);
+        EmailDispatcher emailDispatcher = new EmailDispatcher(javaMailSenderMock,
+                                                              dispatcherProperties,
+                                                              new SimpleMeterRegistry());
+        emailDispatcher.start();
+
+        notificationTracker = new NotificationTracker(notificationRepositoryMock,
+                                                      dispatcherProperties,
+                                                      new SimpleMeterRegistry());
+
+        emailNotificationService = new EmailNotificationService(javaMailSenderMock,
+                                                                notificationTracker,
+                                                                emailDispatcher,
+                                                                dispatcherProperties);
 
         String logoName = "logotest.png";
-        Resource logo = Mockito.mock(Resource.class);
-        Mockito.when(logo.getFilename()).thenReturn(logoName);
+        ByteArrayDataSource logo = new ByteArrayDataSource(new byte[0], "image/png");
+        logo.setName(logoName);
 
         emailParams = EmailParams.builder()
                 .mailFrom("test@test.test")
@@ -65,14 +97,14 @@ class EmailNotificationServiceTest extends IntegrationAbstractTest {
                 .failureMessage("test")
                 .build();
 
-        argument = ArgumentCaptor.forClass(NotificationEntity.class);
+        argument = ArgumentCaptor.forClass(List.class);
     }
 
     @Test
     void EmailNotificationService_sendSyncMessage_NoNotificationTracking_Ok() throws MessagingException {
         emailNotificationService.sendSyncMessage(emailParams);
         Mockito.verify(javaMailSenderMock, Mockito.times(1)).send(expectedMimeMessage);
-        Mockito.verify(notificationRepositoryMock, Mockito.times(0)).save(argument.capture());
+        Mockito.verify(notificationRepositoryMock, Mockito.times(0)).bulkUpsert(argument.capture());
     }
 
     @Test
@@ -83,16 +115,17 @@ class EmailNotificationServiceTest extends IntegrationAbstractTest {
             emailNotificationService.sendSyncMessage(emailParams);
         });
         Mockito.verify(javaMailSenderMock, Mockito.times(1)).send(expectedMimeMessage);
-        Mockito.verify(notificationRepositoryMock, Mockito.times(0)).save(argument.capture());
+        Mockito.verify(notificationRepositoryMock, Mockito.times(0)).bulkUpsert(argument.capture());
     }
 
     @Test
-    void EmailNotificationService_sendAsyncMessage_TrackNotification_Ok() {
+    void EmailNotificationService_sendAsyncMessage_TrackNotification_Ok() throws Exception {
         String notificationTrackingKey = "a-tracking-key-async-1";
-        emailNotificationService.sendAsyncMessage(emailParams, notificationTrackingKey);
-        Mockito.verify(javaMailSenderMock, Mockito.timeout(5000).times(1)).send(expectedMimeMessage);
-        Mockito.verify(notificationRepositoryMock, Mockito.timeout(5000).times(1)).save(argument.capture());
-        Assertions.assertEquals(notificationTrackingKey, argument.getValue().getKey());
+        emailNotificationService.sendAsyncMessage(emailParams, notificationTrackingKey).get(5, TimeUnit.SECONDS);
+        notificationTracker.flush();
+        Mockito.verify(javaMailSenderMock, Mockito.times(1)).send(expectedMimeMessage);
+        Mockito.verify(notificationRepositoryMock, Mockito.times(1)).bulkUpsert(argument.capture());
+        Assertions.assertEquals(notificationTrackingKey, argument.getValue().get(0).getKey());
     }
 
     @Test
@@ -100,11 +133,34 @@ class EmailNotificationServiceTest extends IntegrationAbstractTest {
         String notificationTrackingKey = "a-tracking-key-async-2";
         String anErrorMessage = "An error";
         Mockito.doThrow(new RuntimeException(anErrorMessage)).when(javaMailSenderMock).send(expectedMimeMessage);
-        emailNotificationService.sendAsyncMessage(emailParams, notificationTrackingKey);
-        Mockito.verify(javaMailSenderMock, Mockito.timeout(5000).times(1)).send(expectedMimeMessage);
-        Mockito.verify(notificationRepositoryMock, Mockito.timeout(5000).times(1)).save(argument.capture());
-        Assertions.assertEquals(notificationTrackingKey, argument.getValue().getKey());
-        Assertions.assertEquals(anErrorMessage, argument.getValue().getErrorMessage());
+        var future = emailNotificationService.sendAsyncMessage(emailParams, notificationTrackingKey);
+        Assertions.assertThrows(Exception.class, () -> future.get(5, TimeUnit.SECONDS));
+        notificationTracker.flush();
+        Mockito.verify(javaMailSenderMock, Mockito.times(1)).send(expectedMimeMessage);
+        Mockito.verify(notificationRepositoryMock, Mockito.times(1)).bulkUpsert(argument.capture());
+        Assertions.assertEquals(notificationTrackingKey, argument.getValue().get(0).getKey());
+        Assertions.assertEquals(anErrorMessage, argument.getValue().get(0).getErrorMessage());
+    }
+
+    @Test
+    void EmailNotificationService_sendAsyncMessage_InvalidMessage_FutureFailed() {
+        String notificationTrackingKey = "a-tracking-key-async-3";
+        var invalidEmailParams = EmailParams.builder()
+                .mailFrom("test@test.test")
+                .logoName(emailParams.getLogoName())
+                .logo(emailParams.getLogo())
+                .mailToList(List.of("invalid address>"))
+                .replyToOpt(Optional.empty())
+                .subject("test")
+                .body("test")
+                .failureMessage("test")
+                .build();
+        var future = emailNotificationService.sendAsyncMessage(invalidEmailParams, notificationTrackingKey);
+        Assertions.assertTrue(future.isCompletedExceptionally());
+        notificationTracker.flush();
+        Mockito.verify(javaMailSenderMock, Mockito.times(0)).send(expectedMimeMessage);
+        Mockito.verify(notificationRepositoryMock, Mockito.times(1)).bulkUpsert(argument.capture());
+        Assertions.assertNotNull(argument.getValue().get(0).getErrorMessage());
     }
 
     @Test
@@ -112,8 +168,8 @@ class EmailNotificationServiceTest extends IntegrationAbstractTest {
         String notificationTrackingKey = "a-tracking-key-1";
         emailNotificationService.sendSyncMessage(emailParams, notificationTrackingKey);
         Mockito.verify(javaMailSenderMock, Mockito.times(1)).send(expectedMimeMessage);
-        Mockito.verify(notificationRepositoryMock, Mockito.times(1)).save(argument.capture());
-        Assertions.assertEquals(notificationTrackingKey, argument.getValue().getKey());
+        Mockito.verify(notificationRepositoryMock, Mockito.times(1)).bulkUpsert(argument.capture());
+        Assertions.assertEquals(notificationTrackingKey, argument.getValue().get(0).getKey());
     }
 
     @Test
@@ -125,9 +181,27 @@ class EmailNotificationServiceTest extends IntegrationAbstractTest {
             emailNotificationService.sendSyncMessage(emailParams, notificationTrackingKey);
         });
         Mockito.verify(javaMailSenderMock, Mockito.times(1)).send(expectedMimeMessage);
-        Mockito.verify(notificationRepositoryMock, Mockito.times(1)).save(argument.capture());
-        Assertions.assertEquals(notificationTrackingKey, argument.getValue().getKey());
-        Assertions.assertEquals(anErrorMessage, argument.getValue().getErrorMessage());
+        Mockito.verify(notificationRepositoryMock, Mockito.times(1)).bulkUpsert(argument.capture());
+        Assertions.assertEquals(notificationTrackingKey, argument.getValue().get(0).getKey());
+        Assertions.assertEquals(anErrorMessage, argument.getValue().get(0).getErrorMessage());
+    }
+
+    @Test
+    void EmailNotificationService_sendSyncMessage_DeferredByRelay_RetriedAndSent() throws MessagingException {
+        String notificationTrackingKey = "a-tracking-key-5";
+        Map<Object, Exception> deferred = Map.of(expectedMimeMessage,
+                                                 new SMTPSendFailedException("DATA",
+                                                                            451,
+                                                                            "451 Too many messages, try later",
+                                                                            null,
+                                                                            null,
+                                                                            null,
+                                                                            null));
+        Mockito.doThrow(new MailSendException(deferred)).doNothing().when(javaMailSenderMock).send(expectedMimeMessage);
+        emailNotificationService.sendSyncMessage(emailParams, notificationTrackingKey);
+        Mockito.verify(javaMailSenderMock, Mockito.times(2)).send(expectedMimeMessage);
+        Mockito.verify(notificationRepositoryMock, Mockito.times(1)).bulkUpsert(argument.capture());
+        Assertions.assertNull(argument.getValue().get(0).getErrorMessage());
     }
 
     @Test
@@ -136,7 +210,7 @@ class EmailNotificationServiceTest extends IntegrationAbstractTest {
         Mockito.doReturn(new NotificationEntity(notificationTrackingKey)).when(notificationRepositoryMock).findByKey(notificationTrackingKey);
         emailNotificationService.sendSyncMessage(emailParams, notificationTrackingKey);
         Mockito.verify(javaMailSenderMock, Mockito.times(0)).send(expectedMimeMessage);
-        Mockito.verify(notificationRepositoryMock, Mockito.times(0)).save(argument.capture());
+        Mockito.verify(notificationRepositoryMock, Mockito.times(0)).bulkUpsert(argument.capture());
     }
 
     @Test
@@ -150,11 +224,11 @@ class EmailNotificationServiceTest extends IntegrationAbstractTest {
         Mockito.doReturn(notificationToRetry).when(notificationRepositoryMock).findByKey(notificationTrackingKey);
         emailNotificationService.sendSyncMessage(emailParams, notificationTrackingKey);
         Mockito.verify(javaMailSenderMock, Mockito.times(1)).send(expectedMimeMessage);
-        Mockito.verify(notificationRepositoryMock, Mockito.times(1)).save(argument.capture());
+        Mockito.verify(notificationRepositoryMock, Mockito.times(1)).bulkUpsert(argument.capture());
         // the new notification should have the same key, no error message and a sent_at greater than the one in error
-        Assertions.assertEquals(notificationTrackingKey, argument.getValue().getKey());
-        Assertions.assertNull(argument.getValue().getErrorMessage());
-        Assertions.assertNotEquals(errorAt, argument.getValue().getSentAt());
-        Assertions.assertTrue(errorAt.isBefore(argument.getValue().getSentAt()));
+        Assertions.assertEquals(notificationTrackingKey, argument.getValue().get(0).getKey());
+        Assertions.assertNull(argument.getValue().get(0).getErrorMessage());
+        Assertions.assertNotEquals(errorAt, argument.getValue().get(0).getSentAt());
+        Assertions.assertTrue(errorAt.isBefore(argument.getValue().get(0).getSentAt()));
     }
 }
@@ -0,0 +1,109 @@
+package it.gov.pagopa.cgn.portal.service;
+
+import it.gov.pagopa.cgn.portal.config.ConfigProperties;
+import it.gov.pagopa.cgn.portal.filestorage.DocumentStorage;
+import it.gov.pagopa.cgn.portal.repository.AgreementRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(SpringRunner.class)
+public class ImageVariantServiceTest {
+
+    private static final String IMAGE_URL = "profileimages/image-agreement.png";
+
+    private final DocumentStorage documentStorage = Mockito.mock(DocumentStorage.class);
+
+    private final AgreementRepository agreementRepository = Mockito.mock(AgreementRepository.class);
+
+    private final ConfigProperties configProperties = Mockito.mock(ConfigProperties.class);
+
+    private final Map<String, byte[]> storedImages = new HashMap<>();
+
+    private MeterRegistry meterRegistry;
+
+    private ImageVariantService imageVariantService;
+
+    @Before
+    public void init() throws IOException {
+        Mockito.when(configProperties.getImageVariantsJpegQuality()).thenReturn(0.8f);
+        Mockito.when(documentStorage.openImage("image-agreement.png"))
+               .thenAnswer(invocation -> getClass().getClassLoader().getResourceAsStream("test-image.png"));
+        Mockito.when(documentStorage.storeImage(ArgumentMatchers.anyString(),
+                                                ArgumentMatchers.any(InputStream.class),
+                                                ArgumentMatchers.anyLong())).thenAnswer(invocation -> {
+            String blobName = invocation.getArgument(0);
+            storedImages.put(blobName, ((InputStream) invocation.getArgument(1)).readAllBytes());
+            return "profileimages/" + blobName;
+        });
+        meterRegistry = new SimpleMeterRegistry();
+        imageVariantService = new ImageVariantService(documentStorage,
+                                                      agreementRepository,
+                                                      new ThreadPoolTaskExecutor(),
+                                                      configProperties,
+                                                      meterRegistry);
+    }
+
+    @Test
+    public void CreateImageVariants_PngImage_VariantsFitTheirBox() throws IOException {
+        imageVariantService.createImageVariants("agreement", IMAGE_URL);
+
+        // the test image is 960x720, smaller than the detail box: it is recompressed but not enlarged
+        assertSize("image-agreement-detail.png", 960, 720);
+        assertSize("image-agreement-card.png", 640, 480);
+        assertSize("image-agreement-thumbnail.png", 160, 120);
+        Mockito.verify(agreementRepository).updateImageVariants("agreement",
+                                                                IMAGE_URL,
+                                                                "profileimages/image-agreement-thumbnail.png",
+                                                                "profileimages/image-agreement-card.png",
+                                                                "profileimages/image-agreement-detail.png");
+    }
+
+    @Test
+    public void CreateImageVariants_MissingImage_VariantsAreNotRecorded() throws IOException {
+        Mockito.when(documentStorage.openImage("image-agreement.png")).thenThrow(new IOException("not found"));
+
+        imageVariantService.createImageVariants("agreement", IMAGE_URL);
+
+        Assert.assertTrue(storedImages.isEmpty());
+        Mockito.verify(agreementRepository, Mockito.never())
+               .updateImageVariants(ArgumentMatchers.anyString(),
+                                    ArgumentMatchers.anyString(),
+                                    ArgumentMatchers.anyString(),
+                                    ArgumentMatchers.anyString(),
+                                    ArgumentMatchers.anyString());
+        Assert.assertEquals(1.0, meterRegistry.get("cgn.image.variants.failed").counter().count(), 0);
+    }
+
+    @Test
+    public void Resize_LargeImage_FitsBoxKeepingAspectRatio() {
+        BufferedImage resized = ImageVariantService.resize(new BufferedImage(4000, 1000, BufferedImage.TYPE_INT_RGB),
+                                                           640,
+                                                           480,
+                                                           false);
+        Assert.assertEquals(640, resized.getWidth());
+        Assert.assertEquals(160, resized.getHeight());
+    }
+
+    private void assertSize(String blobName, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(storedImages.get(blobName)));
+        Assert.assertEquals(width, image.getWidth());
+        Assert.assertEquals(height, image.getHeight());
+    }
+
+}
@@ -6,19 +6,25 @@ import ch.qos.logback.classic.LoggerContext;
 import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
 import it.gov.pagopa.cgn.portal.LogMemoryAppender;
 import it.gov.pagopa.cgn.portal.TestUtils;
+import it.gov.pagopa.cgn.portal.email.TemplateEmail;
 import it.gov.pagopa.cgn.portal.enums.AgreementStateEnum;
+import it.gov.pagopa.cgn.portal.enums.BackofficeRequestSortColumnEnum;
 import it.gov.pagopa.cgn.portal.enums.DiscountCodeTypeEnum;
 import it.gov.pagopa.cgn.portal.enums.DiscountStateEnum;
 import it.gov.pagopa.cgn.portal.enums.SalesChannelEnum;
 import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
+import it.gov.pagopa.cgn.portal.facade.BackofficeAgreementFacade;
 import it.gov.pagopa.cgn.portal.filter.BackofficeFilter;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
 import it.gov.pagopa.cgn.portal.model.DiscountEntity;
 import it.gov.pagopa.cgn.portal.model.ProfileEntity;
+import it.gov.pagopa.cgn.portal.repository.BackofficePage;
 import it.gov.pagopa.cgn.portal.service.BackofficeAgreementService;
 import it.gov.pagopa.cgn.portal.util.CGNUtils;
 import it.gov.pagopa.cgnonboardingportal.backoffice.model.AgreementState;
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -29,7 +35,10 @@ import org.springframework.data.domain.Page;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.util.CollectionUtils;
 
+import javax.persistence.EntityManagerFactory;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 
 @SpringBootTest
 @ActiveProfiles({"dev"})
@@ -38,6 +47,12 @@ class BackofficeAgreementServiceTest extends IntegrationAbstractTest {
     @Autowired
     private BackofficeAgreementService backofficeAgreementService;
 
+    @Autowired
+    private BackofficeAgreementFacade backofficeAgreementFacade;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
     @BeforeEach
     void beforeEach() {
         setAdminAuth();
@@ -85,6 +100,15 @@ class BackofficeAgreementServiceTest extends IntegrationAbstractTest {
         Assertions.assertEquals(pendingAgreement.getId(), page.getContent().get(0).getId());
     }
 
+    @Test
+    void GetAgreement_GetAgreementWithLikeWildcardFilter_AgreementNotFound() {
+        createPendingAgreement();
+        BackofficeFilter filter = BackofficeFilter.builder().profileFullName("%").build();
+        Page<AgreementEntity> page = backofficeAgreementService.getAgreements(filter);
+        Assertions.assertEquals(0L, page.getTotalElements());
+        Assertions.assertTrue(page.getContent().isEmpty());
+    }
+
     @Test
     void GetAgreement_GetAgreementWithRequestDateFromFilter_AgreementFound() {
         AgreementEntity pendingAgreement = createPendingAgreement().getAgreementEntity();
@@ -154,6 +178,66 @@ class BackofficeAgreementServiceTest extends IntegrationAbstractTest {
 
     }
 
+    @Test
+    void GetAgreements_GetPagesOfDifferentSize_SameQueryCount() {
+        createMultiplePendingAgreement(5);
+        BackofficeFilter singleAgreementFilter = BackofficeFilter.builder().page(0).pageSize(1).build();
+        BackofficeFilter fiveAgreementsFilter = BackofficeFilter.builder().page(0).pageSize(5).build();
+
+        long singleAgreementQueries = countQueries(() -> Assertions.assertEquals(1,
+                backofficeAgreementFacade.getAgreements(singleAgreementFilter).getBody().getItems().size()));
+        long fiveAgreementsQueries = countQueries(() -> Assertions.assertEquals(5,
+                backofficeAgreementFacade.getAgreements(fiveAgreementsFilter).getBody().getItems().size()));
+
+        Assertions.assertEquals(singleAgreementQueries, fiveAgreementsQueries);
+    }
+
+
+    @Test
+    void GetAgreements_FollowContinuationTokenOfDefaultOrder_AllAgreementsReadOnce() {
+        List<AgreementTestObject> agreements = createMultiplePendingAgreement(5);
+        backofficeAgreementService.assignAgreement(agreements.get(1).getAgreementEntity().getId());
+        backofficeAgreementService.assignAgreement(agreements.get(3).getAgreementEntity().getId());
+
+        Assertions.assertEquals(getAgreementIds(BackofficeFilter.builder().page(0).pageSize(5).build()),
+                                followContinuationToken(null));
+    }
+
+    @Test
+    void GetAgreements_FollowContinuationTokenOfStateOrder_AllAgreementsReadOnce() {
+        List<AgreementTestObject> agreements = createMultiplePendingAgreement(5);
+        backofficeAgreementService.assignAgreement(agreements.get(2).getAgreementEntity().getId());
+
+        BackofficeFilter filter = BackofficeFilter.builder()
+                                                  .page(0)
+                                                  .pageSize(5)
+                                                  .requestSortColumnEnum(BackofficeRequestSortColumnEnum.STATE)
+                                                  .build();
+        Assertions.assertEquals(getAgreementIds(filter),
+                                followContinuationToken(BackofficeRequestSortColumnEnum.STATE));
+    }
+
+    private List<String> getAgreementIds(BackofficeFilter filter) {
+        return backofficeAgreementService.getAgreements(filter).map(AgreementEntity::getId).getContent();
+    }
+
+    private List<String> followContinuationToken(BackofficeRequestSortColumnEnum sortColumn) {
+        List<String> readIds = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            BackofficeFilter filter = BackofficeFilter.builder()
+                                                      .page(0)
+                                                      .pageSize(2)
+                                                      .requestSortColumnEnum(sortColumn)
+                                                      .continuationToken(continuationToken)
+                                                      .skipCount(true)
+                                                      .build();
+            BackofficePage<AgreementEntity> page = backofficeAgreementService.getAgreements(filter);
+            page.forEach(agreement -> readIds.add(agreement.getId()));
+            continuationToken = page.getContinuationToken();
+        } while (continuationToken != null);
+        return readIds;
+    }
 
     @Test
     void AssignAgreement_AssignAgreement_Ok() {
@@ -361,6 +445,20 @@ class BackofficeAgreementServiceTest extends IntegrationAbstractTest {
         Assertions.assertEquals(reasonMsg, rejectAgreement.getRejectReasonMessage());
     }
 
+    @Test
+    void RejectAgreement_RejectAgreement_NotificationWrittenToOutbox() {
+        AgreementTestObject testObject = createPendingAgreement();
+        notificationOutboxRepository.deleteAllInBatch();
+        backofficeAgreementService.rejectAgreement(testObject.getAgreementEntity().getId(), "Reason");
+
+        var notifications = notificationOutboxRepository.findAll();
+        Assertions.assertEquals(1, notifications.size());
+        Assertions.assertEquals(TemplateEmail.REJECTED_AGREEMENT.name(), notifications.get(0).getTemplate());
+        Assertions.assertEquals(testObject.getProfileEntity().getReferent().getEmailAddress(),
+                                notifications.get(0).getMailTo());
+        Assertions.assertTrue(notifications.get(0).getTemplateVariables().contains("Reason"));
+    }
+
     @Test
     void RejectAgreement_RejectAgreementWithDraftStatus_ThrowException() {
         // creating agreement (and user)
@@ -412,4 +510,18 @@ class BackofficeAgreementServiceTest extends IntegrationAbstractTest {
         Assertions.assertEquals(DiscountStateEnum.DRAFT, discountEntity.getState());
         Assertions.assertNull(discountEntity.getSuspendedReasonMessage());
     }
+
+    private long countQueries(Runnable runnable) {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try {
+            backofficeListCache.invalidateAll();
+            statistics.clear();
+            runnable.run();
+            return statistics.getPrepareStatementCount();
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
 }
@@ -2,26 +2,46 @@ package it.gov.pagopa.cgn.portal.service.backoffice;
 
 import it.gov.pagopa.cgn.portal.IntegrationAbstractTest;
 import it.gov.pagopa.cgn.portal.TestUtils;
+import it.gov.pagopa.cgn.portal.enums.BackofficeApprovedSortColumnEnum;
 import it.gov.pagopa.cgn.portal.enums.DiscountStateEnum;
+import it.gov.pagopa.cgn.portal.exception.InvalidRequestException;
+import it.gov.pagopa.cgn.portal.facade.BackofficeAgreementFacade;
 import it.gov.pagopa.cgn.portal.filter.BackofficeFilter;
 import it.gov.pagopa.cgn.portal.model.AgreementEntity;
 import it.gov.pagopa.cgn.portal.model.ApprovedAgreementEntity;
 import it.gov.pagopa.cgn.portal.model.DiscountEntity;
+import it.gov.pagopa.cgn.portal.repository.BackofficePage;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.Page;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @SpringBootTest
 @ActiveProfiles({"dev"})
 class BackofficeApprovedAgreementServiceTest extends IntegrationAbstractTest {
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private BackofficeAgreementFacade backofficeAgreementFacade;
+
     @BeforeEach
     void beforeEach() {
         setAdminAuth();
@@ -85,6 +105,129 @@ class BackofficeApprovedAgreementServiceTest extends IntegrationAbstractTest {
         Assertions.assertEquals(0, page.getTotalPages());
     }
 
+    @Test
+    void GetApprovedAgreements_PublishAndSuspendDiscount_PublishedDiscountsUpdated() {
+        AgreementTestObject agreementTestObject = createApprovedAgreement();
+        String agreementId = agreementTestObject.getAgreementEntity().getId();
+        Long discountId = agreementTestObject.getDiscountEntityList().get(0).getId();
+        BackofficeFilter filter = BackofficeFilter.builder().build();
+
+        discountService.publishDiscount(agreementId, discountId);
+        Assertions.assertEquals(1L,
+                                approvedAgreementService.getApprovedAgreements(filter)
+                                                        .getContent()
+                                                        .get(0)
+                                                        .getPublishedDiscounts());
+
+        discountService.suspendDiscount(agreementId, discountId, "Bad discount");
+        Assertions.assertEquals(0L,
+                                approvedAgreementService.getApprovedAgreements(filter)
+                                                        .getContent()
+                                                        .get(0)
+                                                        .getPublishedDiscounts());
+    }
+
+    @Test
+    void GetApprovedAgreements_PublishAndUnpublishDiscountWhileCached_CachedListInvalidated() {
+        AgreementTestObject agreementTestObject = createApprovedAgreement();
+        String agreementId = agreementTestObject.getAgreementEntity().getId();
+        Long discountId = agreementTestObject.getDiscountEntityList().get(0).getId();
+        BackofficeFilter filter = BackofficeFilter.builder().build();
+        Assertions.assertEquals(0L, getCachedPublishedDiscounts(filter));
+
+        discountService.publishDiscount(agreementId, discountId);
+        Assertions.assertEquals(1L, getCachedPublishedDiscounts(filter));
+
+        discountService.unpublishDiscount(agreementId, discountId);
+        Assertions.assertEquals(0L, getCachedPublishedDiscounts(filter));
+    }
+
+    @Test
+    void GetApprovedAgreements_DiscountsPublishedConcurrently_PublishedDiscountsCountBoth() throws Exception {
+        AgreementTestObject agreementTestObject = createApprovedAgreement(1, false);
+        String agreementId = agreementTestObject.getAgreementEntity().getId();
+        Long firstDiscountId = agreementTestObject.getDiscountEntityList().get(0).getId();
+        Long secondDiscountId = agreementTestObject.getDiscountEntityList().get(1).getId();
+        CountDownLatch firstPublished = new CountDownLatch(1);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // the first transaction holds the agreement lock until the second one is recounting
+            Future<?> first = executor.submit(() -> new TransactionTemplate(transactionManager).executeWithoutResult(
+                    status -> {
+                        discountService.publishDiscount(agreementId, firstDiscountId);
+                        firstPublished.countDown();
+                        try {
+                            Assertions.assertTrue(secondStarted.await(10, TimeUnit.SECONDS));
+                            Thread.sleep(500);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }));
+            Assertions.assertTrue(firstPublished.await(10, TimeUnit.SECONDS));
+            Future<?> second = executor.submit(() -> {
+                secondStarted.countDown();
+                discountService.publishDiscount(agreementId, secondDiscountId);
+            });
+            first.get(30, TimeUnit.SECONDS);
+            second.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assertions.assertEquals(2L,
+                                approvedAgreementService.getApprovedAgreements(BackofficeFilter.builder().build())
+                                                        .getContent()
+                                                        .get(0)
+                                                        .getPublishedDiscounts());
+    }
+
+    @Test
+    void GetApprovedAgreements_FollowContinuationToken_AllAgreementsReadOnce() {
+        createMultipleApprovedAgreement(5);
+        List<String> expectedIds = approvedAgreementService.getApprovedAgreements(BackofficeFilter.builder()
+                                                                                                  .page(0)
+                                                                                                  .pageSize(5)
+                                                                                                  .build())
+                                                           .map(ApprovedAgreementEntity::getId)
+                                                           .getContent();
+
+        List<String> readIds = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            BackofficeFilter filter = BackofficeFilter.builder()
+                                                      .page(0)
+                                                      .pageSize(2)
+                                                      .continuationToken(continuationToken)
+                                                      .skipCount(true)
+                                                      .build();
+            BackofficePage<ApprovedAgreementEntity> page = approvedAgreementService.getApprovedAgreements(filter);
+            Assertions.assertFalse(page.isTotalCounted());
+            page.forEach(agreement -> readIds.add(agreement.getId()));
+            continuationToken = page.getContinuationToken();
+        } while (continuationToken != null);
+
+        Assertions.assertEquals(expectedIds, readIds);
+    }
+
+    @Test
+    void GetApprovedAgreements_ContinuationTokenOfAnotherSort_ThrowException() {
+        createMultipleApprovedAgreement(2);
+        BackofficePage<ApprovedAgreementEntity> page =
+                approvedAgreementService.getApprovedAgreements(BackofficeFilter.builder().pageSize(1).build());
+        Assertions.assertNotNull(page.getContinuationToken());
+        Assertions.assertTrue(page.isTotalCounted());
+        Assertions.assertEquals(2L, page.getTotalElements());
+
+        BackofficeFilter filter = BackofficeFilter.builder()
+                                                  .pageSize(1)
+                                                  .approvedSortColumnEnum(BackofficeApprovedSortColumnEnum.OPERATOR)
+                                                  .continuationToken(page.getContinuationToken())
+                                                  .build();
+        Assertions.assertThrows(InvalidRequestException.class,
+                                () -> approvedAgreementService.getApprovedAgreements(filter));
+    }
+
     @Test
     void GetApprovedAgreementDetail_GetApprovedAgreementDetail_AgreementDetailFound() {
         AgreementTestObject agreementTestObject = createApprovedAgreement();
@@ -138,4 +281,12 @@ class BackofficeApprovedAgreementServiceTest extends IntegrationAbstractTest {
         Assertions.assertFalse(CollectionUtils.isEmpty(approvedAgreement.getDocumentList()));
     }
 
+    private long getCachedPublishedDiscounts(BackofficeFilter filter) {
+        return backofficeAgreementFacade.getApprovedAgreements(filter)
+                                        .getBody()
+                                        .getItems()
+                                        .get(0)
+                                        .getPublishedDiscounts();
+    }
+
 }